@@ -4,10 +4,23 @@ import java.util.Collections;
 
 import com.google.api.client.json.gson.GsonFactory;
 import com.zylitics.wzgp.web.*;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.GceClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.lease.LocalClaimCoordinator;
+import com.zylitics.wzgp.resource.search.CandidatePageSizer;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.services.compute.Compute;
@@ -16,6 +29,7 @@ import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
 
 @SpringBootApplication
+@EnableScheduling
 public class Launcher {
   
   public static void main(String[] args) {
@@ -38,27 +52,84 @@ public class Launcher {
         .build();
   }
   
+  /**
+   * Bounded executor that handlers run their requests to compute api on, so that servlet threads
+   * aren't held for the duration of grid provisioning. A request arriving when the queue is full is
+   * rejected rather than waiting.
+   */
+  @Bean
+  public ThreadPoolTaskExecutor provisioningExecutor(
+      @Value("${provisioning-executor.core-pool-size}") int corePoolSize,
+      @Value("${provisioning-executor.max-pool-size}") int maxPoolSize,
+      @Value("${provisioning-executor.queue-capacity}") int queueCapacity) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(corePoolSize);
+    executor.setMaxPoolSize(maxPoolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("wzgp-provisioning-");
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    executor.setAwaitTerminationSeconds(30);
+    return executor;
+  }
+  
+  @Bean
+  public ClaimCoordinator claimCoordinator(
+      @Value("${claim-coordinator}") ClaimCoordinator.Type type
+      , LeaseRegistry leases
+      , ComputeService computeSrv
+      , FingerprintBasedUpdater fingerprintBasedUpdater) {
+    return type == ClaimCoordinator.Type.GCE
+        ? new GceClaimCoordinator(leases, computeSrv)
+        : new LocalClaimCoordinator(leases, fingerprintBasedUpdater);
+  }
+  
   @Bean
   @Profile({"production", "e2e"})
-  public GridGenerateHandler.Factory gridGenerateHandlerFactory() {
-    return new GridGenerateHandlerImpl.Factory();
+  public GridGenerateHandler.Factory gridGenerateHandlerFactory(ProvisioningMetrics metrics
+      , LeaseRegistry leases
+      , BootDiskPool bootDiskPool
+      , InstanceTemplateCache instanceTemplateCache) {
+    return new GridGenerateHandlerImpl.Factory(metrics, leases, bootDiskPool
+        , instanceTemplateCache);
   }
   
   @Bean
   @Profile({"production", "e2e"})
-  public GridGetRunningHandler.Factory gridGetRunningHandlerFactory() {
-    return new GridGetRunningHandlerImpl.Factory();
+  public GridGetRunningHandler.Factory gridGetRunningHandlerFactory(ProvisioningMetrics metrics
+      , CandidatePageSizer pageSizer
+      , @Value("${get-running-claim-mode}") GridGetRunningHandlerImpl.ClaimMode claimMode
+      , LeaseRegistry leases
+      , ClaimCoordinator claimCoordinator) {
+    return new GridGetRunningHandlerImpl.Factory(metrics, pageSizer, claimMode, leases
+        , claimCoordinator);
+  }
+  
+  @Bean
+  public GridResumeHandler.Factory gridResumeHandlerFactory(ProvisioningMetrics metrics
+      , LeaseRegistry leases
+      , ClaimCoordinator claimCoordinator
+      , DeletionQueue deletionQueue) {
+    return new GridResumeHandlerImpl.Factory(metrics, leases, claimCoordinator, deletionQueue);
+  }
+  
+  @Bean
+  public GridBatchHandler.Factory gridBatchHandlerFactory(
+      GridGetRunningHandler.Factory gridGetRunningHandlerFactory
+      , GridGenerateHandler.Factory gridGenerateHandlerFactory) {
+    return new GridBatchHandlerImpl.Factory(gridGetRunningHandlerFactory
+        , gridGenerateHandlerFactory);
   }
   
   @Bean
   @Profile({"production", "e2e"})
-  public GridStartHandler.Factory gridStartHandlerFactory() {
-    return new GridStartHandlerImpl.Factory();
+  public GridStartHandler.Factory gridStartHandlerFactory(ProvisioningMetrics metrics) {
+    return new GridStartHandlerImpl.Factory(metrics);
   }
   
   @Bean
   @Profile({"production", "e2e"})
-  public GridDeleteHandler.Factory gridDeleteHandlerFactory() {
-    return new GridDeleteHandlerImpl.Factory();
+  public GridDeleteHandler.Factory gridDeleteHandlerFactory(LeaseRegistry leases
+      , DeletionQueue deletionQueue) {
+    return new GridDeleteHandlerImpl.Factory(leases, deletionQueue);
   }
 }
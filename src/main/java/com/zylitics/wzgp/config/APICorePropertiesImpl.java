@@ -1,5 +1,6 @@
 package com.zylitics.wzgp.config;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,6 +15,7 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.zylitics.wzgp.resource.APICoreProperties;
@@ -58,6 +60,9 @@ public class APICorePropertiesImpl implements APICoreProperties {
   @NotEmpty
   private Set<String> gceReattemptZones;
   
+  @Min(5000)
+  private Long hedgedCreateDelayMillis;
+  
   // Instantiating here so that a setter isn't required.
   @Valid
   private final GridDefaults gridDefaults = new GridDefaults();
@@ -128,6 +133,17 @@ public class APICorePropertiesImpl implements APICoreProperties {
     }
   }
 
+  @Override
+  public long getHedgedCreateDelayMillis() {
+    return hedgedCreateDelayMillis;
+  }
+  
+  public void setHedgedCreateDelayMillis(long hedgedCreateDelayMillis) {
+    if (this.hedgedCreateDelayMillis == null) {
+      this.hedgedCreateDelayMillis = hedgedCreateDelayMillis;
+    }
+  }
+
   /**
    * Accessed by container to set GridDefaults's members.
    */
@@ -178,6 +194,15 @@ public class APICorePropertiesImpl implements APICoreProperties {
     @Max(500)
     private Integer maxInstanceInSearch;
     
+    @Valid
+    private List<WarmPools> warmPools;
+    
+    @Valid
+    private List<WarmPools> suspendedPools;
+    
+    @Valid
+    private List<WarmPools> bootDiskPools;
+    
     @Override
     public String getMachineType() {
       return machineType;
@@ -276,5 +301,91 @@ public class APICorePropertiesImpl implements APICoreProperties {
         this.maxInstanceInSearch = maxInstanceInSearch;
       }
     }
+  
+    @Override
+    public List<WarmPools> getWarmPools() {
+      // warm pools are optional.
+      return warmPools == null ? ImmutableList.of() : warmPools;
+    }
+  
+    public void setWarmPools(List<WarmPools> warmPools) {
+      if (this.warmPools == null) {
+        this.warmPools = ImmutableList.copyOf(warmPools);
+      }
+    }
+  
+    @Override
+    public List<WarmPools> getSuspendedPools() {
+      // suspended pools are optional.
+      return suspendedPools == null ? ImmutableList.of() : suspendedPools;
+    }
+  
+    public void setSuspendedPools(List<WarmPools> suspendedPools) {
+      if (this.suspendedPools == null) {
+        this.suspendedPools = ImmutableList.copyOf(suspendedPools);
+      }
+    }
+  
+    @Override
+    public List<WarmPools> getBootDiskPools() {
+      // boot disk pools are optional.
+      return bootDiskPools == null ? ImmutableList.of() : bootDiskPools;
+    }
+  
+    public void setBootDiskPools(List<WarmPools> bootDiskPools) {
+      if (this.bootDiskPools == null) {
+        this.bootDiskPools = ImmutableList.copyOf(bootDiskPools);
+      }
+    }
+  }
+  
+  /**
+   * <p><b>Should be accessed only through the interface {@link WarmPool}.</b></p>
+   * @author Praveen Tiwari
+   *
+   */
+  public static class WarmPools implements WarmPool {
+    @NotBlank
+    private String imageFamily;
+    
+    @NotBlank
+    private String zone;
+    
+    @Min(1)
+    @Max(50)
+    private Integer target;
+  
+    @Override
+    public String getImageFamily() {
+      return imageFamily;
+    }
+  
+    public void setImageFamily(String imageFamily) {
+      if (this.imageFamily == null) {
+        this.imageFamily = imageFamily;
+      }
+    }
+  
+    @Override
+    public String getZone() {
+      return zone;
+    }
+  
+    public void setZone(String zone) {
+      if (this.zone == null) {
+        this.zone = zone;
+      }
+    }
+  
+    @Override
+    public int getTarget() {
+      return target;
+    }
+  
+    public void setTarget(int target) {
+      if (this.target == null) {
+        this.target = target;
+      }
+    }
   }
 }
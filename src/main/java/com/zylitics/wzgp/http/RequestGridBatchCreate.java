@@ -0,0 +1,50 @@
+package com.zylitics.wzgp.http;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Parsed from a json request via {@link HttpMessageConverter} that use jackson.
+ * Asks for a number of grids that are all created using the same {@link RequestGridCreate}.
+ * @author Praveen Tiwari
+ *
+ */
+@Validated
+public class RequestGridBatchCreate {
+
+  @Min(1)
+  private int count;
+
+  @Valid
+  @NotNull
+  private RequestGridCreate grid;
+
+  public int getCount() {
+    return count;
+  }
+
+  public void setCount(int count) {
+    if (this.count == 0) {
+      this.count = count;
+    }
+  }
+
+  public RequestGridCreate getGrid() {
+    return grid;
+  }
+
+  public void setGrid(RequestGridCreate grid) {
+    if (this.grid == null) {
+      this.grid = grid;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RequestGridBatchCreate [count=" + count + ", grid=" + grid + "]";
+  }
+}
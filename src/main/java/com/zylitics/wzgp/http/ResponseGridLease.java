@@ -0,0 +1,41 @@
+package com.zylitics.wzgp.http;
+
+public class ResponseGridLease extends AbstractResponse {
+
+  private String gridName;
+  private String zone;
+  private String buildId;
+  private long expiresAt;
+
+  public String getGridName() {
+    return gridName;
+  }
+
+  public void setGridName(String gridName) {
+    this.gridName = gridName;
+  }
+
+  public String getZone() {
+    return zone;
+  }
+
+  public void setZone(String zone) {
+    this.zone = zone;
+  }
+
+  public String getBuildId() {
+    return buildId;
+  }
+
+  public void setBuildId(String buildId) {
+    this.buildId = buildId;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+}
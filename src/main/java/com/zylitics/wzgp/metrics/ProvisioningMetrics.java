@@ -0,0 +1,189 @@
+package com.zylitics.wzgp.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.ComputeRequest;
+import com.google.common.base.Strings;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Single place where meters of provisioning are named and tagged, so that dashboards can rely on
+ * them not drifting apart between call sites. All durations are in nanos as given by
+ * {@link System#nanoTime()} differences.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class ProvisioningMetrics {
+
+  public static final String OUTCOME_SUCCESS = "success";
+  public static final String OUTCOME_FAILURE = "failure";
+  public static final String OUTCOME_TIMEOUT = "timeout";
+
+  private static final String UNKNOWN = "unknown";
+
+  private static final String COMPUTE_CLASS_PREFIX = "com.google.api.services.compute.Compute$";
+
+  private final MeterRegistry registry;
+
+  // request class -> api name, classes are few and fixed.
+  private final Map<Class<?>, String> apiNames = new ConcurrentHashMap<>();
+
+  @Autowired
+  public ProvisioningMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Records a single attempt of a compute api call.
+   */
+  public void recordApiCall(ComputeRequest<?> request, String outcome, long nanos) {
+    Timer.builder("compute.api.calls")
+        .description("calls to compute api, per attempt")
+        .tag("api", apiName(request))
+        .tag("outcome", outcome)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts a re-attempt of a compute api call after a retryable failure.
+   */
+  public void recordApiRetry(ComputeRequest<?> request) {
+    Counter.builder("compute.api.retries")
+        .description("re-attempts of compute api calls")
+        .tag("api", apiName(request))
+        .register(registry)
+        .increment();
+  }
+
+  /**
+   * Records time spent waiting for an Operation to complete.
+   * @param zone zone of operation, null for global operations
+   * @param operationType type of operation such as insert, start, setLabels
+   */
+  public void recordOperationWait(@Nullable String zone
+      , @Nullable String operationType
+      , String outcome
+      , long nanos) {
+    Timer.builder("compute.operation.wait")
+        .description("time until an operation is DONE")
+        .tag("zone", zone != null ? zone : "global")
+        .tag("type", orUnknown(operationType))
+        .tag("outcome", outcome)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts a zonal re-attempt made in the given zone.
+   */
+  public void recordZonalReattempt(String zone, String outcome) {
+    Counter.builder("compute.zonal.reattempts")
+        .description("grid creations re-attempted in another zone")
+        .tag("zone", zone)
+        .tag("outcome", outcome)
+        .register(registry)
+        .increment();
+  }
+
+  /**
+   * Records a phase of a handler, such as search, lock, update or boot.
+   */
+  public void recordPhase(String handler, String phase, String zone, long nanos) {
+    Timer.builder("grid.handler.phase")
+        .description("time taken by a phase of grid handler")
+        .tag("handler", handler)
+        .tag("phase", phase)
+        .tag("zone", zone)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records end to end time of giving out a grid.
+   * @param imageFamily family of the image grid is from, null if not known
+   */
+  public void recordProvisioning(String handler
+      , String zone
+      , @Nullable String imageFamily
+      , String outcome
+      , long nanos) {
+    Timer.builder("grid.provisioning")
+        .description("time taken to give out a grid")
+        .tag("handler", handler)
+        .tag("zone", zone)
+        .tag("image_family", orUnknown(imageFamily))
+        .tag("outcome", outcome)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts an attempt of deleting a grid in background.
+   */
+  public void recordDeletion(String zone, String outcome) {
+    Counter.builder("grid.deletions")
+        .description("attempts of deleting grids in background")
+        .tag("zone", zone)
+        .tag("outcome", outcome)
+        .register(registry)
+        .increment();
+  }
+
+  /**
+   * Gauges grids being deleted in background.
+   * @param pending gives count of deletions not yet confirmed
+   * @param stuck gives count of deletions not confirmed for longer than expected
+   */
+  public void gaugeDeletions(Supplier<Number> pending, Supplier<Number> stuck) {
+    Gauge.builder("grid.deletions.pending", pending, s -> s.get().doubleValue())
+        .description("grid deletions not yet confirmed")
+        .strongReference(true)
+        .register(registry);
+    Gauge.builder("grid.deletions.stuck", stuck, s -> s.get().doubleValue())
+        .description("grid deletions not confirmed for longer than expected")
+        .strongReference(true)
+        .register(registry);
+  }
+
+  /**
+   * Converts class of request to api name, such as Compute$ZoneOperations$Get to
+   * zoneOperations.get.
+   * Classes that extend a request class, like mocks, get name of the request class.
+   */
+  private String apiName(ComputeRequest<?> request) {
+    return apiNames.computeIfAbsent(request.getClass(), cls -> {
+      for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+        // generated subclasses may share the name prefix but aren't nested in Compute.
+        if (c.getName().startsWith(COMPUTE_CLASS_PREFIX) && c.getEnclosingClass() != null) {
+          return Arrays.stream(c.getName().substring(COMPUTE_CLASS_PREFIX.length()).split("\\$"))
+              .map(part -> Character.toLowerCase(part.charAt(0)) + part.substring(1))
+              .collect(Collectors.joining("."));
+        }
+      }
+      return cls.getSimpleName();
+    });
+  }
+
+  private String orUnknown(@Nullable String value) {
+    return Strings.isNullOrEmpty(value) ? UNKNOWN : value;
+  }
+}
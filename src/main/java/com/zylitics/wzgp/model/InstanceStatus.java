@@ -4,4 +4,5 @@ public enum InstanceStatus {
   
   TERMINATED,
   RUNNING,
+  SUSPENDED,
 }
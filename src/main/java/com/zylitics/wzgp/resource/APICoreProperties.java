@@ -1,5 +1,6 @@
 package com.zylitics.wzgp.resource;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,6 +23,12 @@ public interface APICoreProperties {
   
   Set<String> getGceReattemptZones();
   
+  /**
+   * @return time a hedged grid create waits for the first insert before firing another one in an
+   *         alternate zone.
+   */
+  long getHedgedCreateDelayMillis();
+  
   GridDefault getGridDefault();
   
   interface GridDefault {
@@ -43,5 +50,34 @@ public interface APICoreProperties {
     Map<String, String> getImageSearchParams();
     
     int getMaxInstanceInSearch();
+    
+    /**
+     * @return pools of unlocked running grids that should be kept ready per image family and zone,
+     *         empty if no pool is configured.
+     */
+    List<? extends WarmPool> getWarmPools();
+    
+    /**
+     * @return pools of unlocked grids that should be kept booted and then suspended per image
+     *         family and zone, so that a request could be served by resuming one. Empty if no
+     *         pool is configured.
+     */
+    List<? extends WarmPool> getSuspendedPools();
+    
+    /**
+     * @return pools of boot disks that should be kept restored from the latest image per image
+     *         family and zone, so that new grids attach one rather than restoring their disk.
+     *         Empty if no pool is configured.
+     */
+    List<? extends WarmPool> getBootDiskPools();
+  }
+  
+  interface WarmPool {
+    
+    String getImageFamily();
+    
+    String getZone();
+    
+    int getTarget();
   }
 }
@@ -1,5 +1,6 @@
 package com.zylitics.wzgp.resource.compute;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
 
@@ -14,10 +15,13 @@ import com.google.api.services.compute.Compute.Images;
 import com.google.api.services.compute.Compute.Instances;
 import com.google.api.services.compute.ComputeScopes;
 import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.DiskList;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.ImageList;
 import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceAggregatedList;
 import com.google.api.services.compute.model.InstanceList;
+import com.google.api.services.compute.model.InstanceTemplate;
 import com.google.api.services.compute.model.InstancesSetLabelsRequest;
 import com.google.api.services.compute.model.InstancesSetMachineTypeRequest;
 import com.google.api.services.compute.model.InstancesSetServiceAccountRequest;
@@ -25,6 +29,8 @@ import com.google.api.services.compute.model.Operation;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.image.ImageCache;
+import com.zylitics.wzgp.resource.inventory.InstanceInventory;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.web.FingerprintBasedUpdater;
 
@@ -34,14 +40,20 @@ public class ComputeService {
 
   private final Compute compute;
   private final ResourceExecutor executor;
+  private final InstanceInventory inventory;
+  private final ImageCache imageCache;
   private final String project;
   
   @Autowired
   public ComputeService(Compute compute
       , ResourceExecutor executor
-      , APICoreProperties apiCoreProps) {
+      , APICoreProperties apiCoreProps
+      , InstanceInventory inventory
+      , ImageCache imageCache) {
     this.compute = compute;
     this.executor = executor;
+    this.inventory = inventory;
+    this.imageCache = imageCache;
     this.project = apiCoreProps.getResourceProjectId();
   }
   
@@ -49,6 +61,7 @@ public class ComputeService {
       , String zoneName
       , @Nullable BuildProperty buildProp) throws Exception {
     Instances.Start startInstance = compute.instances().start(project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(startInstance, buildProp);
   }
   
@@ -56,14 +69,42 @@ public class ComputeService {
       , String zoneName
       , @Nullable BuildProperty buildProp) throws Exception {
     Instances.Stop stopInstance = compute.instances().stop(project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(stopInstance, buildProp);
   }
   
+  public Operation resetInstance(String instanceName
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    Instances.Reset resetInstance = compute.instances().reset(project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
+    return executor.executeWithReattempt(resetInstance, buildProp);
+  }
+  
+  public Operation suspendInstance(String instanceName
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    InstanceSuspension.Suspend suspendInstance =
+        new InstanceSuspension.Suspend(compute, project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
+    return executor.executeWithReattempt(suspendInstance, buildProp);
+  }
+  
+  public Operation resumeInstance(String instanceName
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    InstanceSuspension.Resume resumeInstance =
+        new InstanceSuspension.Resume(compute, project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
+    return executor.executeWithReattempt(resumeInstance, buildProp);
+  }
+  
   public Operation deleteInstance(String instanceName
       , String zoneName
       , @Nullable BuildProperty buildProp) throws Exception {
     Instances.Delete deleteInstance =
         compute.instances().delete(project, zoneName, instanceName);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(deleteInstance, buildProp);
   }
   
@@ -84,6 +125,7 @@ public class ComputeService {
         , zoneName, machineType));
     Instances.SetMachineType setMachineType =
         compute.instances().setMachineType(project, zoneName, instanceName, machineTypeReq);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(setMachineType, buildProp);
   }
   
@@ -96,6 +138,7 @@ public class ComputeService {
     servAccReq.setScopes(Collections.singletonList(ComputeScopes.CLOUD_PLATFORM));
     Instances.SetServiceAccount setServAcc =
         compute.instances().setServiceAccount(project, zoneName, instanceName, servAccReq);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(setServAcc, buildProp);
   }
   
@@ -120,6 +163,7 @@ public class ComputeService {
     labelReq.setLabelFingerprint(currentFingerprint);
     Instances.SetLabels setLabels =
         compute.instances().setLabels(project, zoneName, instanceName, labelReq);
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(setLabels, buildProp);
   }
   
@@ -142,14 +186,20 @@ public class ComputeService {
     Instances.SetMetadata setMetadata =
         compute.instances().setMetadata(project, zoneName, instanceName
             , ResourceUtil.getGCPMetadata(metadata).setFingerprint(currentFingerprint));
+    inventory.markChanged(instanceName, zoneName);
     return executor.executeWithReattempt(setMetadata, buildProp);
   }
   
+  /**
+   * Images are served from {@link ImageCache}, GCE is asked only when the family isn't cached.
+   */
   public Image getImageFromFamily(String imageFamily
       , @Nullable BuildProperty buildProp) throws Exception {
-    Images.GetFromFamily getFromFamily =
-        compute.images().getFromFamily(project, imageFamily);
-    return executor.executeWithReattempt(getFromFamily, buildProp);
+    return imageCache.getFromFamily(imageFamily, () -> {
+      Images.GetFromFamily getFromFamily =
+          compute.images().getFromFamily(project, imageFamily);
+      return executor.executeWithReattempt(getFromFamily, buildProp);
+    });
   }
   
   public java.util.List<Image> listImages(String filter
@@ -173,6 +223,49 @@ public class ComputeService {
     return list.getItems();
   }
   
+  /**
+   * Lists matching instances of the given zone, going through all pages.
+   */
+  public java.util.List<Instance> listAllInstances(String filter
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    java.util.List<Instance> instances = new ArrayList<>();
+    String pageToken = null;
+    do {
+      Instances.List listBuilder = compute.instances().list(project, zoneName);
+      listBuilder.setFilter(filter);
+      listBuilder.setPageToken(pageToken);
+      InstanceList list = executor.executeWithReattempt(listBuilder, buildProp);
+      if (list.getItems() != null) {
+        instances.addAll(list.getItems());
+      }
+      pageToken = list.getNextPageToken();
+    } while (pageToken != null);
+    return instances;
+  }
+  
+  /**
+   * Lists matching instances of all zones, going through all pages.
+   */
+  public java.util.List<Instance> listInstancesInAllZones(String filter
+      , @Nullable BuildProperty buildProp) throws Exception {
+    java.util.List<Instance> instances = new ArrayList<>();
+    String pageToken = null;
+    do {
+      Instances.AggregatedList listBuilder = compute.instances().aggregatedList(project);
+      listBuilder.setFilter(filter);
+      listBuilder.setPageToken(pageToken);
+      InstanceAggregatedList list = executor.executeWithReattempt(listBuilder, buildProp);
+      if (list.getItems() != null) {
+        list.getItems().values().stream()
+            .filter(scoped -> scoped.getInstances() != null)
+            .forEach(scoped -> instances.addAll(scoped.getInstances()));
+      }
+      pageToken = list.getNextPageToken();
+    } while (pageToken != null);
+    return instances;
+  }
+  
   //TODO: pending unit test
   public Disk getDisk(String diskName
       , String zoneName
@@ -180,4 +273,46 @@ public class ComputeService {
     Compute.Disks.Get getDisk = compute.disks().get(project, zoneName, diskName);
     return executor.executeWithReattempt(getDisk, buildProp);
   }
+  
+  public Operation insertDisk(Disk disk
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    Compute.Disks.Insert insertDisk = compute.disks().insert(project, zoneName, disk);
+    return executor.executeWithReattempt(insertDisk, buildProp);
+  }
+  
+  public Operation deleteDisk(String diskName
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    Compute.Disks.Delete deleteDisk = compute.disks().delete(project, zoneName, diskName);
+    return executor.executeWithReattempt(deleteDisk, buildProp);
+  }
+  
+  /**
+   * Lists matching disks of the given zone, going through all pages.
+   */
+  public java.util.List<Disk> listDisks(String filter
+      , String zoneName
+      , @Nullable BuildProperty buildProp) throws Exception {
+    java.util.List<Disk> disks = new ArrayList<>();
+    String pageToken = null;
+    do {
+      Compute.Disks.List listBuilder = compute.disks().list(project, zoneName);
+      listBuilder.setFilter(filter);
+      listBuilder.setPageToken(pageToken);
+      DiskList list = executor.executeWithReattempt(listBuilder, buildProp);
+      if (list.getItems() != null) {
+        disks.addAll(list.getItems());
+      }
+      pageToken = list.getNextPageToken();
+    } while (pageToken != null);
+    return disks;
+  }
+  
+  public Operation insertInstanceTemplate(InstanceTemplate instanceTemplate
+      , @Nullable BuildProperty buildProp) throws Exception {
+    Compute.InstanceTemplates.Insert insertTemplate =
+        compute.instanceTemplates().insert(project, instanceTemplate);
+    return executor.executeWithReattempt(insertTemplate, buildProp);
+  }
 }
@@ -0,0 +1,73 @@
+package com.zylitics.wzgp.resource.compute;
+
+import com.google.api.client.util.Key;
+import com.google.api.client.util.Preconditions;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeRequest;
+import com.google.api.services.compute.model.Operation;
+
+/**
+ * Requests for suspending and resuming instances. The version of compute client we're on doesn't
+ * have these methods yet, these are built the same way the client builds its own requests and
+ * should be dropped in favor of the client's once it's upgraded.
+ * @author Praveen Tiwari
+ *
+ */
+public final class InstanceSuspension {
+
+  private InstanceSuspension() {}
+
+  /**
+   * Suspends a running instance, memory and device state is kept and it can be resumed later.
+   */
+  public static class Suspend extends ComputeRequest<Operation> {
+
+    private static final String REST_PATH =
+        "projects/{project}/zones/{zone}/instances/{instance}/suspend";
+
+    @Key
+    private final String project;
+
+    @Key
+    private final String zone;
+
+    @Key
+    private final String instance;
+
+    Suspend(Compute compute, String project, String zone, String instance) {
+      super(compute, "POST", REST_PATH, null, Operation.class);
+      this.project = Preconditions.checkNotNull(project, "Required parameter project must be"
+          + " specified.");
+      this.zone = Preconditions.checkNotNull(zone, "Required parameter zone must be specified.");
+      this.instance = Preconditions.checkNotNull(instance, "Required parameter instance must be"
+          + " specified.");
+    }
+  }
+
+  /**
+   * Resumes a suspended instance.
+   */
+  public static class Resume extends ComputeRequest<Operation> {
+
+    private static final String REST_PATH =
+        "projects/{project}/zones/{zone}/instances/{instance}/resume";
+
+    @Key
+    private final String project;
+
+    @Key
+    private final String zone;
+
+    @Key
+    private final String instance;
+
+    Resume(Compute compute, String project, String zone, String instance) {
+      super(compute, "POST", REST_PATH, null, Operation.class);
+      this.project = Preconditions.checkNotNull(project, "Required parameter project must be"
+          + " specified.");
+      this.zone = Preconditions.checkNotNull(zone, "Required parameter zone must be specified.");
+      this.instance = Preconditions.checkNotNull(instance, "Required parameter instance must be"
+          + " specified.");
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package com.zylitics.wzgp.resource.deletion;
+
+import com.google.api.services.compute.model.Operation;
+
+/**
+ * Confirms deletion of grids in background so that a delete request can be acknowledged as soon
+ * as the grid is out of rotation and its delete is submitted.
+ * @author Praveen Tiwari
+ *
+ */
+public interface DeletionQueue {
+
+  /**
+   * Tracks the delete of grid until it's confirmed, deleting again if it fails.
+   * @param deleteOperation operation of the submitted delete
+   */
+  void submit(String gridName, String zone, Operation deleteOperation);
+}
@@ -0,0 +1,240 @@
+package com.zylitics.wzgp.resource.deletion;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
+
+/**
+ * Pending deletions are kept in memory and their operations are awaited using the executor's
+ * tracker. A failed deletion is deleted again after a delay that doubles with every attempt up to
+ * a max, retries don't stop, a deletion pending for longer than expected is reported as stuck.
+ * The is-deleting label on grid is what makes the queue durable, grids that have it but aren't
+ * locked by any build are picked up on reconcile if not already pending, such as those whose
+ * deletion wasn't confirmed before a restart. Grids being deleted synchronously are locked until
+ * deleted and thus left alone.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class DeletionQueueImpl implements DeletionQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeletionQueueImpl.class);
+
+  private static final String MARKED_FILTER =
+      "labels." + ResourceUtil.LABEL_IS_DELETING + " = true";
+
+  private static final long OPERATION_TIMEOUT_MILLIS = 300 * 1000;
+
+  private final ComputeService computeSrv;
+  private final ResourceExecutor executor;
+  private final ProvisioningMetrics metrics;
+  private final long retryDelayMillis;
+  private final long maxRetryDelayMillis;
+  private final long stuckAfterMillis;
+  private final ScheduledExecutorService retryScheduler;
+  private final Clock clock;
+
+  private final Map<String, PendingDeletion> pending = new ConcurrentHashMap<>();
+
+  @Autowired
+  DeletionQueueImpl(ComputeService computeSrv
+      , ResourceExecutor executor
+      , ProvisioningMetrics metrics
+      , @Value("${deletion-retry-delay-millis}") long retryDelayMillis
+      , @Value("${deletion-max-retry-delay-millis}") long maxRetryDelayMillis
+      , @Value("${deletion-stuck-after-millis}") long stuckAfterMillis) {
+    this(computeSrv, executor, metrics, retryDelayMillis, maxRetryDelayMillis, stuckAfterMillis
+        , Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("deletion-retry-%d")
+            .setDaemon(true)
+            .build())
+        , Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  public DeletionQueueImpl(ComputeService computeSrv
+      , ResourceExecutor executor
+      , ProvisioningMetrics metrics
+      , long retryDelayMillis
+      , long maxRetryDelayMillis
+      , long stuckAfterMillis
+      , ScheduledExecutorService retryScheduler
+      , Clock clock) {
+    this.computeSrv = computeSrv;
+    this.executor = executor;
+    this.metrics = metrics;
+    this.retryDelayMillis = retryDelayMillis;
+    this.maxRetryDelayMillis = maxRetryDelayMillis;
+    this.stuckAfterMillis = stuckAfterMillis;
+    this.retryScheduler = retryScheduler;
+    this.clock = clock;
+    metrics.gaugeDeletions(pending::size, this::countStuck);
+  }
+
+  @Override
+  public void submit(String gridName, String zone, Operation deleteOperation) {
+    PendingDeletion deletion = pending.computeIfAbsent(key(gridName, zone)
+        , k -> new PendingDeletion(gridName, zone, clock.millis()));
+    track(deletion, deleteOperation);
+  }
+
+  /**
+   * Deletes grids marked for deletion that no build holds and aren't pending already.
+   */
+  @Scheduled(initialDelayString = "${deletion-reconcile-delay-millis}"
+      , fixedDelayString = "${deletion-reconcile-delay-millis}")
+  public void reconcile() {
+    try {
+      List<Instance> marked = ApiPriority.callWith(ApiPriority.BACKGROUND
+          , () -> computeSrv.listInstancesInAllZones(MARKED_FILTER, null));
+      for (Instance instance : marked) {
+        if (!isAbandoned(instance)) {
+          continue;
+        }
+        String zone = ResourceUtil.nameFromUrl(instance.getZone());
+        PendingDeletion deletion = new PendingDeletion(instance.getName(), zone, clock.millis());
+        if (pending.putIfAbsent(key(instance.getName(), zone), deletion) == null) {
+          LOG.info("grid {} of zone {} is marked for deletion but isn't being deleted, deleting it"
+              , instance.getName(), zone);
+          delete(deletion);
+        }
+      }
+    } catch (Throwable t) {
+      LOG.error("couldn't reconcile grids marked for deletion", t);
+    }
+  }
+
+  @VisibleForTesting
+  int pendingCount() {
+    return pending.size();
+  }
+
+  private void track(PendingDeletion deletion, Operation operation) {
+    executor.completeAsync(operation, 1000, OPERATION_TIMEOUT_MILLIS, null)
+        .whenComplete((completed, failure) -> {
+          if (failure == null && ResourceUtil.isOperationSuccess(completed.get())) {
+            confirmed(deletion);
+            return;
+          }
+          Throwable cause = failure != null ? AsyncUtil.unwrap(failure) : null;
+          LOG.warn("deletion of grid {} of zone {} failed, attempt #{}, operation: {}"
+              , deletion.gridName, deletion.zone, deletion.attempts.get() + 1
+              , failure == null ? completed.get() : cause);
+          metrics.recordDeletion(deletion.zone, cause instanceof TimeoutException
+              ? ProvisioningMetrics.OUTCOME_TIMEOUT
+              : ProvisioningMetrics.OUTCOME_FAILURE);
+          scheduleRetry(deletion);
+        });
+  }
+
+  private void delete(PendingDeletion deletion) {
+    Operation operation;
+    try {
+      operation = ApiPriority.callWith(ApiPriority.BACKGROUND
+          , () -> computeSrv.deleteInstance(deletion.gridName, deletion.zone, null));
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == 404) {
+        confirmed(deletion);
+        return;
+      }
+      failedToSubmit(deletion, e);
+      return;
+    } catch (Throwable t) {
+      failedToSubmit(deletion, t);
+      return;
+    }
+    track(deletion, operation);
+  }
+
+  private void failedToSubmit(PendingDeletion deletion, Throwable t) {
+    LOG.error(String.format("couldn't delete grid %s of zone %s", deletion.gridName
+        , deletion.zone), t);
+    metrics.recordDeletion(deletion.zone, ProvisioningMetrics.OUTCOME_FAILURE);
+    scheduleRetry(deletion);
+  }
+
+  private void scheduleRetry(PendingDeletion deletion) {
+    int attempts = deletion.attempts.incrementAndGet();
+    long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(attempts - 1, 20));
+    retryScheduler.schedule(() -> delete(deletion), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void confirmed(PendingDeletion deletion) {
+    pending.remove(key(deletion.gridName, deletion.zone), deletion);
+    metrics.recordDeletion(deletion.zone, ProvisioningMetrics.OUTCOME_SUCCESS);
+    LOG.debug("deletion of grid {} of zone {} confirmed", deletion.gridName, deletion.zone);
+  }
+
+  private boolean isAbandoned(Instance instance) {
+    Map<String, String> labels = instance.getLabels();
+    if (labels == null || !Boolean.parseBoolean(labels.get(ResourceUtil.LABEL_IS_DELETING))) {
+      return false;
+    }
+    String lockedBy = labels.get(ResourceUtil.LABEL_LOCKED_BY_BUILD);
+    // a grid going away shows as stopping.
+    return (Strings.isNullOrEmpty(lockedBy) || lockedBy.equals("none"))
+        && !"STOPPING".equals(instance.getStatus());
+  }
+
+  private long countStuck() {
+    long now = clock.millis();
+    return pending.values().stream()
+        .filter(deletion -> now - deletion.submittedAt > stuckAfterMillis)
+        .count();
+  }
+
+  private String key(String gridName, String zone) {
+    return zone + "/" + gridName;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    // grids whose deletion isn't confirmed are still marked, they're picked up after restart.
+    retryScheduler.shutdownNow();
+  }
+
+  private static class PendingDeletion {
+
+    private final String gridName;
+    private final String zone;
+    private final long submittedAt;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private PendingDeletion(String gridName, String zone, long submittedAt) {
+      this.gridName = gridName;
+      this.zone = zone;
+      this.submittedAt = submittedAt;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package com.zylitics.wzgp.resource.disk;
+
+import java.util.Optional;
+
+import com.google.api.services.compute.model.Image;
+
+public interface BootDiskPool {
+
+  /**
+   * Hands out a ready boot disk restored from the given image in the given zone. A disk handed out
+   * is never handed out again, caller should attach it to the grid it's creating.
+   * @return partial url of the disk to be used as {@code AttachedDisk.source}, empty if pool has no
+   *         ready disk of the given image in the given zone.
+   */
+  Optional<String> take(Image image, String zone);
+
+  /**
+   * Gives back a disk taken by {@link #take(Image, String)} that wasn't attached, such as when the
+   * insert of its grid failed. The disk is handed out again if pool still keeps disks like it,
+   * otherwise it's deleted. Never blocks on the delete.
+   * @param disk partial url of the disk as was taken
+   */
+  void giveBack(Image image, String zone, String disk);
+}
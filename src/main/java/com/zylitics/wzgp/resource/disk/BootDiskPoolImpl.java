@@ -0,0 +1,376 @@
+package com.zylitics.wzgp.resource.disk;
+
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.APICoreProperties.WarmPool;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.Randoms;
+
+/**
+ * Keeps the configured number of unattached boot disks per (image family, zone) restored from
+ * the family's latest image, restoring the disk is a big part of creating a grid. When a new image
+ * is published to a family, ready disks of the older image are deleted and the pool is filled
+ * with disks of the new one.
+ * Disks are handed out only by the replica that created them so that no two grids are ever given
+ * the same disk. A disk whose grid couldn't be created is given back and handed out again while
+ * it's still of pool's image and not stale. Unattached pool disks no replica is keeping, such as
+ * those of a replica that went down, are deleted once they're older than any replica keeps its
+ * disks.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+public class BootDiskPoolImpl implements BootDiskPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BootDiskPoolImpl.class);
+
+  private static final String DISK_NAME_CHAR_SET = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+  // size and type are same as of the disks grids restore themselves.
+  private static final long DISK_SIZE_GB = 50;
+
+  private static final String DISK_TYPE = "pd-ssd";
+
+  // an unattached disk of some other replica older than max age plus this is considered abandoned.
+  private static final long ABANDONED_AFTER_MILLIS = 60 * 60 * 1000;
+
+  private static final int MAX_PARALLEL_CREATES = 4;
+
+  private final APICoreProperties apiCoreProps;
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final long maxAgeMillis;
+  private final ExecutorService createExecutor;
+  private final Clock clock;
+
+  private final Map<String, PoolState> pools = new ConcurrentHashMap<>();
+
+  @Autowired
+  BootDiskPoolImpl(APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , @Value("${boot-disk-pool-max-age-millis}") long maxAgeMillis) {
+    this(apiCoreProps, executor, computeSrv, maxAgeMillis
+        , Executors.newFixedThreadPool(MAX_PARALLEL_CREATES, new ThreadFactoryBuilder()
+            .setNameFormat("boot-disk-pool-create-%d")
+            .setDaemon(true)
+            .build())
+        , Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  BootDiskPoolImpl(APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , long maxAgeMillis
+      , ExecutorService createExecutor
+      , Clock clock) {
+    this.apiCoreProps = apiCoreProps;
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.maxAgeMillis = maxAgeMillis;
+    this.createExecutor = createExecutor;
+    this.clock = clock;
+  }
+
+  @Override
+  public Optional<String> take(Image image, String zone) {
+    PoolState state = pools.get(poolKey(image.getFamily(), zone));
+    if (state == null) {
+      return Optional.empty();
+    }
+    String diskName = state.take(image.getName());
+    if (diskName == null) {
+      LOG.debug("boot disk pool {} has no ready disk of image {}"
+          , poolKey(image.getFamily(), zone), image.getName());
+      return Optional.empty();
+    }
+    return Optional.of(String.format("zones/%s/disks/%s", zone, diskName));
+  }
+
+  @Override
+  public void giveBack(Image image, String zone, String disk) {
+    String diskName = ResourceUtil.nameFromUrl(disk);
+    PoolState state = pools.get(poolKey(image.getFamily(), zone));
+    if (state != null
+        && state.giveBack(diskName, image.getName(), clock.millis() - maxAgeMillis)) {
+      LOG.debug("disk {} is given back to boot disk pool {}", diskName
+          , poolKey(image.getFamily(), zone));
+      return;
+    }
+    LOG.debug("disk {} given back isn't fit for boot disk pool {}, deleting it", diskName
+        , poolKey(image.getFamily(), zone));
+    try {
+      createExecutor.execute(() -> deleteQuietly(diskName, zone));
+    } catch (RejectedExecutionException rej) {
+      // deleted as abandoned later.
+      LOG.warn("delete of disk {} was rejected, shutting down?", diskName);
+    }
+  }
+
+  /**
+   * Finds latest image of every configured pool, replaces disks those are stale or of an older
+   * image and submits creation of disks to fill the deficit. Disks being created are counted
+   * towards the pool.
+   */
+  @Scheduled(initialDelayString = "${boot-disk-pool-replenish-delay-millis}"
+      , fixedDelayString = "${boot-disk-pool-replenish-delay-millis}")
+  public void replenish() {
+    List<? extends WarmPool> bootDiskPools = apiCoreProps.getGridDefault().getBootDiskPools();
+    for (WarmPool pool : bootDiskPools) {
+      try {
+        ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+          replenish(pool);
+          return null;
+        });
+      } catch (Throwable t) {
+        // don't let a pool fail others.
+        LOG.error(String.format("couldn't replenish boot disk pool %s"
+            , poolKey(pool.getImageFamily(), pool.getZone())), t);
+      }
+    }
+  }
+
+  private void replenish(WarmPool pool) throws Exception {
+    String key = poolKey(pool.getImageFamily(), pool.getZone());
+    Image image = computeSrv.getImageFromFamily(pool.getImageFamily(), null);
+    PoolState state = pools.computeIfAbsent(key, k -> new PoolState());
+    List<String> retired = state.retire(image.getName(), clock.millis() - maxAgeMillis);
+    if (retired.size() > 0) {
+      LOG.info("boot disk pool {} retires {} disk(s) those are stale or of an image older than {}"
+          , key, retired.size(), image.getName());
+    }
+    for (String diskName : retired) {
+      deleteQuietly(diskName, pool.getZone());
+    }
+    deleteAbandoned(pool, state);
+
+    int kept = state.size();
+    int deficit = pool.getTarget() - kept;
+    if (deficit <= 0) {
+      return;
+    }
+    LOG.info("boot disk pool {} keeps {} disk(s) against a target of {}, going to create {}"
+        , key, kept, pool.getTarget(), deficit);
+    for (int i = 0; i < deficit; i++) {
+      submitCreate(pool, image, state);
+    }
+  }
+
+  private void deleteAbandoned(WarmPool pool, PoolState state) throws Exception {
+    // all pages, an abandoned disk could be anywhere in the list.
+    List<Disk> disks = computeSrv.listDisks(String.format("labels.%s = \"%s\""
+        , ResourceUtil.LABEL_BOOT_DISK_POOL, pool.getImageFamily()), pool.getZone(), null);
+    long abandonedBefore = clock.millis() - maxAgeMillis - ABANDONED_AFTER_MILLIS;
+    for (Disk disk : disks) {
+      // attached disks belong to grids now and go with them.
+      if ((disk.getUsers() != null && disk.getUsers().size() > 0)
+          || state.keeps(disk.getName())
+          || disk.getCreationTimestamp() == null
+          || OffsetDateTime.parse(disk.getCreationTimestamp()).toInstant().toEpochMilli()
+              > abandonedBefore) {
+        continue;
+      }
+      LOG.warn("disk {} of boot disk pool {} is unattached since {}, deleting it", disk.getName()
+          , poolKey(pool.getImageFamily(), pool.getZone()), disk.getCreationTimestamp());
+      deleteQuietly(disk.getName(), pool.getZone());
+    }
+  }
+
+  private void submitCreate(WarmPool pool, Image image, PoolState state) {
+    String diskName = String.join("-", pool.getImageFamily()
+        , new Randoms(DISK_NAME_CHAR_SET).generateRandom(10), "disk");
+    state.creating(diskName);
+    try {
+      createExecutor.execute(() -> {
+        boolean created = false;
+        try {
+          created = ApiPriority.callWith(ApiPriority.BACKGROUND
+              , () -> createDisk(pool, image, diskName));
+        } catch (Throwable t) {
+          LOG.error(String.format("couldn't create disk %s for boot disk pool %s", diskName
+              , poolKey(pool.getImageFamily(), pool.getZone())), t);
+        } finally {
+          if (!state.created(diskName, image.getName(), created, clock.millis()) && created) {
+            // pool moved on to a newer image while the disk was being created.
+            deleteQuietly(diskName, pool.getZone());
+          }
+        }
+      });
+    } catch (RejectedExecutionException rej) {
+      state.created(diskName, image.getName(), false, clock.millis());
+      LOG.warn("disk create for boot disk pool {} was rejected, shutting down?"
+          , poolKey(pool.getImageFamily(), pool.getZone()));
+    }
+  }
+
+  private boolean createDisk(WarmPool pool, Image image, String diskName) throws Exception {
+    Disk disk = new Disk()
+        .setName(diskName)
+        .setSizeGb(DISK_SIZE_GB)
+        .setSourceImage(String.format("global/images/%s", image.getName()))
+        .setType(String.format("zones/%s/diskTypes/%s", pool.getZone(), DISK_TYPE))
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_BOOT_DISK_POOL, pool.getImageFamily()));
+    Operation operation = computeSrv.insertDisk(disk, pool.getZone(), null);
+    operation = executor.blockUntilComplete(operation, 1000, 300 * 1000, null);
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      LOG.error("couldn't create disk {} for boot disk pool {}, operation: {}", diskName
+          , poolKey(pool.getImageFamily(), pool.getZone()), operation.toPrettyString());
+      return false;
+    }
+    return true;
+  }
+
+  private void deleteQuietly(String diskName, String zone) {
+    try {
+      ApiPriority.callWith(ApiPriority.BACKGROUND
+          , () -> computeSrv.deleteDisk(diskName, zone, null));
+    } catch (Throwable t) {
+      // deleted as abandoned later.
+      LOG.error(String.format("couldn't delete disk %s", diskName), t);
+    }
+  }
+
+  private String poolKey(String imageFamily, String zone) {
+    return imageFamily + "/" + zone;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    createExecutor.shutdownNow();
+  }
+
+  /**
+   * Disks a pool keeps, all access is guarded by this.
+   */
+  private static class PoolState {
+
+    // image the pool keeps disks of, null until first replenish.
+    private String imageName;
+
+    // oldest first, except those given back.
+    private final Deque<ReadyDisk> ready = new ArrayDeque<>();
+
+    private final Set<String> creating = new HashSet<>();
+
+    // handed out disks, kept until given back or retired.
+    private final Map<String, ReadyDisk> taken = new HashMap<>();
+
+    private synchronized String take(String imageName) {
+      if (!imageName.equals(this.imageName)) {
+        return null;
+      }
+      ReadyDisk disk = ready.pollLast();
+      if (disk == null) {
+        return null;
+      }
+      taken.put(disk.name, disk);
+      return disk.name;
+    }
+
+    /**
+     * @return whether the given back disk was taken into pool again.
+     */
+    private synchronized boolean giveBack(String diskName, String imageName
+        , long createdBefore) {
+      ReadyDisk disk = taken.remove(diskName);
+      if (disk == null || !imageName.equals(this.imageName) || disk.createdAt < createdBefore) {
+        return false;
+      }
+      ready.addLast(disk);
+      return true;
+    }
+
+    /**
+     * Moves the pool to the given image and takes out ready disks those are of an older image or
+     * created before the given time.
+     * @return names of disks taken out
+     */
+    private synchronized List<String> retire(String imageName, long createdBefore) {
+      List<String> retired = new ArrayList<>();
+      boolean imageChanged = !imageName.equals(this.imageName);
+      this.imageName = imageName;
+      Iterator<ReadyDisk> it = ready.iterator();
+      while (it.hasNext()) {
+        ReadyDisk disk = it.next();
+        if (imageChanged || disk.createdAt < createdBefore) {
+          it.remove();
+          retired.add(disk.name);
+        }
+      }
+      // taken disks are mostly attached by now, those given back later are deleted.
+      taken.values().removeIf(disk -> imageChanged || disk.createdAt < createdBefore);
+      return retired;
+    }
+
+    private synchronized void creating(String diskName) {
+      creating.add(diskName);
+    }
+
+    /**
+     * @return whether the created disk was taken into pool.
+     */
+    private synchronized boolean created(String diskName, String imageName, boolean created
+        , long createdAt) {
+      creating.remove(diskName);
+      if (!created || !imageName.equals(this.imageName)) {
+        return false;
+      }
+      ready.addLast(new ReadyDisk(diskName, createdAt));
+      return true;
+    }
+
+    private synchronized boolean keeps(String diskName) {
+      return creating.contains(diskName) || ready.stream().anyMatch(d -> d.name.equals(diskName));
+    }
+
+    private synchronized int size() {
+      return ready.size() + creating.size();
+    }
+  }
+
+  private static class ReadyDisk {
+
+    private final String name;
+    private final long createdAt;
+
+    private ReadyDisk(String name, long createdAt) {
+      this.name = name;
+      this.createdAt = createdAt;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.zylitics.wzgp.resource.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import com.google.api.services.compute.model.Operation;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.CompletedOperation;
+
+/**
+ * Tracks pending zonal and global {@link Operation}s until they complete without parking the
+ * caller's thread.
+ * Implementations should poll all pending operations together rather than one request per
+ * operation.
+ * @author Praveen Tiwari
+ *
+ */
+public interface OperationTracker {
+
+  /**
+   * @param operation the Operation returned by the original request
+   * @param pollIntervalMillis minimum interval between two status checks of this operation, see
+   *                           {@link ResourceExecutor#blockUntilComplete} for choosing one.
+   * @param timeoutMillis Timeout duration in milliseconds for this operation's status polling
+   * @param buildProp mainly used to append the build information with any logged exception.
+   * @return {@link CompletableFuture} that completes once the operation is DONE, or completes
+   *         exceptionally with {@link TimeoutException} if it doesn't complete in time.
+   */
+  CompletableFuture<CompletedOperation> track(Operation operation,
+                                              long pollIntervalMillis,
+                                              long timeoutMillis,
+                                              @Nullable BuildProperty buildProp);
+}
@@ -0,0 +1,298 @@
+package com.zylitics.wzgp.resource.executor;
+
+import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeRequest;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.ratelimit.ApiCategory;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.ratelimit.ApiRateLimiter;
+
+/**
+ * A single scheduler thread ticks every {@link #TICK_MILLIS}, collects the operations due for a
+ * status check, groups them per zone and fetches each group with one batch request. Global
+ * operations make a group of their own.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class OperationTrackerImpl implements OperationTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OperationTrackerImpl.class);
+
+  private static final long TICK_MILLIS = 200;
+
+  // keeping it well below what batch endpoint allows so that a single batch response doesn't
+  // grow too large.
+  private static final int MAX_BATCH_SIZE = 100;
+
+  private final Compute compute;
+  private final APICoreProperties apiCoreProps;
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+  private final ApiRateLimiter rateLimiter;
+
+  // operation name -> tracked operation, operation names are unique within a project.
+  private final Map<String, TrackedOperation> pending = new ConcurrentHashMap<>();
+
+  @Autowired
+  OperationTrackerImpl(Compute compute
+      , APICoreProperties apiCoreProps
+      , ApiRateLimiter rateLimiter) {
+    this(compute, apiCoreProps, Clock.systemUTC()
+        , Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("operation-tracker-%d")
+            .setDaemon(true)
+            .build())
+        , rateLimiter);
+  }
+
+  @VisibleForTesting
+  OperationTrackerImpl(Compute compute
+      , APICoreProperties apiCoreProps
+      , Clock clock
+      , ScheduledExecutorService scheduler
+      , ApiRateLimiter rateLimiter) {
+    this.compute = compute;
+    this.apiCoreProps = apiCoreProps;
+    this.clock = clock;
+    this.scheduler = scheduler;
+    this.rateLimiter = rateLimiter;
+  }
+
+  @PostConstruct
+  void start() {
+    scheduler.scheduleWithFixedDelay(this::pollSafely, TICK_MILLIS, TICK_MILLIS
+        , TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    scheduler.shutdownNow();
+    pending.values().forEach(t -> t.future.completeExceptionally(
+        new IllegalStateException("Operation tracker was shut down")));
+  }
+
+  @Override
+  public CompletableFuture<CompletedOperation> track(Operation operation,
+                                                     long pollIntervalMillis,
+                                                     long timeoutMillis,
+                                                     @Nullable BuildProperty buildProp) {
+    Assert.notNull(operation, "Operation can't be null");
+
+    if (operation.getStatus().equals("DONE")) {
+      return CompletableFuture.completedFuture(new CompletedOperation(operation));
+    }
+    long now = clock.millis();
+    // if someone is already waiting on this operation, share the tracking.
+    TrackedOperation tracked = pending.computeIfAbsent(operation.getName(), k ->
+        new TrackedOperation(operation
+            , pollIntervalMillis
+            , now + pollIntervalMillis
+            , now + timeoutMillis
+            , buildProp));
+    return tracked.future;
+  }
+
+  private void pollSafely() {
+    try {
+      poll();
+    } catch (Throwable t) {
+      // never let the scheduled task die.
+      LOG.error("Unexpected error while polling operations", t);
+    }
+  }
+
+  /**
+   * Checks status of all operations that are due, times out those that are past deadline.
+   */
+  @VisibleForTesting
+  void poll() {
+    long now = clock.millis();
+    Map<String, List<TrackedOperation>> dueByZone = new HashMap<>();
+    for (TrackedOperation tracked : pending.values()) {
+      if (now > tracked.deadline) {
+        complete(tracked, null, new TimeoutException(String.format("Timed out waiting for"
+            + " Operation to complete. Operation: %s %s"
+            , tracked.operation.getName()
+            , addToException(tracked.buildProp))));
+        continue;
+      }
+      if (now >= tracked.nextPollAt) {
+        dueByZone.computeIfAbsent(tracked.zone, k -> new ArrayList<>()).add(tracked);
+      }
+    }
+
+    dueByZone.forEach((zone, trackedOps) -> {
+      Map<String, Operation> fetched;
+      try {
+        fetched = fetchOperations(zone, trackedOps.stream()
+            .map(t -> t.operation.getName())
+            .collect(Collectors.toList()));
+      } catch (Exception e) {
+        // they'll be re-polled on next interval until deadline
+        LOG.error(String.format("Couldn't fetch operations of %s"
+            , zone != null ? "zone " + zone : "global scope"), e);
+        fetched = new HashMap<>();
+      }
+      long afterFetch = clock.millis();
+      for (TrackedOperation tracked : trackedOps) {
+        Operation latest = fetched.get(tracked.operation.getName());
+        if (latest != null && latest.getStatus().equals("DONE")) {
+          complete(tracked, latest, null);
+          continue;
+        }
+        if (latest != null) {
+          tracked.operation = latest;
+        }
+        tracked.nextPollAt = afterFetch + tracked.pollIntervalMillis;
+      }
+    });
+  }
+
+  /**
+   * Fetches the given operations of a zone, a single operation is fetched directly, more are
+   * fetched using batch requests. Polling is background work for {@link ApiRateLimiter}, every
+   * request in a batch counts towards quota.
+   * @param zone zone of the operations, null for global operations
+   * @return operation name -> fetched operation, operations that couldn't be fetched are absent.
+   */
+  @VisibleForTesting
+  Map<String, Operation> fetchOperations(@Nullable String zone, Collection<String> operationNames)
+      throws IOException {
+    Map<String, Operation> fetched = new HashMap<>();
+    if (operationNames.size() == 1) {
+      String name = operationNames.iterator().next();
+      acquirePermits(1);
+      fetched.put(name, getOperation(zone, name).execute());
+      return fetched;
+    }
+    for (List<String> chunk : Iterables.partition(operationNames, MAX_BATCH_SIZE)) {
+      acquirePermits(chunk.size());
+      BatchRequest batch = compute.batch();
+      for (String name : chunk) {
+        getOperation(zone, name).queue(batch
+            , new JsonBatchCallback<Operation>() {
+
+              @Override
+              public void onSuccess(Operation operation, HttpHeaders responseHeaders) {
+                fetched.put(name, operation);
+              }
+
+              @Override
+              public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+                LOG.error("Couldn't fetch operation {} in batch, code: {}, message: {}"
+                    , name, e.getCode(), e.getMessage());
+              }
+            });
+      }
+      batch.execute();
+    }
+    return fetched;
+  }
+
+  // Won't use ComputeService or ResourceExecutor here to prevent a cyclic dependency.
+  private ComputeRequest<Operation> getOperation(@Nullable String zone, String name)
+      throws IOException {
+    String project = apiCoreProps.getResourceProjectId();
+    if (zone == null) {
+      return compute.globalOperations().get(project, name);
+    }
+    return compute.zoneOperations().get(project, zone, name);
+  }
+
+  private void acquirePermits(int permits) throws IOException {
+    try {
+      rateLimiter.acquire(ApiCategory.OPERATION_POLL, ApiPriority.BACKGROUND, permits);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for rate limiter");
+    }
+  }
+  
+  private void complete(TrackedOperation tracked
+      , @Nullable Operation completed
+      , @Nullable Throwable failure) {
+    pending.remove(tracked.operation.getName(), tracked);
+    if (failure != null) {
+      tracked.future.completeExceptionally(failure);
+    } else {
+      tracked.future.complete(new CompletedOperation(completed));
+    }
+  }
+
+  private String addToException(@Nullable BuildProperty buildProp) {
+    StringBuilder sb = new StringBuilder();
+    if (buildProp != null) {
+      sb.append(buildProp);
+    }
+    return sb.toString();
+  }
+
+  private static class TrackedOperation {
+
+    // null for global operations.
+    @Nullable private final String zone;
+    private final long pollIntervalMillis;
+    private final long deadline;
+    @Nullable private final BuildProperty buildProp;
+    private final CompletableFuture<CompletedOperation> future = new CompletableFuture<>();
+
+    // accessed only by the polling thread after creation.
+    private volatile Operation operation;
+    private volatile long nextPollAt;
+
+    private TrackedOperation(Operation operation
+        , long pollIntervalMillis
+        , long nextPollAt
+        , long deadline
+        , @Nullable BuildProperty buildProp) {
+      this.operation = operation;
+      this.zone = operation.getZone() != null ? nameFromUrl(operation.getZone()) : null;
+      this.pollIntervalMillis = pollIntervalMillis;
+      this.nextPollAt = nextPollAt;
+      this.deadline = deadline;
+      this.buildProp = buildProp;
+    }
+  }
+}
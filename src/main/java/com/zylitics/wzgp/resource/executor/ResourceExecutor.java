@@ -1,5 +1,8 @@
 package com.zylitics.wzgp.resource.executor;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
@@ -47,6 +50,20 @@ public interface ResourceExecutor {
       , Function<String, T> generateObjToExecutePerZone
       , @Nullable BuildProperty buildProp) throws Exception;
   
+  /**
+   * Non blocking version of {@link #executeWithZonalReattempt}. Requests to compute api are
+   * executed on the given {@link Executor} while waiting for {@link Operation}s doesn't occupy any
+   * thread.
+   * @param asyncExecutor {@link Executor} that runs the requests to compute api.
+   * @return {@link CompletableFuture} that completes with the {@link Operation} post all
+   * re-attempts (if required), or completes exceptionally if a request couldn't be executed.
+   */
+  <T extends ComputeRequest<Operation>> CompletableFuture<CompletedOperation>
+      executeWithZonalReattemptAsync(T objToExecute
+      , Function<String, T> generateObjToExecutePerZone
+      , Executor asyncExecutor
+      , @Nullable BuildProperty buildProp);
+  
   /**
    * Block execution until an {@code Operation} is completed by repeatedly polling the status of
    * operation with compute api.
@@ -73,4 +90,22 @@ public interface ResourceExecutor {
                                long pollIntervalMillis,
                                long timeoutMillis,
                                @Nullable BuildProperty buildProp) throws Exception;
+  
+  /**
+   * Non blocking version of {@link #blockUntilComplete}, arguments are same.
+   * @return {@link CompletableFuture} that completes once the operation is DONE, or completes
+   *         exceptionally with {@link TimeoutException} if it doesn't complete in time.
+   */
+  CompletableFuture<CompletedOperation> completeAsync(Operation operation,
+                                                      long pollIntervalMillis,
+                                                      long timeoutMillis,
+                                                      @Nullable BuildProperty buildProp);
+  
+  /**
+   * @param zoneToExclude zone that shouldn't be in the result, usually the one that's already
+   *                      attempted.
+   * @return reattempt zones other than the excluded one, in the order zonal re-attempts try them,
+   *         best first. Empty if there is no other zone.
+   */
+  List<String> rankAlternateZones(@Nullable String zoneToExclude);
 }
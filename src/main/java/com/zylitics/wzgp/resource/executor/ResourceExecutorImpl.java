@@ -1,16 +1,16 @@
 package com.zylitics.wzgp.resource.executor;
 
-import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
-
 import java.io.IOException;
-import java.time.Clock;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -25,28 +25,33 @@ import org.springframework.util.Assert;
 
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.ClassInfo;
 import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.ComputeRequest;
 import com.google.api.services.compute.model.Operation;
-import com.google.common.annotations.VisibleForTesting;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.ratelimit.ApiCategory;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.ratelimit.ApiRateLimiter;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.resource.zone.ZoneHealthTracker;
+import com.zylitics.wzgp.util.AsyncUtil;
 
 /**
  * This is singleton for the life of application, take care with using any shared resource.
  * Re-attempt guidance from https://cloud.google.com/apis/design/errors
- * Note - This class is a work in progress.
+ * Failed requests are re-attempted as per {@link RetryPolicy}, failed Operations are
+ * re-attempted in other zones when they fail for a zonal reason.
  * @author Praveen Tiwari
  */
 /*
  * Notes:
- * !!! The previous version of this file is saved as backup and this has now updated to have minimal
- * logic for now until we learn how and what type of exceptions return from gcp api. Once we've a
- * solid knowledge, refer to the backed-up file and work on this.
- * com.google.api.client.http.HttpRequest already has a re-attempt logic so we may not have to
- * build lot of re-attempt code around general http exceptions.
+ * com.google.api.client.http.HttpRequest re-attempts only through its unsuccessful response and
+ * IOException handlers. The only handler our Compute has is from HttpCredentialsAdapter that
+ * refreshes credentials on 401, so re-attempts on other failures happen here.
  */
 @ThreadSafe
 @Component
@@ -67,47 +72,95 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
    */
   static final int ZONAL_ISSUES_MAX_REATTEMPTS = 5;
   
-  private final Compute compute;
+  private static final String REQUEST_ID = "requestId";
+  
   private final APICoreProperties apiCoreProps;
+  private final OperationTracker operationTracker;
+  private final ZoneHealthTracker zoneHealthTracker;
+  private final RetryPolicy retryPolicy;
+  private final ApiRateLimiter rateLimiter;
+  private final ProvisioningMetrics metrics;
   
   @Autowired
-  ResourceExecutorImpl(Compute compute, APICoreProperties apiCoreProps) {
-    this.compute = compute;
+  ResourceExecutorImpl(APICoreProperties apiCoreProps
+      , OperationTracker operationTracker
+      , ZoneHealthTracker zoneHealthTracker
+      , RetryPolicy retryPolicy
+      , ApiRateLimiter rateLimiter
+      , ProvisioningMetrics metrics) {
     this.apiCoreProps = apiCoreProps;
+    this.operationTracker = operationTracker;
+    this.zoneHealthTracker = zoneHealthTracker;
+    this.retryPolicy = retryPolicy;
+    this.rateLimiter = rateLimiter;
+    this.metrics = metrics;
   }
   
+  /*
+   * Mutating requests are given a requestId before the first attempt so that GCE ignores
+   * duplicates of a request that reached it even though we saw a failure, such as a read timeout.
+   */
   @Override
   public <T extends ComputeRequest<V>, V extends GenericJson> V executeWithReattempt(
       T objToExecute
       , @Nullable BuildProperty buildProp) throws Exception {
     Assert.notNull(objToExecute, "'objToExecute' can't be null.");
     
-    try {
-      V out = objToExecute.execute();
-      if (out == null) {
-        LOG.error("Got null while invoking execute on {} {}"
-            , objToExecute
-            , addToException(buildProp));
-      }
-      return out;
-    } catch(IOException io) {
-      // TODO: implement re-attempts after learning from logs.
-      // Log messages for debugging the issue.
-      HttpResponseException httpExp = (HttpResponseException) io;
-      StringBuilder objectInfo = new StringBuilder();
-      Object jsonContent = objToExecute.getJsonContent();
-      if(jsonContent != null) {
-        objectInfo.append(jsonContent);
+    setRequestIdIfSupported(objToExecute);
+    ApiCategory category = ApiCategory.of(objToExecute);
+    long start = retryPolicy.now();
+    int attempt = 0;
+    while (true) {
+      attempt++;
+      // every attempt counts towards quota.
+      rateLimiter.acquire(category, ApiPriority.current(), 1);
+      long callStart = System.nanoTime();
+      try {
+        V out = objToExecute.execute();
+        metrics.recordApiCall(objToExecute, ProvisioningMetrics.OUTCOME_SUCCESS
+            , System.nanoTime() - callStart);
+        if (out == null) {
+          LOG.error("Got null while invoking execute on {} {}"
+              , objToExecute
+              , addToException(buildProp));
+        }
+        return out;
+      } catch (IOException io) {
+        metrics.recordApiCall(objToExecute, ProvisioningMetrics.OUTCOME_FAILURE
+            , System.nanoTime() - callStart);
+        // Log messages for debugging the issue.
+        StringBuilder objectInfo = new StringBuilder();
+        Object jsonContent = objToExecute.getJsonContent();
+        if (jsonContent != null) {
+          objectInfo.append(jsonContent);
+        }
+        objectInfo.append(objToExecute);
+        if (io instanceof HttpResponseException) {
+          HttpResponseException httpExp = (HttpResponseException) io;
+          LOG.error("An HttpResponseException occurred while invoking execute on {}, attempt #{}."
+              + " Status code= {}, Status message= {} {}"
+              , objectInfo
+              , attempt
+              , httpExp.getStatusCode()
+              , httpExp.getStatusMessage()
+              , addToException(buildProp));
+        } else {
+          LOG.error(String.format("An IOException occurred while invoking execute on %s,"
+              + " attempt #%s %s", objectInfo, attempt, addToException(buildProp)), io);
+        }
+        if (!retryPolicy.awaitRetry(io, attempt, start)) {
+          // re-throw exception for handlers.
+          throw io;
+        }
+        metrics.recordApiRetry(objToExecute);
       }
-      objectInfo.append(objToExecute);
-      LOG.error("An IOException occurred while invoking execute on {}. From inner"
-          + " HttpResponseException: Status code= {}, Status message= {} {}"
-          , objectInfo
-          , httpExp.getStatusCode()
-          , httpExp.getStatusMessage()
-          , addToException(buildProp));
-      // re-throw exception for handlers.
-      throw io;
+    }
+  }
+  
+  private void setRequestIdIfSupported(ComputeRequest<?> objToExecute) {
+    if (ClassInfo.of(objToExecute.getClass()).getFieldInfo(REQUEST_ID) != null
+        && objToExecute.get(REQUEST_ID) == null) {
+      objToExecute.set(REQUEST_ID, UUID.randomUUID().toString());
     }
   }
   
@@ -116,8 +169,8 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
    * Zonal re-attempts rely on Operation.Error.Errors.code. To get the code, we need to wait for
    * Operation completion and check if any error has occurred, if so, we can match the returned
    * codes with the ones we already know from apiCoreProps.getGceZonalReattemptErrors()
-   * If the returned code matches, we can get a zone randomly from
-   * apiCoreProps.getGceReattemptZones() to build a new object for re-attempt.
+   * If the returned code matches, we take zones from apiCoreProps.getGceReattemptZones() in the
+   * order ZoneHealthTracker ranks them to build a new object for re-attempt.
    * This method returns either an Exception or Operation. Operation is guaranteed to be 'DONE'
    * but may have failed. It's the responsibility of caller to evaluate the Operation to find
    * out whether it's succeeded based on error existence.
@@ -135,25 +188,70 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
     Operation operation = executeWithReattempt(objToExecute, buildProp);
     // Now we've the Operation, let's wait for it's completion and see how it goes.
     operation = blockUntilComplete(operation, 2000, 300 * 1000, buildProp);
+    zoneHealthTracker.record(operation, System.currentTimeMillis() - start);
     LOG.debug("took {}secs waiting for new grid creation before reattempt",
         TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
-    if (ResourceUtil.isOperationSuccess(operation)) {
+    if (!isZonalReattemptRequired(operation, buildProp)) {
       return new CompletedOperation(operation);
     }
+    return perZoneReattemptHandler(generateObjToExecutePerZone, buildProp
+        , zoneOf(objToExecute));
+  }
+  
+  /*
+   * Follows the same rules as the blocking version. Waiting on Operations is delegated to
+   * OperationTracker, only the requests that return an Operation use a thread from the given
+   * executor.
+   */
+  @Override
+  public <T extends ComputeRequest<Operation>> CompletableFuture<CompletedOperation>
+      executeWithZonalReattemptAsync(T objToExecute
+      , Function<String, T> generateObjToExecutePerZone
+      , Executor asyncExecutor
+      , @Nullable BuildProperty buildProp) {
+    Assert.notNull(objToExecute, "'objToExecute' can't be null.");
+    
+    long start = System.currentTimeMillis();
+    return executeAndCompleteAsync(() -> objToExecute, asyncExecutor, buildProp)
+        .thenCompose(operation -> {
+          LOG.debug("took {}secs waiting for new grid creation before reattempt",
+              TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+          if (!isZonalReattemptRequired(operation, buildProp)) {
+            return CompletableFuture.completedFuture(new CompletedOperation(operation));
+          }
+          Assert.notNull(generateObjToExecutePerZone
+              , "'generateObjToExecutePerZone' can't be null.");
+          return perZoneReattemptAsync(generateObjToExecutePerZone
+              , getAlternateZones(zoneOf(objToExecute))
+              , 1
+              , asyncExecutor
+              , buildProp);
+        });
+  }
+  
+  /**
+   * Decides whether a completed {@link Operation} should be re-attempted in another zone, logs
+   * the reason when it shouldn't.
+   */
+  private boolean isZonalReattemptRequired(Operation operation
+      , @Nullable BuildProperty buildProp) {
+    if (ResourceUtil.isOperationSuccess(operation)) {
+      return false;
+    }
 
     if (operation.getError() == null || operation.getError().getErrors() == null) {
       // shouldn't happen but still log.
       LOG.error("Operation {} returned no error on failure. Reattempt couldn't happen. {}"
-          , operation.toPrettyString()
+          , toPrettyString(operation)
           , addToException(buildProp));
-      return new CompletedOperation(operation);
+      return false;
     }
     
     // ! Do any other reattempt than zonal here
 
     if (apiCoreProps.getGceReattemptZones().size() == 1) {
       LOG.warn("There is only one zone, we can't do zonal reattempt");
-      return new CompletedOperation(operation);
+      return false;
     }
   
     LOG.debug("Going to perform zonal reattempts");
@@ -162,11 +260,7 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
     for (Operation.Error.Errors err : operation.getError().getErrors()) {
       if (err.getCode() != null
           && apiCoreProps.getGceZonalReattemptErrors().contains(err.getCode())) {
-        return perZoneReattemptHandler(generateObjToExecutePerZone,
-            buildProp,
-            objToExecute instanceof Compute.Instances.Insert
-                ? ((Compute.Instances.Insert) objToExecute).getZone()
-                : null);
+        return true;
       }
     }
     
@@ -176,11 +270,11 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
         + " ones we have. Reattempt couldn't happen. Returned codes: {} {}" 
         , String.join(",", operationErrorsToCodes(operation))
         , addToException(buildProp));
-    return new CompletedOperation(operation);
+    return false;
   }
   
   /**
-   * Performs zonal re-attempts by choosing one of available zone randomly.
+   * Performs zonal re-attempts by trying alternate zones in ranked order, each at most once.
    * Re-attempts until one of the following is met:
    * 1. Successful Operation is returned post completion.
    * 2. Operation error contains an error not in 
@@ -196,29 +290,24 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
       @Nullable BuildProperty buildProp,
       @Nullable String zoneToExclude) throws Exception {
     Assert.notNull(generateObjToExecutePerZone, "'generateObjToExecutePerZone' can't be null.");
-    LOG.debug("excluded zone {}", zoneToExclude);
-    Random random = new Random();
     int attempts = 0;
-    List<String> alternateZones = new ArrayList<>(apiCoreProps.getGceReattemptZones());
-    if (zoneToExclude != null) {
-      alternateZones.remove(zoneToExclude);
-    }
-    int totalAlternateZones = alternateZones.size();
-    Preconditions.checkArgument(totalAlternateZones > 0, "No zone found to reattempt");
+    List<String> alternateZones = getAlternateZones(zoneToExclude);
     Operation operation = null;
-    int allowedReattempts = Math.min(ZONAL_ISSUES_MAX_REATTEMPTS, totalAlternateZones);
+    int allowedReattempts = Math.min(ZONAL_ISSUES_MAX_REATTEMPTS, alternateZones.size());
     
     while (attempts < allowedReattempts) {
       // increment in beginning so we don't set it at multiple places that are continuing in loop.
       attempts++;
-      String randomZone = alternateZones.get(random.nextInt(totalAlternateZones));
-      LOG.debug("reattempting in zone {}, attempt: {}", randomZone, attempts);
+      String zone = alternateZones.get(attempts - 1);
+      LOG.debug("reattempting in zone {}, attempt: {}", zone, attempts);
       long start = System.currentTimeMillis();
-      T objToExecute = generateObjToExecutePerZone.apply(randomZone);
+      T objToExecute = generateObjToExecutePerZone.apply(zone);
       operation = executeWithReattempt(objToExecute, buildProp);
       operation = blockUntilComplete(operation, 2000, 300 * 1000, buildProp);
+      zoneHealthTracker.record(operation, System.currentTimeMillis() - start);
+      recordZonalReattempt(zone, operation);
       LOG.debug("took {}secs reattempting in zone {}",
-          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start), randomZone);
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start), zone);
       if (ResourceUtil.isOperationSuccess(operation)) {
         LOG.debug("Operation {} succeeded on attempt #{}"
             , operation.toPrettyString()
@@ -252,47 +341,166 @@ public class ResourceExecutorImpl implements ResourceExecutor, ResourceReattempt
     return new CompletedOperation(operation);
   }
   
+  /**
+   * Async counterpart of {@link #perZoneReattemptHandler}, invokes itself on completion of an
+   * attempt until one of the same conditions is met.
+   */
+  private <T extends ComputeRequest<Operation>> CompletableFuture<CompletedOperation>
+      perZoneReattemptAsync(Function<String, T> generateObjToExecutePerZone
+      , List<String> alternateZones
+      , int attempt
+      , Executor asyncExecutor
+      , @Nullable BuildProperty buildProp) {
+    String zone = alternateZones.get(attempt - 1);
+    LOG.debug("reattempting in zone {}, attempt: {}", zone, attempt);
+    long start = System.currentTimeMillis();
+    return executeAndCompleteAsync(() -> generateObjToExecutePerZone.apply(zone)
+        , asyncExecutor, buildProp)
+        .thenCompose(operation -> {
+          recordZonalReattempt(zone, operation);
+          LOG.debug("took {}secs reattempting in zone {}",
+              TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start), zone);
+          if (ResourceUtil.isOperationSuccess(operation)) {
+            LOG.debug("Operation {} succeeded on attempt #{}"
+                , toPrettyString(operation)
+                , attempt);
+            return CompletableFuture.completedFuture(new CompletedOperation(operation));
+          }
+          
+          if (operation.getError() == null || operation.getError().getErrors() == null) {
+            // shouldn't happen but still log.
+            LOG.warn("Operation {} returned no error on failure, attempt #{}"
+                , toPrettyString(operation)
+                , attempt);
+          } else {
+            for (Operation.Error.Errors err : operation.getError().getErrors()) {
+              if (err.getCode() == null
+                  || !apiCoreProps.getGceZonalReattemptErrors().contains(err.getCode())) {
+                LOG.error("During reattempt #{}, the returned error codes aren't matched the ones"
+                    + " we have. Returned codes: {} {}"
+                    , attempt
+                    , String.join(",", operationErrorsToCodes(operation))
+                    , addToException(buildProp));
+                return CompletableFuture.completedFuture(new CompletedOperation(operation));
+              }
+            }
+          }
+          
+          if (attempt >= Math.min(ZONAL_ISSUES_MAX_REATTEMPTS, alternateZones.size())) {
+            LOG.error("maximum re-attempts reached for operation {} {}"
+                , toPrettyString(operation)
+                , addToException(buildProp));
+            return CompletableFuture.completedFuture(new CompletedOperation(operation));
+          }
+          return perZoneReattemptAsync(generateObjToExecutePerZone, alternateZones, attempt + 1
+              , asyncExecutor, buildProp);
+        });
+  }
+  
+  /**
+   * Executes the object supplied on the given executor and waits for the returned
+   * {@link Operation} to complete without blocking.
+   */
+  private <T extends ComputeRequest<Operation>> CompletableFuture<Operation>
+      executeAndCompleteAsync(Supplier<T> objToExecute
+      , Executor asyncExecutor
+      , @Nullable BuildProperty buildProp) {
+    long start = System.currentTimeMillis();
+    return AsyncUtil.callAsync(() -> executeWithReattempt(objToExecute.get(), buildProp)
+        , asyncExecutor)
+        .thenCompose(operation -> completeAsync(operation, 2000, 300 * 1000, buildProp))
+        .thenApply(completedOperation -> {
+          Operation operation = completedOperation.get();
+          zoneHealthTracker.record(operation, System.currentTimeMillis() - start);
+          return operation;
+        });
+  }
+  
+  /**
+   * Zones are ranked by {@link ZoneHealthTracker}.
+   */
   @Override
-  public Operation blockUntilComplete(Operation operation,
-                                      long pollIntervalMillis,
-                                      long timeoutMillis,
-                                      @Nullable BuildProperty buildProp) throws Exception {
-    return blockUntilComplete(operation, pollIntervalMillis, timeoutMillis, Clock.systemUTC(),
-        buildProp);
+  public List<String> rankAlternateZones(@Nullable String zoneToExclude) {
+    List<String> alternateZones = new ArrayList<>(apiCoreProps.getGceReattemptZones());
+    if (zoneToExclude != null) {
+      alternateZones.remove(zoneToExclude);
+    }
+    return zoneHealthTracker.rank(alternateZones);
   }
   
-  @VisibleForTesting
+  /**
+   * @return zones to reattempt in, best first as ranked by {@link ZoneHealthTracker}.
+   */
+  private List<String> getAlternateZones(@Nullable String zoneToExclude) {
+    LOG.debug("excluded zone {}", zoneToExclude);
+    List<String> alternateZones = rankAlternateZones(zoneToExclude);
+    Preconditions.checkArgument(alternateZones.size() > 0, "No zone found to reattempt");
+    return alternateZones;
+  }
+  
+  private void recordZonalReattempt(String zone, Operation operation) {
+    metrics.recordZonalReattempt(zone, ResourceUtil.isOperationSuccess(operation)
+        ? ProvisioningMetrics.OUTCOME_SUCCESS
+        : ProvisioningMetrics.OUTCOME_FAILURE);
+  }
+  
+  @Nullable
+  private String zoneOf(ComputeRequest<Operation> objToExecute) {
+    return objToExecute instanceof Compute.Instances.Insert
+        ? ((Compute.Instances.Insert) objToExecute).getZone()
+        : null;
+  }
+  
+  private String toPrettyString(Operation operation) {
+    try {
+      return operation.toPrettyString();
+    } catch (IOException io) {
+      return operation.toString();
+    }
+  }
+  
+  @Override
   public Operation blockUntilComplete(Operation operation,
-                                      long pollInterval,
+                                      long pollIntervalMillis,
                                       long timeoutMillis,
-                                      Clock clock,
                                       @Nullable BuildProperty buildProp) throws Exception {
-    Assert.notNull(operation, "Operation can't be null");
-    
-    Instant start = clock.instant();
-    String zone = nameFromUrl(operation.getZone());
-    String status = operation.getStatus();
-    String operationName = operation.getName();
-    
-    while (!status.equals("DONE")) {
-      Thread.sleep(pollInterval);
-      Instant elapsed = clock.instant().minusMillis(timeoutMillis);
-      if (elapsed.isAfter(start)) {
-        throw new TimeoutException(String.format("Timed out waiting for Operation to complete."
-            + " Operation: %s %s"
-            , operation.toPrettyString()
-            , addToException(buildProp)));
+    try {
+      return completeAsync(operation, pollIntervalMillis, timeoutMillis, buildProp).get().get();
+    } catch (ExecutionException ee) {
+      // callers expect the cause, such as TimeoutException.
+      Throwable cause = ee.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
       }
-      
-      // Won't use ComputeService here to prevent a cyclic dependency.
-      Compute.ZoneOperations.Get get = compute.zoneOperations().get(
-          apiCoreProps.getResourceProjectId()
-          , zone
-          , operationName);
-      operation = executeWithReattempt(get, buildProp);
-      status = operation.getStatus();
+      throw ee;
     }
-    return operation;
+  }
+  
+  @Override
+  public CompletableFuture<CompletedOperation> completeAsync(Operation operation,
+                                                             long pollIntervalMillis,
+                                                             long timeoutMillis,
+                                                             @Nullable BuildProperty buildProp) {
+    long start = System.nanoTime();
+    return operationTracker.track(operation, pollIntervalMillis, timeoutMillis, buildProp)
+        .whenComplete((completedOperation, failure) -> {
+          String outcome;
+          if (failure != null) {
+            outcome = AsyncUtil.unwrap(failure) instanceof TimeoutException
+                ? ProvisioningMetrics.OUTCOME_TIMEOUT
+                : ProvisioningMetrics.OUTCOME_FAILURE;
+          } else {
+            outcome = ResourceUtil.isOperationSuccess(completedOperation.get())
+                ? ProvisioningMetrics.OUTCOME_SUCCESS
+                : ProvisioningMetrics.OUTCOME_FAILURE;
+          }
+          metrics.recordOperationWait(operation.getZone() != null
+              ? ResourceUtil.nameFromUrl(operation.getZone())
+              : null
+              , operation.getOperationType()
+              , outcome
+              , System.nanoTime() - start);
+        });
   }
   
   private String addToException(BuildProperty buildProp) {
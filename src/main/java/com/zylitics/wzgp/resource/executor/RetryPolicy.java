@@ -0,0 +1,186 @@
+package com.zylitics.wzgp.resource.executor;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.Sleeper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Decides whether a failed request to compute api should be re-attempted and waits before it is.
+ * Retryable failures are those that are likely to go away on their own, such as throttling (429,
+ * rate limit reasons), server errors (5xx) and connection failures. Waits grow exponentially up
+ * to a cap and are fully jittered so that requests failed together don't re-attempt together. A
+ * Retry-After sent by api is honored as the minimum wait.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+class RetryPolicy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+  private static final ImmutableSet<Integer> RETRYABLE_STATUS_CODES =
+      ImmutableSet.of(408, 429, 500, 502, 503, 504);
+
+  // https://cloud.google.com/compute/docs/api/errors
+  private static final ImmutableSet<String> RETRYABLE_REASONS =
+      ImmutableSet.of("rateLimitExceeded", "userRateLimitExceeded", "backendError"
+          , "internalError");
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final long deadlineMillis;
+  private final Sleeper sleeper;
+  private final Clock clock;
+  private final Random random;
+
+  @Autowired
+  RetryPolicy(@Value("${compute-retry-max-attempts}") int maxAttempts
+      , @Value("${compute-retry-initial-backoff-millis}") long initialBackoffMillis
+      , @Value("${compute-retry-max-backoff-millis}") long maxBackoffMillis
+      , @Value("${compute-retry-deadline-millis}") long deadlineMillis) {
+    this(maxAttempts, initialBackoffMillis, maxBackoffMillis, deadlineMillis, Sleeper.DEFAULT
+        , Clock.systemUTC(), new Random());
+  }
+
+  @VisibleForTesting
+  RetryPolicy(int maxAttempts
+      , long initialBackoffMillis
+      , long maxBackoffMillis
+      , long deadlineMillis
+      , Sleeper sleeper
+      , Clock clock
+      , Random random) {
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.deadlineMillis = deadlineMillis;
+    this.sleeper = sleeper;
+    this.clock = clock;
+    this.random = random;
+  }
+
+  /**
+   * @return current time in millis as seen by this policy, used as start of a request.
+   */
+  long now() {
+    return clock.millis();
+  }
+
+  /**
+   * Waits before the next attempt if the failure is retryable and another attempt fits within
+   * max attempts and the deadline.
+   * @param failure exception thrown by the last attempt
+   * @param attempt number of attempts made so far, starting at 1
+   * @param startedAt time the first attempt was made, as given by {@link #now()}
+   * @return true if waited and caller should re-attempt, false if caller should give up.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean awaitRetry(IOException failure, int attempt, long startedAt)
+      throws InterruptedException {
+    if (!isRetryable(failure)) {
+      return false;
+    }
+    if (attempt >= maxAttempts) {
+      LOG.warn("giving up after {} attempts", attempt);
+      return false;
+    }
+    long delay = Math.max(jitteredBackoff(attempt), retryAfterMillis(failure));
+    long remaining = startedAt + deadlineMillis - clock.millis();
+    if (delay >= remaining) {
+      LOG.warn("giving up after {} attempts, next attempt won't fit within deadline", attempt);
+      return false;
+    }
+    LOG.debug("re-attempting in {}ms, attempt #{} failed with {}", delay, attempt
+        , failure.toString());
+    sleeper.sleep(delay);
+    return true;
+  }
+
+  @VisibleForTesting
+  boolean isRetryable(IOException failure) {
+    if (failure instanceof HttpResponseException) {
+      HttpResponseException httpExp = (HttpResponseException) failure;
+      if (RETRYABLE_STATUS_CODES.contains(httpExp.getStatusCode())) {
+        return true;
+      }
+      // quota and rate limit errors may come with 403
+      if (failure instanceof GoogleJsonResponseException) {
+        GoogleJsonError details = ((GoogleJsonResponseException) failure).getDetails();
+        if (details != null && details.getErrors() != null) {
+          return details.getErrors().stream()
+              .anyMatch(e -> RETRYABLE_REASONS.contains(e.getReason()));
+        }
+      }
+      return false;
+    }
+    // connection refused/reset, read timeouts and dns failures are usually transient.
+    return failure instanceof SocketTimeoutException
+        || failure instanceof ConnectException
+        || failure instanceof SocketException
+        || failure instanceof UnknownHostException;
+  }
+
+  private long jitteredBackoff(int attempt) {
+    // shift is bounded so that it can't overflow for large attempts.
+    long ceiling = Math.min(maxBackoffMillis
+        , initialBackoffMillis << Math.min(attempt - 1, 30));
+    return (long) (random.nextDouble() * ceiling);
+  }
+
+  private long retryAfterMillis(IOException failure) {
+    if (!(failure instanceof HttpResponseException)) {
+      return 0;
+    }
+    HttpResponseException httpExp = (HttpResponseException) failure;
+    return httpExp.getHeaders() != null ? parseRetryAfter(httpExp.getHeaders().getRetryAfter())
+        : 0;
+  }
+
+  /**
+   * Retry-After is either delay in seconds or an http-date.
+   */
+  private long parseRetryAfter(@Nullable String retryAfter) {
+    if (Strings.isNullOrEmpty(retryAfter)) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+    } catch (NumberFormatException ignore) {
+      // not in seconds, try as date.
+    }
+    try {
+      ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim()
+          , DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Math.max(0, at.toInstant().toEpochMilli() - clock.millis());
+    } catch (DateTimeParseException e) {
+      LOG.warn("couldn't parse Retry-After {}", retryAfter);
+      return 0;
+    }
+  }
+}
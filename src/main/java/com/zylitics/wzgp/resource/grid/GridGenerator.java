@@ -4,12 +4,26 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.Map.Entry;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import com.google.api.services.compute.Compute;
@@ -20,19 +34,28 @@ import com.google.api.services.compute.model.AttachedDiskInitializeParams;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Operation;
 import com.google.api.services.compute.model.Scheduling;
 import com.google.api.services.compute.model.ServiceAccount;
 import com.google.api.services.compute.model.Tags;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
+import com.zylitics.wzgp.resource.template.InstanceTemplateSpec;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
 import com.zylitics.wzgp.util.Randoms;
 
 public class GridGenerator {
   
+  private static final Logger LOG = LoggerFactory.getLogger(GridGenerator.class);
+  
   private final static String INSTANCE_NAME_CHAR_SET = "0123456789abcdefghizklmnopqrstuvwxyz";
   
   private final Compute compute;
@@ -44,6 +67,26 @@ public class GridGenerator {
   
   private final String instanceName;
   
+  private BootDiskPool bootDiskPool;
+  
+  // pooled disks taken for inserts, until the grid they're for is settled.
+  private final List<TakenDisk> takenDisks = new ArrayList<>();
+  
+  private InstanceTemplateCache instanceTemplateCache;
+  
+  // templates inserts were built with.
+  private final Set<String> templatesUsed = ConcurrentHashMap.newKeySet();
+  
+  // set once an insert fails on a template, grids are inserted in full from then on.
+  private volatile boolean skipTemplates;
+  
+  // only times the hedge, work is handed to the executor given by caller.
+  private static final ScheduledExecutorService HEDGE_TIMER =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("grid-hedge-timer-%d")
+          .setDaemon(true)
+          .build());
+  
   public GridGenerator(Compute compute
       , APICoreProperties apiCoreProps
       , ResourceExecutor executor
@@ -59,8 +102,26 @@ public class GridGenerator {
     Assert.notNull(sourceImage, "'sourceImage' can't be null.");
     this.sourceImage = sourceImage;
     
-    String randomChars = new Randoms(INSTANCE_NAME_CHAR_SET).generateRandom(10);
-    instanceName = String.join("-", sourceImage.getFamily(), randomChars, "vm");
+    instanceName = newInstanceName();
+  }
+  
+  /**
+   * When set, grids are given a ready boot disk from the pool whenever it has one for the source
+   * image in grid's zone, otherwise the boot disk is restored from image during the insert. Disks
+   * of inserts those didn't create the grid, failed or reattempted elsewhere, are given back.
+   */
+  public void setBootDiskPool(BootDiskPool bootDiskPool) {
+    this.bootDiskPool = bootDiskPool;
+  }
+  
+  /**
+   * When set, grids are inserted from the template of their image family, machine type and
+   * network profile once it's ready, sending only the per-grid properties with the insert. If an
+   * insert fails on the template, such as when it was deleted, the template is invalidated and the
+   * grid is created again in full.
+   */
+  public void setInstanceTemplateCache(InstanceTemplateCache instanceTemplateCache) {
+    this.instanceTemplateCache = instanceTemplateCache;
   }
   
   /*
@@ -68,13 +129,225 @@ public class GridGenerator {
    * rather than the zone given by requester, since the zone could be different than the given. 
    */
   public CompletedOperation create(String zone) throws Exception {
+    return create(zone, true);
+  }
+  
+  /**
+   * Same as {@link #create(String)} but the grid is created only in the given zone, an insert
+   * that fails isn't reattempted in other zones. For callers to whom a grid in some other zone
+   * isn't of any use, such as pools those are kept per zone.
+   */
+  public CompletedOperation createInZoneOnly(String zone) throws Exception {
+    return create(zone, false);
+  }
+  
+  private CompletedOperation create(String zone, boolean zonalReattempt) throws Exception {
+    CompletedOperation completedOperation;
+    try {
+      completedOperation = createInZone(zone, zonalReattempt);
+    } catch (Exception e) {
+      if (!invalidateTemplatesOf(e.getMessage())) {
+        throw e;
+      }
+      return createInZone(zone, zonalReattempt);
+    }
+    if (invalidateTemplatesOf(errorMessageOf(completedOperation.get()))) {
+      return createInZone(zone, zonalReattempt);
+    }
+    return completedOperation;
+  }
+  
+  private CompletedOperation createInZone(String zone, boolean zonalReattempt) throws Exception {
     // first try creating with the zone given by requester, and re-attempt on random zones if
-    // this fails.
-    Compute.Instances.Insert insertInstance = buildNewGrid(zone);
-    return executor.executeWithZonalReattempt(insertInstance, this::buildNewGrid, buildProp);
+    // this fails and it's allowed.
+    Compute.Instances.Insert insertInstance = buildNewGrid(zone, instanceName);
+    CompletedOperation completedOperation = null;
+    try {
+      if (zonalReattempt) {
+        completedOperation = executor.executeWithZonalReattempt(insertInstance
+            , gridZone -> buildNewGrid(gridZone, instanceName), buildProp);
+      } else {
+        Operation operation = executor.executeWithReattempt(insertInstance, buildProp);
+        completedOperation = new CompletedOperation(executor.blockUntilComplete(operation, 2000
+            , 300 * 1000, buildProp));
+      }
+      return completedOperation;
+    } finally {
+      giveBackUnusedDisks(instanceName
+          , completedOperation == null ? null : completedOperation.get());
+    }
+  }
+  
+  /**
+   * Same as {@link #create(String)} but doesn't block while the grid is being created.
+   * @param asyncExecutor {@link Executor} to run requests to compute api on.
+   */
+  public CompletableFuture<CompletedOperation> createAsync(String zone, Executor asyncExecutor) {
+    return createAsync(zone, instanceName, asyncExecutor);
+  }
+  
+  /**
+   * Hedged version of {@link #createAsync(String, Executor)}. If the grid isn't created within
+   * {@link APICoreProperties#getHedgedCreateDelayMillis()}, another grid is requested in an
+   * alternate zone. Whichever succeeds first is returned and the other one is deleted in
+   * background once it's created. Useful when a zone is slow or short on capacity, at the cost of
+   * an occasional extra instance.
+   */
+  public CompletableFuture<CompletedOperation> createHedgedAsync(String zone
+      , Executor asyncExecutor) {
+    return createHedgedAsync(zone, asyncExecutor, HEDGE_TIMER);
+  }
+  
+  @VisibleForTesting
+  CompletableFuture<CompletedOperation> createHedgedAsync(String zone
+      , Executor asyncExecutor
+      , ScheduledExecutorService hedgeTimer) {
+    HedgedCreate hedgedCreate = new HedgedCreate(asyncExecutor);
+    hedgedCreate.track(createAsync(zone, instanceName, asyncExecutor));
+    
+    // hedge where a zonal reattempt would go first, so that zones cooling down are avoided.
+    List<String> alternateZones = executor.rankAlternateZones(zone);
+    if (alternateZones.isEmpty()) {
+      LOG.warn("No alternate zone to hedge grid create in, continuing with zone {} {}", zone
+          , buildProp);
+      return hedgedCreate.result;
+    }
+    String hedgeZone = alternateZones.get(0);
+    hedgeTimer.schedule(() -> {
+      if (!hedgedCreate.tryStartHedge()) {
+        return;
+      }
+      LOG.info("grid in zone {} isn't created within {}ms, hedging in zone {} {}", zone
+          , apiCoreProps.getHedgedCreateDelayMillis(), hedgeZone, buildProp);
+      hedgedCreate.track(createAsync(hedgeZone, newInstanceName(), asyncExecutor));
+    }, apiCoreProps.getHedgedCreateDelayMillis(), TimeUnit.MILLISECONDS);
+    return hedgedCreate.result;
+  }
+  
+  private CompletableFuture<CompletedOperation> createAsync(String zone, String name
+      , Executor asyncExecutor) {
+    return createInZoneAsync(zone, name, asyncExecutor)
+        .handle((completedOperation, failure) -> {
+          String message = failure != null
+              ? AsyncUtil.unwrap(failure).getMessage()
+              : errorMessageOf(completedOperation.get());
+          if (invalidateTemplatesOf(message)) {
+            return createInZoneAsync(zone, name, asyncExecutor);
+          }
+          if (failure != null) {
+            CompletableFuture<CompletedOperation> failed = new CompletableFuture<>();
+            failed.completeExceptionally(AsyncUtil.unwrap(failure));
+            return failed;
+          }
+          return CompletableFuture.completedFuture(completedOperation);
+        })
+        .thenCompose(Function.identity());
+  }
+  
+  private CompletableFuture<CompletedOperation> createInZoneAsync(String zone, String name
+      , Executor asyncExecutor) {
+    Compute.Instances.Insert insertInstance = buildNewGrid(zone, name);
+    return executor.executeWithZonalReattemptAsync(insertInstance
+        , gridZone -> buildNewGrid(gridZone, name), asyncExecutor, buildProp)
+        .whenComplete((completedOperation, failure) -> giveBackUnusedDisks(name
+            , completedOperation == null ? null : completedOperation.get()));
+  }
+  
+  /**
+   * Invalidates the templates inserts were built with those the given error refers to, so that
+   * they're created again. Inserts don't use templates from then on.
+   * @return whether any template was invalidated, the grid should then be created again.
+   */
+  private boolean invalidateTemplatesOf(@Nullable String errorMessage) {
+    if (skipTemplates || errorMessage == null) {
+      return false;
+    }
+    boolean invalidated = false;
+    for (String template : templatesUsed) {
+      if (errorMessage.contains(ResourceUtil.nameFromUrl(template))) {
+        instanceTemplateCache.invalidate(template);
+        invalidated = true;
+      }
+    }
+    if (invalidated) {
+      skipTemplates = true;
+      LOG.warn("Insert of grid {} failed on its instance template, creating it in full {}"
+          , instanceName, buildProp);
+    }
+    return invalidated;
+  }
+  
+  @Nullable
+  private String errorMessageOf(Operation operation) {
+    if (ResourceUtil.isOperationSuccess(operation) || operation.getError() == null
+        || operation.getError().getErrors() == null) {
+      return null;
+    }
+    return operation.getError().getErrors().stream()
+        .map(Operation.Error.Errors::getMessage)
+        .filter(Objects::nonNull)
+        .collect(Collectors.joining("\n"));
+  }
+  
+  /**
+   * Gives back pooled disks taken for inserts of the given grid except the one it was created
+   * with, a failed insert doesn't attach its disk.
+   * @param operation operation the grid's create ended with, null if it couldn't be executed.
+   */
+  private void giveBackUnusedDisks(String name, @Nullable Operation operation) {
+    String createdInZone = null;
+    if (operation != null && ResourceUtil.isOperationSuccess(operation)) {
+      if (operation.getZone() == null) {
+        // shouldn't happen, keep them all rather than give back the attached one.
+        return;
+      }
+      createdInZone = ResourceUtil.nameFromUrl(operation.getZone());
+    }
+    List<TakenDisk> unused = new ArrayList<>();
+    synchronized (takenDisks) {
+      Iterator<TakenDisk> it = takenDisks.iterator();
+      while (it.hasNext()) {
+        TakenDisk taken = it.next();
+        if (taken.gridName.equals(name)) {
+          it.remove();
+          if (!taken.zone.equals(createdInZone)) {
+            unused.add(taken);
+          }
+        }
+      }
+    }
+    for (TakenDisk taken : unused) {
+      LOG.debug("giving back pooled disk {} that grid {} wasn't created with {}", taken.disk, name
+          , buildProp);
+      bootDiskPool.giveBack(sourceImage, taken.zone, taken.disk);
+    }
+  }
+  
+  private String newInstanceName() {
+    String randomChars = new Randoms(INSTANCE_NAME_CHAR_SET).generateRandom(10);
+    return String.join("-", sourceImage.getFamily(), randomChars, "vm");
   }
   
-  private Compute.Instances.Insert buildNewGrid(String gridZone) {
+  /**
+   * Deletes a grid that lost the race, it's not waited upon.
+   */
+  private void deleteLoser(Operation operation, Executor asyncExecutor) {
+    String name = ResourceUtil.nameFromUrl(operation.getTargetLink());
+    String gridZone = ResourceUtil.nameFromUrl(operation.getZone());
+    LOG.debug("deleting hedged grid {}:{} that lost {}", name, gridZone, buildProp);
+    // Won't use ComputeService here.
+    AsyncUtil.callAsync(() -> executor.executeWithReattempt(
+        compute.instances().delete(apiCoreProps.getResourceProjectId(), gridZone, name)
+        , buildProp), asyncExecutor)
+        .whenComplete((op, t) -> {
+          if (t != null) {
+            LOG.error(String.format("couldn't delete hedged grid %s:%s %s", name, gridZone
+                , buildProp), t);
+          }
+        });
+  }
+  
+  private Compute.Instances.Insert buildNewGrid(String gridZone, String instanceName) {
     GridDefault gridDefault = apiCoreProps.getGridDefault();
     String sharedVpcProjectId = apiCoreProps.getSharedVpcProjectId();
     Set<String> tags;
@@ -100,6 +373,40 @@ public class GridGenerator {
         Optional.ofNullable(gridProp.getServiceAccount()).orElse(gridDefault.getServiceAccount());
     boolean preemptible = gridProp.isPreemptible();
     boolean createExternalIP = gridProp.isCreateExternalIP();
+    String subnetwork = ResourceUtil.getSubnetURLFromZone(sharedVpcProjectId, gridZone);
+    Optional<String> pooledDisk = bootDiskPool == null
+        ? Optional.empty()
+        : bootDiskPool.take(sourceImage, gridZone);
+    pooledDisk.ifPresent(disk -> {
+      synchronized (takenDisks) {
+        takenDisks.add(new TakenDisk(instanceName, gridZone, disk));
+      }
+    });
+    
+    Optional<String> template = instanceTemplateCache == null || skipTemplates
+        ? Optional.empty()
+        : instanceTemplateCache.get(new InstanceTemplateSpec(sourceImage.getFamily()
+            , machineType
+            , subnetwork
+            , createExternalIP
+            , tags
+            , serviceAccountEmail
+            , preemptible));
+    if (template.isPresent()) {
+      templatesUsed.add(template.get());
+      // everything else comes from template.
+      Instance instance = new Instance();
+      instance.setName(instanceName);
+      pooledDisk.ifPresent(source -> instance.setDisks(Collections.singletonList(
+          new AttachedDisk()
+              .setBoot(true)
+              .setAutoDelete(true)
+              .setType("PERSISTENT")
+              .setSource(source))));
+      instance.setMetadata(ResourceUtil.getGCPMetadata(metadata));
+      instance.setLabels(labels);
+      return newInsert(gridZone, instance).setSourceInstanceTemplate(template.get());
+    }
     
     // ************************************************************************
     
@@ -113,7 +420,7 @@ public class GridGenerator {
     
     // Attach network interface
     NetworkInterface nif = new NetworkInterface();
-    nif.setSubnetwork(ResourceUtil.getSubnetURLFromZone(sharedVpcProjectId, gridZone));
+    nif.setSubnetwork(subnetwork);
     if (createExternalIP) {
       AccessConfig accessConfig = new AccessConfig();
       accessConfig.setType("ONE_TO_ONE_NAT");
@@ -127,14 +434,18 @@ public class GridGenerator {
     disk.setBoot(true);
     disk.setAutoDelete(true);
     disk.setType("PERSISTENT");
-    AttachedDiskInitializeParams initializeParams = new AttachedDiskInitializeParams();
-    initializeParams.setDiskName(instanceName);
-    initializeParams.setDiskSizeGb(50L);
-    initializeParams.setSourceImage(String.format("global/images/family/%s"
-        , sourceImage.getFamily()));
-    initializeParams.setDiskType(String.format("zones/%s/diskTypes/pd-ssd"
-        , gridZone));
-    disk.setInitializeParams(initializeParams);
+    if (pooledDisk.isPresent()) {
+      disk.setSource(pooledDisk.get());
+    } else {
+      AttachedDiskInitializeParams initializeParams = new AttachedDiskInitializeParams();
+      initializeParams.setDiskName(instanceName);
+      initializeParams.setDiskSizeGb(50L);
+      initializeParams.setSourceImage(String.format("global/images/family/%s"
+          , sourceImage.getFamily()));
+      initializeParams.setDiskType(String.format("zones/%s/diskTypes/pd-ssd"
+          , gridZone));
+      disk.setInitializeParams(initializeParams);
+    }
     instance.setDisks(Collections.singletonList(disk));
     
     // Add service account
@@ -158,6 +469,10 @@ public class GridGenerator {
     instance.setLabels(labels);
     
     // Finish instance build
+    return newInsert(gridZone, instance);
+  }
+  
+  private Compute.Instances.Insert newInsert(String gridZone, Instance instance) {
     // Won't use ComputeService here.
     try {
       return compute.instances().insert(apiCoreProps.getResourceProjectId(), gridZone, instance);
@@ -174,7 +489,8 @@ public class GridGenerator {
    * 2. We'll put some labels known only at runtime for the grid, such as source-image-family
    * 3. We'll customize some labels based on the specific inputs to the api.
    */
-  private Map<String, String> buildGridLabels(Image image
+  @VisibleForTesting
+  Map<String, String> buildGridLabels(Image image
       , Map<String, String> defaultLabels
       , Map<String, String> customLabels
       , Set<String> imageSpecificLabelKeys) {
@@ -200,7 +516,77 @@ public class GridGenerator {
     return mergedLabels;
   }
   
-  private Map<String, String> mergedMetadata() {
+  private static class TakenDisk {
+    
+    private final String gridName;
+    private final String zone;
+    private final String disk;
+    
+    private TakenDisk(String gridName, String zone, String disk) {
+      this.gridName = gridName;
+      this.zone = zone;
+      this.disk = disk;
+    }
+  }
+  
+  /**
+   * Tracks the racing creates of a hedged create, first successful one completes the result.
+   */
+  private class HedgedCreate {
+    
+    private final CompletableFuture<CompletedOperation> result = new CompletableFuture<>();
+    private final Executor asyncExecutor;
+    
+    // guarded by this
+    private int inFlight;
+    private boolean hedgeAllowed = true;
+    
+    private HedgedCreate(Executor asyncExecutor) {
+      this.asyncExecutor = asyncExecutor;
+    }
+    
+    private synchronized void track(CompletableFuture<CompletedOperation> create) {
+      inFlight++;
+      create.whenComplete(this::onSettled);
+    }
+    
+    // hedge starts only while the first create is still running.
+    private synchronized boolean tryStartHedge() {
+      if (!hedgeAllowed || result.isDone()) {
+        return false;
+      }
+      hedgeAllowed = false;
+      return true;
+    }
+    
+    private void onSettled(CompletedOperation completed, Throwable failure) {
+      boolean succeeded = failure == null && ResourceUtil.isOperationSuccess(completed.get());
+      synchronized (this) {
+        inFlight--;
+        if (succeeded) {
+          if (result.complete(completed)) {
+            return;
+          }
+          // reaching here means we've lost, delete outside the lock.
+        } else {
+          // a failed create wins only when nothing else can succeed.
+          if (inFlight == 0 && !result.isDone()) {
+            hedgeAllowed = false;
+            if (failure != null) {
+              result.completeExceptionally(failure);
+            } else {
+              result.complete(completed);
+            }
+          }
+          return;
+        }
+      }
+      deleteLoser(completed.get(), asyncExecutor);
+    }
+  }
+  
+  @VisibleForTesting
+  Map<String, String> mergedMetadata() {
     GridDefault gridDefault = apiCoreProps.getGridDefault();
     // first put server defined grid defaults.
     Map<String, String> metadata = new HashMap<>(gridDefault.getMetadata());
@@ -0,0 +1,142 @@
+package com.zylitics.wzgp.resource.grid;
+
+import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.springframework.util.Assert;
+
+import com.google.api.client.util.Strings;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
+import com.zylitics.wzgp.web.FingerprintBasedUpdater;
+
+/**
+ * Resumes a suspended grid the way {@link GridStarter} starts a stopped one. A suspended grid
+ * keeps its machine type and service account, only grids those already match the request can be
+ * resumed, see {@link #canResume(GridProperty, Instance)}.
+ * @author Praveen Tiwari
+ *
+ */
+public class GridResumer {
+
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final FingerprintBasedUpdater fingerprintBasedUpdater;
+  private final BuildProperty buildProp;
+  private final GridProperty gridProp;
+  private final Instance gridInstance;
+  private final String zone;
+
+  public GridResumer(ResourceExecutor executor
+      , ComputeService computeSrv
+      , FingerprintBasedUpdater fingerprintBasedUpdater
+      , BuildProperty buildProp
+      , GridProperty gridProp
+      , Instance gridInstance) {
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.fingerprintBasedUpdater = fingerprintBasedUpdater;
+    this.buildProp = buildProp;
+    this.gridProp = gridProp;
+    Assert.notNull(gridInstance, "'gridInstance' can't be null.");
+    Assert.hasText(gridInstance.getName(), "'gridInstance' name is missing, object seems invalid.");
+    this.gridInstance = gridInstance;
+    zone = nameFromUrl(gridInstance.getZone());
+  }
+
+  /**
+   * @return whether the given suspended grid can serve the requested properties without being
+   *         changed in ways that need a stopped grid.
+   */
+  public static boolean canResume(GridProperty gridProp, Instance gridInstance) {
+    if (!Strings.isNullOrEmpty(gridProp.getMachineType())
+        && (Strings.isNullOrEmpty(gridInstance.getMachineType())
+            || !gridProp.getMachineType().equals(nameFromUrl(gridInstance.getMachineType())))) {
+      return false;
+    }
+    return Strings.isNullOrEmpty(gridProp.getServiceAccount())
+        || (gridInstance.getServiceAccounts() != null
+            && gridInstance.getServiceAccounts().size() > 0
+            && gridProp.getServiceAccount().equals(
+                gridInstance.getServiceAccounts().get(0).getEmail()));
+  }
+
+  /**
+   * Applies requested metadata and resumes the grid once both the given lock and metadata are in
+   * place so that grid comes up locked and with the metadata it's going to be used with.
+   * @param lockOperation operation of the label update that locked grid for the build
+   * @param asyncExecutor {@link Executor} to run requests to compute api on
+   * @return {@link CompletableFuture} that completes with the resume operation once it's done.
+   */
+  public CompletableFuture<CompletedOperation> resume(Operation lockOperation
+      , Executor asyncExecutor) {
+    if (!InstanceStatus.SUSPENDED.toString().equals(gridInstance.getStatus())
+        || !canResume(gridProp, gridInstance)) {
+      // shouldn't happen but still check.
+      CompletableFuture<CompletedOperation> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new RuntimeException(
+          String.format("The given grid instance: %s, can't be resumed for the request. %s"
+          , gridInstance.getName()
+          , addToException())));
+      return failed;
+    }
+    return AsyncUtil.callAsync(() -> submitUpdates(lockOperation), asyncExecutor)
+        .thenCompose(this::awaitUpdates)
+        .thenCompose(v -> AsyncUtil.callAsync(() ->
+            computeSrv.resumeInstance(gridInstance.getName(), zone, buildProp), asyncExecutor))
+        .thenCompose(op -> executor.completeAsync(op, 1000, 180 * 1000, buildProp));
+  }
+
+  private List<Operation> submitUpdates(Operation lockOperation) throws Exception {
+    List<Operation> updateOperations = new ArrayList<>(2);
+    updateOperations.add(lockOperation);
+    if (gridProp.getMetadata() != null && gridProp.getMetadata().size() > 0) {
+      updateOperations.add(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(
+          gridInstance,
+          gridProp.getMetadata(),
+          buildProp));
+    }
+    return updateOperations;
+  }
+
+  private CompletableFuture<Void> awaitUpdates(List<Operation> updateOperations) {
+    List<CompletableFuture<CompletedOperation>> completions =
+        new ArrayList<>(updateOperations.size());
+    for (Operation operation : updateOperations) {
+      completions.add(executor.completeAsync(operation, 500, 10000, buildProp));
+    }
+    return CompletableFuture.allOf(completions.toArray(new CompletableFuture<?>[0]))
+        .thenRun(() -> {
+          for (CompletableFuture<CompletedOperation> completion : completions) {
+            Operation operation = completion.join().get();
+            if (!ResourceUtil.isOperationSuccess(operation)) {
+              throw new RuntimeException(
+                  String.format("Couldn't update grid instance %s before resuming, operation: %s"
+                      + " %s"
+                  , gridInstance.getName()
+                  , operation
+                  , addToException()));
+            }
+          }
+        });
+  }
+
+  private String addToException() {
+    StringBuilder sb = new StringBuilder();
+    if (buildProp != null) {
+      sb.append(buildProp);
+    }
+    return sb.toString();
+  }
+}
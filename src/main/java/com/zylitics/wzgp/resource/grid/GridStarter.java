@@ -3,6 +3,8 @@ package com.zylitics.wzgp.resource.grid;
 import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import com.zylitics.wzgp.model.InstanceStatus;
@@ -15,10 +17,12 @@ import com.google.api.client.util.Strings;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.Operation;
 import com.google.api.services.compute.model.ServiceAccount;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.util.AsyncUtil;
 import com.zylitics.wzgp.web.FingerprintBasedUpdater;
 
 public class GridStarter {
@@ -31,14 +35,21 @@ public class GridStarter {
   private final BuildProperty buildProp;
   private final GridProperty gridProp;
   private final Instance gridInstance;
+  private final ProvisioningMetrics metrics;
+  private final String handler;
   private final String zone;
   
+  /**
+   * @param handler name of the handler phases of starting are recorded against.
+   */
   public GridStarter(ResourceExecutor executor
       , ComputeService computeSrv
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , BuildProperty buildProp
       , GridProperty gridProp
-      , Instance gridInstance) {
+      , Instance gridInstance
+      , ProvisioningMetrics metrics
+      , String handler) {
     this.executor = executor;
     this.computeSrv = computeSrv;
     this.fingerprintBasedUpdater = fingerprintBasedUpdater;
@@ -47,6 +58,8 @@ public class GridStarter {
     Assert.notNull(gridInstance, "'gridInstance' can't be null.");
     Assert.hasText(gridInstance.getName(), "'gridInstance' name is missing, object seems invalid.");
     this.gridInstance = gridInstance;
+    this.metrics = metrics;
+    this.handler = handler;
     zone = nameFromUrl(gridInstance.getZone());
   }
   
@@ -59,44 +72,75 @@ public class GridStarter {
           , addToException()));
     }
     long start = System.currentTimeMillis();
-    // Before starting the grid, we should update the requested properties of it.
-    // start update of label and metadata and don't wait as they'll update by the time we're starting
-    // instance
+    long startNanos = System.nanoTime();
+    // Before starting the grid, we should update the requested properties of it. All updates are
+    // submitted without waiting on one another and then awaited together, the grid is started only
+    // once all of them are done. Machine type and service account can be changed only while grid
+    // is stopped, metadata should be there when grid boots and lock should be on it before it's
+    // running so that nobody else finds it as a free running grid.
+    List<Operation> updateOperations = new ArrayList<>(4);
     Map<String, String> labelsToUpdate = new HashMap<>();
     labelsToUpdate.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, buildProp.getBuildId());
     if (gridProp.getCustomLabels() != null) {
       labelsToUpdate.putAll(gridProp.getCustomLabels());
     }
-    fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(
+    updateOperations.add(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(
         gridInstance,
         labelsToUpdate,
-        buildProp);
+        buildProp));
     if (gridProp.getMetadata() != null && gridProp.getMetadata().size() > 0) {
-      fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(
+      updateOperations.add(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(
           gridInstance,
           gridProp.getMetadata(),
-          buildProp);
-    }
-    // Wait for the operations that needs to be completed before machine starts
-    List<Optional<Operation>> updateOperations = new ArrayList<>(5);
-    updateOperations.add(machineTypeUpdateHandler());
-    updateOperations.add(serviceAccountUpdateHandler());
-    for (Optional<Operation> optOperation : updateOperations) {
-      if (optOperation.isPresent()) {
-        executor.blockUntilComplete(optOperation.get(), 500, 10000, buildProp);
-      }
+          buildProp));
     }
+    machineTypeUpdateHandler().ifPresent(updateOperations::add);
+    serviceAccountUpdateHandler().ifPresent(updateOperations::add);
+    // lock is issued along with updates, this is the time taken to issue all of them.
+    metrics.recordPhase(handler, "lock", zone, System.nanoTime() - startNanos);
+    startNanos = System.nanoTime();
+    awaitUpdates(updateOperations);
     LOG.debug("took {}secs waiting for update op before starting instance",
         TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+    metrics.recordPhase(handler, "update", zone, System.nanoTime() - startNanos);
     // start grid.
     start = System.currentTimeMillis();
+    startNanos = System.nanoTime();
     Operation startOp = startInstanceHandler();
     startOp = executor.blockUntilComplete(startOp, 1000, 180 * 1000, buildProp);
     LOG.debug("took {}secs waiting for instance to start",
         TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+    metrics.recordPhase(handler, "start", zone, System.nanoTime() - startNanos);
     return new CompletedOperation(startOp);
   }
   
+  private void awaitUpdates(List<Operation> updateOperations) throws Exception {
+    List<CompletableFuture<CompletedOperation>> completions =
+        new ArrayList<>(updateOperations.size());
+    for (Operation operation : updateOperations) {
+      completions.add(executor.completeAsync(operation, 500, 10000, buildProp));
+    }
+    try {
+      CompletableFuture.allOf(completions.toArray(new CompletableFuture<?>[0])).get();
+    } catch (ExecutionException e) {
+      Throwable cause = AsyncUtil.unwrap(e);
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+    for (CompletableFuture<CompletedOperation> completion : completions) {
+      Operation operation = completion.get().get();
+      if (!ResourceUtil.isOperationSuccess(operation)) {
+        throw new RuntimeException(
+            String.format("Couldn't update grid instance %s before starting, operation: %s %s"
+            , gridInstance.getName()
+            , operation.toPrettyString()
+            , addToException()));
+      }
+    }
+  }
+  
   private Operation startInstanceHandler() throws Exception {
     return computeSrv.startInstance(gridInstance.getName(), zone, buildProp);
   }
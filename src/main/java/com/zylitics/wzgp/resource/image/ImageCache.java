@@ -0,0 +1,47 @@
+package com.zylitics.wzgp.resource.image;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import com.google.api.services.compute.model.Image;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+
+/**
+ * Caches image lookups as images change only on deploys. Concurrent lookups of the same key that
+ * miss the cache wait for a single load rather than each going to GCE.
+ * @author Praveen Tiwari
+ *
+ */
+public interface ImageCache {
+
+  /**
+   * @param imageFamily family to get the latest image of
+   * @param loader fetches the image from GCE, invoked only when no cached or in-flight lookup of
+   *        the same family exists.
+   * @return the latest {@link Image} of the family.
+   * @throws Exception exception thrown by the loader as is.
+   */
+  Image getFromFamily(String imageFamily, Callable<Image> loader) throws Exception;
+
+  /**
+   * @param searchParam search params, entries are keyed by their normalized form so that params
+   *        differing only in case or order of custom params share an entry.
+   * @param loader searches the image on GCE, invoked only when no cached or in-flight lookup of
+   *        the same params exists.
+   * @return the found {@link Image}, or empty when none matched. An empty result isn't cached.
+   * @throws Exception exception thrown by the loader as is.
+   */
+  Optional<Image> search(ResourceSearchParam searchParam, Callable<Optional<Image>> loader)
+      throws Exception;
+
+  /**
+   * Removes the cached image of the given family, and cached searches those resolved to an image
+   * of it, so that the next lookup goes to GCE.
+   */
+  void invalidateFamily(String imageFamily);
+
+  /**
+   * Removes all cached images.
+   */
+  void invalidateAll();
+}
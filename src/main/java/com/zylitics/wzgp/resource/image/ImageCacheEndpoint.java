@@ -0,0 +1,37 @@
+package com.zylitics.wzgp.resource.image;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lets deploys drop cached images right after publishing new ones rather than waiting for the
+ * cache to expire.
+ * DELETE /actuator/imagecache drops everything, DELETE /actuator/imagecache/{family} drops just
+ * the given family.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+@Endpoint(id = "imagecache")
+public class ImageCacheEndpoint {
+
+  private final ImageCache imageCache;
+
+  @Autowired
+  ImageCacheEndpoint(ImageCache imageCache) {
+    this.imageCache = imageCache;
+  }
+
+  @DeleteOperation
+  public void invalidateAll() {
+    imageCache.invalidateAll();
+  }
+
+  @DeleteOperation
+  public void invalidateFamily(@Selector String family) {
+    imageCache.invalidateFamily(family);
+  }
+}
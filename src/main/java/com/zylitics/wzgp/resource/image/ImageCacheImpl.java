@@ -0,0 +1,176 @@
+package com.zylitics.wzgp.resource.image;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import com.google.api.services.compute.model.Image;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+
+/**
+ * Backed by a guava {@link Cache} whose entries expire a fixed time after they're loaded. Guava
+ * lets only one thread load a missing key while others wait for its result, which is what
+ * collapses concurrent misses into a single call to GCE.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class ImageCacheImpl implements ImageCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ImageCacheImpl.class);
+
+  private static final long MAX_ENTRIES = 1000;
+
+  // family name -> image
+  private final Cache<String, Image> families;
+
+  // search key -> image, empty results are removed as soon as they're handed to waiters.
+  private final Cache<SearchKey, Optional<Image>> searches;
+
+  @Autowired
+  ImageCacheImpl(@Value("${image-cache-ttl-millis}") long ttlMillis) {
+    this(ttlMillis, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  public ImageCacheImpl(long ttlMillis, Ticker ticker) {
+    families = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .maximumSize(MAX_ENTRIES)
+        .ticker(ticker)
+        .build();
+    searches = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .maximumSize(MAX_ENTRIES)
+        .ticker(ticker)
+        .build();
+  }
+
+  @Override
+  public Image getFromFamily(String imageFamily, Callable<Image> loader) throws Exception {
+    Assert.hasText(imageFamily, "imageFamily can't be empty");
+
+    return get(families, imageFamily, () -> {
+      LOG.debug("image of family {} isn't cached, fetching", imageFamily);
+      return loader.call();
+    });
+  }
+
+  @Override
+  public Optional<Image> search(ResourceSearchParam searchParam
+      , Callable<Optional<Image>> loader) throws Exception {
+    SearchKey key = new SearchKey(searchParam);
+    Optional<Image> image = get(searches, key, () -> {
+      LOG.debug("image for search {} isn't cached, searching", key);
+      return loader.call();
+    });
+    if (!image.isPresent()) {
+      // don't let a missing image stick around for a whole ttl, it may be created any moment.
+      searches.asMap().remove(key, image);
+    }
+    return image;
+  }
+
+  @Override
+  public void invalidateFamily(String imageFamily) {
+    families.invalidate(imageFamily);
+    // searches those resolved to an image of this family would keep serving the old image.
+    searches.asMap().values().removeIf(image -> image.isPresent()
+        && imageFamily.equals(image.get().getFamily()));
+  }
+
+  @Override
+  public void invalidateAll() {
+    families.invalidateAll();
+    searches.invalidateAll();
+    LOG.info("invalidated all cached images");
+  }
+
+  /**
+   * Loads through the cache, rethrowing whatever the loader threw rather than guava's wrappers.
+   */
+  private <K, V> V get(Cache<K, V> cache, K key, Callable<V> loader) throws Exception {
+    try {
+      return cache.get(key, loader);
+    } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Normalized form of {@link ResourceSearchParam} for image search. Only the params that affect
+   * image search are kept, values are
+   * normalized the same way as when building filters.
+   */
+  private static final class SearchKey {
+
+    private final String os;
+    private final String browser;
+    private final String shots;
+    private final Map<String, String> customImageSearchParams;
+
+    private SearchKey(ResourceSearchParam searchParam) {
+      os = searchParam.getOS().toLowerCase();
+      browser = searchParam.getBrowser().toLowerCase();
+      shots = String.valueOf(searchParam.isShots());
+      customImageSearchParams = searchParam.getCustomImageSearchParams() != null
+          ? Collections.unmodifiableMap(new TreeMap<>(searchParam.getCustomImageSearchParams()))
+          : Collections.emptyMap();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SearchKey)) {
+        return false;
+      }
+      SearchKey that = (SearchKey) o;
+      return os.equals(that.os)
+          && browser.equals(that.browser)
+          && shots.equals(that.shots)
+          && customImageSearchParams.equals(that.customImageSearchParams);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(os, browser, shots, customImageSearchParams);
+    }
+
+    @Override
+    public String toString() {
+      return "SearchKey [os=" + os + ", browser=" + browser + ", shots=" + shots
+          + ", customImageSearchParams=" + customImageSearchParams + "]";
+    }
+  }
+}
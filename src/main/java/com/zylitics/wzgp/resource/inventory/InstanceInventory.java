@@ -0,0 +1,35 @@
+package com.zylitics.wzgp.resource.inventory;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import com.google.api.services.compute.model.Instance;
+
+/**
+ * A local index of grid instances per zone, refreshed from periodic sweeps of GCE so that searches
+ * can be answered without a list call per request.
+ * @author Praveen Tiwari
+ *
+ */
+public interface InstanceInventory {
+
+  /**
+   *
+   * @param zone zone where to find
+   * @param matcher predicate instances should match
+   * @return Copies of matched instances if the zone's index is within the staleness window, else
+   *         an empty {@link Optional} which means caller should go to GCE. Instances changed by
+   *         this service since the last sweep of zone are never returned as their fingerprints
+   *         and state aren't known until the next sweep.
+   */
+  Optional<List<Instance>> find(String zone, Predicate<Instance> matcher);
+
+  /**
+   * Should be invoked whenever an instance is mutated by this service, so that the indexed copy
+   * is not given out until refreshed.
+   * @param instanceName name of the instance
+   * @param zone zone of instance
+   */
+  void markChanged(String instanceName, String zone);
+}
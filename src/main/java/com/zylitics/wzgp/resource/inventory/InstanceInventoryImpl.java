@@ -0,0 +1,199 @@
+package com.zylitics.wzgp.resource.inventory;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceAggregatedList;
+import com.google.api.services.compute.model.InstanceList;
+import com.google.api.services.compute.model.InstancesScopedList;
+import com.google.common.annotations.VisibleForTesting;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Index is refreshed by a full sweep using aggregatedList that covers every zone, and a more
+ * frequent per zone list sweep of 'hot' zones, i.e zones that were recently searched. Both sweeps
+ * replace a zone's index entirely, thus deleted instances go away on their own.
+ * Doesn't use ComputeService as that depends on this to report mutations.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+public class InstanceInventoryImpl implements InstanceInventory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstanceInventoryImpl.class);
+
+  // a zone searched within this window is swept on the shorter interval.
+  private static final long HOT_ZONE_WINDOW_MILLIS = 5 * 60 * 1000;
+
+  private static final long SWEEP_PAGE_SIZE = 500;
+
+  private final Compute compute;
+  private final ResourceExecutor executor;
+  private final String project;
+  private final long maxStalenessMillis;
+  private final Clock clock;
+
+  private final Map<String, ZoneIndex> zoneIndexes = new ConcurrentHashMap<>();
+
+  // zone -> last time it was searched
+  private final Map<String, Long> hotZones = new ConcurrentHashMap<>();
+
+  // zone/instance-name -> time it was changed by us
+  private final Map<String, Long> changedInstances = new ConcurrentHashMap<>();
+
+  @Autowired
+  InstanceInventoryImpl(Compute compute
+      , ResourceExecutor executor
+      , APICoreProperties apiCoreProps
+      , @Value("${inventory-max-staleness-millis}") long maxStalenessMillis) {
+    this(compute, executor, apiCoreProps, maxStalenessMillis, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  InstanceInventoryImpl(Compute compute
+      , ResourceExecutor executor
+      , APICoreProperties apiCoreProps
+      , long maxStalenessMillis
+      , Clock clock) {
+    this.compute = compute;
+    this.executor = executor;
+    this.project = apiCoreProps.getResourceProjectId();
+    this.maxStalenessMillis = maxStalenessMillis;
+    this.clock = clock;
+  }
+
+  @Override
+  public Optional<List<Instance>> find(String zone, Predicate<Instance> matcher) {
+    long now = clock.millis();
+    hotZones.put(zone, now);
+    ZoneIndex index = zoneIndexes.get(zone);
+    if (index == null || now - index.sweptAt > maxStalenessMillis) {
+      return Optional.empty();
+    }
+    List<Instance> matched = index.instances.stream()
+        .filter(i -> !changedInstances.containsKey(changedKey(i.getName(), zone)))
+        .filter(matcher)
+        .map(Instance::clone)
+        .collect(Collectors.toList());
+    return Optional.of(matched);
+  }
+
+  @Override
+  public void markChanged(String instanceName, String zone) {
+    changedInstances.put(changedKey(instanceName, zone), clock.millis());
+  }
+
+  @Scheduled(fixedDelayString = "${inventory-full-sweep-delay-millis}")
+  public void fullSweep() {
+    long start = clock.millis();
+    try {
+      Map<String, List<Instance>> byZone = new HashMap<>();
+      String pageToken = null;
+      do {
+        Compute.Instances.AggregatedList aggregatedList =
+            compute.instances().aggregatedList(project);
+        aggregatedList.setMaxResults(SWEEP_PAGE_SIZE);
+        aggregatedList.setPageToken(pageToken);
+        InstanceAggregatedList list = ApiPriority.callWith(ApiPriority.BACKGROUND
+            , () -> executor.executeWithReattempt(aggregatedList, null));
+        if (list.getItems() != null) {
+          for (Map.Entry<String, InstancesScopedList> scoped : list.getItems().entrySet()) {
+            // keys are of form zones/<zone>
+            String zone = ResourceUtil.nameFromUrl(scoped.getKey());
+            List<Instance> instances = byZone.computeIfAbsent(zone, k -> new ArrayList<>());
+            if (scoped.getValue().getInstances() != null) {
+              instances.addAll(scoped.getValue().getInstances());
+            }
+          }
+        }
+        pageToken = list.getNextPageToken();
+      } while (pageToken != null);
+      byZone.forEach((zone, instances) -> replaceIndex(zone, instances, start));
+      clearChangedBefore(start, null);
+      LOG.debug("full inventory sweep indexed {} zone(s) in {}ms", byZone.size()
+          , clock.millis() - start);
+    } catch (Throwable t) {
+      LOG.error("full inventory sweep failed", t);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${inventory-zone-sweep-delay-millis}")
+  public void hotZoneSweep() {
+    long now = clock.millis();
+    hotZones.entrySet().removeIf(e -> now - e.getValue() > HOT_ZONE_WINDOW_MILLIS);
+    for (String zone : hotZones.keySet()) {
+      sweepZone(zone);
+    }
+  }
+
+  @VisibleForTesting
+  void sweepZone(String zone) {
+    long start = clock.millis();
+    try {
+      List<Instance> instances = new ArrayList<>();
+      String pageToken = null;
+      do {
+        Compute.Instances.List listBuilder = compute.instances().list(project, zone);
+        listBuilder.setMaxResults(SWEEP_PAGE_SIZE);
+        listBuilder.setPageToken(pageToken);
+        InstanceList list = ApiPriority.callWith(ApiPriority.BACKGROUND
+            , () -> executor.executeWithReattempt(listBuilder, null));
+        if (list.getItems() != null) {
+          instances.addAll(list.getItems());
+        }
+        pageToken = list.getNextPageToken();
+      } while (pageToken != null);
+      replaceIndex(zone, instances, start);
+      clearChangedBefore(start, zone);
+    } catch (Throwable t) {
+      LOG.error(String.format("inventory sweep of zone %s failed", zone), t);
+    }
+  }
+
+  private void replaceIndex(String zone, List<Instance> instances, long sweptAt) {
+    // a sweep that started earlier may finish later, don't let it overwrite a fresher index.
+    zoneIndexes.merge(zone, new ZoneIndex(instances, sweptAt)
+        , (current, swept) -> swept.sweptAt >= current.sweptAt ? swept : current);
+  }
+
+  // changes made after a sweep started may not be reflected in it, keep those.
+  private void clearChangedBefore(long sweptAt, String zone) {
+    changedInstances.entrySet().removeIf(e -> e.getValue() < sweptAt
+        && (zone == null || e.getKey().startsWith(zone + "/")));
+  }
+
+  private String changedKey(String instanceName, String zone) {
+    return zone + "/" + instanceName;
+  }
+
+  private static class ZoneIndex {
+
+    private final List<Instance> instances;
+    private final long sweptAt;
+
+    private ZoneIndex(List<Instance> instances, long sweptAt) {
+      this.instances = Collections.unmodifiableList(instances);
+      this.sweptAt = sweptAt;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.zylitics.wzgp.resource.lease;
+
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.zylitics.wzgp.resource.BuildProperty;
+
+/**
+ * Decides which of the requests going after the same instance gets it. Implementations differ in
+ * how far the exclusion reaches, within this process or across all replicas of server.
+ * @author Praveen Tiwari
+ *
+ */
+public interface ClaimCoordinator {
+
+  enum Type {
+    /** Requests are excluded within this process, server must run as a single replica. */
+    LOCAL,
+    /** Requests are excluded using label fingerprints of instances, works across replicas. */
+    GCE
+  }
+
+  /**
+   * Claims the instance for the build and locks it by setting locked-by-build along with the
+   * given labels.
+   * @param instance instance as found by search
+   * @param labels labels to set on instance besides locked-by-build, may be empty
+   * @param buildProp build claiming the instance
+   * @return operation of the label update if claim was won, empty if another request has it.
+   * @throws Exception if the labels couldn't be set, the claim is given up.
+   */
+  Optional<Operation> claim(Instance instance, Map<String, String> labels
+      , BuildProperty buildProp) throws Exception;
+
+  /**
+   * Gives up a won claim when the request can't go ahead. The instance is unlocked if build's lock
+   * is on it.
+   */
+  void release(Instance instance, BuildProperty buildProp);
+
+  /**
+   * Invoked after a build renewed its lease so that the renewal is known to other replicas.
+   */
+  void renewed(Lease lease) throws Exception;
+}
@@ -0,0 +1,114 @@
+package com.zylitics.wzgp.resource.lease;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Uses label fingerprint of instance as a compare-and-set, GCE rejects a label update made with
+ * a fingerprint that is no longer current with 412, thus of the requests from any replica that
+ * lock an instance using the same fingerprint only one succeeds. The fingerprint of the instance
+ * as found by search is used, an instance locked since then fails the update and is given up
+ * without fetching it, so a claim costs a single label update.
+ * A claim is also made locally so that requests of the same replica don't race in GCE. Lease
+ * renewals are recorded on the grid's lease-expires-at label for the sweeps of other replicas.
+ * @author Praveen Tiwari
+ *
+ */
+public class GceClaimCoordinator implements ClaimCoordinator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GceClaimCoordinator.class);
+
+  private static final int PRECONDITION_FAILED = 412;
+
+  private static final int MAX_RENEW_ATTEMPTS = 3;
+
+  private final LeaseRegistry leases;
+  private final ComputeService computeSrv;
+
+  public GceClaimCoordinator(LeaseRegistry leases, ComputeService computeSrv) {
+    this.leases = leases;
+    this.computeSrv = computeSrv;
+  }
+
+  @Override
+  public Optional<Operation> claim(Instance instance, Map<String, String> labels
+      , BuildProperty buildProp) throws Exception {
+    String zone = ResourceUtil.nameFromUrl(instance.getZone());
+    if (!leases.claim(instance.getName(), zone, buildProp.getBuildId())) {
+      return Optional.empty();
+    }
+    try {
+      Map<String, String> lockLabels = new HashMap<>();
+      if (instance.getLabels() != null) {
+        lockLabels.putAll(instance.getLabels());
+      }
+      lockLabels.putAll(labels);
+      lockLabels.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, buildProp.getBuildId());
+      // expiry of a previous build's lease must not protect ours.
+      lockLabels.remove(ResourceUtil.LABEL_LEASE_EXPIRES_AT);
+      return Optional.of(computeSrv.setLabels(instance.getName(), lockLabels, zone
+          , instance.getLabelFingerprint(), buildProp));
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == PRECONDITION_FAILED) {
+        LOG.info("instance {} was changed by a concurrent request since found, {}"
+            , instance.getName(), buildProp);
+        leases.release(instance.getName(), zone, buildProp.getBuildId());
+        return Optional.empty();
+      }
+      release(instance, buildProp);
+      throw e;
+    } catch (Exception e) {
+      release(instance, buildProp);
+      throw e;
+    }
+  }
+
+  @Override
+  public void release(Instance instance, BuildProperty buildProp) {
+    leases.lapse(instance.getName(), ResourceUtil.nameFromUrl(instance.getZone())
+        , buildProp.getBuildId());
+  }
+
+  @Override
+  public void renewed(Lease lease) throws Exception {
+    BuildProperty buildProp = lease::getBuildId;
+    String expiresAt = String.valueOf(TimeUnit.MILLISECONDS.toSeconds(lease.getExpiresAt()));
+    int attempts = 0;
+    while (true) {
+      attempts++;
+      Instance instance = computeSrv.getInstance(lease.getGridName(), lease.getZone(), buildProp);
+      Map<String, String> labels = new HashMap<>();
+      if (instance.getLabels() != null) {
+        labels.putAll(instance.getLabels());
+      }
+      if (!lease.getBuildId().equals(labels.get(ResourceUtil.LABEL_LOCKED_BY_BUILD))) {
+        LOG.warn("grid {} isn't locked by build {} whose lease was renewed", lease.getGridName()
+            , lease.getBuildId());
+        return;
+      }
+      labels.put(ResourceUtil.LABEL_LEASE_EXPIRES_AT, expiresAt);
+      try {
+        computeSrv.setLabels(instance.getName(), labels, lease.getZone()
+            , instance.getLabelFingerprint(), buildProp);
+        return;
+      } catch (GoogleJsonResponseException e) {
+        // labels changed since fetched, try again on fresh ones.
+        if (e.getStatusCode() != PRECONDITION_FAILED || attempts >= MAX_RENEW_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.zylitics.wzgp.resource.lease;
+
+/**
+ * A build's hold on a grid, valid until it expires. Leases are immutable, a renewal replaces the
+ * lease with a new one.
+ * @author Praveen Tiwari
+ *
+ */
+public final class Lease {
+
+  public enum State {
+    /** A request found the grid and is going to lock it for the build. */
+    CLAIMED,
+    /** The grid is locked by the build. */
+    HELD
+  }
+
+  private final String gridName;
+  private final String zone;
+  private final String buildId;
+  private final State state;
+  private final long expiresAt;
+
+  Lease(String gridName, String zone, String buildId, State state, long expiresAt) {
+    this.gridName = gridName;
+    this.zone = zone;
+    this.buildId = buildId;
+    this.state = state;
+    this.expiresAt = expiresAt;
+  }
+
+  public String getGridName() {
+    return gridName;
+  }
+
+  public String getZone() {
+    return zone;
+  }
+
+  public String getBuildId() {
+    return buildId;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * @return epoch millis this lease expires at.
+   */
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  boolean isExpired(long nowMillis) {
+    return expiresAt <= nowMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "Lease{" +
+        "gridName='" + gridName + '\'' +
+        ", zone='" + zone + '\'' +
+        ", buildId='" + buildId + '\'' +
+        ", state=" + state +
+        ", expiresAt=" + expiresAt +
+        '}';
+  }
+}
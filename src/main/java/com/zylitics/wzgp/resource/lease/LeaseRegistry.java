@@ -0,0 +1,56 @@
+package com.zylitics.wzgp.resource.lease;
+
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks which build holds which grid and until when. Requests claim a grid before locking it so
+ * that concurrent requests don't lock the same one, and a build keeps its grid by renewing the
+ * lease. Grids whose lease lapsed are unlocked so that they can be acquired by other builds.
+ * @author Praveen Tiwari
+ *
+ */
+public interface LeaseRegistry {
+
+  /**
+   * Claims the grid for the build before it's locked. Fails if another claim or lease that hasn't
+   * expired is there on the grid.
+   * @return true if the claim was made.
+   */
+  boolean claim(String gridName, String zone, String buildId);
+
+  /**
+   * Leases the grid to the build that has it locked, replacing any claim or lease on it.
+   * @return the new lease
+   */
+  Lease hold(String gridName, String zone, String buildId);
+
+  /**
+   * Extends the lease of the grid. If the grid has no lease and a build is given, it's leased to
+   * the build only if the grid is locked by the build, so that builds continue to keep their grids
+   * when leases are lost such as on a restart.
+   * @param buildId build renewing the lease, if given the lease is renewed only when it belongs to
+   *                the build.
+   * @return the lease on the grid after renewal, which belongs to some other build if the given
+   * build doesn't hold the grid, or empty if the grid has no lease.
+   */
+  Optional<Lease> renew(String gridName, String zone, @Nullable String buildId);
+
+  /**
+   * Removes the build's claim on the grid leaving the grid as is, such as when the build lost the
+   * grid to another one.
+   */
+  void release(String gridName, String zone, String buildId);
+
+  /**
+   * Ends the claim or lease of the build right away, such as when a request fails after claiming
+   * the grid. The grid is unlocked on next sweep if the build's lock is on it.
+   */
+  void lapse(String gridName, String zone, String buildId);
+
+  /**
+   * Removes the lease of a grid that is released or deleted.
+   */
+  void end(String gridName, String zone);
+}
@@ -0,0 +1,240 @@
+package com.zylitics.wzgp.resource.lease;
+
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.Longs;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Leases are kept in memory keyed by zone and grid name. A claim expires after the claim ttl and a
+ * lease after the lease ttl unless renewed. Sweeps drop expired claims and leases, for a lapsed
+ * lease the grid is fetched and its locked-by-build label is reset only if it's still the lapsed
+ * build's and the grid's lease-expires-at label, if any, has passed too. That label is kept by
+ * {@link ClaimCoordinator}s that let replicas share grids, a build may have renewed its lease on
+ * some other replica. The label fingerprint guards against a request locking the grid in between.
+ * Leases don't survive a restart, a renewal of a grid with no lease adopts it if the grid is
+ * locked by the renewing build. Grids locked by builds that crash before they renew their lease
+ * on the new server aren't unlocked.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class LeaseRegistryImpl implements LeaseRegistry {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LeaseRegistryImpl.class);
+
+  private final ComputeService computeSrv;
+  private final long claimTtlMillis;
+  private final long leaseTtlMillis;
+  private final Clock clock;
+
+  private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+  @Autowired
+  LeaseRegistryImpl(ComputeService computeSrv
+      , @Value("${lease-claim-ttl-millis}") long claimTtlMillis
+      , @Value("${lease-ttl-millis}") long leaseTtlMillis) {
+    this(computeSrv, claimTtlMillis, leaseTtlMillis, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  public LeaseRegistryImpl(ComputeService computeSrv
+      , long claimTtlMillis
+      , long leaseTtlMillis
+      , Clock clock) {
+    this.computeSrv = computeSrv;
+    this.claimTtlMillis = claimTtlMillis;
+    this.leaseTtlMillis = leaseTtlMillis;
+    this.clock = clock;
+  }
+
+  @Override
+  public boolean claim(String gridName, String zone, String buildId) {
+    long now = clock.millis();
+    Lease claim = new Lease(gridName, zone, buildId, Lease.State.CLAIMED, now + claimTtlMillis);
+    Lease current = leases.compute(key(gridName, zone), (k, existing) ->
+        existing == null || existing.isExpired(now) ? claim : existing);
+    return current == claim;
+  }
+
+  @Override
+  public Lease hold(String gridName, String zone, String buildId) {
+    Lease lease = newHeldLease(gridName, zone, buildId);
+    leases.put(key(gridName, zone), lease);
+    return lease;
+  }
+
+  @Override
+  public Optional<Lease> renew(String gridName, String zone, @Nullable String buildId) {
+    Optional<Lease> renewed = Optional.ofNullable(leases.computeIfPresent(key(gridName, zone)
+        , (k, existing) -> {
+          if (buildId != null && !buildId.equals(existing.getBuildId())) {
+            return existing;
+          }
+          // a claim becomes lease only once the grid is locked.
+          if (existing.getState() == Lease.State.CLAIMED) {
+            return existing;
+          }
+          return newHeldLease(gridName, zone, existing.getBuildId());
+        }));
+    if (renewed.isPresent() || buildId == null) {
+      return renewed;
+    }
+    return adopt(gridName, zone, buildId);
+  }
+  
+  /**
+   * Leases a grid that has no lease to the given build only if the build has it locked, such as
+   * after a restart. A late renewal of a grid whose lease ended on release or delete finds the
+   * grid unlocked and doesn't get a lease.
+   */
+  private Optional<Lease> adopt(String gridName, String zone, String buildId) {
+    Instance instance;
+    try {
+      instance = computeSrv.getInstance(gridName, zone, () -> buildId);
+    } catch (Exception e) {
+      if (!(e instanceof GoogleJsonResponseException)
+          || ((GoogleJsonResponseException) e).getStatusCode() != 404) {
+        LOG.error(String.format("couldn't fetch grid %s:%s to adopt it for build %s", gridName
+            , zone, buildId), e);
+      }
+      return Optional.empty();
+    }
+    Map<String, String> labels = instance.getLabels();
+    if (labels == null
+        || !buildId.equals(labels.get(ResourceUtil.LABEL_LOCKED_BY_BUILD))
+        || Boolean.parseBoolean(labels.get(ResourceUtil.LABEL_IS_DELETING))) {
+      LOG.debug("grid {}:{} with no lease isn't locked by build {}, not adopting", gridName, zone
+          , buildId);
+      return Optional.empty();
+    }
+    LOG.info("grid {}:{} locked by build {} has no lease, adopting it", gridName, zone, buildId);
+    // a lease that came in while the grid was being fetched wins.
+    return Optional.of(leases.merge(key(gridName, zone), newHeldLease(gridName, zone, buildId)
+        , (existing, adopted) -> existing));
+  }
+
+  @Override
+  public void release(String gridName, String zone, String buildId) {
+    leases.computeIfPresent(key(gridName, zone), (k, existing) ->
+        existing.getBuildId().equals(buildId) ? null : existing);
+  }
+
+  @Override
+  public void lapse(String gridName, String zone, String buildId) {
+    long now = clock.millis();
+    leases.computeIfPresent(key(gridName, zone), (k, existing) ->
+        existing.getBuildId().equals(buildId)
+            ? new Lease(gridName, zone, buildId, Lease.State.HELD, now)
+            : existing);
+  }
+
+  @Override
+  public void end(String gridName, String zone) {
+    leases.remove(key(gridName, zone));
+  }
+
+  /**
+   * Drops expired claims and leases, unlocking grids of the lapsed leases.
+   */
+  @Scheduled(initialDelayString = "${lease-sweep-delay-millis}"
+      , fixedDelayString = "${lease-sweep-delay-millis}")
+  public void sweep() {
+    long now = clock.millis();
+    for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+      Lease lease = entry.getValue();
+      // a renewal may have replaced the lease since we read it, keep that one.
+      if (!lease.isExpired(now) || !leases.remove(entry.getKey(), lease)) {
+        continue;
+      }
+      if (lease.getState() == Lease.State.CLAIMED) {
+        LOG.warn("claim on grid {} expired before it could be locked, {}", lease.getGridName()
+            , lease);
+        continue;
+      }
+      try {
+        ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+          unlock(lease);
+          return null;
+        });
+      } catch (Throwable t) {
+        // don't let a grid fail others.
+        LOG.error(String.format("couldn't unlock grid of lapsed lease %s", lease), t);
+      }
+    }
+  }
+
+  private void unlock(Lease lease) throws Exception {
+    BuildProperty buildProp = lease::getBuildId;
+    Instance instance;
+    try {
+      instance = computeSrv.getInstance(lease.getGridName(), lease.getZone(), buildProp);
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == 404) {
+        LOG.debug("grid of lapsed lease {} no longer exists", lease);
+        return;
+      }
+      throw e;
+    }
+    Map<String, String> labels = instance.getLabels();
+    if (labels == null
+        || !lease.getBuildId().equals(labels.get(ResourceUtil.LABEL_LOCKED_BY_BUILD))
+        || Boolean.parseBoolean(labels.get(ResourceUtil.LABEL_IS_DELETING))) {
+      LOG.debug("grid of lapsed lease {} isn't locked by its build anymore", lease);
+      return;
+    }
+    Long sharedExpiry = Longs.tryParse(
+        labels.getOrDefault(ResourceUtil.LABEL_LEASE_EXPIRES_AT, ""));
+    if (sharedExpiry != null && TimeUnit.SECONDS.toMillis(sharedExpiry) > clock.millis()) {
+      LOG.debug("lease {} was renewed elsewhere until {}", lease, sharedExpiry);
+      return;
+    }
+    Map<String, String> unlocked = new HashMap<>(labels);
+    unlocked.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none");
+    unlocked.remove(ResourceUtil.LABEL_LEASE_EXPIRES_AT);
+    // don't wait for completion, same as when a grid is unlocked on release.
+    try {
+      computeSrv.setLabels(instance.getName(), unlocked, lease.getZone()
+          , instance.getLabelFingerprint(), buildProp);
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == 412) {
+        LOG.debug("labels of grid of lapsed lease {} changed since fetched, leaving it", lease);
+        return;
+      }
+      throw e;
+    }
+    LOG.info("lease of build {} on grid {} lapsed at {}, unlocked the grid", lease.getBuildId()
+        , lease.getGridName(), lease.getExpiresAt());
+  }
+
+  private Lease newHeldLease(String gridName, String zone, String buildId) {
+    return new Lease(gridName, zone, buildId, Lease.State.HELD, clock.millis() + leaseTtlMillis);
+  }
+
+  private String key(String gridName, String zone) {
+    return zone + "/" + gridName;
+  }
+}
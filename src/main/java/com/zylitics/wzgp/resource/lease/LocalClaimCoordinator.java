@@ -0,0 +1,76 @@
+package com.zylitics.wzgp.resource.lease;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.web.FingerprintBasedUpdater;
+
+/**
+ * Claims are made in {@link LeaseRegistry} of this process before the instance is locked, only
+ * one of the concurrent requests can make a claim so the lock never conflicts with another one
+ * from this server. The lock is made with the label fingerprint the instance was found with, if
+ * the instance has changed since, such as when it was unlocked by a sweep, it's given up as lost.
+ * @author Praveen Tiwari
+ *
+ */
+public class LocalClaimCoordinator implements ClaimCoordinator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalClaimCoordinator.class);
+
+  private static final int PRECONDITION_FAILED = 412;
+
+  private final LeaseRegistry leases;
+  private final FingerprintBasedUpdater fingerprintBasedUpdater;
+
+  public LocalClaimCoordinator(LeaseRegistry leases
+      , FingerprintBasedUpdater fingerprintBasedUpdater) {
+    this.leases = leases;
+    this.fingerprintBasedUpdater = fingerprintBasedUpdater;
+  }
+
+  @Override
+  public Optional<Operation> claim(Instance instance, Map<String, String> labels
+      , BuildProperty buildProp) throws Exception {
+    String zone = ResourceUtil.nameFromUrl(instance.getZone());
+    if (!leases.claim(instance.getName(), zone, buildProp.getBuildId())) {
+      return Optional.empty();
+    }
+    Map<String, String> lockLabels = new HashMap<>(labels);
+    lockLabels.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, buildProp.getBuildId());
+    try {
+      return Optional.of(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(instance
+          , lockLabels, buildProp));
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == PRECONDITION_FAILED) {
+        LOG.info("instance {} was changed since found, {}", instance.getName(), buildProp);
+        leases.release(instance.getName(), zone, buildProp.getBuildId());
+        return Optional.empty();
+      }
+      release(instance, buildProp);
+      throw e;
+    } catch (Exception e) {
+      release(instance, buildProp);
+      throw e;
+    }
+  }
+
+  @Override
+  public void release(Instance instance, BuildProperty buildProp) {
+    leases.lapse(instance.getName(), ResourceUtil.nameFromUrl(instance.getZone())
+        , buildProp.getBuildId());
+  }
+
+  @Override
+  public void renewed(Lease lease) {
+    // nothing to share
+  }
+}
@@ -0,0 +1,298 @@
+package com.zylitics.wzgp.resource.pool;
+
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.APICoreProperties.WarmPool;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.grid.GridGenerator;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Keeps the configured number of unlocked, suspended grids per (image family, zone) so that create
+ * requests can be served by resuming a grid, which takes seconds, rather than booting one, while
+ * no cpu is paid for as long as grids sit in pool.
+ * A grid for pool is created locked by the pool so that nobody acquires it while it boots, it's
+ * suspended once it's had time to boot and unlocked after being suspended. Grids those couldn't
+ * be suspended are deleted, as are grids left locked by the pool for long such as when we went
+ * down while preparing them.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+public class SuspendedPoolReplenisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SuspendedPoolReplenisher.class);
+
+  // value of locked-by-build label while a grid is being prepared for pool.
+  private static final String PREPARING_LOCK = "suspended-pool";
+
+  private static final BuildProperty PREPARING_BUILD_PROP = () -> PREPARING_LOCK;
+
+  private static final String PREPARING_FILTER =
+      "labels." + ResourceUtil.LABEL_LOCKED_BY_BUILD + " = \"" + PREPARING_LOCK + "\"";
+
+  // a grid being prepared for longer than boot settle time plus this is considered abandoned.
+  private static final long ABANDONED_AFTER_MILLIS = 30 * 60 * 1000;
+
+  private static final int MAX_PARALLEL_PREPARES = 4;
+
+  private final Compute compute;
+  private final APICoreProperties apiCoreProps;
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final ResourceSearch search;
+  private final long bootSettleMillis;
+  private final ScheduledExecutorService prepareExecutor;
+  private final Clock clock;
+
+  // grids being prepared per pool, these are not yet visible in search.
+  private final Map<String, AtomicInteger> inFlightPrepares = new ConcurrentHashMap<>();
+
+  // names of grids being prepared by us.
+  private final Set<String> preparing = ConcurrentHashMap.newKeySet();
+
+  @Autowired
+  SuspendedPoolReplenisher(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , @Value("${suspended-pool-boot-settle-millis}") long bootSettleMillis) {
+    this(compute, apiCoreProps, executor, computeSrv, search, bootSettleMillis
+        , Executors.newScheduledThreadPool(MAX_PARALLEL_PREPARES, new ThreadFactoryBuilder()
+            .setNameFormat("suspended-pool-prepare-%d")
+            .setDaemon(true)
+            .build())
+        , Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  SuspendedPoolReplenisher(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , long bootSettleMillis
+      , ScheduledExecutorService prepareExecutor
+      , Clock clock) {
+    this.compute = compute;
+    this.apiCoreProps = apiCoreProps;
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.search = search;
+    this.bootSettleMillis = bootSettleMillis;
+    this.prepareExecutor = prepareExecutor;
+    this.clock = clock;
+  }
+
+  /**
+   * Deletes abandoned grids and finds the deficit of every configured pool and submits
+   * preparation of grids to fill it. Grids being prepared are counted towards the pool.
+   */
+  @Scheduled(initialDelayString = "${suspended-pool-replenish-delay-millis}"
+      , fixedDelayString = "${suspended-pool-replenish-delay-millis}")
+  public void replenish() {
+    List<? extends WarmPool> suspendedPools = apiCoreProps.getGridDefault().getSuspendedPools();
+    for (WarmPool pool : suspendedPools) {
+      try {
+        ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+          deleteAbandoned(pool);
+          replenish(pool);
+          return null;
+        });
+      } catch (Throwable t) {
+        // don't let a pool fail others.
+        LOG.error(String.format("couldn't replenish suspended pool %s", poolKey(pool)), t);
+      }
+    }
+  }
+
+  private void replenish(WarmPool pool) throws Exception {
+    List<Instance> available = search.searchInstancesFromFamily(pool.getImageFamily()
+        , pool.getZone()
+        , InstanceStatus.SUSPENDED
+        , pool.getTarget()
+        , null);
+    int inFlight = inFlightCount(pool).get();
+    int deficit = pool.getTarget() - available.size() - inFlight;
+    if (deficit <= 0) {
+      return;
+    }
+    LOG.info("suspended pool {} has {} available and {} being prepared against a target of {},"
+        + " going to prepare {} grid(s)", poolKey(pool), available.size(), inFlight
+        , pool.getTarget(), deficit);
+    for (int i = 0; i < deficit; i++) {
+      submitPrepare(pool);
+    }
+  }
+
+  private void deleteAbandoned(WarmPool pool) throws Exception {
+    // all pages, grids still being prepared could fill the first one.
+    List<Instance> locked = computeSrv.listAllInstances(PREPARING_FILTER, pool.getZone(), null);
+    long abandonedBefore = clock.millis() - bootSettleMillis - ABANDONED_AFTER_MILLIS;
+    for (Instance instance : locked) {
+      if (preparing.contains(instance.getName()) || instance.getCreationTimestamp() == null
+          || OffsetDateTime.parse(instance.getCreationTimestamp()).toInstant().toEpochMilli()
+              > abandonedBefore) {
+        continue;
+      }
+      LOG.warn("grid {} was being prepared for suspended pool {} since {}, deleting it"
+          , instance.getName(), poolKey(pool), instance.getCreationTimestamp());
+      computeSrv.deleteInstance(instance.getName(), pool.getZone(), null);
+    }
+  }
+
+  private void submitPrepare(WarmPool pool) {
+    AtomicInteger inFlight = inFlightCount(pool);
+    inFlight.incrementAndGet();
+    try {
+      prepareExecutor.execute(() -> {
+        boolean suspendScheduled = false;
+        try {
+          String gridName = ApiPriority.callWith(ApiPriority.BACKGROUND, () -> createGrid(pool));
+          if (gridName != null) {
+            suspendScheduled = scheduleSuspend(pool, gridName, inFlight);
+          }
+        } catch (Throwable t) {
+          LOG.error(String.format("couldn't create a grid for suspended pool %s", poolKey(pool))
+              , t);
+        } finally {
+          if (!suspendScheduled) {
+            inFlight.decrementAndGet();
+          }
+        }
+      });
+    } catch (RejectedExecutionException rej) {
+      inFlight.decrementAndGet();
+      LOG.warn("prepare for suspended pool {} was rejected, shutting down?", poolKey(pool));
+    }
+  }
+
+  /**
+   * @return name of the created grid, null if it couldn't be created.
+   */
+  private String createGrid(WarmPool pool) throws Exception {
+    Image image = computeSrv.getImageFromFamily(pool.getImageFamily(), PREPARING_BUILD_PROP);
+    GridGenerator generator = new GridGenerator(compute
+        , apiCoreProps
+        , executor
+        , PREPARING_BUILD_PROP
+        , WarmPoolReplenisher.POOL_GRID_PROP
+        , image);
+    // a grid in some other zone isn't of any use, don't reattempt elsewhere.
+    Operation operation = generator.createInZoneOnly(pool.getZone()).get();
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      LOG.error("couldn't create a grid for suspended pool {}, operation: {}", poolKey(pool)
+          , operation.toPrettyString());
+      return null;
+    }
+    String gridName = ResourceUtil.nameFromUrl(operation.getTargetLink());
+    preparing.add(gridName);
+    return gridName;
+  }
+
+  private boolean scheduleSuspend(WarmPool pool, String gridName, AtomicInteger inFlight) {
+    try {
+      // let the grid boot fully so that it resumes ready to use.
+      prepareExecutor.schedule(() -> {
+        try {
+          ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+            suspendGrid(pool, gridName);
+            return null;
+          });
+        } catch (Throwable t) {
+          LOG.error(String.format("couldn't suspend grid %s for suspended pool %s, deleting it"
+              , gridName, poolKey(pool)), t);
+          deleteQuietly(gridName, pool.getZone());
+        } finally {
+          preparing.remove(gridName);
+          inFlight.decrementAndGet();
+        }
+      }, bootSettleMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (RejectedExecutionException rej) {
+      preparing.remove(gridName);
+      LOG.warn("suspend of grid {} for suspended pool {} was rejected, shutting down?", gridName
+          , poolKey(pool));
+      return false;
+    }
+  }
+
+  private void suspendGrid(WarmPool pool, String gridName) throws Exception {
+    long start = System.currentTimeMillis();
+    Operation operation = computeSrv.suspendInstance(gridName, pool.getZone()
+        , PREPARING_BUILD_PROP);
+    operation = executor.blockUntilComplete(operation, 1000, 300 * 1000, PREPARING_BUILD_PROP);
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      throw new RuntimeException("suspend operation failed: " + operation.toPrettyString());
+    }
+    // unlock so that it's found by search.
+    Instance instance = computeSrv.getInstance(gridName, pool.getZone(), PREPARING_BUILD_PROP);
+    Map<String, String> labels = new HashMap<>(instance.getLabels());
+    labels.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none");
+    operation = computeSrv.setLabels(gridName, labels, pool.getZone()
+        , instance.getLabelFingerprint(), PREPARING_BUILD_PROP);
+    operation = executor.blockUntilComplete(operation, 500, 10000, PREPARING_BUILD_PROP);
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      throw new RuntimeException("unlock operation failed: " + operation.toPrettyString());
+    }
+    LOG.debug("took {}secs suspending grid {} for suspended pool {}"
+        , TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start), gridName
+        , poolKey(pool));
+  }
+
+  private void deleteQuietly(String gridName, String zone) {
+    try {
+      ApiPriority.callWith(ApiPriority.BACKGROUND
+          , () -> computeSrv.deleteInstance(gridName, zone, PREPARING_BUILD_PROP));
+    } catch (Throwable t) {
+      // deleted as abandoned later.
+      LOG.error(String.format("couldn't delete grid %s", gridName), t);
+    }
+  }
+
+  private AtomicInteger inFlightCount(WarmPool pool) {
+    return inFlightPrepares.computeIfAbsent(poolKey(pool), k -> new AtomicInteger());
+  }
+
+  private String poolKey(WarmPool pool) {
+    return pool.getImageFamily() + "/" + pool.getZone();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    prepareExecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,238 @@
+package com.zylitics.wzgp.resource.pool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.APICoreProperties.WarmPool;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.grid.GridGenerator;
+import com.zylitics.wzgp.resource.grid.GridProperty;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Keeps the configured number of unlocked, running grids ready per (image family, zone) so that
+ * create requests can be served by acquiring a running grid rather than waiting for a cold boot.
+ * Pool grids are created using {@link GridGenerator} with no build locking them, thus they're
+ * found by the usual running instance search once up. They're created only in pool's zone, while
+ * that zone is short on capacity the pool stays short too.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+public class WarmPoolReplenisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WarmPoolReplenisher.class);
+
+  // grids in pool aren't locked by any build, this is the value of locked-by-build label when
+  // a grid is free.
+  private static final BuildProperty POOL_BUILD_PROP = () -> "none";
+
+  // also used for grids of suspended pools.
+  static final GridProperty POOL_GRID_PROP = new PoolGridProperty();
+
+  private static final int MAX_PARALLEL_CREATES = 4;
+
+  private final Compute compute;
+  private final APICoreProperties apiCoreProps;
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final ResourceSearch search;
+  private final ExecutorService createExecutor;
+
+  // grids being created per pool, these are not yet visible in search.
+  private final Map<String, AtomicInteger> inFlightCreates = new ConcurrentHashMap<>();
+
+  @Autowired
+  WarmPoolReplenisher(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search) {
+    this(compute, apiCoreProps, executor, computeSrv, search
+        , Executors.newFixedThreadPool(MAX_PARALLEL_CREATES, new ThreadFactoryBuilder()
+            .setNameFormat("warm-pool-create-%d")
+            .setDaemon(true)
+            .build()));
+  }
+
+  @VisibleForTesting
+  WarmPoolReplenisher(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , ExecutorService createExecutor) {
+    this.compute = compute;
+    this.apiCoreProps = apiCoreProps;
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.search = search;
+    this.createExecutor = createExecutor;
+  }
+
+  /**
+   * Finds the deficit of every configured pool and submits creation of grids to fill it. Grids
+   * already being created are counted towards the pool so that a slow create doesn't lead to
+   * over provisioning in the next cycle.
+   */
+  @Scheduled(initialDelayString = "${warm-pool-replenish-delay-millis}"
+      , fixedDelayString = "${warm-pool-replenish-delay-millis}")
+  public void replenish() {
+    List<? extends WarmPool> warmPools = apiCoreProps.getGridDefault().getWarmPools();
+    for (WarmPool pool : warmPools) {
+      try {
+        ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+          replenish(pool);
+          return null;
+        });
+      } catch (Throwable t) {
+        // don't let a pool fail others.
+        LOG.error(String.format("couldn't replenish warm pool %s", poolKey(pool)), t);
+      }
+    }
+  }
+
+  private void replenish(WarmPool pool) throws Exception {
+    List<Instance> available = search.searchInstancesFromFamily(pool.getImageFamily()
+        , pool.getZone()
+        , InstanceStatus.RUNNING
+        , pool.getTarget()
+        , null);
+    int inFlight = inFlightCount(pool).get();
+    int deficit = pool.getTarget() - available.size() - inFlight;
+    if (deficit <= 0) {
+      return;
+    }
+    LOG.info("warm pool {} has {} available and {} being created against a target of {}, going"
+        + " to create {} grid(s)", poolKey(pool), available.size(), inFlight, pool.getTarget()
+        , deficit);
+    for (int i = 0; i < deficit; i++) {
+      submitCreate(pool);
+    }
+  }
+
+  private void submitCreate(WarmPool pool) {
+    AtomicInteger inFlight = inFlightCount(pool);
+    inFlight.incrementAndGet();
+    try {
+      createExecutor.execute(() -> {
+        try {
+          ApiPriority.callWith(ApiPriority.BACKGROUND, () -> {
+            createGrid(pool);
+            return null;
+          });
+        } catch (Throwable t) {
+          LOG.error(String.format("couldn't create a grid for warm pool %s", poolKey(pool)), t);
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException rej) {
+      inFlight.decrementAndGet();
+      LOG.warn("create for warm pool {} was rejected, shutting down?", poolKey(pool));
+    }
+  }
+
+  private void createGrid(WarmPool pool) throws Exception {
+    long start = System.currentTimeMillis();
+    Image image = computeSrv.getImageFromFamily(pool.getImageFamily(), POOL_BUILD_PROP);
+    GridGenerator generator = new GridGenerator(compute
+        , apiCoreProps
+        , executor
+        , POOL_BUILD_PROP
+        , POOL_GRID_PROP
+        , image);
+    // a grid in some other zone wouldn't be counted towards the pool, don't reattempt elsewhere.
+    Operation operation = generator.createInZoneOnly(pool.getZone()).get();
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      LOG.error("couldn't create a grid for warm pool {}, operation: {}", poolKey(pool)
+          , operation.toPrettyString());
+      return;
+    }
+    LOG.debug("took {}secs creating grid {} for warm pool {}"
+        , TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start)
+        , ResourceUtil.nameFromUrl(operation.getTargetLink()), poolKey(pool));
+  }
+
+  private AtomicInteger inFlightCount(WarmPool pool) {
+    return inFlightCreates.computeIfAbsent(poolKey(pool), k -> new AtomicInteger());
+  }
+
+  private String poolKey(WarmPool pool) {
+    return pool.getImageFamily() + "/" + pool.getZone();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    createExecutor.shutdownNow();
+  }
+
+  /**
+   * Pool grids use server defaults for everything, request specific properties are applied when
+   * a grid is acquired.
+   */
+  private static class PoolGridProperty implements GridProperty {
+
+    @Override
+    public String getMachineType() {
+      return null;
+    }
+
+    @Override
+    public String getServiceAccount() {
+      return null;
+    }
+
+    @Override
+    public Boolean isPreemptible() {
+      return false;
+    }
+
+    @Override
+    public Boolean isCreateExternalIP() {
+      return false;
+    }
+
+    @Override
+    public Map<String, String> getCustomLabels() {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getMetadata() {
+      return null;
+    }
+
+    @Override
+    public Set<String> getNetworkTags() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.zylitics.wzgp.resource.ratelimit;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeRequest;
+
+/**
+ * Groups of compute api calls that are limited separately, matching the per minute quota groups
+ * of GCE.
+ * @author Praveen Tiwari
+ *
+ */
+public enum ApiCategory {
+  
+  READ,
+  
+  MUTATE,
+  
+  OPERATION_POLL;
+  
+  public static ApiCategory of(ComputeRequest<?> request) {
+    if (request instanceof Compute.ZoneOperations.Get
+        || request instanceof Compute.GlobalOperations.Get) {
+      return OPERATION_POLL;
+    }
+    return "GET".equals(request.getRequestMethod()) ? READ : MUTATE;
+  }
+}
@@ -0,0 +1,48 @@
+package com.zylitics.wzgp.resource.ratelimit;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Order in which calls waiting on {@link ApiRateLimiter} are let through, all {@link #USER}
+ * calls go ahead of {@link #BACKGROUND} ones. Priority of calls is taken from the thread making
+ * them, it's {@link #USER} unless the call is made within {@link #callWith}.
+ * @author Praveen Tiwari
+ *
+ */
+public enum ApiPriority {
+  
+  /**
+   * Calls made serving a request, someone is waiting on them.
+   */
+  USER,
+  
+  /**
+   * Calls made by maintenance tasks such as pool replenishing, inventory sweeps and operation
+   * polling.
+   */
+  BACKGROUND;
+  
+  private static final ThreadLocal<ApiPriority> CURRENT = ThreadLocal.withInitial(() -> USER);
+  
+  /**
+   * @return priority of calls made on the current thread.
+   */
+  public static ApiPriority current() {
+    return CURRENT.get();
+  }
+  
+  /**
+   * Invokes the given {@link Callable} on the current thread with calls made within it having the
+   * given priority. Calls made on other threads, such as ones the callable hands work to, aren't
+   * affected.
+   */
+  public static <T> T callWith(ApiPriority priority, Callable<T> callable) throws Exception {
+    ApiPriority previous = CURRENT.get();
+    CURRENT.set(priority);
+    try {
+      return callable.call();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+}
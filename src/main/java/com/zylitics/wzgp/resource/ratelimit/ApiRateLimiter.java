@@ -0,0 +1,21 @@
+package com.zylitics.wzgp.resource.ratelimit;
+
+/**
+ * Client side limit on calls to compute api so that a burst of requests doesn't get the project
+ * throttled as a whole.
+ * @author Praveen Tiwari
+ *
+ */
+public interface ApiRateLimiter {
+
+  /**
+   * Blocks until the given number of calls of the category are allowed. Waiting callers are let
+   * through in order of their {@link ApiPriority}, and in order of arrival within a priority.
+   * @param category category of calls
+   * @param priority priority of caller
+   * @param permits number of calls about to be made, such as requests in a batch.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void acquire(ApiCategory category, ApiPriority priority, int permits)
+      throws InterruptedException;
+}
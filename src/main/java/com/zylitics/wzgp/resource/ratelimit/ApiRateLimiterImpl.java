@@ -0,0 +1,191 @@
+package com.zylitics.wzgp.resource.ratelimit;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A token bucket per {@link ApiCategory}, refilled continuously at the configured per minute rate
+ * and holding up to burst seconds worth of tokens. Callers that can't take tokens right away queue
+ * per bucket by priority, only the head of the queue takes tokens so that a stream of background
+ * calls can't starve a user call and large acquires aren't overtaken forever by small ones.
+ * Queue depth per category and priority and time spent waiting are published as metrics.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class ApiRateLimiterImpl implements ApiRateLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ApiRateLimiterImpl.class);
+
+  private final Map<ApiCategory, Bucket> buckets = new EnumMap<>(ApiCategory.class);
+
+  private final Ticker ticker;
+
+  private final Timer waitTimer;
+
+  @Autowired
+  ApiRateLimiterImpl(@Value("${compute-rate-limit.read-per-minute}") long readPerMinute
+      , @Value("${compute-rate-limit.mutate-per-minute}") long mutatePerMinute
+      , @Value("${compute-rate-limit.operation-poll-per-minute}") long operationPollPerMinute
+      , @Value("${compute-rate-limit.burst-seconds}") long burstSeconds
+      , MeterRegistry meterRegistry) {
+    this(readPerMinute, mutatePerMinute, operationPollPerMinute, burstSeconds, meterRegistry
+        , Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  public ApiRateLimiterImpl(long readPerMinute
+      , long mutatePerMinute
+      , long operationPollPerMinute
+      , long burstSeconds
+      , MeterRegistry meterRegistry
+      , Ticker ticker) {
+    this.ticker = ticker;
+    buckets.put(ApiCategory.READ, new Bucket(readPerMinute, burstSeconds));
+    buckets.put(ApiCategory.MUTATE, new Bucket(mutatePerMinute, burstSeconds));
+    buckets.put(ApiCategory.OPERATION_POLL, new Bucket(operationPollPerMinute, burstSeconds));
+
+    buckets.forEach((category, bucket) -> {
+      for (ApiPriority priority : ApiPriority.values()) {
+        Gauge.builder("compute.api.limiter.queue.depth", bucket.queueDepth.get(priority)
+            , AtomicInteger::get)
+            .description("calls waiting for compute api rate limiter")
+            .tag("category", category.name().toLowerCase())
+            .tag("priority", priority.name().toLowerCase())
+            .register(meterRegistry);
+      }
+    });
+    waitTimer = Timer.builder("compute.api.limiter.wait")
+        .description("time calls spent waiting for compute api rate limiter")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void acquire(ApiCategory category, ApiPriority priority, int permits)
+      throws InterruptedException {
+    Assert.isTrue(permits > 0, "permits must be positive");
+
+    long start = ticker.read();
+    buckets.get(category).acquire(priority, permits);
+    long waitedNanos = ticker.read() - start;
+    waitTimer.record(waitedNanos, TimeUnit.NANOSECONDS);
+    if (waitedNanos > TimeUnit.SECONDS.toNanos(1)) {
+      LOG.debug("waited {}ms for {} {} call(s) of priority {}"
+          , TimeUnit.NANOSECONDS.toMillis(waitedNanos), permits, category, priority);
+    }
+  }
+
+  private final class Bucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    @GuardedBy("lock")
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+        Comparator.<Waiter, ApiPriority>comparing(w -> w.priority).thenComparingLong(w -> w.seq));
+    @GuardedBy("lock")
+    private double tokens;
+    @GuardedBy("lock")
+    private long refilledAt;
+    @GuardedBy("lock")
+    private long nextSeq;
+
+    private final Map<ApiPriority, AtomicInteger> queueDepth = new EnumMap<>(ApiPriority.class);
+
+    private Bucket(long perMinute, long burstSeconds) {
+      Assert.isTrue(perMinute > 0, "rate must be positive");
+      tokensPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+      // at least one token so that a call can ever go through.
+      capacity = Math.max(1, perMinute * burstSeconds / 60.0);
+      tokens = capacity;
+      refilledAt = ticker.read();
+      for (ApiPriority priority : ApiPriority.values()) {
+        queueDepth.put(priority, new AtomicInteger());
+      }
+    }
+
+    private void acquire(ApiPriority priority, int permits) throws InterruptedException {
+      // a batch larger than what bucket can ever hold takes whatever it can hold.
+      double needed = Math.min(permits, capacity);
+      lock.lock();
+      try {
+        refill();
+        if (waiters.isEmpty() && tokens >= needed) {
+          tokens -= needed;
+          return;
+        }
+        Waiter waiter = new Waiter(priority, nextSeq++);
+        waiters.add(waiter);
+        queueDepth.get(priority).incrementAndGet();
+        try {
+          while (true) {
+            refill();
+            if (waiters.peek() == waiter) {
+              if (tokens >= needed) {
+                tokens -= needed;
+                return;
+              }
+              changed.awaitNanos((long) Math.ceil((needed - tokens) / tokensPerNano));
+            } else {
+              // woken up when head changes.
+              changed.await();
+            }
+          }
+        } finally {
+          waiters.remove(waiter);
+          queueDepth.get(priority).decrementAndGet();
+          // let the new head, if any, check tokens.
+          changed.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @GuardedBy("lock")
+    private void refill() {
+      long now = ticker.read();
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+      refilledAt = now;
+    }
+  }
+
+  private static final class Waiter {
+
+    private final ApiPriority priority;
+    private final long seq;
+
+    private Waiter(ApiPriority priority, long seq) {
+      this.priority = priority;
+      this.seq = seq;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package com.zylitics.wzgp.resource.search;
+
+/**
+ * Decides how many running instances to fetch as candidates when a request claims one, based on
+ * how often concurrent requests in the same zone went after the same candidates lately.
+ * @author Praveen Tiwari
+ *
+ */
+public interface CandidatePageSizer {
+
+  /**
+   * @param zone zone being searched
+   * @return maximum candidates to fetch in a search of the zone.
+   */
+  int pageSize(String zone);
+
+  /**
+   * Records the outcome of claiming from a page of candidates.
+   * @param zone zone the candidates were searched in
+   * @param contended number of candidates that were found claimed by concurrent requests
+   * @param claimed whether a candidate could be claimed from the page.
+   */
+  void record(String zone, int contended, boolean claimed);
+}
@@ -0,0 +1,73 @@
+package com.zylitics.wzgp.resource.search;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.zylitics.wzgp.resource.APICoreProperties;
+
+/**
+ * Page size of a zone starts at {@link APICoreProperties.GridDefault#getMaxInstanceInSearch()}.
+ * It doubles when an entire page was claimed by others, grows by the number of candidates lost
+ * when a claim succeeded after colliding, and shrinks by one on every claim that didn't collide.
+ * Growing fast and shrinking slowly keeps pages large for the length of a burst of builds.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class CandidatePageSizerImpl implements CandidatePageSizer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CandidatePageSizerImpl.class);
+
+  private final APICoreProperties apiCoreProps;
+  private final int maxPageSize;
+
+  private final Map<String, AtomicInteger> zonePageSizes = new ConcurrentHashMap<>();
+
+  @Autowired
+  public CandidatePageSizerImpl(APICoreProperties apiCoreProps
+      , @Value("${get-running-max-page-size}") int maxPageSize) {
+    this.apiCoreProps = apiCoreProps;
+    this.maxPageSize = maxPageSize;
+  }
+
+  @Override
+  public int pageSize(String zone) {
+    AtomicInteger pageSize = zonePageSizes.get(zone);
+    return pageSize != null ? pageSize.get() : minPageSize();
+  }
+
+  @Override
+  public void record(String zone, int contended, boolean claimed) {
+    int min = minPageSize();
+    int max = Math.max(min, maxPageSize);
+    int updated = zonePageSizes.computeIfAbsent(zone, k -> new AtomicInteger(min))
+        .updateAndGet(size -> {
+          if (!claimed) {
+            return Math.min(max, size * 2);
+          }
+          if (contended > 0) {
+            return Math.min(max, size + contended);
+          }
+          return Math.max(min, size - 1);
+        });
+    if (contended > 0) {
+      LOG.debug("{} candidates were taken by concurrent requests in zone {}, page size now {}"
+          , contended, zone, updated);
+    }
+  }
+
+  private int minPageSize() {
+    return Math.max(1, apiCoreProps.getGridDefault().getMaxInstanceInSearch());
+  }
+}
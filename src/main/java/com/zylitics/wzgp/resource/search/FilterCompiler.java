@@ -0,0 +1,283 @@
+package com.zylitics.wzgp.resource.search;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.springframework.util.Assert;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Renders GCE list filters of searches. Default search params of server don't change after
+ * startup, their conditions are rendered once when this is created and complete filters are
+ * cached per distinct search, so a filter is built only the first time a combination of os,
+ * browser, shots, status and custom params is seen. Filters of equal searches are the same
+ * instance and can be used as keys of anything cached per search.
+ * <p>Params given by request override defaults of the same key in place, params that aren't among
+ * defaults follow them in order of key.</p>
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+final class FilterCompiler {
+
+  static final String STATUS_KEY = "status";
+
+  static final String LABELS_KEY_PREFIX = "labels.";
+
+  static final int MAX_BROWSER_LABELS = 6;
+
+  private static final String AND = " AND ";
+
+  private static final String OR = " OR ";
+
+  private static final long MAX_ENTRIES = 1000;
+
+  private final RenderedDefaults instanceDefaults;
+  private final RenderedDefaults imageDefaults;
+  private final LoadingCache<FilterKey, String> filters;
+
+  FilterCompiler(@Nullable Map<String, String> instanceSearchParams
+      , @Nullable Map<String, String> imageSearchParams) {
+    instanceDefaults = new RenderedDefaults(instanceSearchParams);
+    imageDefaults = new RenderedDefaults(imageSearchParams);
+    filters = CacheBuilder.newBuilder()
+        .maximumSize(MAX_ENTRIES)
+        .build(CacheLoader.from(this::render));
+  }
+
+  /**
+   * Filter for instances matching the given search params and status.
+   */
+  String instanceFilter(ResourceSearchParam searchParam, InstanceStatus instanceStatus) {
+    return get(new FilterKey(FilterKey.Kind.INSTANCE
+        , searchParam.getOS()
+        , searchParam.getBrowser()
+        , searchParam.isShots()
+        , instanceStatus.toString()
+        , searchParam.getCustomInstanceSearchParams()));
+  }
+
+  /**
+   * Filter for images matching the given search params.
+   */
+  String imageFilter(ResourceSearchParam searchParam) {
+    return get(new FilterKey(FilterKey.Kind.IMAGE
+        , searchParam.getOS()
+        , searchParam.getBrowser()
+        , searchParam.isShots()
+        , null
+        , searchParam.getCustomImageSearchParams()));
+  }
+
+  /**
+   * Filter for instances created from the given image family having given status.
+   */
+  String familyFilter(String imageFamily, InstanceStatus instanceStatus) {
+    Assert.hasText(imageFamily, "imageFamily can't be empty");
+
+    return get(new FilterKey(FilterKey.Kind.FAMILY
+        , null
+        , null
+        , null
+        , instanceStatus.toString()
+        , Collections.singletonMap(LABELS_KEY_PREFIX + ResourceUtil.LABEL_SOURCE_FAMILY
+            , imageFamily)));
+  }
+
+  private String get(FilterKey key) {
+    try {
+      return filters.getUnchecked(key);
+    } catch (UncheckedExecutionException e) {
+      // render fails only on invalid params, throw as is.
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  @VisibleForTesting
+  String render(FilterKey key) {
+    // status goes first so that a custom param of the same key overrides it.
+    Map<String, String> params = new LinkedHashMap<>();
+    if (key.status != null) {
+      params.put(STATUS_KEY, key.status);
+    }
+    if (key.params != null) {
+      params.putAll(new TreeMap<>(key.params));
+    }
+    StringBuilder filter = new StringBuilder();
+    switch (key.kind) {
+      case INSTANCE:
+        instanceDefaults.appendWith(params, filter);
+        appendRequestConditions(key, filter);
+        break;
+      case IMAGE:
+        imageDefaults.appendWith(params, filter);
+        appendRequestConditions(key, filter);
+        break;
+      case FAMILY:
+        instanceDefaults.appendWith(params, filter);
+        // nothing follows, remove the trailing expression.
+        filter.setLength(filter.length() - AND.length());
+        break;
+      default:
+        throw new IllegalArgumentException("unknown filter kind " + key.kind);
+    }
+    return filter.toString();
+  }
+
+  private void appendRequestConditions(FilterKey key, StringBuilder filter) {
+    Assert.hasText(key.os, "'os' can't be empty.");
+    Assert.hasText(key.browser, "'browser' can't be empty.");
+
+    // lower the case because labels don't accept upper case chars
+    String browser = key.browser.toLowerCase();
+    appendCondition("labels.os", key.os.toLowerCase(), filter).append(AND);
+    for (int i = 1; i <= MAX_BROWSER_LABELS; i++) {
+      appendCondition("labels.browser" + i, browser, filter)
+          .append(i < MAX_BROWSER_LABELS ? OR : AND);
+    }
+    appendCondition("labels.shots", String.valueOf(key.shots), filter);
+  }
+
+  private static StringBuilder appendCondition(String key, String value, StringBuilder filter) {
+    Assert.hasText(key, "key can't be empty");
+    Assert.notNull(value, "value can't be null");
+
+    filter.append('(').append(key).append(" = \"");
+    // values are string literals, quotes and backslashes in them must be escaped.
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        filter.append('\\');
+      }
+      filter.append(c);
+    }
+    return filter.append("\")");
+  }
+
+  private static String renderCondition(String key, String value) {
+    return appendCondition(key, value, new StringBuilder()).toString();
+  }
+
+  /**
+   * Default params rendered as conditions in the order they're configured in, along with all of
+   * them joined to be used as is when a search doesn't override any default.
+   */
+  private static final class RenderedDefaults {
+
+    private final Map<String, String> conditions = new LinkedHashMap<>();
+    private final String joined;
+
+    private RenderedDefaults(@Nullable Map<String, String> defaultParams) {
+      StringBuilder builder = new StringBuilder();
+      if (defaultParams != null) {
+        defaultParams.forEach((k, v) -> {
+          String condition = renderCondition(k, v);
+          conditions.put(k, condition);
+          builder.append(condition).append(AND);
+        });
+      }
+      joined = builder.toString();
+    }
+
+    /**
+     * Appends defaults with the given params, each condition followed by an AND.
+     */
+    private void appendWith(Map<String, String> params, StringBuilder filter) {
+      boolean overridden = false;
+      for (String key : params.keySet()) {
+        if (conditions.containsKey(key)) {
+          overridden = true;
+          break;
+        }
+      }
+      if (!overridden) {
+        filter.append(joined);
+      } else {
+        conditions.forEach((k, condition) -> {
+          String override = params.get(k);
+          if (override != null) {
+            appendCondition(k, override, filter);
+          } else {
+            filter.append(condition);
+          }
+          filter.append(AND);
+        });
+      }
+      params.forEach((k, v) -> {
+        if (!conditions.containsKey(k)) {
+          appendCondition(k, v, filter).append(AND);
+        }
+      });
+    }
+  }
+
+  @VisibleForTesting
+  static final class FilterKey {
+
+    enum Kind {
+      INSTANCE,
+      IMAGE,
+      FAMILY
+    }
+
+    private final Kind kind;
+    @Nullable private final String os;
+    @Nullable private final String browser;
+    @Nullable private final Boolean shots;
+    @Nullable private final String status;
+    @Nullable private final Map<String, String> params;
+
+    FilterKey(Kind kind
+        , @Nullable String os
+        , @Nullable String browser
+        , @Nullable Boolean shots
+        , @Nullable String status
+        , @Nullable Map<String, String> params) {
+      this.kind = kind;
+      this.os = os;
+      this.browser = browser;
+      this.shots = shots;
+      this.status = status;
+      // request params are mutable maps given by jackson, a key must not change once cached.
+      this.params = params != null ? ImmutableMap.copyOf(params) : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FilterKey that = (FilterKey) o;
+      return kind == that.kind
+          && Objects.equals(os, that.os)
+          && Objects.equals(browser, that.browser)
+          && Objects.equals(shots, that.shots)
+          && Objects.equals(status, that.status)
+          && Objects.equals(params, that.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kind, os, browser, shots, status, params);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.zylitics.wzgp.resource.search;
 
+import java.util.List;
 import java.util.Optional;
 
 import javax.annotation.Nullable;
@@ -27,6 +28,41 @@ public interface ResourceSearch {
                                     InstanceStatus instanceStatus,
                                     @Nullable BuildProperty buildProp) throws Exception;
   
+  /**
+   * Searches instances to try claiming one of, in random order so that near parallel requests
+   * going through them don't collide on the same instance.
+   * @param searchParam {@link ResourceSearchParam} object
+   * @param zone zone where to search
+   * @param instanceStatus status of instances
+   * @param maxResults maximum instances to fetch from GCE, instances known to the inventory are
+   *        all returned.
+   * @param buildProp {@link BuildProperty} object
+   * @return List of matching {@link Instance} in random order, empty if none matched.
+   * @throws Exception If there are problems searching
+   */
+  List<Instance> searchInstances(ResourceSearchParam searchParam,
+                                 String zone,
+                                 InstanceStatus instanceStatus,
+                                 long maxResults,
+                                 @Nullable BuildProperty buildProp) throws Exception;
+  
+  /**
+   * Searches instances created from the given image family that are otherwise available as per the
+   * default instance search params.
+   * @param imageFamily family of the image instances were created from
+   * @param zone zone where to search
+   * @param instanceStatus status of instances
+   * @param maxResults maximum instances to fetch
+   * @param buildProp {@link BuildProperty} object
+   * @return List of matching {@link Instance}, empty if none matched.
+   * @throws Exception If there are problems searching
+   */
+  List<Instance> searchInstancesFromFamily(String imageFamily,
+                                           String zone,
+                                           InstanceStatus instanceStatus,
+                                           long maxResults,
+                                           @Nullable BuildProperty buildProp) throws Exception;
+  
   /**
    * 
    * @param searchParam {@link ResourceSearchParam} object
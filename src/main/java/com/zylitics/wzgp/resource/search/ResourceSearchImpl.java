@@ -1,10 +1,14 @@
 package com.zylitics.wzgp.resource.search;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.function.Predicate;
 
 import com.zylitics.wzgp.model.InstanceStatus;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,24 +18,54 @@ import org.springframework.util.Assert;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
 import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.image.ImageCache;
+import com.zylitics.wzgp.resource.inventory.InstanceInventory;
 
 @Service
 public class ResourceSearchImpl implements ResourceSearch {
   
-  private static final FilterBuilder.ConditionalExpr AND = FilterBuilder.ConditionalExpr.AND;
-  private static final FilterBuilder.ConditionalExpr OR = FilterBuilder.ConditionalExpr.OR;
+  private static final String STATUS_KEY = FilterCompiler.STATUS_KEY;
+  
+  private static final String LABELS_KEY_PREFIX = FilterCompiler.LABELS_KEY_PREFIX;
+  
+  private static final int MAX_BROWSER_LABELS = FilterCompiler.MAX_BROWSER_LABELS;
   
   private final APICoreProperties apiCoreProps;
   private final ComputeService computeServ;
+  private final InstanceInventory inventory;
+  private final ImageCache imageCache;
+  private final FilterCompiler filterCompiler;
   private final Random random;
+  
+  // default instance search params along with the status, per status. Defaults don't change after
+  // startup so searches only need to look at their custom params.
+  private final Map<InstanceStatus, Map<String, String>> defaultInstanceSearchParams;
 
   @Autowired
-  ResourceSearchImpl(APICoreProperties apiCoreProps, ComputeService computeServ) {
+  ResourceSearchImpl(APICoreProperties apiCoreProps
+      , ComputeService computeServ
+      , InstanceInventory inventory
+      , ImageCache imageCache) {
     this.apiCoreProps = apiCoreProps;
     this.computeServ = computeServ;
+    this.inventory = inventory;
+    this.imageCache = imageCache;
+    GridDefault gridDefault = apiCoreProps.getGridDefault();
+    filterCompiler = new FilterCompiler(gridDefault.getInstanceSearchParams()
+        , gridDefault.getImageSearchParams());
     random = new Random();
+    defaultInstanceSearchParams = new EnumMap<>(InstanceStatus.class);
+    for (InstanceStatus instanceStatus : InstanceStatus.values()) {
+      Map<String, String> params = new LinkedHashMap<>();
+      if (gridDefault.getInstanceSearchParams() != null) {
+        params.putAll(gridDefault.getInstanceSearchParams());
+      }
+      params.put(STATUS_KEY, instanceStatus.toString());
+      defaultInstanceSearchParams.put(instanceStatus, Collections.unmodifiableMap(params));
+    }
   }
   
   @Override
@@ -39,10 +73,13 @@ public class ResourceSearchImpl implements ResourceSearch {
       throws Exception {
     searchParam.validate();
     
-    List<Image> images = computeServ.listImages(buildImageFilters(searchParam), 1L, buildProp);
-    return images != null && images.size() > 0
-        ? Optional.of(images.get(0))
-        : Optional.empty();
+    return imageCache.search(searchParam, () -> {
+      List<Image> images = computeServ.listImages(filterCompiler.imageFilter(searchParam), 1L
+          , buildProp);
+      return images != null && images.size() > 0
+          ? Optional.of(images.get(0))
+          : Optional.empty();
+    });
   }
   
   @Override
@@ -50,101 +87,114 @@ public class ResourceSearchImpl implements ResourceSearch {
                                            String zone,
                                            InstanceStatus instanceStatus,
                                            BuildProperty buildProp) throws Exception {
+    List<Instance> instances = searchInstances(searchParam, zone, instanceStatus,
+        apiCoreProps.getGridDefault().getMaxInstanceInSearch(), buildProp);
+    return instances.size() > 0 ? Optional.of(instances.get(0)) : Optional.empty();
+  }
+  
+  @Override
+  public List<Instance> searchInstances(ResourceSearchParam searchParam,
+                                        String zone,
+                                        InstanceStatus instanceStatus,
+                                        long maxResults,
+                                        BuildProperty buildProp) throws Exception {
     searchParam.validate();
     
+    // first see whether inventory can answer, when it has nothing we still go to GCE as new
+    // instances may have come up after the last sweep.
+    Optional<Predicate<Instance>> matcher = buildInstanceMatcher(
+        defaultInstanceSearchParams.get(instanceStatus), searchParam);
+    if (matcher.isPresent()) {
+      List<Instance> indexed = inventory.find(zone, matcher.get()).orElse(null);
+      if (indexed != null && indexed.size() > 0) {
+        return shuffled(indexed);
+      }
+    }
+    
     List<Instance> instances = computeServ.listInstances(
-        buildInstanceFilters(searchParam, instanceStatus),
-        apiCoreProps.getGridDefault().getMaxInstanceInSearch(),
+        filterCompiler.instanceFilter(searchParam, instanceStatus),
+        maxResults,
         zone,
         buildProp);
-    return instances != null && instances.size() > 0
-        ? Optional.of(instances.get(random.nextInt(instances.size())))
-        : Optional.empty();
+    return instances != null ? shuffled(instances) : Collections.emptyList();
   }
   
-  private String buildInstanceFilters(ResourceSearchParam searchParam,
-                                      InstanceStatus instanceStatus) {
-    Map<String, String> mergedSearchParams =
-        new HashMap<>(apiCoreProps.getGridDefault().getInstanceSearchParams());
-    mergedSearchParams.put("status", instanceStatus.toString());
-    
-    if (searchParam.getCustomInstanceSearchParams() != null) {
-      mergedSearchParams.putAll(searchParam.getCustomInstanceSearchParams());
-    }
+  @Override
+  public List<Instance> searchInstancesFromFamily(String imageFamily,
+                                                  String zone,
+                                                  InstanceStatus instanceStatus,
+                                                  long maxResults,
+                                                  BuildProperty buildProp) throws Exception {
+    Assert.hasText(imageFamily, "imageFamily can't be empty");
     
-    FilterBuilder filterBuilder = new FilterBuilder();
-    mergedSearchParams.forEach((k, v) ->
-        filterBuilder.addCondition(k, v).addConditionalExpr(AND));
-    return filterBuilder.build() + buildFromRequest(searchParam);
+    String filter = filterCompiler.familyFilter(imageFamily, instanceStatus);
+    List<Instance> instances = computeServ.listInstances(filter, maxResults, zone, buildProp);
+    return instances != null ? instances : Collections.emptyList();
   }
   
-  private String buildImageFilters(ResourceSearchParam searchParam) {
-    Map<String, String> mergedSearchParams =
-        new HashMap<>(apiCoreProps.getGridDefault().getImageSearchParams());
-    
-    if (searchParam.getCustomImageSearchParams() != null) {
-      mergedSearchParams.putAll(searchParam.getCustomImageSearchParams());
-    }
-  
-    FilterBuilder filterBuilder = new FilterBuilder();
-    mergedSearchParams.forEach((k, v) ->
-        filterBuilder.addCondition(k, v).addConditionalExpr(AND));
-    return filterBuilder.build() + buildFromRequest(searchParam);
+  private List<Instance> shuffled(List<Instance> instances) {
+    List<Instance> shuffled = new ArrayList<>(instances);
+    Collections.shuffle(shuffled, random);
+    return shuffled;
   }
   
-  private String buildFromRequest(ResourceSearchParam searchParam) {
-    String browser = searchParam.getBrowser().toLowerCase(); // lower case because labels don't
-    // accept upper case chars
-    return new FilterBuilder()
-        .addCondition("labels.os", searchParam.getOS().toLowerCase()) // lower the case for labels
-        .addConditionalExpr(AND)
-        .addCondition("labels.browser1", browser)
-        .addConditionalExpr(OR)
-        .addCondition("labels.browser2", browser)
-        .addConditionalExpr(OR)
-        .addCondition("labels.browser3", browser)
-        .addConditionalExpr(OR)
-        .addCondition("labels.browser4", browser)
-        .addConditionalExpr(OR)
-        .addCondition("labels.browser5", browser)
-        .addConditionalExpr(OR)
-        .addCondition("labels.browser6", browser)
-        .addConditionalExpr(AND)
-        .addCondition("labels.shots", String.valueOf(searchParam.isShots()))
-        .build();
+  /**
+   * Builds a predicate equivalent to the filter built from same params. Custom params of search
+   * override default params of the same key.
+   * @return empty if there is a param that can't be evaluated locally.
+   */
+  private Optional<Predicate<Instance>> buildInstanceMatcher(Map<String, String> defaultParams,
+                                                             ResourceSearchParam searchParam) {
+    Map<String, String> customParams = searchParam.getCustomInstanceSearchParams() != null
+        ? searchParam.getCustomInstanceSearchParams()
+        : Collections.emptyMap();
+    if (!allLocal(defaultParams) || !allLocal(customParams)) {
+      return Optional.empty();
+    }
+    String os = searchParam.getOS().toLowerCase();
+    String browser = searchParam.getBrowser().toLowerCase();
+    String shots = String.valueOf(searchParam.isShots());
+    return Optional.of(instance -> {
+      Map<String, String> labels = instance.getLabels() != null
+          ? instance.getLabels()
+          : Collections.emptyMap();
+      for (Map.Entry<String, String> param : defaultParams.entrySet()) {
+        if (!customParams.containsKey(param.getKey()) && !matches(instance, labels, param)) {
+          return false;
+        }
+      }
+      for (Map.Entry<String, String> param : customParams.entrySet()) {
+        if (!matches(instance, labels, param)) {
+          return false;
+        }
+      }
+      if (!os.equals(labels.get("os")) || !shots.equals(labels.get("shots"))) {
+        return false;
+      }
+      for (int i = 1; i <= MAX_BROWSER_LABELS; i++) {
+        if (browser.equals(labels.get("browser" + i))) {
+          return true;
+        }
+      }
+      return false;
+    });
   }
   
-  @SuppressWarnings("unused")
-  private static final class FilterBuilder {
-    
-    private static final String SEARCH_TMPL = "(L = R)";
-    
-    enum ConditionalExpr {
-      AND,
-      OR
-    }
-    
-    private final StringBuilder builder = new StringBuilder();
-    
-    private FilterBuilder addCondition(String key, String value) {
-      Assert.hasText(key, "key can't be empty");
-      Assert.notNull(value, "value can't be null");
-      
-      builder.append(SEARCH_TMPL
-          .replace("L", key)
-          .replace("R", "\"" + value + "\""));
-      return this;
-    }
-    
-    private FilterBuilder addConditionalExpr(ConditionalExpr conditionalExpr) {
-      builder.append(" ")
-          .append(conditionalExpr.name())
-          .append(" ");
-      return this;
-    }
-    
-    private String build() {
-      return builder.toString();
+  private boolean allLocal(Map<String, String> params) {
+    for (String key : params.keySet()) {
+      if (!key.equals(STATUS_KEY) && !key.startsWith(LABELS_KEY_PREFIX)) {
+        return false;
+      }
     }
+    return true;
+  }
+  
+  private boolean matches(Instance instance
+      , Map<String, String> labels
+      , Map.Entry<String, String> param) {
+    String actual = param.getKey().equals(STATUS_KEY)
+        ? instance.getStatus()
+        : labels.get(param.getKey().substring(LABELS_KEY_PREFIX.length()));
+    return param.getValue().equals(actual);
   }
 }
@@ -0,0 +1,22 @@
+package com.zylitics.wzgp.resource.template;
+
+import java.util.Optional;
+
+public interface InstanceTemplateCache {
+
+  /**
+   * Never blocks on creating a template. When the template of the given spec isn't known to exist
+   * yet, its creation is started in background and empty is returned, so that the caller builds
+   * the grid in full this time.
+   * @return partial url of the template to be used as {@code sourceInstanceTemplate}, empty if
+   *         it's not ready.
+   */
+  Optional<String> get(InstanceTemplateSpec spec);
+
+  /**
+   * Forgets that the given template exists, such as when an insert reports it missing after it was
+   * deleted out of band. The template is created again on next {@link #get(InstanceTemplateSpec)}.
+   * @param template partial url of the template as given by {@link #get(InstanceTemplateSpec)}
+   */
+  void invalidate(String template);
+}
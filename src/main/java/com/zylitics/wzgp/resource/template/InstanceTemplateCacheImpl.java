@@ -0,0 +1,177 @@
+package com.zylitics.wzgp.resource.template;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.ratelimit.ApiPriority;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Creates a template the first time a spec is asked for and remembers it once it exists. Template
+ * names are derived from specs, so a template some other replica created is found when insert
+ * reports a conflict. A template that couldn't be created isn't attempted again until a cool down
+ * passes, grids are inserted in full meanwhile. A template that's known to exist is trusted until
+ * an insert that used it reports it missing, it's then forgotten and created again.
+ * Templates are never deleted by this, a spec that's no longer used leaves an unused template.
+ * @author Praveen Tiwari
+ *
+ */
+@Component
+public class InstanceTemplateCacheImpl implements InstanceTemplateCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstanceTemplateCacheImpl.class);
+
+  private static final long RETRY_AFTER_FAILURE_MILLIS = 5 * 60 * 1000;
+
+  private static final long CREATE_TIMEOUT_MILLIS = 60 * 1000;
+
+  private static final long CREATE_POLL_MILLIS = 1000;
+
+  private final ComputeService computeSrv;
+  private final ResourceExecutor executor;
+  private final boolean enabled;
+  private final ExecutorService createExecutor;
+  private final Clock clock;
+
+  private final Map<String, TemplateState> templates = new ConcurrentHashMap<>();
+
+  @Autowired
+  InstanceTemplateCacheImpl(ComputeService computeSrv
+      , ResourceExecutor executor
+      , @Value("${instance-template-inserts-enabled}") boolean enabled) {
+    this(computeSrv, executor, enabled
+        , Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("instance-template-create-%d")
+            .setDaemon(true)
+            .build())
+        , Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  InstanceTemplateCacheImpl(ComputeService computeSrv
+      , ResourceExecutor executor
+      , boolean enabled
+      , ExecutorService createExecutor
+      , Clock clock) {
+    this.computeSrv = computeSrv;
+    this.executor = executor;
+    this.enabled = enabled;
+    this.createExecutor = createExecutor;
+    this.clock = clock;
+  }
+
+  @Override
+  public Optional<String> get(InstanceTemplateSpec spec) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    String name = spec.name();
+    TemplateState state = templates.get(name);
+    if (state != null && state.ready) {
+      return Optional.of(String.format("global/instanceTemplates/%s", name));
+    }
+    if (state != null
+        && (state.failedAt == 0 || clock.millis() - state.failedAt < RETRY_AFTER_FAILURE_MILLIS)) {
+      // being created or failed recently.
+      return Optional.empty();
+    }
+    TemplateState creating = new TemplateState(false, 0);
+    boolean won = state == null
+        ? templates.putIfAbsent(name, creating) == null
+        : templates.replace(name, state, creating);
+    if (won) {
+      submitCreate(spec, creating);
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public void invalidate(String template) {
+    String name = ResourceUtil.nameFromUrl(template);
+    TemplateState state = templates.get(name);
+    // one that's being created is left alone.
+    if (state != null && state.ready && templates.remove(name, state)) {
+      LOG.warn("instance template {} is invalidated, it's going to be created again", name);
+    }
+  }
+
+  private void submitCreate(InstanceTemplateSpec spec, TemplateState creating) {
+    String name = spec.name();
+    try {
+      createExecutor.execute(() -> {
+        boolean created = false;
+        try {
+          created = ApiPriority.callWith(ApiPriority.BACKGROUND, () -> create(spec));
+        } catch (Throwable t) {
+          LOG.error(String.format("couldn't create instance template %s for %s", name, spec), t);
+        }
+        templates.replace(name, creating, new TemplateState(created, created ? 0 : clock.millis()));
+        if (created) {
+          LOG.info("instance template {} is ready for {}", name, spec);
+        }
+      });
+    } catch (RejectedExecutionException rej) {
+      templates.remove(name, creating);
+      LOG.warn("instance template create for {} was rejected, shutting down?", name);
+    }
+  }
+
+  private boolean create(InstanceTemplateSpec spec) throws Exception {
+    Operation operation;
+    try {
+      operation = computeSrv.insertInstanceTemplate(spec.toInstanceTemplate(), null);
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() == 409) {
+        // created already, by another replica or before a restart.
+        return true;
+      }
+      throw e;
+    }
+    // insert gives a global operation, it's tracked together with zonal ones.
+    operation = executor.blockUntilComplete(operation, CREATE_POLL_MILLIS, CREATE_TIMEOUT_MILLIS
+        , null);
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      LOG.error("couldn't create instance template {}, operation: {}", spec.name()
+          , operation.toPrettyString());
+      return false;
+    }
+    return true;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    createExecutor.shutdownNow();
+  }
+
+  private static class TemplateState {
+
+    private final boolean ready;
+
+    // zero unless creation failed.
+    private final long failedAt;
+
+    private TemplateState(boolean ready, long failedAt) {
+      this.ready = ready;
+      this.failedAt = failedAt;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.zylitics.wzgp.resource.template;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.compute.ComputeScopes;
+import com.google.api.services.compute.model.AccessConfig;
+import com.google.api.services.compute.model.AttachedDisk;
+import com.google.api.services.compute.model.AttachedDiskInitializeParams;
+import com.google.api.services.compute.model.InstanceProperties;
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Scheduling;
+import com.google.api.services.compute.model.ServiceAccount;
+import com.google.api.services.compute.model.Tags;
+import com.google.common.hash.Hashing;
+
+/**
+ * Everything of a grid that doesn't change from grid to grid of the same image family, machine
+ * type and network profile, which is the subnet, external ip and network tags. Service account
+ * and scheduling are part of it too so that a template never needs overrides other than the
+ * per-grid name, labels, metadata and boot disk.
+ * Specs those are equal always give the same template name so that replicas share templates. The
+ * name is a hash of the rendered template, a change in how a spec is rendered gives a new name.
+ * @author Praveen Tiwari
+ *
+ */
+public final class InstanceTemplateSpec {
+
+  private static final String NAME_PREFIX = "grid-template-";
+
+  private static final JsonFactory JSON = GsonFactory.getDefaultInstance();
+
+  private final String imageFamily;
+  private final String machineType;
+  private final String subnetwork;
+  private final boolean createExternalIP;
+  private final Set<String> tags;
+  private final String serviceAccountEmail;
+  private final boolean preemptible;
+
+  private final String name;
+
+  public InstanceTemplateSpec(String imageFamily
+      , String machineType
+      , String subnetwork
+      , boolean createExternalIP
+      , Set<String> tags
+      , String serviceAccountEmail
+      , boolean preemptible) {
+    this.imageFamily = imageFamily;
+    this.machineType = machineType;
+    this.subnetwork = subnetwork;
+    this.createExternalIP = createExternalIP;
+    this.tags = Collections.unmodifiableSet(new TreeSet<>(tags));
+    this.serviceAccountEmail = serviceAccountEmail;
+    this.preemptible = preemptible;
+    name = NAME_PREFIX + hash(render());
+  }
+
+  public String getImageFamily() {
+    return imageFamily;
+  }
+
+  /**
+   * @return name of the template, derived from everything the template is rendered with.
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Builds the template the same way {@link com.zylitics.wzgp.resource.grid.GridGenerator} builds
+   * a grid, leaving out per-grid properties.
+   */
+  public InstanceTemplate toInstanceTemplate() {
+    return render().setName(name);
+  }
+
+  private InstanceTemplate render() {
+    NetworkInterface nif = new NetworkInterface();
+    nif.setSubnetwork(subnetwork);
+    if (createExternalIP) {
+      AccessConfig accessConfig = new AccessConfig();
+      accessConfig.setType("ONE_TO_ONE_NAT");
+      accessConfig.setName("External NAT");
+      nif.setAccessConfigs(Collections.singletonList(accessConfig));
+    }
+
+    // the family is resolved to its latest image when a grid is created.
+    AttachedDisk disk = new AttachedDisk();
+    disk.setBoot(true);
+    disk.setAutoDelete(true);
+    disk.setType("PERSISTENT");
+    disk.setInitializeParams(new AttachedDiskInitializeParams()
+        .setDiskSizeGb(50L)
+        .setSourceImage(String.format("global/images/family/%s", imageFamily))
+        .setDiskType("pd-ssd"));
+
+    ServiceAccount serviceAccount = new ServiceAccount();
+    serviceAccount.setEmail(serviceAccountEmail);
+    serviceAccount.setScopes(Collections.singletonList(ComputeScopes.CLOUD_PLATFORM));
+
+    List<String> tagItems = new ArrayList<>(tags);
+    InstanceProperties properties = new InstanceProperties()
+        .setMachineType(machineType)
+        .setNetworkInterfaces(Collections.singletonList(nif))
+        .setDisks(Collections.singletonList(disk))
+        .setServiceAccounts(Collections.singletonList(serviceAccount))
+        .setScheduling(new Scheduling().setPreemptible(preemptible))
+        .setTags(new Tags().setItems(tagItems));
+    return new InstanceTemplate()
+        .setDescription("Grid template of image family " + imageFamily)
+        .setProperties(properties);
+  }
+
+  private static String hash(InstanceTemplate template) {
+    String body;
+    try {
+      // fields are written in the same order every time.
+      body = JSON.toString(template);
+    } catch (IOException io) {
+      throw new UncheckedIOException(io);
+    }
+    return Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString().substring(0, 40);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof InstanceTemplateSpec)) {
+      return false;
+    }
+    InstanceTemplateSpec that = (InstanceTemplateSpec) o;
+    return createExternalIP == that.createExternalIP
+        && preemptible == that.preemptible
+        && imageFamily.equals(that.imageFamily)
+        && machineType.equals(that.machineType)
+        && subnetwork.equals(that.subnetwork)
+        && tags.equals(that.tags)
+        && Objects.equals(serviceAccountEmail, that.serviceAccountEmail);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(imageFamily, machineType, subnetwork, createExternalIP, tags
+        , serviceAccountEmail, preemptible);
+  }
+
+  @Override
+  public String toString() {
+    return "InstanceTemplateSpec{" +
+        "imageFamily='" + imageFamily + '\'' +
+        ", machineType='" + machineType + '\'' +
+        ", subnetwork='" + subnetwork + '\'' +
+        ", createExternalIP=" + createExternalIP +
+        ", tags=" + tags +
+        ", serviceAccountEmail='" + serviceAccountEmail + '\'' +
+        ", preemptible=" + preemptible +
+        '}';
+  }
+}
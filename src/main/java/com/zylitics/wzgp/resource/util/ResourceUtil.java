@@ -18,6 +18,10 @@ public class ResourceUtil {
   public static final String LABEL_STOPPED_INSTANCE_CUSTOM_IDENTIFIER =
       "stopped-instance-custom-identifier";
   public static final String LABEL_IS_PRODUCTION_INSTANCE = "is-production-instance";
+  // epoch seconds a grid's lease expires at, when leases are shared by replicas.
+  public static final String LABEL_LEASE_EXPIRES_AT = "lease-expires-at";
+  // image family of the boot disk pool a disk was created for.
+  public static final String LABEL_BOOT_DISK_POOL = "boot-disk-pool";
   
   public static final String METADATA_CURRENT_TEST_SESSIONID = "current-test-sessionId";
 
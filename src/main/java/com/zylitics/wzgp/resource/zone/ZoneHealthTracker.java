@@ -0,0 +1,29 @@
+package com.zylitics.wzgp.resource.zone;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.api.services.compute.model.Operation;
+
+/**
+ * Keeps recent outcomes of grid creation per zone so that reattempts go to zones most likely to
+ * succeed quickly.
+ * @author Praveen Tiwari
+ *
+ */
+public interface ZoneHealthTracker {
+
+  /**
+   * Records the outcome of a completed grid creation {@link Operation}.
+   * @param operation completed Operation, its zone is taken as the zone to record against.
+   * @param elapsedMillis time it took from issuing the request to the Operation being DONE.
+   */
+  void record(Operation operation, long elapsedMillis);
+
+  /**
+   * @param zones zones to order, not modified.
+   * @return the given zones ordered by expected success and time to DONE, best first. Zones that
+   *         recently ran out of capacity are cooled down and put last rather than removed.
+   */
+  List<String> rank(Collection<String> zones);
+}
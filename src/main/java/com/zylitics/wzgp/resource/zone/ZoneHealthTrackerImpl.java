@@ -0,0 +1,185 @@
+package com.zylitics.wzgp.resource.zone;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.services.compute.model.Operation;
+import com.google.common.annotations.VisibleForTesting;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+/**
+ * Outcomes are kept per zone over a sliding window. A zone's expected cost of getting a grid is
+ * its mean time to DONE of successful creates divided by its success rate, success rate is
+ * smoothed so that zones with few or no outcomes get a fair chance. Any capacity error, i.e one of
+ * {@link APICoreProperties#getGceZonalReattemptErrors()}, cools the zone down for a while.
+ * Ties are broken randomly so that unknown zones share the load.
+ * This is singleton for the life of application, take care with using any shared resource.
+ * @author Praveen Tiwari
+ *
+ */
+@ThreadSafe
+@Component
+public class ZoneHealthTrackerImpl implements ZoneHealthTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZoneHealthTrackerImpl.class);
+
+  // assumed time to DONE for zones having no successful create in window.
+  private static final long DEFAULT_DONE_MILLIS = 60 * 1000;
+
+  private final APICoreProperties apiCoreProps;
+  private final long windowMillis;
+  private final long cooldownMillis;
+  private final Clock clock;
+
+  private final Map<String, ZoneStats> zoneStats = new ConcurrentHashMap<>();
+
+  @Autowired
+  ZoneHealthTrackerImpl(APICoreProperties apiCoreProps
+      , @Value("${zone-health-window-millis}") long windowMillis
+      , @Value("${zone-cooldown-millis}") long cooldownMillis) {
+    this(apiCoreProps, windowMillis, cooldownMillis, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  public ZoneHealthTrackerImpl(APICoreProperties apiCoreProps
+      , long windowMillis
+      , long cooldownMillis
+      , Clock clock) {
+    this.apiCoreProps = apiCoreProps;
+    this.windowMillis = windowMillis;
+    this.cooldownMillis = cooldownMillis;
+    this.clock = clock;
+  }
+
+  @Override
+  public void record(Operation operation, long elapsedMillis) {
+    if (operation.getZone() == null) {
+      return;
+    }
+    String zone = ResourceUtil.nameFromUrl(operation.getZone());
+    Outcome outcome = outcomeOf(operation);
+    long now = clock.millis();
+    ZoneStats stats = zoneStats.computeIfAbsent(zone, k -> new ZoneStats());
+    synchronized (stats) {
+      stats.samples.addLast(new Sample(now, outcome, elapsedMillis));
+      if (outcome == Outcome.CAPACITY) {
+        stats.cooledDownUntil = now + cooldownMillis;
+        LOG.info("zone {} is out of capacity, cooling it down for {}ms", zone, cooldownMillis);
+      }
+      prune(stats, now);
+    }
+  }
+
+  @Override
+  public List<String> rank(Collection<String> zones) {
+    long now = clock.millis();
+    Map<String, Score> scores = new HashMap<>();
+    for (String zone : zones) {
+      scores.put(zone, score(zone, now));
+    }
+    List<String> ranked = new ArrayList<>(zones);
+    // shuffle first, sort is stable so equally scored zones stay in random order.
+    Collections.shuffle(ranked);
+    ranked.sort(Comparator.<String, Boolean>comparing(z -> scores.get(z).cooledDown)
+        .thenComparingDouble(z -> scores.get(z).expectedCost));
+    return ranked;
+  }
+
+  private Score score(String zone, long now) {
+    ZoneStats stats = zoneStats.get(zone);
+    if (stats == null) {
+      return new Score(false, DEFAULT_DONE_MILLIS / 0.5);
+    }
+    synchronized (stats) {
+      prune(stats, now);
+      int total = stats.samples.size();
+      int succeeded = 0;
+      long doneMillis = 0;
+      for (Sample sample : stats.samples) {
+        if (sample.outcome == Outcome.SUCCESS) {
+          succeeded++;
+          doneMillis += sample.elapsedMillis;
+        }
+      }
+      double successRate = (succeeded + 1.0) / (total + 2.0);
+      double meanDoneMillis = succeeded > 0 ? (double) doneMillis / succeeded : DEFAULT_DONE_MILLIS;
+      return new Score(now < stats.cooledDownUntil, meanDoneMillis / successRate);
+    }
+  }
+
+  private void prune(ZoneStats stats, long now) {
+    while (!stats.samples.isEmpty() && now - stats.samples.peekFirst().at > windowMillis) {
+      stats.samples.removeFirst();
+    }
+  }
+
+  private Outcome outcomeOf(Operation operation) {
+    if (ResourceUtil.isOperationSuccess(operation)) {
+      return Outcome.SUCCESS;
+    }
+    if (operation.getError() != null && operation.getError().getErrors() != null) {
+      for (Operation.Error.Errors err : operation.getError().getErrors()) {
+        if (err.getCode() != null
+            && apiCoreProps.getGceZonalReattemptErrors().contains(err.getCode())) {
+          return Outcome.CAPACITY;
+        }
+      }
+    }
+    return Outcome.FAILED;
+  }
+
+  private enum Outcome {
+    SUCCESS,
+    CAPACITY,
+    FAILED
+  }
+
+  private static class Sample {
+
+    private final long at;
+    private final Outcome outcome;
+    private final long elapsedMillis;
+
+    private Sample(long at, Outcome outcome, long elapsedMillis) {
+      this.at = at;
+      this.outcome = outcome;
+      this.elapsedMillis = elapsedMillis;
+    }
+  }
+
+  private static class ZoneStats {
+
+    // guarded by this
+    private final Deque<Sample> samples = new ArrayDeque<>();
+    private long cooledDownUntil;
+  }
+
+  private static class Score {
+
+    private final boolean cooledDown;
+    private final double expectedCost;
+
+    private Score(boolean cooledDown, double expectedCost) {
+      this.cooledDown = cooledDown;
+      this.expectedCost = expectedCost;
+    }
+  }
+}
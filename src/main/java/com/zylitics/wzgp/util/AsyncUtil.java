@@ -0,0 +1,44 @@
+package com.zylitics.wzgp.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+public class AsyncUtil {
+
+  /**
+   * Runs the given {@link Callable} on the given {@link Executor}. Unlike
+   * {@link CompletableFuture#supplyAsync}, checked exceptions are allowed and the returned future
+   * completes exceptionally with the exception as is. When the executor rejects the task, the
+   * returned future completes exceptionally with the rejection.
+   */
+  public static <T> CompletableFuture<T> callAsync(Callable<T> callable, Executor executor) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(callable.call());
+        } catch (Throwable t) {
+          future.completeExceptionally(t);
+        }
+      });
+    } catch (Throwable t) {
+      future.completeExceptionally(t);
+    }
+    return future;
+  }
+
+  /**
+   * Gets the actual cause from wrappers that {@link CompletableFuture} puts around exceptions.
+   */
+  public static Throwable unwrap(Throwable t) {
+    Throwable cause = t;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+}
@@ -2,6 +2,9 @@ package com.zylitics.wzgp.web;
 
 import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 import com.google.api.services.compute.model.NetworkInterface;
 import org.springframework.http.HttpStatus;
 import org.springframework.util.Assert;
@@ -10,6 +13,7 @@ import com.google.api.services.compute.model.Instance;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
 import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.compute.ComputeService;
@@ -21,6 +25,7 @@ abstract class AbstractGridCreateHandler extends AbstractGridHandler {
   final ResourceSearch search;
   final RequestGridCreate request;
   final BuildProperty buildProp;
+  final ProvisioningMetrics metrics;
   
   AbstractGridCreateHandler(APICoreProperties apiCoreProps
       , ResourceExecutor executor
@@ -28,10 +33,12 @@ abstract class AbstractGridCreateHandler extends AbstractGridHandler {
       , ResourceSearch search
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , String zone
-      , RequestGridCreate request) {
+      , RequestGridCreate request
+      , ProvisioningMetrics metrics) {
     super(apiCoreProps, executor, computeSrv, fingerprintBasedUpdater, zone);
 
     this.search = search;
+    this.metrics = metrics;
     Assert.notNull(request, "RequestGridCreate can't be null");
     this.request = request;
     buildProp = request.getBuildProperties();
@@ -56,6 +63,21 @@ abstract class AbstractGridCreateHandler extends AbstractGridHandler {
     return !gridInstance.getStatus().equals("RUNNING");
   }
   
+  /**
+   * Records end to end time of this request once the given future completes.
+   * @param imageFamily gives family of image the grid is from, invoked on completion.
+   */
+  <T> CompletableFuture<T> recordProvisioning(CompletableFuture<T> future
+      , String handler
+      , long startNanos
+      , Supplier<String> imageFamily) {
+    return future.whenComplete((result, failure) -> metrics.recordProvisioning(handler
+        , zone
+        , imageFamily.get()
+        , failure == null ? ProvisioningMetrics.OUTCOME_SUCCESS : ProvisioningMetrics.OUTCOME_FAILURE
+        , System.nanoTime() - startNanos));
+  }
+  
   String addToException() {
     StringBuilder sb = new StringBuilder();
     if (buildProp != null) {
@@ -117,6 +117,25 @@ public class FingerprintBasedUpdater {
         , gcpMetadata.getFingerprint(), buildProp);
   }
   
+  /**
+   * Unlike {@link #updateMetadataGivenFreshlyFetchedInstance(Instance, Map, BuildProperty)}, the
+   * given metadata isn't merged, it becomes the full set of instance's metadata.
+   * @param instance Instance fetched fresh from GCP
+   * @param metadata Metadata instance should be left with, can be empty
+   * @param buildProp Optional {@link BuildProperty} object
+   * @return an {@link Operation} of the update process
+   * @throws Exception If there is a problem updating
+   */
+  public Operation replaceMetadataGivenFreshlyFetchedInstance(Instance instance,
+                                                              Map<String, String> metadata,
+                                                              @Nullable BuildProperty buildProp)
+      throws Exception {
+    Assert.notNull(instance, "'instance' can't be null");
+    String zoneName = ResourceUtil.nameFromUrl(instance.getZone());
+    return computeSrv.setMetadata(instance.getName(), metadata, zoneName
+        , instance.getMetadata().getFingerprint(), buildProp);
+  }
+  
   public Operation deleteAllMetadata(Instance instance, @Nullable BuildProperty buildProp)
       throws Exception {
     Assert.notNull(instance, "'instance' can't be null");
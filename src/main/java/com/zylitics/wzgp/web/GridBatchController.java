@@ -0,0 +1,146 @@
+package com.zylitics.wzgp.web;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import com.google.api.services.compute.Compute;
+import com.zylitics.wzgp.http.RequestGridBatchCreate;
+import com.zylitics.wzgp.http.ResponseGridError;
+import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+
+/*
+ * Kept apart from GridController as a custom method like ':batch' can't be mapped under that
+ * controller's path, a method's path is always joined to it with a '/'.
+ *
+ * The response is newline delimited json, a line is written for every grid of the batch as soon
+ * as it's ready so that clients can start using grids while others are still being provisioned.
+ * Lines are either a grid create response or an error response, there are as many lines as the
+ * grids requested.
+ *
+ * !!! Note that, object of this class will be shared among all threads, take care with global
+ * members.
+ */
+@RestController
+@RequestMapping("${app-short-version}/zones/{zone}/grids:batch")
+public class GridBatchController {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GridBatchController.class);
+
+  private final Compute compute;
+  private final APICoreProperties apiCoreProps;
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final ResourceSearch search;
+  private final FingerprintBasedUpdater fingerprintBasedUpdater;
+  private final GridBatchHandler.Factory gridBatchHandlerFactory;
+  private final int maxCount;
+  private final Executor provisioningExecutor;
+
+  @Autowired
+  GridBatchController(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , FingerprintBasedUpdater fingerprintBasedUpdater
+      , GridBatchHandler.Factory gridBatchHandlerFactory
+      , @Value("${batch-max-count}") int maxCount
+      , @Qualifier("provisioningExecutor") Executor provisioningExecutor) {
+    this.compute = compute;
+    this.apiCoreProps = apiCoreProps;
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.search = search;
+    this.fingerprintBasedUpdater = fingerprintBasedUpdater;
+    this.gridBatchHandlerFactory = gridBatchHandlerFactory;
+    this.maxCount = maxCount;
+    this.provisioningExecutor = provisioningExecutor;
+  }
+
+  @PostMapping
+  public ResponseEntity<?> create(
+      @Validated @RequestBody RequestGridBatchCreate batchCreateReq,
+      @PathVariable String zone) {
+
+    LOG.info("received batch request: {}", batchCreateReq.toString());
+
+    if (batchCreateReq.getCount() > maxCount) {
+      return errResponse(String.format("count can't be more than %s", maxCount)
+          , HttpStatus.BAD_REQUEST);
+    }
+
+    GridBatchHandler batchHandler = gridBatchHandlerFactory.create(compute
+        , apiCoreProps
+        , executor
+        , computeSrv
+        , search
+        , fingerprintBasedUpdater
+        , zone
+        , batchCreateReq.getGrid()
+        , batchCreateReq.getCount());
+    ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+    batchHandler.handle(provisioningExecutor, response -> {
+      try {
+        emitter.send(response, MediaType.APPLICATION_JSON);
+        emitter.send("\n", MediaType.TEXT_PLAIN);
+      } catch (IOException e) {
+        // client went away, rest of the grids are still provisioned and held by the build.
+        LOG.warn("couldn't write a grid of batch {}, {}", batchCreateReq.getGrid()
+            .getBuildProperties(), e.getMessage());
+      }
+    }).whenComplete((v, failure) -> {
+      if (failure != null) {
+        emitter.completeWithError(failure);
+      } else {
+        emitter.complete();
+      }
+    });
+    return ResponseEntity
+        .ok()
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .body(emitter);
+  }
+
+  /**
+   * Invoked when @RequestBody binding is failed
+   */
+  @SuppressWarnings("unused")
+  @ExceptionHandler
+  public ResponseEntity<ResponseGridError> handleExceptions(MethodArgumentNotValidException ex) {
+    LOG.error("", ex);
+    return errResponse(ex.getMessage(), HttpStatus.BAD_REQUEST);
+  }
+
+  private ResponseEntity<ResponseGridError> errResponse(String error, HttpStatus status) {
+    ResponseGridError errRes = new ResponseGridError();
+    errRes.setHttpStatusCode(status.value());
+    errRes.setError(error);
+    errRes.setStatus(ResponseStatus.FAILURE.name());
+
+    return ResponseEntity
+        .status(status)
+        .body(errRes);
+  }
+}
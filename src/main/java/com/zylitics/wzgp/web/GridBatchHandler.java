@@ -0,0 +1,41 @@
+package com.zylitics.wzgp.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import com.google.api.services.compute.Compute;
+import com.zylitics.wzgp.http.AbstractResponse;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+
+public interface GridBatchHandler {
+
+  /**
+   * Provisions the requested number of grids, as many as possible from running instances and the
+   * rest are generated. Requests to compute api are run on the given {@link Executor}.
+   * @param onGrid receives the response of every grid as soon as it's ready, either a
+   *               {@link com.zylitics.wzgp.http.ResponseGridCreate} or an error response if the
+   *               grid couldn't be provisioned. Invoked from several threads but never
+   *               concurrently.
+   * @return {@link CompletableFuture} that completes once every grid got a response, exactly one
+   * response is given per grid even if the batch couldn't be started.
+   */
+  CompletableFuture<Void> handle(Executor asyncExecutor, Consumer<AbstractResponse> onGrid);
+
+  interface Factory {
+
+    GridBatchHandler create(Compute compute
+        , APICoreProperties apiCoreProps
+        , ResourceExecutor executor
+        , ComputeService computeSrv
+        , ResourceSearch search
+        , FingerprintBasedUpdater fingerprintBasedUpdater
+        , String zone
+        , RequestGridCreate request
+        , int count);
+  }
+}
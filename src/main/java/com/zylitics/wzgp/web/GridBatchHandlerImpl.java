@@ -0,0 +1,241 @@
+package com.zylitics.wzgp.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.Assert;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.common.base.Suppliers;
+import com.zylitics.wzgp.http.AbstractResponse;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.http.ResponseGridError;
+import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.util.AsyncUtil;
+import com.zylitics.wzgp.web.exceptions.ImageNotFoundException;
+
+/**
+ * Running instances are searched once for the whole batch and every grid gets its own turn of
+ * them so that concurrent claims of a batch start off on different instances. Grids that couldn't
+ * get a running instance are generated from an image that is searched once too, and all of their
+ * operations are polled together by the executor's tracker.
+ * @author Praveen Tiwari
+ *
+ */
+public class GridBatchHandlerImpl implements GridBatchHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GridBatchHandlerImpl.class);
+
+  private final Compute compute;
+  private final APICoreProperties apiCoreProps;
+  private final ResourceExecutor executor;
+  private final ComputeService computeSrv;
+  private final ResourceSearch search;
+  private final FingerprintBasedUpdater fingerprintBasedUpdater;
+  private final String zone;
+  private final RequestGridCreate request;
+  private final BuildProperty buildProp;
+  private final int count;
+  private final GridGetRunningHandler.Factory gridGetRunningHandlerFactory;
+  private final GridGenerateHandler.Factory gridGenerateHandlerFactory;
+
+  private GridBatchHandlerImpl(Compute compute
+      , APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , FingerprintBasedUpdater fingerprintBasedUpdater
+      , String zone
+      , RequestGridCreate request
+      , int count
+      , GridGetRunningHandler.Factory gridGetRunningHandlerFactory
+      , GridGenerateHandler.Factory gridGenerateHandlerFactory) {
+    Assert.notNull(request, "RequestGridCreate can't be null");
+    Assert.isTrue(count > 0, "'count' must be positive");
+
+    this.compute = compute;
+    this.apiCoreProps = apiCoreProps;
+    this.executor = executor;
+    this.computeSrv = computeSrv;
+    this.search = search;
+    this.fingerprintBasedUpdater = fingerprintBasedUpdater;
+    this.zone = zone;
+    this.request = request;
+    this.buildProp = request.getBuildProperties();
+    this.count = count;
+    this.gridGetRunningHandlerFactory = gridGetRunningHandlerFactory;
+    this.gridGenerateHandlerFactory = gridGenerateHandlerFactory;
+  }
+
+  @Override
+  public CompletableFuture<Void> handle(Executor asyncExecutor, Consumer<AbstractResponse> onGrid) {
+    return AsyncUtil.callAsync(this::searchRunningInstances, asyncExecutor)
+        .handle((running, failure) -> {
+          if (failure == null) {
+            return provision(running, asyncExecutor, onGrid);
+          }
+          // every grid still gets its response.
+          ResponseGridError errRes = errorResponse(failure);
+          for (int i = 0; i < count; i++) {
+            respond(onGrid, errRes);
+          }
+          return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(Function.identity());
+  }
+
+  private CompletableFuture<Void> provision(List<Instance> running, Executor asyncExecutor
+      , Consumer<AbstractResponse> onGrid) {
+    LOG.debug("found {} running instances for a batch of {} grids {}", running.size(), count
+        , buildProp);
+    Supplier<CompletableFuture<String>> imageFamily = Suppliers.memoize(() ->
+        AsyncUtil.callAsync(this::findImageFamily, asyncExecutor));
+    CompletableFuture<?>[] grids = new CompletableFuture<?>[count];
+    for (int i = 0; i < count; i++) {
+      CompletableFuture<ResponseEntity<ResponseGridCreate>> grid = i < running.size()
+          ? getRunning(turnOf(running, i), imageFamily, asyncExecutor)
+          : generate(imageFamily, asyncExecutor);
+      grids[i] = grid.handle((response, failure) -> {
+        respond(onGrid, failure == null ? response.getBody() : errorResponse(failure));
+        return null;
+      });
+    }
+    return CompletableFuture.allOf(grids);
+  }
+
+  private List<Instance> searchRunningInstances() {
+    try {
+      List<Instance> running = search.searchInstances(request.getResourceSearchParams(), zone
+          , InstanceStatus.RUNNING, count, buildProp);
+      return running.size() > count ? running.subList(0, count) : running;
+    } catch (Exception e) {
+      // grids can still be generated.
+      LOG.error("couldn't search running instances for batch, generating all grids " + buildProp
+          , e);
+      return Collections.emptyList();
+    }
+  }
+
+  private String findImageFamily() throws Exception {
+    Optional<Image> image = search.searchImage(request.getResourceSearchParams(), buildProp);
+    if (!image.isPresent()) {
+      throw new ImageNotFoundException(
+          String.format("No image matches the given search terms, search terms: %s %s"
+          , request.getResourceSearchParams().toString()
+          , buildProp));
+    }
+    return image.get().getFamily();
+  }
+
+  /**
+   * Running instances starting at the given one, followed by those before it.
+   */
+  private List<Instance> turnOf(List<Instance> running, int first) {
+    List<Instance> candidates = new ArrayList<>(running.size());
+    candidates.addAll(running.subList(first, running.size()));
+    candidates.addAll(running.subList(0, first));
+    return candidates;
+  }
+
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> getRunning(
+      List<Instance> candidates
+      , Supplier<CompletableFuture<String>> imageFamily
+      , Executor asyncExecutor) {
+    GridGetRunningHandler getRunningHandler = gridGetRunningHandlerFactory.create(apiCoreProps
+        , executor
+        , computeSrv
+        , search
+        , fingerprintBasedUpdater
+        , zone
+        , request);
+    getRunningHandler.setCandidates(candidates);
+    return getRunningHandler.handle(asyncExecutor).handle((response, failure) -> {
+      if (failure == null) {
+        return CompletableFuture.completedFuture(response);
+      }
+      LOG.debug("Couldn't get a running instance for a grid of batch, going to create a new one."
+          + " {}", buildProp);
+      return generate(imageFamily, asyncExecutor);
+    }).thenCompose(Function.identity());
+  }
+
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> generate(
+      Supplier<CompletableFuture<String>> imageFamily
+      , Executor asyncExecutor) {
+    return imageFamily.get().thenCompose(family -> {
+      GridGenerateHandler generateHandler = gridGenerateHandlerFactory.create(compute
+          , apiCoreProps
+          , executor
+          , computeSrv
+          , search
+          , fingerprintBasedUpdater
+          , zone
+          , request);
+      generateHandler.setSourceImageFamily(family);
+      return generateHandler.handle(asyncExecutor);
+    });
+  }
+
+  private synchronized void respond(Consumer<AbstractResponse> onGrid, AbstractResponse response) {
+    try {
+      onGrid.accept(response);
+    } catch (Exception e) {
+      // don't let a grid fail others.
+      LOG.error("couldn't respond a grid of batch " + buildProp, e);
+    }
+  }
+
+  private ResponseGridError errorResponse(Throwable failure) {
+    Throwable cause = AsyncUtil.unwrap(failure);
+    LOG.error("couldn't provision a grid of batch " + buildProp, cause);
+    ResponseGridError errRes = new ResponseGridError();
+    errRes.setHttpStatusCode(cause instanceof RejectedExecutionException
+        ? HttpStatus.SERVICE_UNAVAILABLE.value()
+        : HttpStatus.INTERNAL_SERVER_ERROR.value());
+    errRes.setError(cause.getMessage());
+    errRes.setStatus(ResponseStatus.FAILURE.name());
+    return errRes;
+  }
+
+  public static class Factory implements GridBatchHandler.Factory {
+
+    private final GridGetRunningHandler.Factory gridGetRunningHandlerFactory;
+    private final GridGenerateHandler.Factory gridGenerateHandlerFactory;
+
+    public Factory(GridGetRunningHandler.Factory gridGetRunningHandlerFactory
+        , GridGenerateHandler.Factory gridGenerateHandlerFactory) {
+      this.gridGetRunningHandlerFactory = gridGetRunningHandlerFactory;
+      this.gridGenerateHandlerFactory = gridGenerateHandlerFactory;
+    }
+
+    @Override
+    public GridBatchHandler create(Compute compute, APICoreProperties apiCoreProps
+        , ResourceExecutor executor, ComputeService computeSrv, ResourceSearch search
+        , FingerprintBasedUpdater fingerprintBasedUpdater, String zone, RequestGridCreate request
+        , int count) {
+      return new GridBatchHandlerImpl(compute, apiCoreProps, executor, computeSrv, search
+          , fingerprintBasedUpdater, zone, request, count, gridGetRunningHandlerFactory
+          , gridGenerateHandlerFactory);
+    }
+  }
+}
@@ -2,9 +2,17 @@ package com.zylitics.wzgp.web;
 
 import com.zylitics.wzgp.http.*;
 import com.zylitics.wzgp.web.exceptions.GridGetRunningHandlerFailureException;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
@@ -13,6 +21,7 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -24,7 +33,12 @@ import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.Lease;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
 import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.util.AsyncUtil;
+import com.zylitics.wzgp.web.exceptions.GridResumeHandlerFailureException;
 import com.zylitics.wzgp.web.exceptions.GridStartHandlerFailureException;
 
 /*
@@ -49,6 +63,10 @@ import com.zylitics.wzgp.web.exceptions.GridStartHandlerFailureException;
  * !!! Note that, object of this class will be shared among all threads, take care with global
  * members.
  * 
+ * Handlers return CompletableFuture so that the servlet thread is released as soon as a request
+ * is dispatched, all work happens on the bounded provisioningExecutor and the response is written
+ * once the future completes. A request rejected by the executor gets a 503.
+ * 
  * Note: The controller is instantiated once and used for all requests processing. Then handler
  * factories used will be injected on the first instantiation and will remain until the life of
  * application together with other controller dependencies.
@@ -67,8 +85,12 @@ public class GridController {
   private final FingerprintBasedUpdater fingerprintBasedUpdater;
   private final GridGenerateHandler.Factory gridGenerateHandlerFactory;
   private final GridGetRunningHandler.Factory gridGetRunningHandlerFactory;
+  private final GridResumeHandler.Factory gridResumeHandlerFactory;
   private final GridStartHandler.Factory gridStartHandlerFactory;
   private final GridDeleteHandler.Factory gridDeleteHandlerFactory;
+  private final LeaseRegistry leases;
+  private final ClaimCoordinator claimCoordinator;
+  private final Executor provisioningExecutor;
   
   // All these dependencies are singleton and that's why we'll provide these to all objects
   // rather than letting them generate.
@@ -81,8 +103,12 @@ public class GridController {
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , GridGenerateHandler.Factory gridGenerateHandlerFactory
       , GridGetRunningHandler.Factory gridGetRunningHandlerFactory
+      , GridResumeHandler.Factory gridResumeHandlerFactory
       , GridStartHandler.Factory gridStartHandlerFactory
-      , GridDeleteHandler.Factory gridDeleteHandlerFactory) {
+      , GridDeleteHandler.Factory gridDeleteHandlerFactory
+      , LeaseRegistry leases
+      , ClaimCoordinator claimCoordinator
+      , @Qualifier("provisioningExecutor") Executor provisioningExecutor) {
     this.compute = compute;
     this.apiCoreProps = apiCoreProps;
     this.executor = executor;
@@ -91,17 +117,22 @@ public class GridController {
     this.fingerprintBasedUpdater = fingerprintBasedUpdater;
     this.gridGenerateHandlerFactory = gridGenerateHandlerFactory;
     this.gridGetRunningHandlerFactory = gridGetRunningHandlerFactory;
+    this.gridResumeHandlerFactory = gridResumeHandlerFactory;
     this.gridStartHandlerFactory = gridStartHandlerFactory;
     this.gridDeleteHandlerFactory = gridDeleteHandlerFactory;
+    this.leases = leases;
+    this.claimCoordinator = claimCoordinator;
+    this.provisioningExecutor = provisioningExecutor;
   }
 
   @PostMapping
-  public ResponseEntity<ResponseGridCreate> create(
+  public CompletableFuture<ResponseEntity<ResponseGridCreate>> create(
       @Validated @RequestBody RequestGridCreate gridCreateReq,
       @PathVariable String zone,
       @RequestParam(required = false) boolean noRush,
       @RequestParam(required = false) boolean requireRunningVM,
-      @RequestParam(required = false) String sourceImageFamily) throws Exception {
+      @RequestParam(required = false) String sourceImageFamily,
+      @RequestParam(required = false) boolean hedged) {
     
     LOG.info("received request: {}", gridCreateReq.toString());
     
@@ -119,7 +150,8 @@ public class GridController {
       if (!Strings.isNullOrEmpty(sourceImageFamily)) {
         generateHandler.setSourceImageFamily(sourceImageFamily);
       }
-      return generateHandler.handle();
+      generateHandler.setHedged(hedged);
+      return generateHandler.handle(provisioningExecutor);
     }
     
     // get a running instance
@@ -131,34 +163,73 @@ public class GridController {
         , fingerprintBasedUpdater
         , zone
         , gridCreateReq);
-    try {
-      return getRunningHandler.handle();
-    } catch (Throwable failure) {
-      if (!(failure instanceof GridGetRunningHandlerFailureException)) {
+    return getRunningHandler.handle(provisioningExecutor).handle((response, failure) -> {
+      if (failure == null) {
+        return CompletableFuture.completedFuture(response);
+      }
+      Throwable cause = AsyncUtil.unwrap(failure);
+      if (!(cause instanceof GridGetRunningHandlerFailureException)) {
         LOG.error("Get running handler experienced an unexpected exception, trying to" +
             " create new instance "
-            + addToException(gridCreateReq.getBuildProperties()), failure);
+            + addToException(gridCreateReq.getBuildProperties()), cause);
       }
-      LOG.debug("Couldn't find a running instance, going to create a new one. {}"
-          , addToException(gridCreateReq.getBuildProperties()));
-      return gridGenerateHandlerFactory.create(compute
-          , apiCoreProps
-          , executor
-          , computeSrv
-          , search
-          , fingerprintBasedUpdater
-          , zone
-          , gridCreateReq).handle();
-    }
+      if (apiCoreProps.getGridDefault().getSuspendedPools().isEmpty()) {
+        return generate(gridCreateReq, zone, hedged);
+      }
+      return resumeOrGenerate(gridCreateReq, zone, hedged);
+    }).thenCompose(Function.identity());
+  }
+  
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> resumeOrGenerate(
+      RequestGridCreate gridCreateReq, String zone, boolean hedged) {
+    LOG.debug("Couldn't find a running instance, trying to resume a suspended one. {}"
+        , addToException(gridCreateReq.getBuildProperties()));
+    GridResumeHandler resumeHandler = gridResumeHandlerFactory.create(apiCoreProps
+        , executor
+        , computeSrv
+        , search
+        , fingerprintBasedUpdater
+        , zone
+        , gridCreateReq);
+    return resumeHandler.handle(provisioningExecutor).handle((response, failure) -> {
+      if (failure == null) {
+        return CompletableFuture.completedFuture(response);
+      }
+      Throwable cause = AsyncUtil.unwrap(failure);
+      if (!(cause instanceof GridResumeHandlerFailureException)) {
+        LOG.error("Resume handler experienced an unexpected exception, trying to" +
+            " create new instance "
+            + addToException(gridCreateReq.getBuildProperties()), cause);
+      }
+      return generate(gridCreateReq, zone, hedged);
+    }).thenCompose(Function.identity());
+  }
+  
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> generate(
+      RequestGridCreate gridCreateReq, String zone, boolean hedged) {
+    LOG.debug("Couldn't find a running instance, going to create a new one. {}"
+        , addToException(gridCreateReq.getBuildProperties()));
+    GridGenerateHandler generateHandler = gridGenerateHandlerFactory.create(compute
+        , apiCoreProps
+        , executor
+        , computeSrv
+        , search
+        , fingerprintBasedUpdater
+        , zone
+        , gridCreateReq);
+    generateHandler.setHedged(hedged);
+    return generateHandler.handle(provisioningExecutor);
   }
   
   @DeleteMapping("/{gridName}")
-  public ResponseEntity<ResponseGridDelete> delete(
+  public CompletableFuture<ResponseEntity<ResponseGridDelete>> delete(
       @PathVariable String zone,
       @PathVariable String gridName,
       @RequestParam(required = false) boolean noRush,
       @RequestParam(required = false) boolean requireRunningVM,
-      @RequestParam(required = false) String sessionId) throws Exception {
+      @RequestParam(required = false) boolean async,
+      @RequestParam(required = false) boolean recycle,
+      @RequestParam(required = false) String sessionId) {
     GridDeleteHandler deleteHandler = gridDeleteHandlerFactory.create(apiCoreProps
         , executor
         , computeSrv
@@ -170,7 +241,66 @@ public class GridController {
     }
     deleteHandler.setNoRush(noRush);
     deleteHandler.setRequireRunningVM(requireRunningVM);
-    return deleteHandler.handle();
+    deleteHandler.setAsync(async);
+    deleteHandler.setRecycle(recycle);
+    return deleteHandler.handle(provisioningExecutor);
+  }
+  
+  /**
+   * Renews the build's lease on grid, builds should renew well within the lease ttl else the grid
+   * is unlocked and may be acquired by another build.
+   * @param buildId build holding the grid, when given a lease is renewed only if it belongs to the
+   *                build and the grid is leased to the build if it has no lease.
+   */
+  @PutMapping("/{gridName}/lease")
+  public CompletableFuture<ResponseEntity<ResponseGridLease>> renewLease(
+      @PathVariable String zone,
+      @PathVariable String gridName,
+      @RequestParam(required = false) String buildId) {
+    // sharing the renewal with other replicas may call GCE.
+    return AsyncUtil.callAsync(() -> doRenewLease(zone, gridName, buildId), provisioningExecutor);
+  }
+  
+  private ResponseEntity<ResponseGridLease> doRenewLease(String zone, String gridName
+      , String buildId) {
+    Optional<Lease> lease = leases.renew(gridName, zone
+        , Strings.isNullOrEmpty(buildId) ? null : buildId);
+    ResponseGridLease response = new ResponseGridLease();
+    response.setGridName(gridName);
+    response.setZone(zone);
+    HttpStatus status = HttpStatus.OK;
+    if (!lease.isPresent()) {
+      status = HttpStatus.NOT_FOUND;
+      response.setError("grid has no lease");
+    } else {
+      response.setBuildId(lease.get().getBuildId());
+      response.setExpiresAt(lease.get().getExpiresAt());
+      if (!Strings.isNullOrEmpty(buildId) && !buildId.equals(lease.get().getBuildId())) {
+        LOG.warn("build {} tried renewing lease of grid {} that is held by build {}", buildId
+            , gridName, lease.get().getBuildId());
+        status = HttpStatus.CONFLICT;
+        response.setError("grid is leased to another build");
+      } else if (lease.get().getState() == Lease.State.HELD) {
+        shareRenewal(lease.get());
+      }
+    }
+    response.setHttpStatusCode(status.value());
+    response.setStatus(status == HttpStatus.OK
+        ? ResponseStatus.SUCCESS.name()
+        : ResponseStatus.FAILURE.name());
+    return ResponseEntity
+        .status(status)
+        .body(response);
+  }
+  
+  private void shareRenewal(Lease lease) {
+    try {
+      claimCoordinator.renewed(lease);
+    } catch (Exception e) {
+      // lease is renewed on this server anyway, other replicas may unlock the grid when theirs
+      // lapses though.
+      LOG.error(String.format("couldn't share renewal of lease %s", lease), e);
+    }
   }
   
   /**
@@ -182,6 +312,15 @@ public class GridController {
     return processErrResponse(ex, HttpStatus.BAD_REQUEST);
   }
   
+  /**
+   * Invoked when {@link #provisioningExecutor} is saturated and can't take more requests.
+   */
+  @SuppressWarnings("unused")
+  @ExceptionHandler
+  public ResponseEntity<ResponseGridError> handleExceptions(RejectedExecutionException ex) {
+    return processErrResponse(ex, HttpStatus.SERVICE_UNAVAILABLE);
+  }
+  
   /**
    * Catch all exception handler for spring raised errors. Later divide it into specific errors.
    * Reference:
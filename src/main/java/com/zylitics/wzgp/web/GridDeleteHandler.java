@@ -1,5 +1,8 @@
 package com.zylitics.wzgp.web;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import org.springframework.http.ResponseEntity;
 
 import com.zylitics.wzgp.http.ResponseGridDelete;
@@ -9,7 +12,11 @@ import com.zylitics.wzgp.resource.executor.ResourceExecutor;
 
 public interface GridDeleteHandler {
 
-  ResponseEntity<ResponseGridDelete> handle() throws Exception;
+  /**
+   * @param asyncExecutor {@link Executor} to run requests to compute api on.
+   * @return {@link CompletableFuture} that completes once the grid is deleted or released.
+   */
+  CompletableFuture<ResponseEntity<ResponseGridDelete>> handle(Executor asyncExecutor);
   
   void setSessionId(String sessionId);
   
@@ -17,6 +24,20 @@ public interface GridDeleteHandler {
   
   void setRequireRunningVM(boolean requireRunningVM);
   
+  /**
+   * When set, a grid that is to be deleted is responded as soon as its delete is submitted,
+   * deletion is confirmed in background.
+   */
+  void setAsync(boolean async);
+  
+  /**
+   * When set, a grid that isn't marked for deletion by a deployment is reset and has its metadata
+   * brought back to defaults before it's unlocked, rather than being deleted or released as is.
+   * A grid that couldn't be recycled is deleted. Reset doesn't revert the boot disk, anything the
+   * build wrote to disk is seen by the next build.
+   */
+  void setRecycle(boolean recycle);
+  
   interface Factory {
     
     GridDeleteHandler create(APICoreProperties apiCoreProps
@@ -1,5 +1,11 @@
 package com.zylitics.wzgp.web;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
@@ -10,20 +16,34 @@ import com.zylitics.wzgp.http.ResponseGridDelete;
 import com.zylitics.wzgp.http.ResponseStatus;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
 import com.zylitics.wzgp.web.exceptions.GridNotDeletedException;
 import com.zylitics.wzgp.web.exceptions.GridNotFoundException;
+import com.zylitics.wzgp.web.exceptions.GridNotRecycledException;
 import com.zylitics.wzgp.web.exceptions.GridNotStoppedException;
 
 public class GridDeleteHandlerImpl extends AbstractGridHandler implements GridDeleteHandler {
 
+  private static final Logger LOG = LoggerFactory.getLogger(GridDeleteHandlerImpl.class);
+  
   private final String gridName;
   
+  private final LeaseRegistry leases;
+  
+  private final DeletionQueue deletionQueue;
+  
   private boolean noRush;
   
   private boolean requireRunningVM;
   
+  private boolean async;
+  
+  private boolean recycle;
+  
   private Instance gridInstance;
   
   private GridDeleteHandlerImpl(APICoreProperties apiCoreProps
@@ -31,34 +51,55 @@ public class GridDeleteHandlerImpl extends AbstractGridHandler implements GridDe
       , ComputeService computeSrv
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , String zone
-      , String gridName) {
+      , String gridName
+      , LeaseRegistry leases
+      , DeletionQueue deletionQueue) {
     super(apiCoreProps, executor, computeSrv, fingerprintBasedUpdater, zone);
     
     this.gridName = gridName;
+    this.leases = leases;
+    this.deletionQueue = deletionQueue;
   }
   
   @Override
-  public ResponseEntity<ResponseGridDelete> handle() throws Exception {
-    gridInstance = computeSrv.getInstance(gridName, zone, null);
-    if (gridInstance == null) {
+  public CompletableFuture<ResponseEntity<ResponseGridDelete>> handle(Executor asyncExecutor) {
+    return AsyncUtil.callAsync(this::fetchGridInstance, asyncExecutor).thenCompose(instance -> {
+      gridInstance = instance;
+      // could be true if an ongoing deployment is running that applied this label to indicate we
+      // should delete the instance.
+      boolean labelIsDeletingTrue =
+          Boolean.parseBoolean(gridInstance.getLabels().get(ResourceUtil.LABEL_IS_DELETING));
+      
+      if (recycle && !labelIsDeletingTrue) {
+        return recycle(asyncExecutor);
+      }
+      
+      if (noRush || labelIsDeletingTrue || !requireRunningVM) {
+        if (async) {
+          return deleteAsync(asyncExecutor);
+        }
+        return delete(labelIsDeletingTrue, asyncExecutor);
+      }
+    
+      // if we're not deleting, first unlock this instance, don't wait for completion.
+      return AsyncUtil.callAsync(() -> {
+        fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
+            ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"),
+            null);
+        // build is done with the grid.
+        leases.end(gridName, zone);
+        return sendResponse();
+      }, asyncExecutor);
+    });
+  }
+  
+  private Instance fetchGridInstance() throws Exception {
+    Instance instance = computeSrv.getInstance(gridName, zone, null);
+    if (instance == null) {
       throw new GridNotFoundException("Grid instance wasn't found by name " + gridName + " deletion"
           + " is failed");
     }
-    // could be true if an ongoing deployment is running that applied this label to indicate we
-    // should delete the instance.
-    boolean labelIsDeletingTrue =
-        Boolean.parseBoolean(gridInstance.getLabels().get(ResourceUtil.LABEL_IS_DELETING));
-    
-    if (noRush || labelIsDeletingTrue || !requireRunningVM) {
-      return delete(labelIsDeletingTrue);
-    }
-  
-    // if we're not deleting, first unlock this instance, don't wait for completion.
-    fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
-        ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"),
-        null);
-  
-    return sendResponse();
+    return instance;
   }
   
   @Override
@@ -76,26 +117,120 @@ public class GridDeleteHandlerImpl extends AbstractGridHandler implements GridDe
     this.requireRunningVM = requireRunningVM;
   }
   
-  private ResponseEntity<ResponseGridDelete> delete(boolean labelIsDeletingTrue) throws Exception {
-    
+  @Override
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+  
+  @Override
+  public void setRecycle(boolean recycle) {
+    this.recycle = recycle;
+  }
+  
+  private CompletableFuture<ResponseEntity<ResponseGridDelete>> delete(
+      boolean labelIsDeletingTrue, Executor asyncExecutor) {
+    CompletableFuture<?> marked = CompletableFuture.completedFuture(null);
     if (!labelIsDeletingTrue) {
       // adding this label indicates we're going to delete it.
-      Operation op = fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
-          ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"),
-          null);
-      // wait because we don't want any other request to find this instance while it's being deleted
-      executor.blockUntilComplete(op, 500, 10000, null);
+      marked = AsyncUtil.callAsync(() ->
+          fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
+              ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"),
+              null), asyncExecutor)
+          // wait because we don't want any other request to find this instance while it's being
+          // deleted
+          .thenCompose(op -> executor.completeAsync(op, 500, 10000, null));
     }
-    Operation operation = computeSrv.deleteInstance(gridName, zone, null);
-    operation = executor.blockUntilComplete(operation, 1000, 300 * 1000, null);
+    return marked
+        .thenCompose(v -> AsyncUtil.callAsync(() -> computeSrv.deleteInstance(gridName, zone, null)
+            , asyncExecutor))
+        .thenCompose(op -> executor.completeAsync(op, 1000, 300 * 1000, null))
+        .thenApply(completedOperation -> {
+          Operation operation = completedOperation.get();
+          if (!ResourceUtil.isOperationSuccess(operation)) {
+            throw new GridNotDeletedException(
+                String.format("Couldn't delete grid instance %s, operation: %s"
+                    , gridName
+                    , operation));
+          }
+          leases.end(gridName, zone);
+          return sendResponse();
+        });
+  }
+  
+  private CompletableFuture<ResponseEntity<ResponseGridDelete>> deleteAsync(
+      Executor asyncExecutor) {
+    // the grid is unlocked together with marking so that if its deletion isn't confirmed before
+    // we go down, it's known as one nobody is deleting anymore and picked up by the queue. Grids
+    // marked by a deployment are relabelled too as they're now ours to delete.
+    return AsyncUtil.callAsync(() ->
+        fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
+            ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"
+                , ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"),
+            null), asyncExecutor)
+        .thenCompose(op -> executor.completeAsync(op, 500, 10000, null))
+        .thenCompose(v -> AsyncUtil.callAsync(() -> {
+          Operation operation = computeSrv.deleteInstance(gridName, zone, null);
+          deletionQueue.submit(gridName, zone, operation);
+          leases.end(gridName, zone);
+          return sendResponse(HttpStatus.ACCEPTED);
+        }, asyncExecutor));
+  }
+  
+  /**
+   * Brings grid's metadata back to defaults, resets it and unlocks it once every step is confirmed.
+   * Reset only restarts the grid, it doesn't revert its boot disk, so whatever the build left on
+   * disk, such as files, profiles or installed software, stays for the next build. A grid that fails
+   * any step is deleted.
+   */
+  private CompletableFuture<ResponseEntity<ResponseGridDelete>> recycle(Executor asyncExecutor) {
+    // grid stays locked by the build until it's recycled so that nobody acquires it meanwhile.
+    // Metadata goes back to defaults before the reset so that grid boots without anything the
+    // build had set.
+    return AsyncUtil.callAsync(() ->
+        fingerprintBasedUpdater.replaceMetadataGivenFreshlyFetchedInstance(gridInstance,
+            apiCoreProps.getGridDefault().getMetadata(),
+            null), asyncExecutor)
+        .thenCompose(op -> executor.completeAsync(op, 500, 10000, null))
+        .thenCompose(completedOperation -> {
+          ensureRecycleStep(completedOperation.get(), "clear metadata of");
+          return AsyncUtil.callAsync(() -> computeSrv.resetInstance(gridName, zone, null)
+              , asyncExecutor);
+        })
+        .thenCompose(op -> executor.completeAsync(op, 1000, 300 * 1000, null))
+        .thenCompose(completedOperation -> {
+          ensureRecycleStep(completedOperation.get(), "reset");
+          // labels aren't touched by recycling, the instance we have is good to unlock with.
+          return AsyncUtil.callAsync(() ->
+              fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance,
+                  ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"),
+                  null), asyncExecutor);
+        })
+        .thenCompose(op -> executor.completeAsync(op, 500, 10000, null))
+        .thenApply(completedOperation -> {
+          ensureRecycleStep(completedOperation.get(), "unlock");
+          leases.end(gridName, zone);
+          return sendResponse();
+        })
+        .handle((response, failure) -> {
+          if (failure == null) {
+            return CompletableFuture.completedFuture(response);
+          }
+          // a grid left half recycled isn't fit for any build.
+          LOG.error(String.format("Couldn't recycle grid instance %s, going to delete it"
+              , gridName), AsyncUtil.unwrap(failure));
+          return delete(false, asyncExecutor);
+        })
+        .thenCompose(Function.identity());
+  }
+  
+  private void ensureRecycleStep(Operation operation, String step) {
     if (!ResourceUtil.isOperationSuccess(operation)) {
-      throw new GridNotDeletedException(
-          String.format("Couldn't delete grid instance %s, operation: %s"
+      throw new GridNotRecycledException(
+          String.format("Couldn't %s grid instance %s, operation: %s"
+              , step
               , gridName
-              , operation.toPrettyString()));
+              , operation));
     }
-  
-    return sendResponse();
   }
   
   @SuppressWarnings("unused")
@@ -113,15 +248,19 @@ public class GridDeleteHandlerImpl extends AbstractGridHandler implements GridDe
   }
   
   private ResponseEntity<ResponseGridDelete> sendResponse() {
-    ResponseGridDelete response = prepareResponse();
+    return sendResponse(HttpStatus.OK);
+  }
+  
+  private ResponseEntity<ResponseGridDelete> sendResponse(HttpStatus status) {
+    ResponseGridDelete response = prepareResponse(status);
     return ResponseEntity
         .status(response.getHttpStatusCode())
         .body(response);
   }
   
-  private ResponseGridDelete prepareResponse() {
+  private ResponseGridDelete prepareResponse(HttpStatus status) {
     ResponseGridDelete response = new ResponseGridDelete();
-    response.setHttpStatusCode(HttpStatus.OK.value());
+    response.setHttpStatusCode(status.value());
     response.setStatus(ResponseStatus.SUCCESS.name());
     response.setZone(zone);
     return response;
@@ -129,12 +268,21 @@ public class GridDeleteHandlerImpl extends AbstractGridHandler implements GridDe
   
   public static class Factory implements GridDeleteHandler.Factory {
     
+    private final LeaseRegistry leases;
+    
+    private final DeletionQueue deletionQueue;
+    
+    public Factory(LeaseRegistry leases, DeletionQueue deletionQueue) {
+      this.leases = leases;
+      this.deletionQueue = deletionQueue;
+    }
+    
     @Override
     public GridDeleteHandler create(APICoreProperties apiCoreProps, ResourceExecutor executor
         , ComputeService computeSrv, FingerprintBasedUpdater fingerprintBasedUpdater, String zone
         , String gridName) {
       return new GridDeleteHandlerImpl(apiCoreProps, executor, computeSrv, fingerprintBasedUpdater
-          , zone, gridName);
+          , zone, gridName, leases, deletionQueue);
     }
   }
 }
@@ -1,5 +1,8 @@
 package com.zylitics.wzgp.web;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import org.springframework.http.ResponseEntity;
 
 import com.google.api.services.compute.Compute;
@@ -12,10 +15,23 @@ import com.zylitics.wzgp.resource.search.ResourceSearch;
 
 public interface GridGenerateHandler {
 
-  ResponseEntity<ResponseGridCreate> handle() throws Exception;
+  /**
+   * Requests to compute api are run on the given {@link Executor}, waiting for operations doesn't
+   * occupy any thread.
+   * @param asyncExecutor {@link Executor} to run requests to compute api on.
+   * @return {@link CompletableFuture} that completes with the response, or exceptionally with the
+   * failure.
+   */
+  CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor);
   
   void setSourceImageFamily(String sourceImageFamily);
   
+  /**
+   * Opt-in, when set another grid is requested in an alternate zone if the first one takes too
+   * long.
+   */
+  void setHedged(boolean hedged);
+  
   interface Factory {
     
     GridGenerateHandler create(Compute compute
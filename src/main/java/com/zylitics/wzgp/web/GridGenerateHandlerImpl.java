@@ -3,6 +3,8 @@ package com.zylitics.wzgp.web;
 import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -18,13 +20,18 @@ import com.google.api.services.compute.model.Operation;
 import com.google.common.base.Strings;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
 import com.zylitics.wzgp.resource.grid.GridGenerator;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
 import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
 import com.zylitics.wzgp.web.exceptions.GridNotCreatedException;
 import com.zylitics.wzgp.web.exceptions.ImageNotFoundException;
 
@@ -33,9 +40,22 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
   
   private static final Logger LOG = LoggerFactory.getLogger(GridGenerateHandlerImpl.class);
   
+  private static final String HANDLER_NAME = "generate";
+  
   private final Compute compute;
   
+  private final LeaseRegistry leases;
+  
+  private final BootDiskPool bootDiskPool;
+  
+  private final InstanceTemplateCache instanceTemplateCache;
+  
   private String sourceImageFamily;
+  
+  private boolean hedged;
+  
+  // family of the image being used, known once image is found.
+  private volatile String imageFamily;
 
   private GridGenerateHandlerImpl(Compute compute
       , APICoreProperties apiCoreProps
@@ -44,14 +64,31 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
       , ResourceSearch search
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , String zone
-      , RequestGridCreate request) {
-    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request);
+      , RequestGridCreate request
+      , ProvisioningMetrics metrics
+      , LeaseRegistry leases
+      , BootDiskPool bootDiskPool
+      , InstanceTemplateCache instanceTemplateCache) {
+    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request
+        , metrics);
     
     this.compute = compute;
+    this.leases = leases;
+    this.bootDiskPool = bootDiskPool;
+    this.instanceTemplateCache = instanceTemplateCache;
   }
   
   @Override
-  public ResponseEntity<ResponseGridCreate> handle() throws Exception {
+  public CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor) {
+    long start = System.nanoTime();
+    return recordProvisioning(AsyncUtil.callAsync(this::findImage, asyncExecutor)
+        // we've image, go ahead.
+        .thenCompose(image -> generateGrid(image, asyncExecutor))
+        , HANDLER_NAME, start, () -> imageFamily);
+  }
+  
+  private Image findImage() throws Exception {
+    long start = System.nanoTime();
     Image image = null;
     // First try if we can get image from the inputs.
     if (!Strings.isNullOrEmpty(sourceImageFamily)) {
@@ -63,8 +100,9 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
       image = searchImage();
       LOG.debug("found image {} after a search {}", image, addToException());
     }
-    // we've image, go ahead.
-    return generateGrid(image);
+    imageFamily = image.getFamily();
+    metrics.recordPhase(HANDLER_NAME, "image", zone, System.nanoTime() - start);
+    return image;
   }
   
   @Override
@@ -74,6 +112,11 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
     this.sourceImageFamily = sourceImageFamily;
   }
   
+  @Override
+  public void setHedged(boolean hedged) {
+    this.hedged = hedged;
+  }
+  
   private Image searchImage() throws Exception {
     long start = System.currentTimeMillis();
     Optional<Image> image = search.searchImage(request.getResourceSearchParams(), buildProp);
@@ -88,15 +131,34 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
     return image.get();
   }
   
-  private ResponseEntity<ResponseGridCreate> generateGrid(Image image) throws Exception {
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> generateGrid(Image image
+      , Executor asyncExecutor) {
     GridGenerator generator = new GridGenerator(compute
         , apiCoreProps
         , executor
         , buildProp
         , request.getGridProperties()
         , image);
+    generator.setBootDiskPool(bootDiskPool);
+    generator.setInstanceTemplateCache(instanceTemplateCache);
     long start = System.currentTimeMillis();
-    CompletedOperation completedOperation = generator.create(zone);
+    long startNanos = System.nanoTime();
+    CompletableFuture<CompletedOperation> create = hedged
+        ? generator.createHedgedAsync(zone, asyncExecutor)
+        : generator.createAsync(zone, asyncExecutor);
+    return create
+        .thenCompose(completedOperation -> {
+          LOG.debug("took {}secs creating new grid",
+              TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+          metrics.recordPhase(HANDLER_NAME, "boot", zone, System.nanoTime() - startNanos);
+          // fetching the grid blocks, get back on the executor.
+          return AsyncUtil.callAsync(() -> onGridCreated(image, completedOperation)
+              , asyncExecutor);
+        });
+  }
+  
+  private ResponseEntity<ResponseGridCreate> onGridCreated(Image image
+      , CompletedOperation completedOperation) throws Exception {
     Operation operation = completedOperation.get();
     if (!ResourceUtil.isOperationSuccess(operation)) {
       throw new GridNotCreatedException(
@@ -105,9 +167,8 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
           , operation.toPrettyString()
           , addToException()));
     }
-    LOG.debug("took {}secs creating new grid",
-        TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
-    start = System.currentTimeMillis();
+    long start = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
     // get the created grid instance
     Instance gridInstance = computeSrv.getInstance(
         nameFromUrl(operation.getTargetLink())
@@ -117,7 +178,10 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
         , addToException());
     LOG.debug("took {}secs fetching new grid",
         TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+    metrics.recordPhase(HANDLER_NAME, "fetch", zone, System.nanoTime() - startNanos);
     ResponseGridCreate response = prepareResponse(gridInstance, HttpStatus.CREATED);
+    // new grid is created locked by the build.
+    leases.hold(response.getGridName(), response.getZone(), buildProp.getBuildId());
     return ResponseEntity
         .status(response.getHttpStatusCode())
         .body(response);
@@ -125,12 +189,26 @@ public class GridGenerateHandlerImpl extends AbstractGridCreateHandler
   
   public static class Factory implements GridGenerateHandler.Factory {
     
+    private final ProvisioningMetrics metrics;
+    private final LeaseRegistry leases;
+    private final BootDiskPool bootDiskPool;
+    private final InstanceTemplateCache instanceTemplateCache;
+    
+    public Factory(ProvisioningMetrics metrics, LeaseRegistry leases
+        , BootDiskPool bootDiskPool, InstanceTemplateCache instanceTemplateCache) {
+      this.metrics = metrics;
+      this.leases = leases;
+      this.bootDiskPool = bootDiskPool;
+      this.instanceTemplateCache = instanceTemplateCache;
+    }
+    
     @Override
     public GridGenerateHandler create(Compute compute, APICoreProperties apiCoreProps
         , ResourceExecutor executor, ComputeService computeSrv, ResourceSearch search
         , FingerprintBasedUpdater fingerprintBasedUpdater, String zone, RequestGridCreate request) {
       return new GridGenerateHandlerImpl(compute, apiCoreProps, executor, computeSrv, search
-          , fingerprintBasedUpdater, zone, request);
+          , fingerprintBasedUpdater, zone, request, metrics, leases, bootDiskPool
+          , instanceTemplateCache);
     }
   }
 }
@@ -1,5 +1,10 @@
 package com.zylitics.wzgp.web;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.google.api.services.compute.model.Instance;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
 import com.zylitics.wzgp.resource.APICoreProperties;
@@ -10,7 +15,17 @@ import org.springframework.http.ResponseEntity;
 
 public interface GridGetRunningHandler {
   
-  ResponseEntity<ResponseGridCreate> handle() throws Exception;
+  /**
+   * Searching and claiming a running instance happens on the given {@link Executor}, the returned
+   * future completes once requested labels and metadata are applied to the claimed instance.
+   */
+  CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor);
+  
+  /**
+   * Optional, when set one of the given running instances is claimed in order rather than
+   * searching for them, and handler fails if all of them are claimed by others.
+   */
+  void setCandidates(List<Instance> candidates);
   
   interface Factory {
     
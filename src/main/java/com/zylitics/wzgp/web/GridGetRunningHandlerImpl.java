@@ -4,23 +4,29 @@ import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.Operation;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.model.InstanceStatus;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
 import com.zylitics.wzgp.resource.grid.GridProperty;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.search.CandidatePageSizer;
 import com.zylitics.wzgp.resource.search.ResourceSearch;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
 import com.zylitics.wzgp.web.exceptions.AcquireStoppedMaxReattemptException;
 import com.zylitics.wzgp.web.exceptions.GridGetRunningHandlerFailureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.Assert;
 
-import java.math.BigInteger;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 public class GridGetRunningHandlerImpl extends AbstractGridCreateHandler
@@ -28,26 +34,73 @@ public class GridGetRunningHandlerImpl extends AbstractGridCreateHandler
   
   private static final Logger LOG = LoggerFactory.getLogger(GridGetRunningHandlerImpl.class);
   
-  // works same as in start handler
-  // TODO: may need to update size of map later on when we've large no. of running instances.
-  private static final Map<BigInteger, String> FOUND_INSTANCES = new ConcurrentHashMap<>(100);
-  
   public static final int SEARCH_MAX_REATTEMPTS = 5;
   
+  private static final String HANDLER_NAME = "get-running";
+  
+  /**
+   * How a request goes about claiming a running instance when concurrent requests race for the
+   * same ones.
+   */
+  public enum ClaimMode {
+    /** Searches again every time the found instance turns out claimed. */
+    SEARCH,
+    /** Tries every instance of a search before searching again. */
+    CANDIDATES
+  }
+  
+  private final CandidatePageSizer pageSizer;
+  private final ClaimMode claimMode;
+  private final LeaseRegistry leases;
+  private final ClaimCoordinator claimCoordinator;
+  
+  private List<Instance> candidates;
+  
+  // family of the claimed instance's image, known once claimed.
+  private volatile String imageFamily;
+  
   private GridGetRunningHandlerImpl(APICoreProperties apiCoreProps
       , ResourceExecutor executor
       , ComputeService computeSrv
       , ResourceSearch search
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , String zone
-      , RequestGridCreate request) {
-    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request);
+      , RequestGridCreate request
+      , ProvisioningMetrics metrics
+      , CandidatePageSizer pageSizer
+      , ClaimMode claimMode
+      , LeaseRegistry leases
+      , ClaimCoordinator claimCoordinator) {
+    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request
+        , metrics);
+    this.pageSizer = pageSizer;
+    this.claimMode = claimMode;
+    this.leases = leases;
+    this.claimCoordinator = claimCoordinator;
   }
   
   @Override
-  public ResponseEntity<ResponseGridCreate> handle() throws Exception {
+  public CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor) {
+    long start = System.nanoTime();
+    return recordProvisioning(AsyncUtil.callAsync(this::claimRunningInstance, asyncExecutor)
+        .thenCompose(this::awaitUpdates)
+        , HANDLER_NAME, start, () -> imageFamily);
+  }
+  
+  /**
+   * Finds and claims a running instance and starts updating it with requested properties.
+   */
+  private ClaimedInstance claimRunningInstance() throws Exception {
+    if (candidates != null) {
+      return claimFromGiven();
+    }
+    return claimMode == ClaimMode.CANDIDATES
+        ? claimFromCandidates()
+        : claimFromSearch();
+  }
+  
+  private ClaimedInstance claimFromSearch() throws Exception {
     int attempts = 0;
-    GridProperty gridProperty = request.getGridProperties();
   
     while (attempts < SEARCH_MAX_REATTEMPTS) {
       attempts++;
@@ -56,56 +109,151 @@ public class GridGetRunningHandlerImpl extends AbstractGridCreateHandler
           zone, attempts);
       
       long start = System.currentTimeMillis();
+      long startNanos = System.nanoTime();
       Instance gridInstance = searchRunningInstance();
       LOG.debug("took {}secs finding running instances",
           TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+      metrics.recordPhase(HANDLER_NAME, "search", zone, System.nanoTime() - startNanos);
   
-      String existingBuild = FOUND_INSTANCES.putIfAbsent(gridInstance.getId(),
-          buildProp.getBuildId());
-      if (existingBuild != null) {
-        LOG.info("The found running instance {} was acquired by a concurrent request with build"
-                + " {} as our put failed, attempt #{} {}"
-            , gridInstance.getName(), existingBuild, attempts, addToException());
+      Optional<ClaimedInstance> claimed = tryClaim(gridInstance);
+      if (!claimed.isPresent()) {
+        LOG.info("The found running instance {} was acquired by a concurrent request as our claim"
+                + " failed, attempt #{} {}"
+            , gridInstance.getName(), attempts, addToException());
         continue;
       }
+      return claimed.get();
+    }
+    
+    throw maxReattemptsReached();
+  }
   
-      start = System.currentTimeMillis();
-      // 'putIfAbsent' was successful, go ahead.
-      List<Operation> updateOperations = new ArrayList<>(5);
-      Map<String, String> labelsToUpdate = new HashMap<>();
-      labelsToUpdate.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, buildProp.getBuildId());
-      if (gridProperty.getCustomLabels() != null) {
-        labelsToUpdate.putAll(gridProperty.getCustomLabels());
+  /**
+   * Goes through all candidates of a search before searching again so that losing a race to a
+   * concurrent request costs a claim rather than another list call.
+   */
+  private ClaimedInstance claimFromCandidates() throws Exception {
+    int attempts = 0;
+    
+    while (attempts < SEARCH_MAX_REATTEMPTS) {
+      attempts++;
+      
+      int pageSize = pageSizer.pageSize(zone);
+      LOG.debug("get running handler, going to find up to {} running instances in zone {},"
+          + " attempt #{}", pageSize, zone, attempts);
+      
+      long startNanos = System.nanoTime();
+      List<Instance> candidates = search.searchInstances(request.getResourceSearchParams(), zone
+          , InstanceStatus.RUNNING, pageSize, buildProp);
+      metrics.recordPhase(HANDLER_NAME, "search", zone, System.nanoTime() - startNanos);
+      if (candidates.isEmpty()) {
+        throw noRunningInstance();
+      }
+      
+      int contended = 0;
+      for (Instance candidate : candidates) {
+        Optional<ClaimedInstance> claimed = tryClaim(candidate);
+        if (claimed.isPresent()) {
+          pageSizer.record(zone, contended, true);
+          return claimed.get();
+        }
+        contended++;
+      }
+      pageSizer.record(zone, contended, false);
+      LOG.info("All {} found running instances were acquired by concurrent requests, attempt #{}"
+          + " {}", contended, attempts, addToException());
+    }
+    
+    throw maxReattemptsReached();
+  }
+  
+  private ClaimedInstance claimFromGiven() throws Exception {
+    for (Instance candidate : candidates) {
+      Optional<ClaimedInstance> claimed = tryClaim(candidate);
+      if (claimed.isPresent()) {
+        return claimed.get();
       }
-      updateOperations.add(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(
-          gridInstance,
-          labelsToUpdate,
-          buildProp));
-      if (gridProperty.getMetadata() != null && gridProperty.getMetadata().size() > 0) {
+    }
+    LOG.info("All {} given running instances were acquired by concurrent requests {}"
+        , candidates.size(), addToException());
+    throw new GridGetRunningHandlerFailureException(
+        "all given running instances were acquired by concurrent requests");
+  }
+  
+  @Override
+  public void setCandidates(List<Instance> candidates) {
+    Assert.notEmpty(candidates, "'candidates' can't be empty");
+    
+    this.candidates = candidates;
+  }
+  
+  /**
+   * Claims the instance by locking it and starts updating it with requested properties, the
+   * claim is released if updates couldn't be started.
+   * @return empty if a concurrent request has the instance.
+   */
+  private Optional<ClaimedInstance> tryClaim(Instance gridInstance) throws Exception {
+    GridProperty gridProperty = request.getGridProperties();
+    long start = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    Map<String, String> customLabels = gridProperty.getCustomLabels() != null
+        ? gridProperty.getCustomLabels()
+        : Collections.emptyMap();
+    Optional<Operation> lock = claimCoordinator.claim(gridInstance, customLabels, buildProp);
+    if (!lock.isPresent()) {
+      return Optional.empty();
+    }
+    List<Operation> updateOperations = new ArrayList<>(2);
+    updateOperations.add(lock.get());
+    if (gridProperty.getMetadata() != null && gridProperty.getMetadata().size() > 0) {
+      try {
         updateOperations.add(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(
             gridInstance,
             gridProperty.getMetadata(),
             buildProp));
+      } catch (Exception e) {
+        claimCoordinator.release(gridInstance, buildProp);
+        throw e;
       }
-      // all update ops started together
-      for (Operation op : updateOperations) {
-        executor.blockUntilComplete(op, 500, 10000, buildProp);
-      }
-      LOG.debug("took {}secs finishing update to requested properties in instance",
-          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
-      // we've locked instance, remove it from found list
-      FOUND_INSTANCES.remove(gridInstance.getId(), buildProp.getBuildId());
-      ResponseGridCreate response = prepareResponse(gridInstance, HttpStatus.OK);
-      return ResponseEntity
-          .status(response.getHttpStatusCode())
-          .body(response);
     }
+    metrics.recordPhase(HANDLER_NAME, "lock", zone, System.nanoTime() - startNanos);
+    if (gridInstance.getLabels() != null) {
+      imageFamily = gridInstance.getLabels().get(ResourceUtil.LABEL_SOURCE_FAMILY);
+    }
+    return Optional.of(new ClaimedInstance(gridInstance, updateOperations, start
+        , System.nanoTime()));
+  }
   
+  private GridGetRunningHandlerFailureException maxReattemptsReached() {
     LOG.error("maximum re-attempts reached while looking for a running instance, going to get a"
         + " fresh one {}", addToException());
-    throw new GridGetRunningHandlerFailureException(
+    return new GridGetRunningHandlerFailureException(
         "maximum re-attempts reached while looking for a running instance"
-        , new AcquireStoppedMaxReattemptException());  // give up return null;
+        , new AcquireStoppedMaxReattemptException());
+  }
+  
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> awaitUpdates(
+      ClaimedInstance claimed) {
+    // all update ops started together
+    CompletableFuture<?>[] updates = claimed.updateOperations.stream()
+        .map(op -> executor.completeAsync(op, 500, 10000, buildProp))
+        .toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(updates).thenApply(v -> {
+      LOG.debug("took {}secs finishing update to requested properties in instance",
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - claimed.updateStartedAt));
+      metrics.recordPhase(HANDLER_NAME, "update", zone
+          , System.nanoTime() - claimed.updatesIssuedAtNanos);
+      // we've locked instance, the build holds it from now on.
+      ResponseGridCreate response = prepareResponse(claimed.gridInstance, HttpStatus.OK);
+      leases.hold(response.getGridName(), response.getZone(), buildProp.getBuildId());
+      return ResponseEntity
+          .status(response.getHttpStatusCode())
+          .body(response);
+    }).whenComplete((response, failure) -> {
+      if (failure != null) {
+        claimCoordinator.release(claimed.gridInstance, buildProp);
+      }
+    });
   }
   
   private Instance searchRunningInstance() throws Exception {
@@ -113,23 +261,61 @@ public class GridGetRunningHandlerImpl extends AbstractGridCreateHandler
         , zone, InstanceStatus.RUNNING, buildProp);
     
     if (!instance.isPresent()) {
-      LOG.warn("No running instance found that matches the given search terms, search terms: {} {}"
-          , request.getResourceSearchParams().toString()
-          , addToException());
-      throw new GridGetRunningHandlerFailureException();  // give up
+      throw noRunningInstance();  // give up
     }
     
     return instance.get();
   }
   
+  private GridGetRunningHandlerFailureException noRunningInstance() {
+    LOG.warn("No running instance found that matches the given search terms, search terms: {} {}"
+        , request.getResourceSearchParams().toString()
+        , addToException());
+    return new GridGetRunningHandlerFailureException();
+  }
+  
+  private static class ClaimedInstance {
+    
+    private final Instance gridInstance;
+    private final List<Operation> updateOperations;
+    private final long updateStartedAt;
+    private final long updatesIssuedAtNanos;
+    
+    private ClaimedInstance(Instance gridInstance
+        , List<Operation> updateOperations
+        , long updateStartedAt
+        , long updatesIssuedAtNanos) {
+      this.gridInstance = gridInstance;
+      this.updateOperations = updateOperations;
+      this.updateStartedAt = updateStartedAt;
+      this.updatesIssuedAtNanos = updatesIssuedAtNanos;
+    }
+  }
+  
   public static class Factory implements GridGetRunningHandler.Factory {
     
+    private final ProvisioningMetrics metrics;
+    private final CandidatePageSizer pageSizer;
+    private final ClaimMode claimMode;
+    private final LeaseRegistry leases;
+    private final ClaimCoordinator claimCoordinator;
+    
+    public Factory(ProvisioningMetrics metrics, CandidatePageSizer pageSizer
+        , ClaimMode claimMode, LeaseRegistry leases, ClaimCoordinator claimCoordinator) {
+      this.metrics = metrics;
+      this.pageSizer = pageSizer;
+      this.claimMode = claimMode;
+      this.leases = leases;
+      this.claimCoordinator = claimCoordinator;
+    }
+    
     @Override
     public GridGetRunningHandler create(APICoreProperties apiCoreProps, ResourceExecutor executor
         , ComputeService computeSrv, ResourceSearch search
         , FingerprintBasedUpdater fingerprintBasedUpdater, String zone, RequestGridCreate request) {
       return new GridGetRunningHandlerImpl(apiCoreProps, executor, computeSrv, search
-          , fingerprintBasedUpdater, zone, request);
+          , fingerprintBasedUpdater, zone, request, metrics, pageSizer, claimMode, leases
+          , claimCoordinator);
     }
   }
 }
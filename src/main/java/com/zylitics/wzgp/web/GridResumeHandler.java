@@ -0,0 +1,36 @@
+package com.zylitics.wzgp.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.springframework.http.ResponseEntity;
+
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+
+public interface GridResumeHandler {
+
+  /**
+   * Searching and claiming a suspended instance happens on the given {@link Executor}, the
+   * returned future completes once the claimed instance is resumed with requested labels and
+   * metadata applied, or completes exceptionally with
+   * {@link com.zylitics.wzgp.web.exceptions.GridResumeHandlerFailureException} if no suspended
+   * instance could be claimed.
+   */
+  CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor);
+
+  interface Factory {
+
+    GridResumeHandler create(APICoreProperties apiCoreProps
+        , ResourceExecutor executor
+        , ComputeService computeSrv
+        , ResourceSearch search
+        , FingerprintBasedUpdater fingerprintBasedUpdater
+        , String zone
+        , RequestGridCreate request);
+  }
+}
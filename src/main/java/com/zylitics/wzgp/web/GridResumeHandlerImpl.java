@@ -0,0 +1,255 @@
+package com.zylitics.wzgp.web;
+
+import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.grid.GridProperty;
+import com.zylitics.wzgp.resource.grid.GridResumer;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.util.AsyncUtil;
+import com.zylitics.wzgp.web.exceptions.GridNotDeletedException;
+import com.zylitics.wzgp.web.exceptions.GridNotStartedException;
+import com.zylitics.wzgp.web.exceptions.GridResumeHandlerFailureException;
+
+/**
+ * Serves a create request from grids kept suspended by
+ * {@link com.zylitics.wzgp.resource.pool.SuspendedPoolReplenisher}. Suspended instances are claimed
+ * the same way running ones are, a claimed instance gets its lock and metadata before it's resumed.
+ * Metadata is merged into the grid's, so a grid that failed to resume after it may have got the
+ * build's metadata is deleted rather than given back to the pool.
+ */
+public class GridResumeHandlerImpl extends AbstractGridCreateHandler
+    implements GridResumeHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GridResumeHandlerImpl.class);
+
+  private static final String HANDLER_NAME = "resume";
+
+  private final LeaseRegistry leases;
+  private final ClaimCoordinator claimCoordinator;
+  private final DeletionQueue deletionQueue;
+
+  // family of the claimed instance's image, known once claimed.
+  private volatile String imageFamily;
+
+  private GridResumeHandlerImpl(APICoreProperties apiCoreProps
+      , ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , FingerprintBasedUpdater fingerprintBasedUpdater
+      , String zone
+      , RequestGridCreate request
+      , ProvisioningMetrics metrics
+      , LeaseRegistry leases
+      , ClaimCoordinator claimCoordinator
+      , DeletionQueue deletionQueue) {
+    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request
+        , metrics);
+    this.leases = leases;
+    this.claimCoordinator = claimCoordinator;
+    this.deletionQueue = deletionQueue;
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<ResponseGridCreate>> handle(Executor asyncExecutor) {
+    long start = System.nanoTime();
+    return recordProvisioning(AsyncUtil.callAsync(this::claimSuspendedInstance, asyncExecutor)
+        .thenCompose(claimed -> resume(claimed, asyncExecutor))
+        , HANDLER_NAME, start, () -> imageFamily);
+  }
+
+  /**
+   * Goes through suspended instances of a single search and claims the first one that could serve
+   * the request, there's no searching again as resuming is only worth it when there are spare
+   * suspended grids, else we'd rather generate.
+   */
+  private ClaimedInstance claimSuspendedInstance() throws Exception {
+    long startNanos = System.nanoTime();
+    List<Instance> candidates = search.searchInstances(request.getResourceSearchParams(), zone
+        , InstanceStatus.SUSPENDED, apiCoreProps.getGridDefault().getMaxInstanceInSearch()
+        , buildProp);
+    metrics.recordPhase(HANDLER_NAME, "search", zone, System.nanoTime() - startNanos);
+
+    GridProperty gridProperty = request.getGridProperties();
+    Map<String, String> customLabels = gridProperty.getCustomLabels() != null
+        ? gridProperty.getCustomLabels()
+        : Collections.emptyMap();
+    for (Instance candidate : candidates) {
+      if (!GridResumer.canResume(gridProperty, candidate)) {
+        continue;
+      }
+      startNanos = System.nanoTime();
+      Optional<Operation> lock = claimCoordinator.claim(candidate, customLabels, buildProp);
+      if (!lock.isPresent()) {
+        continue;
+      }
+      metrics.recordPhase(HANDLER_NAME, "lock", zone, System.nanoTime() - startNanos);
+      if (candidate.getLabels() != null) {
+        imageFamily = candidate.getLabels().get(ResourceUtil.LABEL_SOURCE_FAMILY);
+      }
+      LOG.info("Build {} acquired suspended instance {} and going to resume it", addToException()
+          , candidate.getName());
+      return new ClaimedInstance(candidate, lock.get());
+    }
+    LOG.debug("No suspended instance could be claimed out of {} found, search terms: {} {}"
+        , candidates.size(), request.getResourceSearchParams(), addToException());
+    throw new GridResumeHandlerFailureException("no suspended instance could be claimed");
+  }
+
+  private CompletableFuture<ResponseEntity<ResponseGridCreate>> resume(ClaimedInstance claimed
+      , Executor asyncExecutor) {
+    GridResumer resumer = new GridResumer(executor
+        , computeSrv
+        , fingerprintBasedUpdater
+        , buildProp
+        , request.getGridProperties()
+        , claimed.gridInstance);
+    long start = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    return resumer.resume(claimed.lock, asyncExecutor)
+        .thenCompose(completedOperation -> {
+          LOG.debug("took {}secs resuming grid",
+              TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+          metrics.recordPhase(HANDLER_NAME, "resume", zone, System.nanoTime() - startNanos);
+          // fetching the grid blocks, get back on the executor.
+          return AsyncUtil.callAsync(() -> onGridResumed(claimed.gridInstance, completedOperation)
+              , asyncExecutor);
+        })
+        .whenComplete((response, failure) -> {
+          if (failure == null) {
+            return;
+          }
+          Map<String, String> metadata = request.getGridProperties().getMetadata();
+          if (metadata != null && metadata.size() > 0) {
+            discard(claimed.gridInstance, asyncExecutor);
+          } else {
+            claimCoordinator.release(claimed.gridInstance, buildProp);
+          }
+        });
+  }
+
+  /**
+   * Deletes the grid in background the way an async delete request does. It's unlocked together
+   * with marking so that {@link DeletionQueue} picks it up even if the delete isn't submitted.
+   * The grid is fetched fresh for marking, the claim has changed its label fingerprint since it was
+   * found.
+   */
+  private void discard(Instance gridInstance, Executor asyncExecutor) {
+    String gridName = gridInstance.getName();
+    String gridZone = nameFromUrl(gridInstance.getZone());
+    LOG.warn("Suspended grid instance {} may carry metadata of the build, going to delete it {}"
+        , gridName, addToException());
+    AsyncUtil.callAsync(() ->
+        fingerprintBasedUpdater.updateLabels(gridInstance,
+            ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"
+                , ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"),
+            buildProp), asyncExecutor)
+        .thenCompose(op -> executor.completeAsync(op, 500, 10000, buildProp))
+        .thenCompose(completedOperation -> {
+          if (!ResourceUtil.isOperationSuccess(completedOperation.get())) {
+            throw new GridNotDeletedException(String.format("Couldn't mark grid instance %s for"
+                + " deletion, operation: %s", gridName, completedOperation.get()));
+          }
+          return AsyncUtil.callAsync(() -> {
+            deletionQueue.submit(gridName, gridZone
+                , computeSrv.deleteInstance(gridName, gridZone, buildProp));
+            return null;
+          }, asyncExecutor);
+        })
+        .whenComplete((v, failure) -> {
+          // the build is done with the grid either way.
+          leases.end(gridName, gridZone);
+          if (failure != null) {
+            LOG.error(String.format("Couldn't delete suspended grid instance %s that failed to"
+                + " resume %s", gridName, addToException()), AsyncUtil.unwrap(failure));
+          }
+        });
+  }
+
+  private ResponseEntity<ResponseGridCreate> onGridResumed(Instance gridInstance
+      , CompletedOperation completedOperation) throws Exception {
+    Operation operation = completedOperation.get();
+    if (!ResourceUtil.isOperationSuccess(operation)) {
+      LOG.error("Couldn't resume suspended grid instance {}, operation: {} {}"
+          , gridInstance.getName()
+          , operation
+          , addToException());
+      throw new GridNotStartedException("Couldn't resume suspended grid instance");
+    }
+    // fetch fresh to see the addresses grid came up with.
+    gridInstance = computeSrv.getInstance(gridInstance.getName()
+        , nameFromUrl(gridInstance.getZone())
+        , buildProp);
+    LOG.debug("resumed a grid instance {}:{} {}", gridInstance.getName(), gridInstance.getZone()
+        , addToException());
+    ResponseGridCreate response = prepareResponse(gridInstance, HttpStatus.OK);
+    // we've locked instance, the build holds it from now on.
+    leases.hold(response.getGridName(), response.getZone(), buildProp.getBuildId());
+    return ResponseEntity
+        .status(response.getHttpStatusCode())
+        .body(response);
+  }
+
+  private static class ClaimedInstance {
+
+    private final Instance gridInstance;
+    private final Operation lock;
+
+    private ClaimedInstance(Instance gridInstance, Operation lock) {
+      this.gridInstance = gridInstance;
+      this.lock = lock;
+    }
+  }
+
+  public static class Factory implements GridResumeHandler.Factory {
+
+    private final ProvisioningMetrics metrics;
+    private final LeaseRegistry leases;
+    private final ClaimCoordinator claimCoordinator;
+    private final DeletionQueue deletionQueue;
+
+    public Factory(ProvisioningMetrics metrics, LeaseRegistry leases
+        , ClaimCoordinator claimCoordinator, DeletionQueue deletionQueue) {
+      this.metrics = metrics;
+      this.leases = leases;
+      this.claimCoordinator = claimCoordinator;
+      this.deletionQueue = deletionQueue;
+    }
+
+    @Override
+    public GridResumeHandler create(APICoreProperties apiCoreProps, ResourceExecutor executor
+        , ComputeService computeSrv, ResourceSearch search
+        , FingerprintBasedUpdater fingerprintBasedUpdater, String zone, RequestGridCreate request) {
+      return new GridResumeHandlerImpl(apiCoreProps, executor, computeSrv, search
+          , fingerprintBasedUpdater, zone, request, metrics, leases, claimCoordinator
+          , deletionQueue);
+    }
+  }
+}
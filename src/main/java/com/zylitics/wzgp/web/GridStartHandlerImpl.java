@@ -19,6 +19,7 @@ import com.google.api.services.compute.model.Operation;
 import com.google.common.base.Strings;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
@@ -73,6 +74,11 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
   private static final Map<BigInteger, String> FOUND_INSTANCES = new ConcurrentHashMap<>(100);
   
   public static final int SEARCH_MAX_REATTEMPTS = 5;
+  
+  private static final String HANDLER_NAME = "start";
+  
+  // family of the acquired instance's image, known once acquired.
+  private String imageFamily;
 
   private GridStartHandlerImpl(APICoreProperties apiCoreProps
       , ResourceExecutor executor
@@ -80,12 +86,27 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
       , ResourceSearch search
       , FingerprintBasedUpdater fingerprintBasedUpdater
       , String zone
-      , RequestGridCreate request) {
-    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request);
+      , RequestGridCreate request
+      , ProvisioningMetrics metrics) {
+    super(apiCoreProps, executor, computeSrv, search, fingerprintBasedUpdater, zone, request
+        , metrics);
   }
   
   @Override
   public ResponseEntity<ResponseGridCreate> handle() throws Exception {
+    long start = System.nanoTime();
+    String outcome = ProvisioningMetrics.OUTCOME_FAILURE;
+    try {
+      ResponseEntity<ResponseGridCreate> response = startStoppedInstance();
+      outcome = ProvisioningMetrics.OUTCOME_SUCCESS;
+      return response;
+    } finally {
+      metrics.recordProvisioning(HANDLER_NAME, zone, imageFamily, outcome
+          , System.nanoTime() - start);
+    }
+  }
+  
+  private ResponseEntity<ResponseGridCreate> startStoppedInstance() throws Exception {
     int attempts = 0;
     
     while (attempts < SEARCH_MAX_REATTEMPTS) {
@@ -95,9 +116,11 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
           zone, attempts);
   
       long start = System.currentTimeMillis();
+      long startNanos = System.nanoTime();
       Instance gridInstance = searchStoppedInstance();
       LOG.debug("took {}secs finding stopped instances",
           TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+      metrics.recordPhase(HANDLER_NAME, "search", zone, System.nanoTime() - startNanos);
   
       String existingBuild = FOUND_INSTANCES.putIfAbsent(gridInstance.getId(),
           buildProp.getBuildId());
@@ -114,6 +137,9 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
       // this information available.
       LOG.info("Build {} acquired stopped instance {} and going to start it", addToException(),
           gridInstance.getName());
+      if (gridInstance.getLabels() != null) {
+        imageFamily = gridInstance.getLabels().get(ResourceUtil.LABEL_SOURCE_FAMILY);
+      }
       try {
         return startGrid(gridInstance);
       } finally {
@@ -152,7 +178,9 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
         , fingerprintBasedUpdater
         , buildProp
         , request.getGridProperties()
-        , gridInstance);
+        , gridInstance
+        , metrics
+        , HANDLER_NAME);
   
     CompletedOperation completedOperation = starter.start();
     Operation operation = completedOperation.get();
@@ -240,12 +268,18 @@ public class GridStartHandlerImpl extends AbstractGridCreateHandler implements G
   
   public static class Factory implements GridStartHandler.Factory {
     
+    private final ProvisioningMetrics metrics;
+    
+    public Factory(ProvisioningMetrics metrics) {
+      this.metrics = metrics;
+    }
+    
     @Override
     public GridStartHandler create(APICoreProperties apiCoreProps, ResourceExecutor executor
         , ComputeService computeSrv, ResourceSearch search
         , FingerprintBasedUpdater fingerprintBasedUpdater, String zone, RequestGridCreate request) {
       return new GridStartHandlerImpl(apiCoreProps, executor, computeSrv, search
-          , fingerprintBasedUpdater, zone, request);
+          , fingerprintBasedUpdater, zone, request, metrics);
     }
   }
 }
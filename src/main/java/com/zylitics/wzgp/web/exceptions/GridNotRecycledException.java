@@ -0,0 +1,15 @@
+package com.zylitics.wzgp.web.exceptions;
+
+public class GridNotRecycledException extends RuntimeException {
+
+  private static final long serialVersionUID = 6180423175512907735L;
+
+  public GridNotRecycledException(String message) {
+    super(message);
+  }
+  
+  @SuppressWarnings("unused")
+  public GridNotRecycledException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,18 @@
+package com.zylitics.wzgp.web.exceptions;
+
+public class GridResumeHandlerFailureException extends Exception {
+  
+  private static final long serialVersionUID = -3145207368922561937L;
+  
+  public GridResumeHandlerFailureException() {
+    super();
+  }
+  
+  public GridResumeHandlerFailureException(String message) {
+    super(message);
+  }
+  
+  public GridResumeHandlerFailureException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
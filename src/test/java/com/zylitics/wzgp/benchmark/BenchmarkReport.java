@@ -0,0 +1,126 @@
+package com.zylitics.wzgp.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Collects time-to-grid of requests per provisioning path and writes throughput and percentiles
+ * as json, so that results of runs over different commits can be diffed or charted.
+ * @author Praveen Tiwari
+ *
+ */
+class BenchmarkReport {
+
+  private final String label;
+  private final Map<String, Object> settings;
+  private final Map<String, PathSamples> paths = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  BenchmarkReport(String label, Map<String, Object> settings) {
+    this.label = label;
+    this.settings = settings;
+  }
+
+  PathSamples path(String name) {
+    return paths.computeIfAbsent(name, k -> new PathSamples());
+  }
+
+  int failures() {
+    synchronized (paths) {
+      return paths.values().stream().mapToInt(p -> p.failures.get()).sum();
+    }
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("label", label);
+    report.put("timestamp", Instant.now().toString());
+    report.put("settings", settings);
+    Map<String, Object> results = new LinkedHashMap<>();
+    synchronized (paths) {
+      paths.forEach((name, samples) -> results.put(name, samples.summary()));
+    }
+    report.put("paths", results);
+    return report;
+  }
+
+  void write(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile()
+        , toMap());
+  }
+
+  static class PathSamples {
+
+    private final List<Long> nanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger divertedTo = new AtomicInteger();
+    private volatile long wallNanos;
+
+    void success(long nanos) {
+      this.nanos.add(nanos);
+    }
+
+    void failure() {
+      failures.incrementAndGet();
+    }
+
+    /**
+     * Counts a request that succeeded but not through the path being measured, such as a
+     * get-running request that ended up generating a grid.
+     */
+    void diverted() {
+      divertedTo.incrementAndGet();
+    }
+
+    void wallTime(long wallNanos) {
+      this.wallNanos = wallNanos;
+    }
+
+    private Map<String, Object> summary() {
+      List<Long> sorted;
+      synchronized (nanos) {
+        sorted = new ArrayList<>(nanos);
+      }
+      Collections.sort(sorted);
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("succeeded", sorted.size());
+      summary.put("failed", failures.get());
+      summary.put("diverted", divertedTo.get());
+      summary.put("throughputPerSec", wallNanos > 0
+          ? sorted.size() / (wallNanos / (double) TimeUnit.SECONDS.toNanos(1))
+          : 0);
+      summary.put("meanMillis", sorted.isEmpty() ? 0
+          : toMillis(sorted.stream().mapToLong(Long::longValue).sum() / sorted.size()));
+      summary.put("p50Millis", percentileMillis(sorted, 50));
+      summary.put("p95Millis", percentileMillis(sorted, 95));
+      summary.put("p99Millis", percentileMillis(sorted, 99));
+      summary.put("maxMillis", sorted.isEmpty() ? 0 : toMillis(sorted.get(sorted.size() - 1)));
+      return summary;
+    }
+
+    // nearest rank
+    private static long percentileMillis(List<Long> sorted, int percentile) {
+      if (sorted.isEmpty()) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+      return toMillis(sorted.get(Math.max(0, rank - 1)));
+    }
+
+    private static long toMillis(long nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+  }
+}
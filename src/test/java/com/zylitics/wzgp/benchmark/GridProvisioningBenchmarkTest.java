@@ -0,0 +1,347 @@
+package com.zylitics.wzgp.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.http.ResponseGridDelete;
+import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.search.CandidatePageSizer;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.emulator.ComputeEmulator;
+import com.zylitics.wzgp.web.GridDeleteHandler;
+import com.zylitics.wzgp.web.GridDeleteHandlerImpl;
+import com.zylitics.wzgp.web.GridGenerateHandler;
+import com.zylitics.wzgp.web.GridGenerateHandlerImpl;
+import com.zylitics.wzgp.web.GridGetRunningHandler;
+import com.zylitics.wzgp.web.GridGetRunningHandlerImpl;
+import com.zylitics.wzgp.web.GridStartHandler;
+import com.zylitics.wzgp.web.GridStartHandlerImpl;
+
+/**
+ * Drives grid create and delete through {@link com.zylitics.wzgp.web.GridController} at a given
+ * concurrency against {@link ComputeEmulator} using a recorded {@link LatencyProfile}, and reports
+ * throughput and p50/p95/p99 time-to-grid separately for the get-running, generate and
+ * zonal-reattempt paths. Results are written as json to target/benchmark/{label}.json, run with
+ * the commit as label to compare across commits.
+ * Runs only with the benchmark maven profile: mvn test -P benchmark
+ * Optional system properties:
+ * zl.wzgp.benchmark.concurrency: requests in flight at a time, default 8
+ * zl.wzgp.benchmark.requests: requests per path, default 32
+ * zl.wzgp.benchmark.timeScale: multiplier for recorded latencies, default 0.1
+ * zl.wzgp.benchmark.latencyProfile: path of a profile json, default is the bundled GCE profile
+ * zl.wzgp.benchmark.label: name of results file, default local
+ * Server properties can be given the same way, such as instance-template-inserts-enabled=true to
+ * insert grids from instance templates.
+ * @author Praveen Tiwari
+ *
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment=WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("benchmark")
+class GridProvisioningBenchmarkTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GridProvisioningBenchmarkTest.class);
+
+  private static final String API_BASE_PATH = "/{version}/zones/{zone}/grids";
+
+  private static final int CONCURRENCY = Integer.getInteger("zl.wzgp.benchmark.concurrency", 8);
+
+  private static final int REQUESTS = Integer.getInteger("zl.wzgp.benchmark.requests", 32);
+
+  private static final double TIME_SCALE =
+      Double.parseDouble(System.getProperty("zl.wzgp.benchmark.timeScale", "0.1"));
+
+  private static final String LATENCY_PROFILE =
+      System.getProperty("zl.wzgp.benchmark.latencyProfile", "");
+
+  private static final String LABEL = System.getProperty("zl.wzgp.benchmark.label", "local");
+
+  private static final String IMAGE_FAMILY = "win2019-chrome";
+
+  private static final String GET_RUNNING_ZONE = "us-central1-f";
+
+  private static final String GENERATE_ZONE = "us-central1-a";
+
+  // has no capacity, creates are re-attempted in api-core gce-reattempt-zones.
+  private static final String EXHAUSTED_ZONE = "us-central1-b";
+
+  // labels that match instance and image search params of api-core and the request.
+  private static final Map<String, String> SEARCH_LABELS = ImmutableMap.<String, String>builder()
+      .put("platform", "windows")
+      .put("os", "win7")
+      .put("browser1", "chrome")
+      .put("shots", "false")
+      .build();
+
+  private static final ComputeEmulator EMULATOR = newEmulator();
+
+  @Autowired
+  private WebTestClient client;
+
+  @Autowired
+  private Environment env;
+
+  private String apiVersion;
+
+  private BenchmarkReport report;
+
+  private final Set<String> pooledGrids = ConcurrentHashMap.newKeySet();
+
+  private ExecutorService releases;
+
+  @BeforeEach
+  void setup() {
+    client = client.mutate().responseTimeout(Duration.ofMinutes(15)).build();
+    apiVersion = env.getProperty("app-short-version");
+    report = new BenchmarkReport(LABEL, ImmutableMap.of(
+        "concurrency", CONCURRENCY,
+        "requestsPerPath", REQUESTS,
+        "timeScale", TIME_SCALE,
+        "latencyProfile", LATENCY_PROFILE.isEmpty()
+            ? LatencyProfile.DEFAULT_PROFILE
+            : LATENCY_PROFILE));
+    releases = Executors.newFixedThreadPool(CONCURRENCY);
+
+    EMULATOR.setZoneCapacity(EXHAUSTED_ZONE, 0);
+    EMULATOR.addImage(new Image()
+        .setName(IMAGE_FAMILY + "-v1")
+        .setFamily(IMAGE_FAMILY)
+        .setLabels(SEARCH_LABELS));
+    // enough unlocked running grids so that get-running requests rarely have to generate.
+    for (int i = 0; i < CONCURRENCY * 2; i++) {
+      Instance grid = EMULATOR.addInstance(GET_RUNNING_ZONE, new Instance()
+          .setName("pooled-grid-" + i)
+          .setLabels(ImmutableMap.<String, String>builder()
+              .putAll(SEARCH_LABELS)
+              .put(ResourceUtil.LABEL_IS_PRODUCTION_INSTANCE, "true")
+              .put("zl-runner", "true")
+              .put(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none")
+              .put(ResourceUtil.LABEL_IS_DELETING, "false")
+              .put(ResourceUtil.LABEL_SOURCE_FAMILY, IMAGE_FAMILY)
+              .build()));
+      pooledGrids.add(grid.getName());
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    releases.shutdown();
+    releases.awaitTermination(15, TimeUnit.MINUTES);
+  }
+
+  @Test
+  @DisplayName("time to grid per provisioning path")
+  void provisioningPaths() throws Exception {
+    run("get-running", GET_RUNNING_ZONE, false, true
+        , response -> pooledGrids.contains(response.getGridName()));
+    run("generate", GENERATE_ZONE, true, false
+        , response -> GENERATE_ZONE.equals(response.getZone()));
+    run("zonal-reattempt", EXHAUSTED_ZONE, true, false
+        , response -> !EXHAUSTED_ZONE.equals(response.getZone()));
+
+    String file = Paths.get("target", "benchmark", LABEL + ".json").toString();
+    report.write(Paths.get(file));
+    LOG.info("benchmark results written to {}: {}", file, report.toMap());
+
+    // no faults are injected, a failure means a path is broken rather than slow.
+    assertEquals(0, report.failures());
+  }
+
+  /**
+   * Sends {@link #REQUESTS} creates keeping {@link #CONCURRENCY} in flight, each grid is released
+   * as soon as it's given out. Waits for releases before returning so paths don't overlap.
+   * @param viaPath tells whether a successful response was served by the path being measured
+   */
+  private void run(String path
+      , String zone
+      , boolean noRush
+      , boolean requireRunningVM
+      , Predicate<ResponseGridCreate> viaPath) throws Exception {
+    BenchmarkReport.PathSamples samples = report.path(path);
+    ExecutorService creates = Executors.newFixedThreadPool(CONCURRENCY);
+    List<Future<?>> futures = new ArrayList<>();
+    List<Future<?>> released = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < REQUESTS; i++) {
+      String buildId = path + "-" + i;
+      futures.add(creates.submit(() -> {
+        long sent = System.nanoTime();
+        ResponseGridCreate response = create(zone, noRush, requireRunningVM, buildId);
+        long elapsed = System.nanoTime() - sent;
+        if (response == null) {
+          samples.failure();
+          return;
+        }
+        if (viaPath.test(response)) {
+          samples.success(elapsed);
+        } else {
+          samples.diverted();
+        }
+        synchronized (released) {
+          released.add(releases.submit(() -> release(response, requireRunningVM)));
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    samples.wallTime(System.nanoTime() - start);
+    creates.shutdown();
+    synchronized (released) {
+      for (Future<?> future : released) {
+        future.get();
+      }
+    }
+  }
+
+  private ResponseGridCreate create(String zone
+      , boolean noRush
+      , boolean requireRunningVM
+      , String buildId) {
+    EntityExchangeResult<ResponseGridCreate> result = client.post()
+        .uri(uriBuilder -> uriBuilder.path(API_BASE_PATH)
+            .queryParam("noRush", noRush)
+            .queryParam("requireRunningVM", requireRunningVM)
+            .build(apiVersion, zone))
+        .accept(MediaType.APPLICATION_JSON)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(newRequest(buildId))
+        .exchange()
+        .expectBody(ResponseGridCreate.class)
+        .returnResult();
+    ResponseGridCreate response = result.getResponseBody();
+    if (!result.getStatus().is2xxSuccessful() || response == null
+        || !ResponseStatus.SUCCESS.name().equals(response.getStatus())) {
+      LOG.warn("create failed for build {} in zone {}, status {}", buildId, zone
+          , result.getStatus());
+      return null;
+    }
+    return response;
+  }
+
+  /**
+   * Grids from the running pool are unlocked and go back to it, others are deleted.
+   */
+  private void release(ResponseGridCreate grid, boolean requireRunningVM) {
+    boolean pooled = requireRunningVM && pooledGrids.contains(grid.getGridName());
+    EntityExchangeResult<ResponseGridDelete> result = client.delete()
+        .uri(uriBuilder -> uriBuilder.path(API_BASE_PATH + "/{gridName}")
+            .queryParam("noRush", !pooled)
+            .queryParam("requireRunningVM", pooled)
+            .build(apiVersion, grid.getZone(), grid.getGridName()))
+        .accept(MediaType.APPLICATION_JSON)
+        .exchange()
+        .expectBody(ResponseGridDelete.class)
+        .returnResult();
+    if (!result.getStatus().is2xxSuccessful()) {
+      LOG.warn("couldn't release grid {} in zone {}, status {}", grid.getGridName()
+          , grid.getZone(), result.getStatus());
+    }
+  }
+
+  private RequestGridCreate newRequest(String buildId) {
+    RequestGridCreate request = new RequestGridCreate();
+    request.getBuildProperties().setBuildId(buildId);
+    RequestGridCreate.ResourceSearchParams searchParams = request.getResourceSearchParams();
+    searchParams.setOS(SEARCH_LABELS.get("os"));
+    searchParams.setBrowser(SEARCH_LABELS.get("browser1"));
+    searchParams.setShots(Boolean.parseBoolean(SEARCH_LABELS.get("shots")));
+    RequestGridCreate.GridProperties gridProps = request.getGridProperties();
+    gridProps.setMachineType("e2-standard-2");
+    gridProps.setPreemptible(false);
+    gridProps.setCreateExternalIP(false);
+    gridProps.setMetadata(ImmutableMap.of("screen", "1x1"));
+    return request;
+  }
+
+  private static ComputeEmulator newEmulator() {
+    try {
+      return LatencyProfile.load(LATENCY_PROFILE)
+          .applyTo(ComputeEmulator.newBuilder(), TIME_SCALE)
+          .build();
+    } catch (IOException io) {
+      throw new RuntimeException(io);
+    }
+  }
+
+  @TestConfiguration
+  static class TestConfig {
+
+    @Bean
+    public Compute compute() {
+      return EMULATOR.get();
+    }
+
+    @Bean
+    public GridGenerateHandler.Factory gridGenerateHandlerFactory(ProvisioningMetrics metrics
+        , LeaseRegistry leases, BootDiskPool bootDiskPool
+        , InstanceTemplateCache instanceTemplateCache) {
+      return new GridGenerateHandlerImpl.Factory(metrics, leases, bootDiskPool
+          , instanceTemplateCache);
+    }
+
+    @Bean
+    public GridGetRunningHandler.Factory gridGetRunningHandlerFactory(
+        ProvisioningMetrics metrics, CandidatePageSizer pageSizer
+        , @Value("${get-running-claim-mode}") GridGetRunningHandlerImpl.ClaimMode claimMode
+        , LeaseRegistry leases, ClaimCoordinator claimCoordinator) {
+      return new GridGetRunningHandlerImpl.Factory(metrics, pageSizer, claimMode, leases
+          , claimCoordinator);
+    }
+
+    @Bean
+    public GridStartHandler.Factory gridStartHandlerFactory(ProvisioningMetrics metrics) {
+      return new GridStartHandlerImpl.Factory(metrics);
+    }
+
+    @Bean
+    public GridDeleteHandler.Factory gridDeleteHandlerFactory(LeaseRegistry leases
+        , DeletionQueue deletionQueue) {
+      return new GridDeleteHandlerImpl.Factory(leases, deletionQueue);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.zylitics.wzgp.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.zylitics.wzgp.test.emulator.ComputeEmulator;
+import com.zylitics.wzgp.test.emulator.LatencyDistribution;
+
+/**
+ * Latencies of compute api recorded from GCE, as medians and spread of a log-normal distribution
+ * per api call and per operation type. Profiles are json, the default one is on classpath at
+ * {@link #DEFAULT_PROFILE}, others can be given as a file path.
+ * @author Praveen Tiwari
+ *
+ */
+class LatencyProfile {
+
+  static final String DEFAULT_PROFILE = "benchmark/gce-latency-profile.json";
+
+  private static final String DEFAULT_OPERATION = "default";
+
+  public Latency api;
+
+  public Map<String, OperationLatency> operations = Collections.emptyMap();
+
+  /**
+   * @param path file path of profile, default profile is loaded if empty.
+   */
+  static LatencyProfile load(@Nullable String path) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    if (!Strings.isNullOrEmpty(path)) {
+      return mapper.readValue(Files.newInputStream(Paths.get(path)), LatencyProfile.class);
+    }
+    try (InputStream in = LatencyProfile.class.getClassLoader()
+        .getResourceAsStream(DEFAULT_PROFILE)) {
+      if (in == null) {
+        throw new IOException(DEFAULT_PROFILE + " not found on classpath");
+      }
+      return mapper.readValue(in, LatencyProfile.class);
+    }
+  }
+
+  /**
+   * Sets latencies of this profile to the given builder.
+   * @param timeScale multiplier applied to all latencies, values below 1 shorten runs.
+   */
+  ComputeEmulator.Builder applyTo(ComputeEmulator.Builder builder, double timeScale) {
+    if (api != null) {
+      builder.setApiLatency(api.scaled(timeScale));
+    }
+    operations.forEach((type, latency) -> {
+      if (type.equals(DEFAULT_OPERATION)) {
+        builder.setOperationLatency(latency.pending.scaled(timeScale)
+            , latency.running.scaled(timeScale));
+      } else {
+        builder.setOperationLatency(type, latency.pending.scaled(timeScale)
+            , latency.running.scaled(timeScale));
+      }
+    });
+    return builder;
+  }
+
+  static class Latency {
+
+    public long medianMillis;
+
+    public double sigma;
+
+    LatencyDistribution scaled(double timeScale) {
+      return LatencyDistribution.logNormal(Math.round(medianMillis * timeScale), sigma);
+    }
+  }
+
+  static class OperationLatency {
+
+    public Latency pending;
+
+    public Latency running;
+  }
+}
@@ -0,0 +1,71 @@
+package com.zylitics.wzgp.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Binding of create request body, using a mapper configured the way spring configures the one of
+ * message converter. Run with the jmh profile, see pom.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestGridCreateBindingBenchmark {
+  
+  private static final String BODY = "{"
+      + "\"buildProperties\": {\"buildId\": \"build-007\"},"
+      + "\"resourceSearchParams\": {"
+      + "\"os\": \"win7\","
+      + "\"browser\": \"chrome\","
+      + "\"shots\": false,"
+      + "\"customInstanceSearchParams\": {\"labels.is-production-instance\": \"false\"}"
+      + "},"
+      + "\"gridProperties\": {"
+      + "\"machineType\": \"n1-standard-2\","
+      + "\"serviceAccount\": \"grid-sa@zl-infra-main.iam.gserviceaccount.com\","
+      + "\"preemptible\": false,"
+      + "\"createExternalIP\": false,"
+      + "\"networkTags\": [\"grid\", \"allow-ssh\"],"
+      + "\"customLabels\": {\"is-production-instance\": \"false\"},"
+      + "\"metadata\": {\"screen\": \"1680x1050\", \"timezone\": \"UTC\", "
+      + "\"browser\": \"chrome;76\", \"build-id\": \"build-007\"}"
+      + "}"
+      + "}";
+  
+  private ObjectMapper mapper;
+  
+  private ObjectReader reader;
+  
+  @Setup
+  public void setup() {
+    mapper = Jackson2ObjectMapperBuilder.json().build();
+    reader = mapper.readerFor(RequestGridCreate.class);
+  }
+  
+  @Benchmark
+  public RequestGridCreate readValue() throws Exception {
+    return mapper.readValue(BODY, RequestGridCreate.class);
+  }
+  
+  @Benchmark
+  public RequestGridCreate readWithReader() throws Exception {
+    return reader.readValue(BODY);
+  }
+}
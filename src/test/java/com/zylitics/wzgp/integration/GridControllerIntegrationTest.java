@@ -6,12 +6,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 
@@ -37,6 +41,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.services.compute.Compute;
@@ -140,10 +145,10 @@ class GridControllerIntegrationTest {
           return GENERATE_HANDLER;
         });
     
-    when(GENERATE_HANDLER.handle()).thenReturn(
-          ResponseEntity.status(HttpStatus.CREATED).body(gridCreateResponse()));
+    when(GENERATE_HANDLER.handle(any(Executor.class))).thenReturn(CompletableFuture.completedFuture(
+          ResponseEntity.status(HttpStatus.CREATED).body(gridCreateResponse())));
     
-    mvc.perform(
+    MvcResult result = mvc.perform(
           post("/{version}/zones/{zone}/grids", env.getProperty(APP_VER_KEY), ZONE)
               .param("noRush", "true")
               .param("sourceImageFamily", sourceImageFamily)
@@ -151,6 +156,10 @@ class GridControllerIntegrationTest {
               .contentType(MediaType.APPLICATION_JSON)
               .content(createReq.write(requestSent).getJson().getBytes(StandardCharsets.UTF_8))
         )
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    
+    mvc.perform(asyncDispatch(result))
         .andExpect(status().isCreated())
         .andExpect(content().contentType(MediaType.APPLICATION_JSON))
         .andExpect(jsonPath("$.gridName").value(GRID_NAME))
@@ -196,16 +205,20 @@ class GridControllerIntegrationTest {
     when(DELETE_HANDLER_FACTORY.create(apiCoreProps, executor, computeSrv, fingerprintBasedUpdater
         , ZONE, GRID_NAME)).thenReturn(DELETE_HANDLER);
     
-    when(DELETE_HANDLER.handle()).thenReturn(
-          ResponseEntity.status(HttpStatus.OK).body(gridDeleteResponse()));
+    when(DELETE_HANDLER.handle(any(Executor.class))).thenReturn(CompletableFuture.completedFuture(
+          ResponseEntity.status(HttpStatus.OK).body(gridDeleteResponse())));
     
-    mvc.perform(
+    MvcResult result = mvc.perform(
           delete("/{version}/zones/{zone}/grids/{gridName}", env.getProperty(APP_VER_KEY), ZONE
               , GRID_NAME)
               .param("noRush", "true")
               .param("sessionId", sessionId)
               .accept(MediaType.APPLICATION_JSON)
         )
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    
+    mvc.perform(asyncDispatch(result))
         .andExpect(status().isOk())
         .andExpect(content().contentType(MediaType.APPLICATION_JSON))
         .andExpect(jsonPath("$.zone").value(ZONE))
@@ -0,0 +1,55 @@
+package com.zylitics.wzgp.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.services.compute.Compute;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ProvisioningMetricsTest {
+  
+  private static final Compute COMPUTE = new FakeCompute().get();
+  
+  @Test
+  @DisplayName("api calls are tagged with name of the compute request")
+  void apiCallTaggedWithApiName() throws Exception {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    ProvisioningMetrics metrics = new ProvisioningMetrics(registry);
+    
+    metrics.recordApiCall(COMPUTE.zoneOperations().get("p", "z", "op")
+        , ProvisioningMetrics.OUTCOME_SUCCESS, TimeUnit.MILLISECONDS.toNanos(10));
+    metrics.recordApiCall(COMPUTE.zoneOperations().get("p", "z", "op")
+        , ProvisioningMetrics.OUTCOME_SUCCESS, TimeUnit.MILLISECONDS.toNanos(30));
+    
+    Timer timer = registry.find("compute.api.calls")
+        .tags("api", "zoneOperations.get", "outcome", ProvisioningMetrics.OUTCOME_SUCCESS)
+        .timer();
+    assertNotNull(timer);
+    assertEquals(2, timer.count());
+    assertEquals(40, timer.totalTime(TimeUnit.MILLISECONDS), 0.01);
+  }
+  
+  @Test
+  @DisplayName("provisioning without a known image family is tagged unknown")
+  void provisioningUnknownFamily() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    ProvisioningMetrics metrics = new ProvisioningMetrics(registry);
+    
+    metrics.recordProvisioning("generate", "us-central1-a", null
+        , ProvisioningMetrics.OUTCOME_FAILURE, 1);
+    
+    assertNotNull(registry.find("grid.provisioning")
+        .tags("handler", "generate", "zone", "us-central1-a", "image_family", "unknown"
+            , "outcome", ProvisioningMetrics.OUTCOME_FAILURE)
+        .timer());
+  }
+}
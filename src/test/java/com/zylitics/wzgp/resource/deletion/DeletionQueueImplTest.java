@@ -0,0 +1,197 @@
+package com.zylitics.wzgp.resource.deletion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DeletionQueueImplTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final long RETRY_DELAY_MILLIS = 100;
+
+  private static final long MAX_RETRY_DELAY_MILLIS = 300;
+
+  private static final long STUCK_AFTER_MILLIS = 60 * 1000;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private final ComputeService computeSrv = mock(ComputeService.class);
+
+  private final ResourceExecutor executor = mock(ResourceExecutor.class);
+
+  private final ScheduledExecutorService retryScheduler = mock(ScheduledExecutorService.class);
+
+  private final FlexibleOffsetClock clock =
+      new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")), Duration.ZERO);
+
+  @Test
+  @DisplayName("verify a deletion is forgotten once confirmed")
+  void confirmedTest() {
+    Operation operation = operation("op-delete");
+    stubCompletion(operation, true);
+    DeletionQueueImpl queue = newQueue();
+
+    queue.submit("grid-1", ZONE, operation);
+
+    assertEquals(0, queue.pendingCount());
+    assertEquals(1, deletions(ProvisioningMetrics.OUTCOME_SUCCESS));
+    verify(retryScheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  @DisplayName("verify failed deletions are deleted again with growing delay until confirmed")
+  void retryTest() throws Exception {
+    Operation first = operation("op-delete-1");
+    stubCompletion(first, false);
+    Operation second = operation("op-delete-2");
+    stubCompletion(second, false);
+    when(computeSrv.deleteInstance("grid-1", ZONE, null))
+        .thenReturn(second)
+        .thenThrow(new GoogleJsonResponseException(new HttpResponseException.Builder(404
+            , "Not Found", new HttpHeaders()), null));
+    DeletionQueueImpl queue = newQueue();
+
+    queue.submit("grid-1", ZONE, first);
+    assertEquals(1, queue.pendingCount());
+    runRetry(RETRY_DELAY_MILLIS);
+    runRetry(RETRY_DELAY_MILLIS * 2);
+
+    // gone by the time we deleted again.
+    assertEquals(0, queue.pendingCount());
+    assertEquals(2, deletions(ProvisioningMetrics.OUTCOME_FAILURE));
+    assertEquals(1, deletions(ProvisioningMetrics.OUTCOME_SUCCESS));
+  }
+
+  @Test
+  @DisplayName("verify delay between retries doesn't grow beyond the max")
+  void retryDelayCappedTest() throws Exception {
+    Operation operation = operation("op-delete");
+    stubCompletion(operation, false);
+    when(computeSrv.deleteInstance("grid-1", ZONE, null)).thenReturn(operation);
+    DeletionQueueImpl queue = newQueue();
+
+    queue.submit("grid-1", ZONE, operation);
+    runRetry(RETRY_DELAY_MILLIS);
+    runRetry(RETRY_DELAY_MILLIS * 2);
+    runRetry(MAX_RETRY_DELAY_MILLIS);
+    runRetry(MAX_RETRY_DELAY_MILLIS);
+
+    assertEquals(1, queue.pendingCount());
+  }
+
+  @Test
+  @DisplayName("verify deletions pending for long are gauged as stuck")
+  void stuckTest() {
+    Operation operation = operation("op-delete");
+    stubCompletion(operation, false);
+    newQueue().submit("grid-1", ZONE, operation);
+
+    assertEquals(1, registry.get("grid.deletions.pending").gauge().value());
+    assertEquals(0, registry.get("grid.deletions.stuck").gauge().value());
+    clock.setOffset(Duration.ofMillis(STUCK_AFTER_MILLIS + 1));
+    assertEquals(1, registry.get("grid.deletions.stuck").gauge().value());
+  }
+
+  @Test
+  @DisplayName("verify reconcile deletes marked grids nobody is deleting, once")
+  void reconcileTest() throws Exception {
+    Instance abandoned = marked("grid-1", "none", "RUNNING");
+    Instance locked = marked("grid-2", "build-1", "RUNNING");
+    Instance goingAway = marked("grid-3", "none", "STOPPING");
+    when(computeSrv.listInstancesInAllZones(anyString(), isNull()))
+        .thenReturn(ImmutableList.of(abandoned, locked, goingAway));
+    Operation operation = operation("op-delete");
+    when(computeSrv.deleteInstance("grid-1", ZONE, null)).thenReturn(operation);
+    // not yet complete, keeps it pending.
+    when(executor.completeAsync(eq(operation), anyLong(), anyLong(), isNull()))
+        .thenReturn(new CompletableFuture<>());
+    DeletionQueueImpl queue = newQueue();
+
+    queue.reconcile();
+    queue.reconcile();
+
+    verify(computeSrv, times(1)).deleteInstance("grid-1", ZONE, null);
+    verify(computeSrv, never()).deleteInstance(eq("grid-2"), anyString(), any());
+    verify(computeSrv, never()).deleteInstance(eq("grid-3"), anyString(), any());
+    assertEquals(1, queue.pendingCount());
+  }
+
+  private DeletionQueueImpl newQueue() {
+    return new DeletionQueueImpl(computeSrv, executor, new ProvisioningMetrics(registry)
+        , RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS, STUCK_AFTER_MILLIS, retryScheduler, clock);
+  }
+
+  private void runRetry(long expectedDelayMillis) {
+    ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+    verify(retryScheduler).schedule(retry.capture(), eq(expectedDelayMillis)
+        , eq(TimeUnit.MILLISECONDS));
+    clearInvocations(retryScheduler);
+    retry.getValue().run();
+  }
+
+  private void stubCompletion(Operation operation, boolean succeed) {
+    Operation completed = new Operation()
+        .setName(operation.getName())
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink("grid-1", ZONE))
+        .setHttpErrorStatusCode(succeed ? null : 500);
+    when(executor.completeAsync(eq(operation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(new CompletedOperation(completed)));
+  }
+
+  private double deletions(String outcome) {
+    return registry.get("grid.deletions").tag("outcome", outcome).counter().count();
+  }
+
+  private Operation operation(String name) {
+    return new Operation().setName(name).setStatus("RUNNING");
+  }
+
+  private Instance marked(String name, String lockedBy, String status) {
+    return new Instance()
+        .setName(name)
+        .setStatus(status)
+        .setZone(ResourceTestUtil.getZoneLink(ZONE))
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"
+            , ResourceUtil.LABEL_LOCKED_BY_BUILD, lockedBy));
+  }
+}
@@ -0,0 +1,194 @@
+package com.zylitics.wzgp.resource.disk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class BootDiskPoolImplTest {
+
+  // boot disk pools are same as the warm pools of dummy, a single pool with target 3.
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties(
+      ImmutableList.of(), new DummyAPICoreProperties().getGridDefault().getWarmPools());
+
+  private static final APICoreProperties.WarmPool POOL =
+      API_CORE_PROPS.getGridDefault().getBootDiskPools().get(0);
+
+  private static final long MAX_AGE_MILLIS = 6 * 60 * 60 * 1000;
+
+  private static final Instant NOW = Instant.parse("2021-05-01T10:00:00Z");
+
+  @Test
+  @DisplayName("verify deficit is filled with disks those are handed out for their image only")
+  void deficitFilledTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    Image image = getImage("image-1");
+
+    when(computeSrv.getImageFromFamily(POOL.getImageFamily(), null)).thenReturn(image);
+    when(computeSrv.listDisks(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(Collections.emptyList());
+    stubDiskCreate(executor, computeSrv);
+
+    BootDiskPoolImpl pool = newPool(executor, computeSrv
+        , MoreExecutors.newDirectExecutorService());
+    pool.replenish();
+
+    ArgumentCaptor<Disk> created = ArgumentCaptor.forClass(Disk.class);
+    verify(computeSrv, times(POOL.getTarget())).insertDisk(created.capture()
+        , eq(POOL.getZone()), isNull());
+    Disk disk = created.getValue();
+    assertEquals("image-1", ResourceUtil.nameFromUrl(disk.getSourceImage()));
+    assertEquals(POOL.getImageFamily(), disk.getLabels().get(ResourceUtil.LABEL_BOOT_DISK_POOL));
+
+    assertFalse(pool.take(getImage("image-0"), POOL.getZone()).isPresent());
+    assertFalse(pool.take(image, "us-west0-k").isPresent());
+    for (int i = 0; i < POOL.getTarget(); i++) {
+      Optional<String> taken = pool.take(image, POOL.getZone());
+      assertTrue(taken.isPresent());
+      assertTrue(taken.get().startsWith("zones/" + POOL.getZone() + "/disks/"));
+    }
+    // every disk is handed out once.
+    assertFalse(pool.take(image, POOL.getZone()).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify disks of older image are replaced once a new image is published")
+  void newImageReplacesDisksTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    Image older = getImage("image-1");
+    Image newer = getImage("image-2");
+
+    when(computeSrv.getImageFromFamily(POOL.getImageFamily(), null))
+        .thenReturn(older)
+        .thenReturn(newer);
+    when(computeSrv.listDisks(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(Collections.emptyList());
+    stubDiskCreate(executor, computeSrv);
+
+    BootDiskPoolImpl pool = newPool(executor, computeSrv
+        , MoreExecutors.newDirectExecutorService());
+    pool.replenish();
+    pool.replenish();
+
+    verify(computeSrv, times(POOL.getTarget())).deleteDisk(anyString(), eq(POOL.getZone())
+        , isNull());
+    verify(computeSrv, times(POOL.getTarget() * 2)).insertDisk(any(Disk.class)
+        , eq(POOL.getZone()), isNull());
+    assertFalse(pool.take(older, POOL.getZone()).isPresent());
+    assertTrue(pool.take(newer, POOL.getZone()).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify disk given back is handed out again unless pool moved to a newer image")
+  void givenBackDiskTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    Image older = getImage("image-1");
+    Image newer = getImage("image-2");
+
+    when(computeSrv.getImageFromFamily(POOL.getImageFamily(), null))
+        .thenReturn(older)
+        .thenReturn(newer);
+    when(computeSrv.listDisks(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(Collections.emptyList());
+    stubDiskCreate(executor, computeSrv);
+
+    BootDiskPoolImpl pool = newPool(executor, computeSrv
+        , MoreExecutors.newDirectExecutorService());
+    pool.replenish();
+
+    String disk = pool.take(older, POOL.getZone()).get();
+    pool.giveBack(older, POOL.getZone(), disk);
+    assertEquals(Optional.of(disk), pool.take(older, POOL.getZone()));
+    verify(computeSrv, never()).deleteDisk(anyString(), anyString(), any());
+
+    pool.replenish();
+    pool.giveBack(older, POOL.getZone(), disk);
+    verify(computeSrv).deleteDisk(ResourceUtil.nameFromUrl(disk), POOL.getZone(), null);
+  }
+
+  @Test
+  @DisplayName("verify only unattached disks nobody keeps are deleted once older than max age")
+  void abandonedDisksDeletedTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+
+    List<Disk> disks = ImmutableList.of(
+        new Disk().setName("disk-abandoned").setCreationTimestamp("2021-05-01T01:00:00.000-00:00")
+        , new Disk().setName("disk-attached").setCreationTimestamp("2021-05-01T01:00:00.000-00:00")
+            .setUsers(ImmutableList.of("zones/" + POOL.getZone() + "/instances/grid-1"))
+        , new Disk().setName("disk-recent").setCreationTimestamp("2021-05-01T09:00:00.000-00:00"));
+    when(computeSrv.getImageFromFamily(POOL.getImageFamily(), null))
+        .thenReturn(getImage("image-1"));
+    when(computeSrv.listDisks(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(disks);
+
+    // creates are never run.
+    newPool(mock(ResourceExecutor.class), computeSrv, mock(ExecutorService.class)).replenish();
+
+    verify(computeSrv).deleteDisk("disk-abandoned", POOL.getZone(), null);
+    verify(computeSrv, never()).deleteDisk(eq("disk-attached"), anyString(), any());
+    verify(computeSrv, never()).deleteDisk(eq("disk-recent"), anyString(), any());
+  }
+
+  private void stubDiskCreate(ResourceExecutor executor, ComputeService computeSrv)
+      throws Exception {
+    Operation operation = new Operation().setName("operation-disk-insert");
+    when(computeSrv.insertDisk(any(Disk.class), eq(POOL.getZone()), isNull()))
+        .thenReturn(operation);
+    when(executor.blockUntilComplete(eq(operation), anyLong(), anyLong(), isNull()))
+        .thenReturn(new Operation()
+            .setStatus("DONE")
+            .setTargetLink(ResourceTestUtil.getOperationTargetLink("disk", POOL.getZone())));
+  }
+
+  private Image getImage(String name) {
+    return new Image().setName(name).setFamily(POOL.getImageFamily());
+  }
+
+  private BootDiskPoolImpl newPool(ResourceExecutor executor, ComputeService computeSrv
+      , ExecutorService createExecutor) {
+    return new BootDiskPoolImpl(API_CORE_PROPS, executor, computeSrv, MAX_AGE_MILLIS
+        , createExecutor, Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+}
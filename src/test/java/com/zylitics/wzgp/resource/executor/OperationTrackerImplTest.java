@@ -0,0 +1,199 @@
+package com.zylitics.wzgp.resource.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class OperationTrackerImplTest {
+
+  private static final Compute COMPUTE = new FakeCompute().get();
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final String ZONE = "us-central0-g";
+
+  @Test
+  @DisplayName("verify already completed 'Operation' doesn't need polling")
+  void completedOperationTest() throws Exception {
+    OperationTrackerImpl tracker = spy(newTracker(newClock()));
+    Operation done = getOperation("DONE", ZONE);
+
+    CompletableFuture<CompletedOperation> future = tracker.track(done, 500, 10000, null);
+
+    assertSame(done, future.get().get());
+    tracker.poll();
+    verify(tracker, never()).fetchOperations(eq(ZONE), anyCollection());
+  }
+
+  @Test
+  @DisplayName("verify 'Operation' is polled per interval until it completes")
+  void pollUntilCompleteTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    OperationTrackerImpl tracker = spy(newTracker(clock));
+    Operation pending = getOperation("PENDING", ZONE);
+
+    doReturn(ImmutableMap.of(pending.getName(), pending.clone().setStatus("RUNNING")))
+        .doReturn(ImmutableMap.of(pending.getName(), pending.clone().setStatus("DONE")))
+        .when(tracker).fetchOperations(eq(ZONE), anyCollection());
+
+    CompletableFuture<CompletedOperation> future = tracker.track(pending, 500, 10000, null);
+
+    // not yet due
+    tracker.poll();
+    clock.setOffset(Duration.ofMillis(500));
+    tracker.poll();
+    assertFalse(future.isDone());
+    // polled just now, shouldn't poll again until interval elapses.
+    clock.setOffset(Duration.ofMillis(700));
+    tracker.poll();
+    clock.setOffset(Duration.ofMillis(1000));
+    tracker.poll();
+    assertTrue(future.isDone());
+    assertEquals("DONE", future.get().get().getStatus());
+    verify(tracker, times(2)).fetchOperations(eq(ZONE), anyCollection());
+  }
+
+  @Test
+  @DisplayName("verify 'Operation' times out when not complete before deadline")
+  void timeoutTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    OperationTrackerImpl tracker = spy(newTracker(clock));
+    Operation pending = getOperation("PENDING", ZONE);
+
+    doReturn(ImmutableMap.of(pending.getName(), pending.clone().setStatus("RUNNING")))
+        .when(tracker).fetchOperations(eq(ZONE), anyCollection());
+
+    CompletableFuture<CompletedOperation> future = tracker.track(pending, 500, 1000, null);
+    clock.setOffset(Duration.ofMillis(500));
+    tracker.poll();
+    clock.setOffset(Duration.ofMillis(1001));
+    tracker.poll();
+
+    ExecutionException ee = assertThrows(ExecutionException.class, future::get);
+    assertTrue(ee.getCause() instanceof TimeoutException);
+  }
+
+  @Test
+  @DisplayName("verify operations are fetched together per zone")
+  @SuppressWarnings("unchecked")
+  void fetchedPerZoneTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    OperationTrackerImpl tracker = spy(newTracker(clock));
+    String otherZone = "zone-b";
+    Operation op1 = getOperation("PENDING", ZONE);
+    Operation op2 = getOperation("RUNNING", ZONE);
+    Operation op3 = getOperation("PENDING", ZONE);
+    Operation op4 = getOperation("PENDING", otherZone);
+
+    // complete every operation asked for.
+    Map<String, Operation> all = ImmutableSet.of(op1, op2, op3, op4).stream()
+        .collect(Collectors.toMap(Operation::getName, Function.identity()));
+    doAnswer(invocation -> {
+      Collection<String> names = invocation.getArgument(1);
+      return names.stream().collect(Collectors.toMap(Function.identity()
+          , n -> all.get(n).clone().setStatus("DONE")));
+    }).when(tracker).fetchOperations(eq(ZONE), anyCollection());
+    doReturn(ImmutableMap.of(op4.getName(), op4.clone().setStatus("DONE")))
+        .when(tracker).fetchOperations(eq(otherZone), anyCollection());
+
+    CompletableFuture<CompletedOperation> f1 = tracker.track(op1, 500, 10000, null);
+    CompletableFuture<CompletedOperation> f2 = tracker.track(op2, 500, 10000, null);
+    CompletableFuture<CompletedOperation> f3 = tracker.track(op3, 500, 10000, null);
+    CompletableFuture<CompletedOperation> f4 = tracker.track(op4, 500, 10000, null);
+    clock.setOffset(Duration.ofMillis(500));
+    tracker.poll();
+
+    assertTrue(f1.isDone() && f2.isDone() && f3.isDone() && f4.isDone());
+    ArgumentCaptor<Collection<String>> names = ArgumentCaptor.forClass(Collection.class);
+    verify(tracker).fetchOperations(eq(ZONE), names.capture());
+    assertEquals(ImmutableSet.of(op1.getName(), op2.getName(), op3.getName())
+        , new HashSet<>(names.getValue()));
+    verify(tracker).fetchOperations(eq(otherZone), anyCollection());
+  }
+
+  @Test
+  @DisplayName("verify global operations are fetched apart from zonal ones")
+  void globalOperationTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    OperationTrackerImpl tracker = spy(newTracker(clock));
+    Operation global = getOperation("PENDING", ZONE).setZone(null);
+    Operation zonal = getOperation("PENDING", ZONE);
+
+    doReturn(ImmutableMap.of(global.getName(), global.clone().setStatus("DONE")))
+        .when(tracker).fetchOperations(isNull(), anyCollection());
+    doReturn(ImmutableMap.of(zonal.getName(), zonal.clone().setStatus("DONE")))
+        .when(tracker).fetchOperations(eq(ZONE), anyCollection());
+
+    CompletableFuture<CompletedOperation> globalFuture = tracker.track(global, 500, 10000, null);
+    CompletableFuture<CompletedOperation> zonalFuture = tracker.track(zonal, 500, 10000, null);
+    clock.setOffset(Duration.ofMillis(500));
+    tracker.poll();
+
+    assertTrue(globalFuture.isDone() && zonalFuture.isDone());
+    verify(tracker).fetchOperations(isNull(), eq(ImmutableList.of(global.getName())));
+  }
+
+  private OperationTrackerImpl newTracker(Clock clock) {
+    // scheduler is not started, tests poll themselves. Polls aren't limited.
+    return new OperationTrackerImpl(COMPUTE, API_CORE_PROPS, clock, null
+        , (category, priority, permits) -> {});
+  }
+
+  private FlexibleOffsetClock newClock() {
+    return new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")), Duration.ZERO);
+  }
+
+  private Operation getOperation(String status, String zone) {
+    return new Operation()
+        .setStatus(status)
+        .setName("operation-" + UUID.randomUUID())
+        .setZone(ResourceTestUtil.getZoneLink(zone));
+  }
+}
@@ -0,0 +1,112 @@
+package com.zylitics.wzgp.resource.executor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+
+/**
+ * Cost of toPrettyString() that is passed to log statements as argument, it is paid whether or
+ * not the statement's level is enabled. Models are parsed by the json factory used by the
+ * application so that they look like ones received from compute. Run with the jmh profile, see
+ * pom.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrettyStringBenchmark {
+  
+  private static final String OPERATION = "{"
+      + "\"kind\": \"compute#operation\","
+      + "\"id\": \"4829518301634567981\","
+      + "\"name\": \"operation-1618229475312-5bfc1f1e2a3b8-7e0c5a1d-4d3f8a2b\","
+      + "\"zone\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f\","
+      + "\"operationType\": \"insert\","
+      + "\"targetLink\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f/instances/grid-a1b2c3d4e5\","
+      + "\"targetId\": \"1523489012456789012\","
+      + "\"status\": \"DONE\","
+      + "\"user\": \"zl-wzgp@zl-infra-main.iam.gserviceaccount.com\","
+      + "\"progress\": 100,"
+      + "\"insertTime\": \"2021-04-12T05:11:15.412-07:00\","
+      + "\"startTime\": \"2021-04-12T05:11:15.418-07:00\","
+      + "\"endTime\": \"2021-04-12T05:11:47.902-07:00\","
+      + "\"selfLink\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f/operations/operation-1618229475312-5bfc1f1e2a3b8-7e0c5a1d-4d3f8a2b\""
+      + "}";
+  
+  private static final String INSTANCE = "{"
+      + "\"kind\": \"compute#instance\","
+      + "\"id\": \"1523489012456789012\","
+      + "\"name\": \"grid-a1b2c3d4e5\","
+      + "\"machineType\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f/machineTypes/n1-standard-2\","
+      + "\"status\": \"RUNNING\","
+      + "\"zone\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f\","
+      + "\"networkInterfaces\": [{\"network\": \"https://www.googleapis.com/compute/v1/projects/"
+      + "zl-shared-vpc/global/networks/zl-vpc\", \"subnetwork\": \"https://www.googleapis.com/"
+      + "compute/v1/projects/zl-shared-vpc/regions/us-central1/subnetworks/subnet-us-central1\","
+      + "\"networkIP\": \"10.128.0.14\", \"name\": \"nic0\"}],"
+      + "\"disks\": [{\"type\": \"PERSISTENT\", \"mode\": \"READ_WRITE\", \"source\": "
+      + "\"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/us-central1-f/disks/"
+      + "grid-a1b2c3d4e5\", \"deviceName\": \"persistent-disk-0\", \"index\": 0, \"boot\": true,"
+      + "\"autoDelete\": true, \"diskSizeGb\": \"50\"}],"
+      + "\"metadata\": {\"fingerprint\": \"nOIN0eyNqVk=\", \"items\": ["
+      + "{\"key\": \"screen\", \"value\": \"1680x1050\"},"
+      + "{\"key\": \"timezone\", \"value\": \"UTC\"},"
+      + "{\"key\": \"current-test-sessionId\", \"value\": \"session-1\"}]},"
+      + "\"labels\": {\"os\": \"win7\", \"browser1\": \"chrome\", \"browser2\": \"firefox\","
+      + "\"shots\": \"false\", \"locked-by-build\": \"build-007\","
+      + "\"source-image-family\": \"win7-base\", \"is-production-instance\": \"false\"},"
+      + "\"labelFingerprint\": \"42WmSpB8rSM=\","
+      + "\"scheduling\": {\"onHostMaintenance\": \"MIGRATE\", \"automaticRestart\": true,"
+      + "\"preemptible\": false},"
+      + "\"creationTimestamp\": \"2021-04-12T05:11:15.405-07:00\","
+      + "\"selfLink\": \"https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/"
+      + "us-central1-f/instances/grid-a1b2c3d4e5\""
+      + "}";
+  
+  private Operation operation;
+  
+  private Instance instance;
+  
+  @Setup
+  public void setup() throws Exception {
+    JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+    operation = jsonFactory.fromString(OPERATION, Operation.class);
+    instance = jsonFactory.fromString(INSTANCE, Instance.class);
+  }
+  
+  @Benchmark
+  public String operationPrettyString() throws Exception {
+    return operation.toPrettyString();
+  }
+  
+  @Benchmark
+  public String operationString() {
+    return operation.toString();
+  }
+  
+  @Benchmark
+  public String instancePrettyString() throws Exception {
+    return instance.toPrettyString();
+  }
+}
@@ -9,25 +9,20 @@ import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
-import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.withSettings;
-import static org.mockito.Mockito.CALLS_REAL_METHODS;
 
 import java.io.IOException;
+import java.net.SocketException;
 import java.time.Clock;
-import java.time.Duration;
-import java.time.Instant;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -44,20 +39,24 @@ import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.Compute.Instances;
-import com.google.api.services.compute.Compute.ZoneOperations;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.Operation;
 import com.google.api.services.compute.model.Operation.Error;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.ratelimit.ApiRateLimiter;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.resource.zone.ZoneHealthTracker;
+import com.zylitics.wzgp.resource.zone.ZoneHealthTrackerImpl;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
 import com.zylitics.wzgp.test.dummy.FakeCompute;
-import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
 import com.zylitics.wzgp.test.util.ResourceTestUtil;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.STRICT_STUBS)
 class ResourceExecutorImplTest {
@@ -79,8 +78,28 @@ class ResourceExecutorImplTest {
   
   private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
   
-  private static final ResourceExecutor EXECUTOR =
-      new ResourceExecutorImpl(COMPUTE, API_CORE_PROPS);
+  // operations given in these tests are already complete, tracker needn't poll.
+  private static final ZoneHealthTracker ZONE_HEALTH_TRACKER =
+      new ZoneHealthTrackerImpl(API_CORE_PROPS, 1800000, 600000, Clock.systemUTC());
+  
+  private static final int MAX_ATTEMPTS = 3;
+  
+  // re-attempts don't wait in tests.
+  private static final RetryPolicy RETRY_POLICY = new RetryPolicy(MAX_ATTEMPTS, 1000, 32000
+      , 120000, millis -> {}, Clock.systemUTC(), new Random());
+  
+  // calls aren't limited in tests.
+  private static final ApiRateLimiter RATE_LIMITER = (category, priority, permits) -> {};
+  
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
+  
+  private static final ResourceExecutor EXECUTOR = new ResourceExecutorImpl(API_CORE_PROPS
+      , new OperationTrackerImpl(COMPUTE, API_CORE_PROPS, Clock.systemUTC(), null, RATE_LIMITER)
+      , ZONE_HEALTH_TRACKER
+      , RETRY_POLICY
+      , RATE_LIMITER
+      , METRICS);
   
   @TestFactory
   Stream<DynamicTest> executeComputeRequestTest() {
@@ -99,16 +118,40 @@ class ResourceExecutorImplTest {
             assertEquals(INSTANCE, EXECUTOR.executeWithReattempt(mockGetInstance, BUILD_PROP));
           }),
           
-          dynamicTest("verify exception thrown on execute when http error occurs", () -> {
+          dynamicTest("verify exception thrown on execute when http error persists", () -> {
             Instances.Get mockGetInstance = getMockGetInstance(PRIMARY_ZONE, INSTANCE_NAME);
             
             when(mockGetInstance.execute()).thenThrow(httpResponseException500);
             
             assertThrows(IOException.class
                 , () -> EXECUTOR.executeWithReattempt(mockGetInstance, BUILD_PROP));
-          })
+            verify(mockGetInstance, times(MAX_ATTEMPTS)).execute();
+          }),
           
-          // TODO: write more tests when we've logic built for the re-attempt on http status errors.
+          dynamicTest("verify execute is re-attempted on retryable errors", () -> {
+            Instances.Get mockGetInstance = getMockGetInstance(PRIMARY_ZONE, INSTANCE_NAME);
+            
+            when(mockGetInstance.execute())
+                .thenThrow(new SocketException("Connection reset"))
+                .thenThrow(new HttpResponseException.Builder(
+                    HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable"
+                    , new HttpHeaders()).build())
+                .thenReturn(INSTANCE);
+            
+            assertEquals(INSTANCE, EXECUTOR.executeWithReattempt(mockGetInstance, BUILD_PROP));
+            verify(mockGetInstance, times(3)).execute();
+          }),
+          
+          dynamicTest("verify execute isn't re-attempted on fatal errors", () -> {
+            Instances.Get mockGetInstance = getMockGetInstance(PRIMARY_ZONE, INSTANCE_NAME);
+            
+            when(mockGetInstance.execute()).thenThrow(new HttpResponseException.Builder(
+                HttpStatus.NOT_FOUND.value(), "Not Found", new HttpHeaders()).build());
+            
+            assertThrows(HttpResponseException.class
+                , () -> EXECUTOR.executeWithReattempt(mockGetInstance, BUILD_PROP));
+            verify(mockGetInstance).execute();
+          })
         );
   }
   
@@ -295,46 +338,31 @@ class ResourceExecutorImplTest {
   Stream<DynamicTest> blockUntilCompleteTest() {
     
     return Stream.of(
-          dynamicTest("verify 'Operation' completes before timeout", () -> {
-            
-            ResourceExecutorImpl executor = mock(ResourceExecutorImpl.class
-                , withSettings().useConstructor(COMPUTE, API_CORE_PROPS)
-                    .defaultAnswer(CALLS_REAL_METHODS));
-            
-            Clock fixedClock = Clock.fixed(Instant.now(), ZoneId.of("UTC"));
-            
-            doReturn(getOpForStatusCheck("PENDING"))
-                .doReturn(getOpForStatusCheck("RUNNING"))
-                .doReturn(getOpForStatusCheck("DONE"))
-                .when(executor).executeWithReattempt(any(ZoneOperations.Get.class), eq(BUILD_PROP));
-            
-            Operation completedOperation = executor.blockUntilComplete(
-                getOpForStatusCheck("PENDING"), 0, 0, fixedClock, BUILD_PROP);
-            assertEquals("DONE", completedOperation.getStatus());
+          dynamicTest("verify 'Operation' completed by tracker is returned", () -> {
+            OperationTracker tracker = mock(OperationTracker.class);
+            Operation pending = getOpForStatusCheck("PENDING");
+            Operation done = getOpForStatusCheck("DONE");
+            when(tracker.track(pending, 500, 10000, BUILD_PROP))
+                .thenReturn(CompletableFuture.completedFuture(new CompletedOperation(done)));
+            
+            Operation completedOperation =
+                new ResourceExecutorImpl(API_CORE_PROPS, tracker, ZONE_HEALTH_TRACKER
+                    , RETRY_POLICY, RATE_LIMITER, METRICS)
+                    .blockUntilComplete(pending, 500, 10000, BUILD_PROP);
+            assertEquals(done, completedOperation);
           }),
           
-          dynamicTest("verify 'Operation' timeouts before completion", () -> {
-            
-            ResourceExecutorImpl executor = mock(ResourceExecutorImpl.class
-                , withSettings().useConstructor(COMPUTE, API_CORE_PROPS)
-                    .defaultAnswer(CALLS_REAL_METHODS));
-            
-            FlexibleOffsetClock flexiClock = new FlexibleOffsetClock(Clock.systemUTC()
-                , Duration.ofNanos(0));
-            
-            // let the process check for status a few times before moving the time forward.
-            doReturn(getOpForStatusCheck("PENDING"))
-                .doReturn(getOpForStatusCheck("PENDING"))
-                .doReturn(getOpForStatusCheck("RUNNING"))
-                .doAnswer(invocation -> {
-                  // choose an offset > API_CORE_PROPS.getGceTimeoutMillis()
-                  flexiClock.setOffset(Duration.ofMillis(API_CORE_PROPS.getGceTimeoutMillis() + 1));
-                  return getOpForStatusCheck("RUNNING");
-                })
-                .when(executor).executeWithReattempt(any(ZoneOperations.Get.class), eq(BUILD_PROP));
-            
-            assertThrows(TimeoutException.class, () -> executor.blockUntilComplete(
-                getOpForStatusCheck("PENDING"), 0, 0, flexiClock, BUILD_PROP));
+          dynamicTest("verify timeout from tracker is thrown as is", () -> {
+            OperationTracker tracker = mock(OperationTracker.class);
+            Operation pending = getOpForStatusCheck("PENDING");
+            CompletableFuture<CompletedOperation> timedOut = new CompletableFuture<>();
+            timedOut.completeExceptionally(new TimeoutException());
+            when(tracker.track(pending, 500, 10000, BUILD_PROP)).thenReturn(timedOut);
+            
+            assertThrows(TimeoutException.class, () ->
+                new ResourceExecutorImpl(API_CORE_PROPS, tracker, ZONE_HEALTH_TRACKER
+                    , RETRY_POLICY, RATE_LIMITER, METRICS)
+                    .blockUntilComplete(pending, 500, 10000, BUILD_PROP));
           })
         );
   }
@@ -0,0 +1,109 @@
+package com.zylitics.wzgp.resource.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+
+class RetryPolicyTest {
+
+  @Test
+  @DisplayName("verify errors are classified as retryable or fatal")
+  void classifyTest() {
+    RetryPolicy policy = newPolicy(6, 120000, new ArrayList<>(), newClock());
+
+    assertTrue(policy.isRetryable(httpException(429, null)));
+    assertTrue(policy.isRetryable(httpException(503, null)));
+    assertTrue(policy.isRetryable(new SocketTimeoutException("Read timed out")));
+    assertTrue(policy.isRetryable(jsonException(403, "rateLimitExceeded")));
+
+    assertFalse(policy.isRetryable(httpException(404, null)));
+    assertFalse(policy.isRetryable(jsonException(403, "forbidden")));
+    assertFalse(policy.isRetryable(new IOException("unexpected end of json")));
+  }
+
+  @Test
+  @DisplayName("verify backoff is capped, jittered and honors Retry-After")
+  void backoffTest() throws Exception {
+    List<Long> waits = new ArrayList<>();
+    FlexibleOffsetClock clock = newClock();
+    RetryPolicy policy = newPolicy(10, 600000, waits, clock);
+    long start = clock.millis();
+
+    for (int attempt = 1; attempt <= 8; attempt++) {
+      assertTrue(policy.awaitRetry(httpException(503, null), attempt, start));
+    }
+    for (int attempt = 1; attempt <= 8; attempt++) {
+      long ceiling = Math.min(32000, 1000L << (attempt - 1));
+      long wait = waits.get(attempt - 1);
+      assertTrue(wait >= 0 && wait < ceiling, "attempt " + attempt + " waited " + wait);
+    }
+
+    assertTrue(policy.awaitRetry(httpException(429, "45"), 1, start));
+    assertTrue(waits.get(waits.size() - 1) >= 45000);
+  }
+
+  @Test
+  @DisplayName("verify retries stop at max attempts and deadline")
+  void limitsTest() throws Exception {
+    List<Long> waits = new ArrayList<>();
+    FlexibleOffsetClock clock = newClock();
+    RetryPolicy policy = newPolicy(3, 60000, waits, clock);
+    long start = clock.millis();
+
+    assertTrue(policy.awaitRetry(httpException(503, null), 2, start));
+    assertFalse(policy.awaitRetry(httpException(503, null), 3, start));
+    assertFalse(policy.awaitRetry(httpException(400, null), 1, start));
+
+    // an asked wait of 2 minutes won't fit within deadline
+    assertFalse(policy.awaitRetry(httpException(429, "120"), 1, start));
+
+    clock.setOffset(Duration.ofMillis(60000));
+    assertFalse(policy.awaitRetry(httpException(503, null), 1, start));
+    assertEquals(1, waits.size());
+  }
+
+  private RetryPolicy newPolicy(int maxAttempts, long deadlineMillis, List<Long> waits
+      , Clock clock) {
+    return new RetryPolicy(maxAttempts, 1000, 32000, deadlineMillis, waits::add, clock
+        , new Random());
+  }
+
+  private FlexibleOffsetClock newClock() {
+    return new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")), Duration.ZERO);
+  }
+
+  private HttpResponseException httpException(int statusCode, String retryAfter) {
+    return new HttpResponseException.Builder(statusCode, null
+        , new HttpHeaders().setRetryAfter(retryAfter)).build();
+  }
+
+  private GoogleJsonResponseException jsonException(int statusCode, String reason) {
+    GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+    errorInfo.setReason(reason);
+    GoogleJsonError details = new GoogleJsonError();
+    details.setCode(statusCode);
+    details.setErrors(Collections.singletonList(errorInfo));
+    return new GoogleJsonResponseException(new HttpResponseException.Builder(statusCode, null
+        , new HttpHeaders()), details);
+  }
+}
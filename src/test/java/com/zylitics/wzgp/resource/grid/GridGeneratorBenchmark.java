@@ -0,0 +1,77 @@
+package com.zylitics.wzgp.resource.grid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.services.compute.model.Image;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
+
+/**
+ * Labels and metadata merged for every new grid. Run with the jmh profile, see pom.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GridGeneratorBenchmark {
+  
+  private GridGenerator generator;
+  
+  private Image image;
+  
+  private GridDefault gridDefault;
+  
+  private Map<String, String> customLabels;
+  
+  @Setup
+  public void setup() {
+    APICoreProperties apiCoreProps = new DummyAPICoreProperties();
+    gridDefault = apiCoreProps.getGridDefault();
+    RequestGridCreate request = new DummyRequestGridCreate().get();
+    image = new Image().setName("win7-image-1").setFamily("win7-base")
+        .setLabels(ImmutableMap.<String, String>builder()
+            .put("os", "win7")
+            .put("release", "2.0")
+            .put("browser1", "chrome")
+            .put("browser2", "firefox")
+            .put("browser3", "ie")
+            .put("test-vms", "10")
+            .build());
+    generator = new GridGenerator(null, apiCoreProps, null, request.getBuildProperties()
+        , request.getGridProperties(), image);
+    customLabels = new HashMap<>();
+    customLabels.put(ResourceUtil.LABEL_LOCKED_BY_BUILD, request.getBuildProperties().getBuildId());
+    customLabels.putAll(request.getGridProperties().getCustomLabels());
+  }
+  
+  @Benchmark
+  public Map<String, String> buildGridLabels() {
+    return generator.buildGridLabels(image, gridDefault.getLabels(), customLabels
+        , gridDefault.getImageSpecificLabelsKey());
+  }
+  
+  @Benchmark
+  public Map<String, String> mergedMetadata() {
+    return generator.mergedMetadata();
+  }
+}
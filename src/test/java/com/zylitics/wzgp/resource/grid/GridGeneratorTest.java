@@ -3,41 +3,68 @@ package com.zylitics.wzgp.resource.grid;
 import static com.zylitics.wzgp.resource.util.ResourceUtil.nameFromUrl;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.Compute.Instances;
+import com.google.api.services.compute.model.AttachedDisk;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
+import com.zylitics.wzgp.resource.APICoreProperties.WarmPool;
 import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
+import com.zylitics.wzgp.resource.template.InstanceTemplateSpec;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
 import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
 
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.STRICT_STUBS)
@@ -97,6 +124,8 @@ class GridGeneratorTest {
   
   private static final Compute COMPUTE = new FakeCompute().get();
   
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+  
   /**
    * Since we've covered ResourceExecutor in other test, its ok to mock it in this test, with the
    * mock of it we will access each argument passed to executor method. We just need to make sure
@@ -156,6 +185,267 @@ class GridGeneratorTest {
     assertEquals("DONE", generator.create(primaryZone).get().getStatus());
   }
   
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify hedged create returns the first created grid and deletes the other")
+  @Test
+  void hedgedGridGenerateTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String primaryZone = "us-central0-g";
+    Image image = new Image().setFamily(IMAGE_FAMILY).setLabels(IMAGE_LABELS);
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    // best ranked alternate zone is hedged in.
+    when(executor.rankAlternateZones(primaryZone))
+        .thenReturn(ImmutableList.of("us-east0-b", "us-west0-k"));
+    CompletableFuture<CompletedOperation> primary = new CompletableFuture<>();
+    CompletableFuture<CompletedOperation> hedge = new CompletableFuture<>();
+    List<Instances.Insert> inserts = new ArrayList<>();
+    when(executor.executeWithZonalReattemptAsync(any(Instances.Insert.class), any(Function.class)
+        , eq(ASYNC_EXECUTOR), eq(BUILD_PROP))).thenAnswer(invocation -> {
+          inserts.add(invocation.getArgument(0));
+          return inserts.size() == 1 ? primary : hedge;
+        });
+    
+    ScheduledExecutorService hedgeTimer = mock(ScheduledExecutorService.class);
+    ArgumentCaptor<Runnable> fireHedge = ArgumentCaptor.forClass(Runnable.class);
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), image);
+    CompletableFuture<CompletedOperation> result =
+        generator.createHedgedAsync(primaryZone, ASYNC_EXECUTOR, hedgeTimer);
+    
+    long hedgeDelay = apiCorePropsSpy.getHedgedCreateDelayMillis();
+    verify(hedgeTimer).schedule(fireHedge.capture(), eq(hedgeDelay), eq(TimeUnit.MILLISECONDS));
+    // primary is slow, hedge fires in another zone with another name.
+    fireHedge.getValue().run();
+    assertEquals(2, inserts.size());
+    assertEquals("us-east0-b", inserts.get(1).getZone());
+    assertNotEquals(((Instance) inserts.get(0).getJsonContent()).getName()
+        , ((Instance) inserts.get(1).getJsonContent()).getName());
+    
+    Operation hedgeOperation = getInsertOperation(inserts.get(1));
+    hedge.complete(new CompletedOperation(hedgeOperation));
+    assertSame(hedgeOperation, result.get().get());
+    
+    // primary completes later, it should be deleted.
+    Operation primaryOperation = getInsertOperation(inserts.get(0));
+    primary.complete(new CompletedOperation(primaryOperation));
+    ArgumentCaptor<Instances.Delete> deleted = ArgumentCaptor.forClass(Instances.Delete.class);
+    verify(executor).executeWithReattempt(deleted.capture(), eq(BUILD_PROP));
+    assertEquals(primaryZone, deleted.getValue().getZone());
+    assertEquals(((Instance) inserts.get(0).getJsonContent()).getName()
+        , deleted.getValue().getInstance());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify a pooled boot disk is attached when pool has one for grid's zone")
+  @Test
+  void pooledBootDiskTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String primaryZone = "us-central0-g";
+    String randomZone = "us-west0-k";
+    String pooledDisk = "zones/" + primaryZone + "/disks/" + IMAGE_FAMILY + "-disk";
+    Image image = new Image().setFamily(IMAGE_FAMILY).setLabels(IMAGE_LABELS);
+    
+    BootDiskPool bootDiskPool = mock(BootDiskPool.class);
+    when(bootDiskPool.take(image, primaryZone)).thenReturn(Optional.of(pooledDisk));
+    when(bootDiskPool.take(image, randomZone)).thenReturn(Optional.empty());
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithZonalReattempt(any(Instances.Insert.class), any(Function.class)
+        , eq(BUILD_PROP))).thenAnswer(invocation -> {
+          AttachedDisk disk = ((Instance) ((Instances.Insert) invocation.getArgument(0))
+              .getJsonContent()).getDisks().get(0);
+          assertEquals(pooledDisk, disk.getSource());
+          assertNull(disk.getInitializeParams());
+          
+          // pool has nothing in the zone reattempted in, disk is restored from image.
+          Function<String, Instances.Insert> insertInstanceFactory = invocation.getArgument(1);
+          disk = ((Instance) insertInstanceFactory.apply(randomZone).getJsonContent())
+              .getDisks().get(0);
+          assertNull(disk.getSource());
+          assertEquals(IMAGE_FAMILY, nameFromUrl(disk.getInitializeParams().getSourceImage()));
+          return new CompletedOperation(new Operation()
+              .setStatus("DONE")
+              .setZone(ResourceTestUtil.getZoneLink(randomZone)));
+        });
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), image);
+    generator.setBootDiskPool(bootDiskPool);
+    
+    assertEquals("DONE", generator.create(primaryZone).get().getStatus());
+    // grid was created in the zone reattempted in, disk of the first insert wasn't attached.
+    verify(bootDiskPool).giveBack(image, primaryZone, pooledDisk);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify a pooled boot disk is given back when the insert fails")
+  @Test
+  void pooledBootDiskGivenBackTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String primaryZone = "us-central0-g";
+    String pooledDisk = "zones/" + primaryZone + "/disks/" + IMAGE_FAMILY + "-disk";
+    Image image = new Image().setFamily(IMAGE_FAMILY).setLabels(IMAGE_LABELS);
+    
+    BootDiskPool bootDiskPool = mock(BootDiskPool.class);
+    when(bootDiskPool.take(image, primaryZone)).thenReturn(Optional.of(pooledDisk));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithZonalReattempt(any(Instances.Insert.class), any(Function.class)
+        , eq(BUILD_PROP))).thenReturn(new CompletedOperation(new Operation()
+            .setStatus("DONE")
+            .setZone(ResourceTestUtil.getZoneLink(primaryZone))
+            .setError(new Operation.Error().setErrors(ImmutableList.of(
+                new Operation.Error.Errors().setCode("QUOTA_EXCEEDED"))))));
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), image);
+    generator.setBootDiskPool(bootDiskPool);
+    
+    assertFalse(ResourceUtil.isOperationSuccess(generator.create(primaryZone).get()));
+    verify(bootDiskPool).giveBack(image, primaryZone, pooledDisk);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify grid created in zone only isn't reattempted in other zones")
+  @Test
+  void createInZoneOnlyTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String zone = "us-central0-g";
+    Operation insert = new Operation().setName("operation-insert").setStatus("RUNNING");
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithReattempt(any(Instances.Insert.class), eq(BUILD_PROP)))
+        .thenAnswer(invocation -> {
+          assertEquals(zone, ((Instances.Insert) invocation.getArgument(0)).getZone());
+          return insert;
+        });
+    when(executor.blockUntilComplete(eq(insert), anyLong(), anyLong(), eq(BUILD_PROP)))
+        .thenReturn(new Operation()
+            .setStatus("DONE")
+            .setZone(ResourceTestUtil.getZoneLink(zone))
+            .setError(new Operation.Error().setErrors(ImmutableList.of(
+                new Operation.Error.Errors().setCode("ZONE_RESOURCE_POOL_EXHAUSTED")))));
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), new Image().setFamily(IMAGE_FAMILY)
+        .setLabels(IMAGE_LABELS));
+    
+    assertFalse(ResourceUtil.isOperationSuccess(generator.createInZoneOnly(zone).get()));
+    verify(executor, never()).executeWithZonalReattempt(any(Instances.Insert.class)
+        , any(Function.class), any());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify grid is inserted from template with per-grid overrides once it's ready")
+  @Test
+  void templateInsertTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String primaryZone = "us-central0-g";
+    String randomZone = "us-west0-k";
+    String template = "global/instanceTemplates/grid-template-1";
+    Image image = new Image().setFamily(IMAGE_FAMILY).setLabels(IMAGE_LABELS);
+    
+    // template is keyed by region through subnet, the one of reattempt zone isn't ready.
+    InstanceTemplateCache instanceTemplateCache = mock(InstanceTemplateCache.class);
+    ArgumentCaptor<InstanceTemplateSpec> specs =
+        ArgumentCaptor.forClass(InstanceTemplateSpec.class);
+    when(instanceTemplateCache.get(specs.capture()))
+        .thenReturn(Optional.of(template))
+        .thenReturn(Optional.empty());
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithZonalReattempt(any(Instances.Insert.class), any(Function.class)
+        , eq(BUILD_PROP))).thenAnswer(invocation -> {
+          Instances.Insert insert = invocation.getArgument(0);
+          Instance instance = (Instance) insert.getJsonContent();
+          assertEquals(template, insert.getSourceInstanceTemplate());
+          assertNull(instance.getMachineType());
+          assertNull(instance.getNetworkInterfaces());
+          assertNull(instance.getDisks());
+          assertEquals(IMAGE_FAMILY, instance.getLabels().get(ResourceUtil.LABEL_SOURCE_FAMILY));
+          assertTrue(instance.getMetadata().getItems().size() > 0);
+          
+          Function<String, Instances.Insert> insertInstanceFactory = invocation.getArgument(1);
+          insert = insertInstanceFactory.apply(randomZone);
+          assertNull(insert.getSourceInstanceTemplate());
+          instance = (Instance) insert.getJsonContent();
+          assertEquals(MACHINE_TYPE, nameFromUrl(instance.getMachineType()));
+          assertEquals(IMAGE_FAMILY
+              , nameFromUrl(instance.getDisks().get(0).getInitializeParams().getSourceImage()));
+          return new CompletedOperation(new Operation().setStatus("DONE"));
+        });
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), image);
+    generator.setInstanceTemplateCache(instanceTemplateCache);
+    
+    assertEquals("DONE", generator.create(primaryZone).get().getStatus());
+    List<InstanceTemplateSpec> asked = specs.getAllValues();
+    assertEquals(2, asked.size());
+    assertNotEquals(asked.get(0).name(), asked.get(1).name());
+    assertEquals(IMAGE_FAMILY, asked.get(0).getImageFamily());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @DisplayName("verify grid is inserted in full when the template it used is missing")
+  @Test
+  void missingTemplateTest() throws Exception {
+    APICoreProperties apiCorePropsSpy = spy(new DummyAPICoreProperties());
+    when(apiCorePropsSpy.getGridDefault()).thenReturn(new DummyGridDefaults());
+    
+    String primaryZone = "us-central0-g";
+    String template = "global/instanceTemplates/grid-template-1";
+    Image image = new Image().setFamily(IMAGE_FAMILY).setLabels(IMAGE_LABELS);
+    
+    InstanceTemplateCache instanceTemplateCache = mock(InstanceTemplateCache.class);
+    when(instanceTemplateCache.get(any(InstanceTemplateSpec.class)))
+        .thenReturn(Optional.of(template));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    List<Instances.Insert> inserts = new ArrayList<>();
+    when(executor.executeWithZonalReattempt(any(Instances.Insert.class), any(Function.class)
+        , eq(BUILD_PROP))).thenAnswer(invocation -> {
+          inserts.add(invocation.getArgument(0));
+          if (inserts.size() == 1) {
+            throw new GoogleJsonResponseException(new HttpResponseException.Builder(404
+                , "Not Found", new HttpHeaders()).setMessage(String.format(
+                    "The resource 'projects/zl/%s' was not found", template)), null);
+          }
+          return new CompletedOperation(new Operation().setStatus("DONE"));
+        });
+    
+    GridGenerator generator = new GridGenerator(COMPUTE, apiCorePropsSpy, executor
+        , BUILD_PROP, new DummyGridProperties(), image);
+    generator.setInstanceTemplateCache(instanceTemplateCache);
+    
+    assertEquals("DONE", generator.create(primaryZone).get().getStatus());
+    verify(instanceTemplateCache).invalidate(template);
+    assertEquals(2, inserts.size());
+    assertEquals(template, inserts.get(0).getSourceInstanceTemplate());
+    assertNull(inserts.get(1).getSourceInstanceTemplate());
+    assertEquals(MACHINE_TYPE, nameFromUrl(
+        ((Instance) inserts.get(1).getJsonContent()).getMachineType()));
+  }
+  
+  private Operation getInsertOperation(Instances.Insert insert) {
+    return new Operation()
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink(
+            ((Instance) insert.getJsonContent()).getName(), insert.getZone()))
+        .setZone(ResourceTestUtil.getZoneLink(insert.getZone()));
+  }
+  
   private void verifyGridConfiguration(String sharedVpcProjectId, Instance instance, String region) {
     assertTrue(instance.getName().matches(IMAGE_FAMILY + "-" + "[a-z0-9]{10}-vm"));
     
@@ -228,6 +518,21 @@ class GridGeneratorTest {
     public int getMaxInstanceInSearch() {
       return 10;
     }
+  
+    @Override
+    public List<? extends WarmPool> getWarmPools() {
+      return Collections.emptyList();
+    }
+  
+    @Override
+    public List<? extends WarmPool> getSuspendedPools() {
+      return Collections.emptyList();
+    }
+  
+    @Override
+    public List<? extends WarmPool> getBootDiskPools() {
+      return Collections.emptyList();
+    }
   }
   
   private static class DummyGridProperties implements GridProperty {
@@ -6,13 +6,16 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -26,14 +29,18 @@ import com.google.api.services.compute.model.Operation;
 import com.google.api.services.compute.model.ServiceAccount;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
 import com.zylitics.wzgp.test.util.ResourceTestUtil;
 import com.zylitics.wzgp.web.FingerprintBasedUpdater;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.STRICT_STUBS)
 class GridStarterTest {
@@ -49,6 +56,11 @@ class GridStarterTest {
   
   private static final String GRID_SERVICE_ACCOUNT = "srv@email.com";
   
+  private static final String HANDLER_NAME = "start";
+  
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
+  
   @Test
   @DisplayName("verify starter starts the grid and updates all updatable properties")
   void gridStartsAndAllUpdatablePropsUpdateTest() throws Exception {
@@ -86,13 +98,16 @@ class GridStarterTest {
           return operation;
         });
     
-    when(fingerprintBasedUpdater.updateLabels(gridInstance, gridProp.getCustomLabels(), BUILD_PROP))
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance
+        , ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, BUILD_PROP.getBuildId()
+            , "is-production", "false"), BUILD_PROP))
         .then(inv -> {
           Operation operation = getOperation(GRID_NAME, "setLabels");
           operations.add(operation);
           return operation;
         });
-    when(fingerprintBasedUpdater.updateMetadata(gridInstance, gridProp.getMetadata(), BUILD_PROP))
+    when(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(gridInstance
+        , gridProp.getMetadata(), BUILD_PROP))
         .then(inv -> {
           Operation operation = getOperation(GRID_NAME, "setMetadata");
           operations.add(operation);
@@ -107,17 +122,19 @@ class GridStarterTest {
     // stub executor to process wait completion for operations.
     // we'll mark each operation as 'DONE' just the same as executor would do, and can later check
     // that our named operations (kept here in List) are actually completed via starter.
-    when(executor.blockUntilComplete(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP)))
-        .then(invocation -> {
-          Operation operation = invocation.getArgument(0);
-          operation.setStatus("DONE");
-          return operation;
-        });
+    stubCompletion(executor);
     
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
     GridStarter starter = new GridStarter(executor, computeSrv, fingerprintBasedUpdater, BUILD_PROP
-        , gridProp, gridInstance);
+        , gridProp, gridInstance, new ProvisioningMetrics(registry), HANDLER_NAME);
     CompletedOperation startOperationCompleted = starter.start();
     assertEquals("startInstance", startOperationCompleted.get().getDescription());
+    for (String phase : ImmutableList.of("lock", "update", "start")) {
+      assertEquals(1, registry.get("grid.handler.phase")
+          .tag("handler", HANDLER_NAME)
+          .tag("phase", phase)
+          .timer().count());
+    }
     
     // verify that all the 'named' operations completed.
     assertTrue(operations.stream()
@@ -155,7 +172,8 @@ class GridStarterTest {
     List<Operation> operations = new ArrayList<>(10);
     
     // set compute-service and fingerprint-based-updater for various calls by starter.
-    when(fingerprintBasedUpdater.updateMetadata(gridInstance, gridProp.getMetadata(), BUILD_PROP))
+    when(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(gridInstance
+        , gridProp.getMetadata(), BUILD_PROP))
         .then(inv -> {
           Operation operation = getOperation(GRID_NAME, "setMetadata");
           operations.add(operation);
@@ -165,15 +183,18 @@ class GridStarterTest {
     when(computeSrv.startInstance(GRID_NAME, ZONE, BUILD_PROP))
         .thenReturn(getOperation(GRID_NAME, "startInstance"));
     
-    when(executor.blockUntilComplete(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP)))
-        .then(invocation -> {
-          Operation operation = invocation.getArgument(0);
-          operation.setStatus("DONE");
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(gridInstance
+        , ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, BUILD_PROP.getBuildId()), BUILD_PROP))
+        .then(inv -> {
+          Operation operation = getOperation(GRID_NAME, "setLabels");
+          operations.add(operation);
           return operation;
         });
     
+    stubCompletion(executor);
+    
     GridStarter starter = new GridStarter(executor, computeSrv, fingerprintBasedUpdater, BUILD_PROP
-        , gridProp, gridInstance);
+        , gridProp, gridInstance, METRICS, HANDLER_NAME);
     CompletedOperation startOperationCompleted = starter.start();
     
     assertEquals("startInstance", startOperationCompleted.get().getDescription());
@@ -189,8 +210,66 @@ class GridStarterTest {
     verify(computeSrv, never())
         .setServiceAccount(GRID_NAME, gridProp.getServiceAccount(), ZONE, BUILD_PROP);
     
-    verify(fingerprintBasedUpdater, never())
-        .updateLabels(gridInstance, gridProp.getCustomLabels(), BUILD_PROP);
+    // lock is always put on grid, even when no custom labels are given.
+    assertTrue(operations.stream()
+        .filter(operation -> operation.getStatus().equals("DONE"))
+        .anyMatch(operation -> operation.getDescription().equals("setLabels")));
+  }
+  
+  @Test
+  @DisplayName("verify starter doesn't start the grid when an update fails")
+  void gridNotStartedOnFailedUpdateTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    GridProperty gridProp = mock(GridProperty.class);
+    Instance gridInstance = getInstance();
+    
+    when(gridProp.getMachineType()).thenReturn(null);
+    when(gridProp.getServiceAccount()).thenReturn(null);
+    when(gridProp.getCustomLabels()).thenReturn(null);
+    when(gridProp.getMetadata()).thenReturn(ImmutableMap.of("screen-size", "10x10"));
+    
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(eq(gridInstance)
+        , anyMap(), eq(BUILD_PROP))).thenReturn(getOperation(GRID_NAME, "setLabels"));
+    Operation metadataOperation = getOperation(GRID_NAME, "setMetadata");
+    when(fingerprintBasedUpdater.updateMetadataGivenFreshlyFetchedInstance(gridInstance
+        , gridProp.getMetadata(), BUILD_PROP)).thenReturn(metadataOperation);
+    
+    // metadata update fails, both updates are awaited together.
+    when(executor.completeAsync(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP)))
+        .then(invocation -> {
+          Operation operation = invocation.getArgument(0);
+          operation.setStatus("DONE");
+          if (operation == metadataOperation) {
+            operation.setHttpErrorStatusCode(500);
+          }
+          return CompletableFuture.completedFuture(new CompletedOperation(operation));
+        });
+    
+    GridStarter starter = new GridStarter(executor, computeSrv, fingerprintBasedUpdater, BUILD_PROP
+        , gridProp, gridInstance, METRICS, HANDLER_NAME);
+    assertThrows(RuntimeException.class, starter::start);
+    
+    verify(executor, times(2))
+        .completeAsync(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP));
+    verify(computeSrv, never()).startInstance(GRID_NAME, ZONE, BUILD_PROP);
+  }
+  
+  private void stubCompletion(ResourceExecutor executor) throws Exception {
+    when(executor.completeAsync(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP)))
+        .then(invocation -> {
+          Operation operation = invocation.getArgument(0);
+          operation.setStatus("DONE");
+          return CompletableFuture.completedFuture(new CompletedOperation(operation));
+        });
+    // start is awaited on its own.
+    when(executor.blockUntilComplete(any(Operation.class), anyLong(), anyLong(), eq(BUILD_PROP)))
+        .then(invocation -> {
+          Operation operation = invocation.getArgument(0);
+          operation.setStatus("DONE");
+          return operation;
+        });
   }
   
   private Instance getInstance() {
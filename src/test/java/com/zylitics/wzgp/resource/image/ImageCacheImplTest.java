@@ -0,0 +1,200 @@
+package com.zylitics.wzgp.resource.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.services.compute.model.Image;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+import com.zylitics.wzgp.web.exceptions.ImageNotFoundException;
+
+class ImageCacheImplTest {
+
+  private static final long TTL_MILLIS = 60000;
+
+  @Test
+  @DisplayName("verify concurrent misses of same family load once")
+  void coalesceConcurrentMissesTest() throws Exception {
+    ImageCache cache = new ImageCacheImpl(TTL_MILLIS, Ticker.systemTicker());
+    int callers = 50;
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch allCalling = new CountDownLatch(callers);
+    Image image = new Image().setName("win10-chrome-1");
+
+    ExecutorService pool = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<Image>> results = new ArrayList<>();
+      for (int i = 0; i < callers; i++) {
+        results.add(pool.submit(() -> {
+          allCalling.countDown();
+          return cache.getFromFamily("win10-chrome", () -> {
+            loads.incrementAndGet();
+            // hold the load until every caller has asked for the family.
+            allCalling.await(5, TimeUnit.SECONDS);
+            return image;
+          });
+        }));
+      }
+      for (Future<Image> result : results) {
+        assertSame(image, result.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  @DisplayName("verify entries expire after ttl and can be invalidated")
+  void expiryAndInvalidationTest() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    ImageCache cache = new ImageCacheImpl(TTL_MILLIS, ticker);
+    AtomicInteger loads = new AtomicInteger();
+
+    cache.getFromFamily("win10-chrome", () -> newImage(loads));
+    ticker.advance(TTL_MILLIS - 1);
+    cache.getFromFamily("win10-chrome", () -> newImage(loads));
+    assertEquals(1, loads.get());
+
+    ticker.advance(1);
+    cache.getFromFamily("win10-chrome", () -> newImage(loads));
+    assertEquals(2, loads.get());
+
+    cache.invalidateFamily("win10-chrome");
+    cache.getFromFamily("win10-chrome", () -> newImage(loads));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  @DisplayName("verify search is keyed by normalized params and empty results aren't cached")
+  void searchTest() throws Exception {
+    ImageCache cache = new ImageCacheImpl(TTL_MILLIS, Ticker.systemTicker());
+    AtomicInteger loads = new AtomicInteger();
+
+    Optional<Image> empty = cache.search(new SearchParam("win10", "chrome", null)
+        , () -> {
+          loads.incrementAndGet();
+          return Optional.empty();
+        });
+    assertFalse(empty.isPresent());
+
+    Image first = cache.search(new SearchParam("win10", "chrome"
+        , ImmutableMap.of("labels.a", "1", "labels.b", "2"))
+        , () -> Optional.of(newImage(loads))).orElse(null);
+    Image second = cache.search(new SearchParam("WIN10", "Chrome"
+        , ImmutableMap.of("labels.b", "2", "labels.a", "1"))
+        , () -> Optional.of(newImage(loads))).orElse(null);
+    assertSame(first, second);
+    assertEquals(2, loads.get());
+
+    cache.invalidateAll();
+    cache.search(new SearchParam("win10", "chrome"
+        , ImmutableMap.of("labels.a", "1", "labels.b", "2"))
+        , () -> Optional.of(newImage(loads)));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  @DisplayName("verify invalidating a family evicts searches resolved to its images only")
+  void invalidateFamilyEvictsSearchesTest() throws Exception {
+    ImageCache cache = new ImageCacheImpl(TTL_MILLIS, Ticker.systemTicker());
+    AtomicInteger loads = new AtomicInteger();
+    SearchParam chrome = new SearchParam("win10", "chrome", null);
+    SearchParam firefox = new SearchParam("win10", "firefox", null);
+
+    cache.search(chrome, () -> Optional.of(newImage(loads).setFamily("win10-chrome")));
+    cache.search(firefox, () -> Optional.of(newImage(loads).setFamily("win10-firefox")));
+    assertEquals(2, loads.get());
+
+    cache.invalidateFamily("win10-chrome");
+    cache.search(chrome, () -> Optional.of(newImage(loads).setFamily("win10-chrome")));
+    cache.search(firefox, () -> Optional.of(newImage(loads).setFamily("win10-firefox")));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  @DisplayName("verify loader exceptions are thrown as is and not cached")
+  void loaderExceptionTest() throws Exception {
+    ImageCache cache = new ImageCacheImpl(TTL_MILLIS, Ticker.systemTicker());
+    assertThrows(ImageNotFoundException.class, () -> cache.getFromFamily("win10-chrome", () -> {
+      throw new ImageNotFoundException("not found");
+    }));
+    AtomicInteger loads = new AtomicInteger();
+    cache.getFromFamily("win10-chrome", () -> newImage(loads));
+    assertEquals(1, loads.get());
+  }
+
+  private Image newImage(AtomicInteger loads) {
+    return new Image().setName("image-" + loads.incrementAndGet());
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    private void advance(long millis) {
+      nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+
+  private static class SearchParam implements ResourceSearchParam {
+
+    private final String os;
+    private final String browser;
+    private final Map<String, String> customImageSearchParams;
+
+    private SearchParam(String os, String browser, Map<String, String> customImageSearchParams) {
+      this.os = os;
+      this.browser = browser;
+      this.customImageSearchParams = customImageSearchParams;
+    }
+
+    @Override
+    public String getOS() {
+      return os;
+    }
+
+    @Override
+    public String getBrowser() {
+      return browser;
+    }
+
+    @Override
+    public Boolean isShots() {
+      return false;
+    }
+
+    @Override
+    public Map<String, String> getCustomInstanceSearchParams() {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getCustomImageSearchParams() {
+      return customImageSearchParams;
+    }
+  }
+}
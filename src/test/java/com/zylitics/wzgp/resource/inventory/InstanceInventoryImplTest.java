@@ -0,0 +1,130 @@
+package com.zylitics.wzgp.resource.inventory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.Compute.Instances;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceAggregatedList;
+import com.google.api.services.compute.model.InstanceList;
+import com.google.api.services.compute.model.InstancesScopedList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class InstanceInventoryImplTest {
+
+  private static final Compute COMPUTE = new FakeCompute().get();
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final long MAX_STALENESS_MILLIS = 30000;
+
+  @Test
+  @DisplayName("verify zone sweep indexes instances and find applies matcher")
+  void zoneSweepTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithReattempt(any(Instances.List.class), isNull()))
+        .thenReturn(new InstanceList().setItems(ImmutableList.of(
+            newInstance("grid-1", "RUNNING"),
+            newInstance("grid-2", "TERMINATED"))));
+    InstanceInventoryImpl inventory = new InstanceInventoryImpl(COMPUTE, executor
+        , API_CORE_PROPS, MAX_STALENESS_MILLIS, newClock());
+
+    // zone never swept, caller should go to GCE.
+    assertFalse(inventory.find(ZONE, i -> true).isPresent());
+
+    inventory.sweepZone(ZONE);
+    Optional<List<Instance>> found = inventory.find(ZONE, i -> i.getStatus().equals("RUNNING"));
+    assertTrue(found.isPresent());
+    assertEquals(ImmutableList.of("grid-1"), names(found.get()));
+  }
+
+  @Test
+  @DisplayName("verify changed instances are excluded until swept again and stale zones give up")
+  void changedAndStaleTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithReattempt(any(Instances.List.class), isNull()))
+        .thenReturn(new InstanceList().setItems(ImmutableList.of(
+            newInstance("grid-1", "RUNNING"),
+            newInstance("grid-2", "RUNNING"))));
+    FlexibleOffsetClock clock = newClock();
+    InstanceInventoryImpl inventory = new InstanceInventoryImpl(COMPUTE, executor
+        , API_CORE_PROPS, MAX_STALENESS_MILLIS, clock);
+
+    inventory.sweepZone(ZONE);
+    clock.setOffset(Duration.ofMillis(10));
+    inventory.markChanged("grid-1", ZONE);
+    assertEquals(ImmutableList.of("grid-2"), names(inventory.find(ZONE, i -> true).get()));
+
+    // a sweep started after the change brings it back.
+    clock.setOffset(Duration.ofMillis(20));
+    inventory.sweepZone(ZONE);
+    assertEquals(ImmutableList.of("grid-1", "grid-2")
+        , names(inventory.find(ZONE, i -> true).get()));
+
+    clock.setOffset(Duration.ofMillis(20 + MAX_STALENESS_MILLIS + 1));
+    assertFalse(inventory.find(ZONE, i -> true).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify full sweep indexes all zones from aggregated list")
+  void fullSweepTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(executor.executeWithReattempt(any(Instances.AggregatedList.class), isNull()))
+        .thenReturn(new InstanceAggregatedList().setItems(ImmutableMap.of(
+            "zones/" + ZONE, new InstancesScopedList().setInstances(ImmutableList.of(
+                newInstance("grid-1", "RUNNING"))),
+            "zones/zone-b", new InstancesScopedList())));
+    InstanceInventoryImpl inventory = new InstanceInventoryImpl(COMPUTE, executor
+        , API_CORE_PROPS, MAX_STALENESS_MILLIS, newClock());
+
+    inventory.fullSweep();
+    assertEquals(ImmutableList.of("grid-1"), names(inventory.find(ZONE, i -> true).get()));
+    assertTrue(inventory.find("zone-b", i -> true).get().isEmpty());
+  }
+
+  private FlexibleOffsetClock newClock() {
+    return new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.systemDefault())
+        , Duration.ZERO);
+  }
+
+  private Instance newInstance(String name, String status) {
+    return new Instance().setName(name).setStatus(status)
+        .setLabels(new HashMap<>(ImmutableMap.of("locked-by-build", "none")));
+  }
+
+  private List<String> names(List<Instance> instances) {
+    return instances.stream().map(Instance::getName).sorted().collect(Collectors.toList());
+  }
+}
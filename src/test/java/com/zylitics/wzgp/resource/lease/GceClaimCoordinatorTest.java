@@ -0,0 +1,123 @@
+package com.zylitics.wzgp.resource.lease;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+
+class GceClaimCoordinatorTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final String ZONE_URL =
+      "https://www.googleapis.com/compute/v1/projects/zl/zones/" + ZONE;
+
+  private static final BuildProperty BUILD_1 = () -> "build-1";
+
+  private static final BuildProperty BUILD_2 = () -> "build-2";
+
+  private final ComputeService computeSrv = mock(ComputeService.class);
+
+  private final LeaseRegistry leases = new LeaseRegistryImpl(computeSrv, 60000, 60000
+      , Clock.systemUTC());
+
+  private final ClaimCoordinator coordinator = new GceClaimCoordinator(leases, computeSrv);
+
+  @Test
+  @DisplayName("verify a found instance is locked using the fingerprint it was found with")
+  void claimFoundInstanceTest() throws Exception {
+    Instance found = getInstance("none", "fp-1");
+    Operation operation = new Operation().setName("op-1");
+    when(computeSrv.setLabels("grid-1", ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD
+        , "build-1", "browser", "chrome"), ZONE, "fp-1", BUILD_1)).thenReturn(operation);
+
+    assertEquals(operation, coordinator.claim(found, ImmutableMap.of("browser", "chrome")
+        , BUILD_1).get());
+    verify(computeSrv, never()).getInstance(anyString(), anyString(), any(BuildProperty.class));
+    // the claim stays until the request holds or gives up the grid.
+    assertFalse(leases.claim("grid-1", ZONE, "build-2"));
+  }
+
+  @Test
+  @DisplayName("verify losing the fingerprint race gives up the claim without fetching instance")
+  void claimLostRaceTest() throws Exception {
+    Instance found = getInstance("none", "fp-1");
+    when(computeSrv.setLabels(eq("grid-1"), anyMap(), eq(ZONE), eq("fp-1"), eq(BUILD_1)))
+        .thenThrow(preconditionFailed());
+
+    assertFalse(coordinator.claim(found, Collections.emptyMap(), BUILD_1).isPresent());
+    verify(computeSrv, never()).getInstance(anyString(), anyString(), any(BuildProperty.class));
+    assertTrue(leases.claim("grid-1", ZONE, "build-2"));
+  }
+
+  @Test
+  @DisplayName("verify renewal is recorded on the grid locked by the lease's build")
+  void renewedTest() throws Exception {
+    Lease lease = leases.hold("grid-1", ZONE, "build-1");
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("build-1", "fp-1"))
+        .thenReturn(getInstance("build-1", "fp-2"));
+    Map<String, String> renewed = ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"
+        , ResourceUtil.LABEL_LEASE_EXPIRES_AT
+        , String.valueOf(TimeUnit.MILLISECONDS.toSeconds(lease.getExpiresAt())));
+    // labels changed once between get and set.
+    when(computeSrv.setLabels(eq("grid-1"), eq(renewed), eq(ZONE), eq("fp-1")
+        , any(BuildProperty.class))).thenThrow(preconditionFailed());
+
+    coordinator.renewed(lease);
+
+    verify(computeSrv).setLabels(eq("grid-1"), eq(renewed), eq(ZONE), eq("fp-2")
+        , any(BuildProperty.class));
+  }
+
+  @Test
+  @DisplayName("verify renewal isn't recorded on a grid locked by another build")
+  void renewedNotLockedTest() throws Exception {
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("build-2", "fp-1"));
+
+    coordinator.renewed(leases.hold("grid-1", ZONE, BUILD_1.getBuildId()));
+
+    verify(computeSrv, never()).setLabels(anyString(), anyMap(), anyString(), anyString()
+        , any(BuildProperty.class));
+    assertFalse(leases.claim("grid-1", ZONE, BUILD_2.getBuildId()));
+  }
+
+  private Instance getInstance(String lockedByBuild, String fingerprint) {
+    return new Instance()
+        .setName("grid-1")
+        .setZone(ZONE_URL)
+        .setLabelFingerprint(fingerprint)
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, lockedByBuild));
+  }
+
+  private GoogleJsonResponseException preconditionFailed() {
+    return new GoogleJsonResponseException(new HttpResponseException.Builder(412
+        , "Precondition Failed", new HttpHeaders()), null);
+  }
+}
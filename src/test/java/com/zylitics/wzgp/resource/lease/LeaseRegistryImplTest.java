@@ -0,0 +1,174 @@
+package com.zylitics.wzgp.resource.lease;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.services.compute.model.Instance;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+
+class LeaseRegistryImplTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final long CLAIM_TTL_MILLIS = 2 * 60 * 1000;
+
+  private static final long LEASE_TTL_MILLIS = 60 * 60 * 1000;
+
+  @Test
+  @DisplayName("verify a grid can't be claimed by others until its claim expires")
+  void claimTest() {
+    FlexibleOffsetClock clock = newClock();
+    LeaseRegistry leases = new LeaseRegistryImpl(mock(ComputeService.class), CLAIM_TTL_MILLIS
+        , LEASE_TTL_MILLIS, clock);
+
+    assertTrue(leases.claim("grid-1", ZONE, "build-1"));
+    assertFalse(leases.claim("grid-1", ZONE, "build-2"));
+    assertTrue(leases.claim("grid-1", "us-central0-a", "build-2"));
+
+    clock.setOffset(Duration.ofMillis(CLAIM_TTL_MILLIS));
+    assertTrue(leases.claim("grid-1", ZONE, "build-2"));
+
+    leases.hold("grid-1", ZONE, "build-2");
+    clock.setOffset(Duration.ofMillis(CLAIM_TTL_MILLIS * 2));
+    assertFalse(leases.claim("grid-1", ZONE, "build-3"));
+  }
+
+  @Test
+  @DisplayName("verify renewal extends only the build's own lease and adopts locked grids")
+  void renewTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    ComputeService computeSrv = mock(ComputeService.class);
+    LeaseRegistry leases = new LeaseRegistryImpl(computeSrv, CLAIM_TTL_MILLIS
+        , LEASE_TTL_MILLIS, clock);
+    long start = clock.millis();
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-1", "build-1"));
+
+    assertFalse(leases.renew("grid-1", ZONE, null).isPresent());
+    // adopted
+    assertEquals("build-1", leases.renew("grid-1", ZONE, "build-1").get().getBuildId());
+
+    clock.setOffset(Duration.ofMillis(1000));
+    Lease renewed = leases.renew("grid-1", ZONE, "build-1").get();
+    assertEquals(start + 1000 + LEASE_TTL_MILLIS, renewed.getExpiresAt());
+
+    Lease other = leases.renew("grid-1", ZONE, "build-2").get();
+    assertEquals("build-1", other.getBuildId());
+    assertEquals(renewed.getExpiresAt(), other.getExpiresAt());
+
+    leases.end("grid-1", ZONE);
+    assertFalse(leases.renew("grid-1", ZONE, null).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify a late renewal after the lease ended doesn't lease the unlocked grid")
+  void renewAfterEndTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    LeaseRegistry leases = new LeaseRegistryImpl(computeSrv, CLAIM_TTL_MILLIS
+        , LEASE_TTL_MILLIS, newClock());
+    // grid was released and unlocked.
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-1", "none"));
+
+    leases.hold("grid-1", ZONE, "build-1");
+    leases.end("grid-1", ZONE);
+
+    assertFalse(leases.renew("grid-1", ZONE, "build-1").isPresent());
+    assertFalse(leases.renew("grid-1", ZONE, null).isPresent());
+    assertTrue(leases.claim("grid-1", ZONE, "build-2"));
+  }
+
+  @Test
+  @DisplayName("verify sweep unlocks grids of lapsed leases still locked by their build")
+  void sweepUnlocksLapsedTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    ComputeService computeSrv = mock(ComputeService.class);
+    LeaseRegistryImpl leases = new LeaseRegistryImpl(computeSrv, CLAIM_TTL_MILLIS
+        , LEASE_TTL_MILLIS, clock);
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-1", "build-1"));
+    // grid-2 was released and acquired by another build since.
+    when(computeSrv.getInstance(eq("grid-2"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-2", "build-3"));
+    when(computeSrv.getInstance(eq("grid-4"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-4", "none"));
+
+    leases.hold("grid-1", ZONE, "build-1");
+    leases.hold("grid-2", ZONE, "build-2");
+    leases.hold("grid-3", ZONE, "build-3");
+    // failed request
+    leases.claim("grid-4", ZONE, "build-4");
+    leases.lapse("grid-4", ZONE, "build-4");
+
+    clock.setOffset(Duration.ofMillis(LEASE_TTL_MILLIS - 1000));
+    leases.renew("grid-3", ZONE, "build-3");
+    clock.setOffset(Duration.ofMillis(LEASE_TTL_MILLIS));
+    leases.sweep();
+
+    verify(computeSrv).setLabels(eq("grid-1"), eq(ImmutableMap.of(
+        ResourceUtil.LABEL_LOCKED_BY_BUILD, "none")), eq(ZONE), eq("fp-grid-1")
+        , any(BuildProperty.class));
+    verify(computeSrv, never()).setLabels(eq("grid-2"), anyMap(), anyString(), anyString()
+        , any(BuildProperty.class));
+    verify(computeSrv, never()).getInstance(eq("grid-3"), anyString(), any(BuildProperty.class));
+    verify(computeSrv).getInstance(eq("grid-4"), eq(ZONE), any(BuildProperty.class));
+    verify(computeSrv, never()).setLabels(eq("grid-4"), anyMap(), anyString(), anyString()
+        , any(BuildProperty.class));
+    assertFalse(leases.renew("grid-1", ZONE, null).isPresent());
+    assertTrue(leases.renew("grid-3", ZONE, null).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify sweep leaves grids whose lease was renewed on another replica")
+  void sweepSkipsRenewedElsewhereTest() throws Exception {
+    FlexibleOffsetClock clock = newClock();
+    ComputeService computeSrv = mock(ComputeService.class);
+    LeaseRegistryImpl leases = new LeaseRegistryImpl(computeSrv, CLAIM_TTL_MILLIS
+        , LEASE_TTL_MILLIS, clock);
+    long sharedExpiry = TimeUnit.MILLISECONDS.toSeconds(clock.millis() + LEASE_TTL_MILLIS * 2);
+    when(computeSrv.getInstance(eq("grid-1"), eq(ZONE), any(BuildProperty.class)))
+        .thenReturn(getInstance("grid-1", "build-1").setLabels(ImmutableMap.of(
+            ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"
+            , ResourceUtil.LABEL_LEASE_EXPIRES_AT, String.valueOf(sharedExpiry))));
+
+    leases.hold("grid-1", ZONE, "build-1");
+    clock.setOffset(Duration.ofMillis(LEASE_TTL_MILLIS));
+    leases.sweep();
+
+    verify(computeSrv, never()).setLabels(anyString(), anyMap(), anyString(), anyString()
+        , any(BuildProperty.class));
+  }
+
+  private Instance getInstance(String name, String lockedByBuild) {
+    return new Instance()
+        .setName(name)
+        .setLabelFingerprint("fp-" + name)
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, lockedByBuild));
+  }
+
+  private FlexibleOffsetClock newClock() {
+    return new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")), Duration.ZERO);
+  }
+}
@@ -0,0 +1,202 @@
+package com.zylitics.wzgp.resource.pool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.Compute.Instances;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class SuspendedPoolReplenisherTest {
+
+  private static final Compute COMPUTE = new FakeCompute().get();
+
+  // suspended pools are same as the warm pools of dummy, a single pool with target 3.
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties(
+      new DummyAPICoreProperties().getGridDefault().getWarmPools());
+
+  private static final APICoreProperties.WarmPool POOL =
+      API_CORE_PROPS.getGridDefault().getSuspendedPools().get(0);
+
+  private static final String GRID_NAME = "grid-2";
+
+  private static final long BOOT_SETTLE_MILLIS = 1000;
+
+  private static final Instant NOW = Instant.parse("2021-05-01T10:00:00Z");
+
+  @Test
+  @DisplayName("verify deficit is filled with grids those are suspended and then unlocked")
+  @SuppressWarnings("unchecked")
+  void deficitFilledWithSuspendedGridsTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    ScheduledExecutorService prepareExecutor = getPrepareExecutor();
+
+    stubPool(computeSrv, search, 2);
+    stubCreate(executor, computeSrv);
+    Operation suspend = new Operation().setName("suspend");
+    when(computeSrv.suspendInstance(eq(GRID_NAME), eq(POOL.getZone()), any(BuildProperty.class)))
+        .thenReturn(suspend);
+    when(executor.blockUntilComplete(eq(suspend), anyLong(), anyLong(), any(BuildProperty.class)))
+        .thenReturn(getDone());
+    when(computeSrv.getInstance(eq(GRID_NAME), eq(POOL.getZone()), any(BuildProperty.class)))
+        .thenReturn(new Instance().setName(GRID_NAME).setLabelFingerprint("fingerprint")
+            .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "suspended-pool")));
+    Operation unlock = new Operation().setName("unlock");
+    when(computeSrv.setLabels(eq(GRID_NAME), any(Map.class), eq(POOL.getZone())
+        , eq("fingerprint"), any(BuildProperty.class))).thenReturn(unlock);
+    when(executor.blockUntilComplete(eq(unlock), anyLong(), anyLong(), any(BuildProperty.class)))
+        .thenReturn(getDone());
+
+    newReplenisher(executor, computeSrv, search, prepareExecutor).replenish();
+    runScheduledSuspend(prepareExecutor);
+
+    ArgumentCaptor<Map<String, String>> labels = ArgumentCaptor.forClass(Map.class);
+    verify(computeSrv).setLabels(eq(GRID_NAME), labels.capture(), eq(POOL.getZone())
+        , eq("fingerprint"), any(BuildProperty.class));
+    assertEquals("none"
+        , labels.getValue().get(ResourceUtil.LABEL_LOCKED_BY_BUILD));
+    verify(computeSrv, never()).deleteInstance(anyString(), anyString(), any());
+  }
+
+  @Test
+  @DisplayName("verify grid that couldn't be suspended is deleted")
+  void failedSuspendDeletesGridTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    ScheduledExecutorService prepareExecutor = getPrepareExecutor();
+
+    stubPool(computeSrv, search, 2);
+    stubCreate(executor, computeSrv);
+    when(computeSrv.suspendInstance(eq(GRID_NAME), eq(POOL.getZone()), any(BuildProperty.class)))
+        .thenThrow(new RuntimeException("suspend failed"));
+
+    newReplenisher(executor, computeSrv, search, prepareExecutor).replenish();
+    runScheduledSuspend(prepareExecutor);
+
+    verify(computeSrv).deleteInstance(eq(GRID_NAME), eq(POOL.getZone())
+        , any(BuildProperty.class));
+  }
+
+  @Test
+  @DisplayName("verify grid left locked by pool for long is deleted")
+  void abandonedGridDeletedTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+
+    Instance abandoned = new Instance().setName("grid-abandoned")
+        .setCreationTimestamp("2021-05-01T08:00:00.000-00:00");
+    Instance recent = new Instance().setName("grid-recent")
+        .setCreationTimestamp("2021-05-01T09:50:00.000-00:00");
+    when(computeSrv.listAllInstances(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(ImmutableList.of(abandoned, recent));
+    when(search.searchInstancesFromFamily(POOL.getImageFamily(), POOL.getZone()
+        , InstanceStatus.SUSPENDED, POOL.getTarget(), null))
+        .thenReturn(Collections.nCopies(POOL.getTarget(), new Instance()));
+
+    newReplenisher(mock(ResourceExecutor.class), computeSrv, search
+        , mock(ScheduledExecutorService.class)).replenish();
+
+    verify(computeSrv).deleteInstance("grid-abandoned", POOL.getZone(), null);
+    verify(computeSrv, never()).deleteInstance(eq("grid-recent"), anyString(), any());
+  }
+
+  private void stubPool(ComputeService computeSrv, ResourceSearch search, int available)
+      throws Exception {
+    when(computeSrv.listAllInstances(anyString(), eq(POOL.getZone()), isNull()))
+        .thenReturn(Collections.emptyList());
+    when(search.searchInstancesFromFamily(POOL.getImageFamily(), POOL.getZone()
+        , InstanceStatus.SUSPENDED, POOL.getTarget(), null))
+        .thenReturn(Collections.nCopies(available, new Instance()));
+  }
+
+  private void stubCreate(ResourceExecutor executor, ComputeService computeSrv)
+      throws Exception {
+    when(computeSrv.getImageFromFamily(eq(POOL.getImageFamily()), any(BuildProperty.class)))
+        .thenReturn(new Image().setName("image-1").setFamily(POOL.getImageFamily())
+            .setLabels(ImmutableMap.of("os", "win10")));
+    Operation insert = new Operation().setName("operation-insert").setStatus("RUNNING");
+    when(executor.executeWithReattempt(any(Instances.Insert.class), any(BuildProperty.class)))
+        .thenReturn(insert);
+    Operation operation = new Operation()
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink(GRID_NAME, POOL.getZone()))
+        .setZone(ResourceTestUtil.getZoneLink(POOL.getZone()));
+    when(executor.blockUntilComplete(eq(insert), anyLong(), anyLong(), any(BuildProperty.class)))
+        .thenReturn(operation);
+  }
+
+  private Operation getDone() {
+    return new Operation()
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink(GRID_NAME, POOL.getZone()));
+  }
+
+  // creates run on caller thread, suspends are captured to be run by the test.
+  private ScheduledExecutorService getPrepareExecutor() {
+    ScheduledExecutorService prepareExecutor = mock(ScheduledExecutorService.class);
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArgument(0)).run();
+      return null;
+    }).when(prepareExecutor).execute(any(Runnable.class));
+    return prepareExecutor;
+  }
+
+  private void runScheduledSuspend(ScheduledExecutorService prepareExecutor) {
+    ArgumentCaptor<Runnable> suspend = ArgumentCaptor.forClass(Runnable.class);
+    verify(prepareExecutor).schedule(suspend.capture(), eq(BOOT_SETTLE_MILLIS)
+        , eq(TimeUnit.MILLISECONDS));
+    suspend.getValue().run();
+  }
+
+  private SuspendedPoolReplenisher newReplenisher(ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search
+      , ScheduledExecutorService prepareExecutor) {
+    return new SuspendedPoolReplenisher(COMPUTE, API_CORE_PROPS, executor, computeSrv, search
+        , BOOT_SETTLE_MILLIS, prepareExecutor, Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+}
@@ -0,0 +1,150 @@
+package com.zylitics.wzgp.resource.pool;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.Compute.Instances;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class WarmPoolReplenisherTest {
+
+  private static final Compute COMPUTE = new FakeCompute().get();
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  // DummyAPICoreProperties defines a single pool with target 3.
+  private static final APICoreProperties.WarmPool POOL =
+      API_CORE_PROPS.getGridDefault().getWarmPools().get(0);
+
+  @Test
+  @DisplayName("verify deficit in pool is filled with new grids")
+  @SuppressWarnings("unchecked")
+  void deficitFilledTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+
+    when(search.searchInstancesFromFamily(POOL.getImageFamily(), POOL.getZone()
+        , InstanceStatus.RUNNING, POOL.getTarget(), null))
+        .thenReturn(ImmutableList.of(new Instance().setName("grid-1")));
+    when(computeSrv.getImageFromFamily(eq(POOL.getImageFamily()), any(BuildProperty.class)))
+        .thenReturn(new Image().setName("image-1").setFamily(POOL.getImageFamily())
+            .setLabels(ImmutableMap.of("os", "win10")));
+    Operation insert = new Operation().setName("operation-insert").setStatus("RUNNING");
+    when(executor.executeWithReattempt(any(Instances.Insert.class), any(BuildProperty.class)))
+        .thenReturn(insert);
+    Operation operation = new Operation()
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink("grid-2", POOL.getZone()))
+        .setZone(ResourceTestUtil.getZoneLink(POOL.getZone()));
+    when(executor.blockUntilComplete(eq(insert), anyLong(), anyLong(), any(BuildProperty.class)))
+        .thenReturn(operation);
+
+    newReplenisher(executor, computeSrv, search).replenish();
+
+    // one grid was available, two should've been created, only in pool's zone.
+    verify(executor, times(2)).executeWithReattempt(any(Instances.Insert.class)
+        , any(BuildProperty.class));
+    verify(executor, never()).executeWithZonalReattempt(any(Instances.Insert.class)
+        , any(Function.class), any(BuildProperty.class));
+  }
+
+  @Test
+  @DisplayName("verify no grid is created when pool is at target")
+  @SuppressWarnings("unchecked")
+  void poolAtTargetTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+
+    when(search.searchInstancesFromFamily(POOL.getImageFamily(), POOL.getZone()
+        , InstanceStatus.RUNNING, POOL.getTarget(), null))
+        .thenReturn(ImmutableList.of(new Instance().setName("grid-1")
+            , new Instance().setName("grid-2"), new Instance().setName("grid-3")));
+
+    newReplenisher(executor, computeSrv, search).replenish();
+
+    verify(computeSrv, never()).getImageFromFamily(any(), any());
+    verify(executor, never()).executeWithZonalReattempt(any(Instances.Insert.class)
+        , any(Function.class), any(BuildProperty.class));
+  }
+
+  @Test
+  @DisplayName("verify failure in search doesn't propagate and nothing is created")
+  void searchFailureTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+
+    when(search.searchInstancesFromFamily(any(), any(), any(), eq((long) POOL.getTarget())
+        , isNull())).thenThrow(new RuntimeException("search failed"));
+
+    newReplenisher(executor, computeSrv, search).replenish();
+
+    verify(computeSrv, never()).getImageFromFamily(any(), any());
+  }
+
+  @Test
+  @DisplayName("verify failed create is not counted towards pool in next cycle")
+  void failedCreateTest() throws Exception {
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+
+    when(search.searchInstancesFromFamily(POOL.getImageFamily(), POOL.getZone()
+        , InstanceStatus.RUNNING, POOL.getTarget(), null))
+        .thenReturn(Collections.emptyList());
+    when(computeSrv.getImageFromFamily(eq(POOL.getImageFamily()), any(BuildProperty.class)))
+        .thenThrow(new RuntimeException("image not found"));
+
+    WarmPoolReplenisher replenisher = newReplenisher(executor, computeSrv, search);
+    replenisher.replenish();
+    replenisher.replenish();
+
+    // if failed creates were left in-flight, second cycle wouldn't have attempted any.
+    verify(computeSrv, times(POOL.getTarget() * 2))
+        .getImageFromFamily(eq(POOL.getImageFamily()), any(BuildProperty.class));
+  }
+
+  private WarmPoolReplenisher newReplenisher(ResourceExecutor executor
+      , ComputeService computeSrv
+      , ResourceSearch search) {
+    // creates run on caller thread so that verification happens after they're done.
+    return new WarmPoolReplenisher(COMPUTE, API_CORE_PROPS, executor, computeSrv, search
+        , MoreExecutors.newDirectExecutorService());
+  }
+}
@@ -0,0 +1,92 @@
+package com.zylitics.wzgp.resource.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ApiRateLimiterImplTest {
+
+  @Test
+  @DisplayName("verify calls burst up to capacity and wait after that")
+  void burstThenWaitTest() throws Exception {
+    // 10 calls per second, 1 second burst
+    ApiRateLimiter limiter = new ApiRateLimiterImpl(600, 600, 600, 1, new SimpleMeterRegistry()
+        , Ticker.systemTicker());
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    limiter.acquire(ApiCategory.READ, ApiPriority.USER, 10);
+    assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) < 50);
+
+    // other categories have their own bucket.
+    limiter.acquire(ApiCategory.MUTATE, ApiPriority.USER, 1);
+    assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) < 50);
+
+    stopwatch.reset().start();
+    limiter.acquire(ApiCategory.READ, ApiPriority.USER, 1);
+    assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) >= 80);
+  }
+
+  @Test
+  @DisplayName("verify user calls go ahead of background calls waiting before them")
+  void priorityTest() throws Exception {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    // a call every 200ms, bucket holds one.
+    ApiRateLimiter limiter = new ApiRateLimiterImpl(300, 300, 300, 0, registry
+        , Ticker.systemTicker());
+    limiter.acquire(ApiCategory.MUTATE, ApiPriority.USER, 1);
+
+    List<ApiPriority> order = new CopyOnWriteArrayList<>();
+    Thread background = new Thread(() -> acquire(limiter, ApiPriority.BACKGROUND, order));
+    background.start();
+    awaitQueueDepth(registry, ApiPriority.BACKGROUND, 1);
+
+    Thread user = new Thread(() -> acquire(limiter, ApiPriority.USER, order));
+    user.start();
+    awaitQueueDepth(registry, ApiPriority.USER, 1);
+
+    background.join(5000);
+    user.join(5000);
+    assertEquals(ImmutableList.of(ApiPriority.USER, ApiPriority.BACKGROUND), order);
+    assertEquals(0, queueDepth(registry, ApiPriority.BACKGROUND));
+    assertEquals(0, queueDepth(registry, ApiPriority.USER));
+  }
+
+  private void acquire(ApiRateLimiter limiter, ApiPriority priority, List<ApiPriority> order) {
+    try {
+      limiter.acquire(ApiCategory.MUTATE, priority, 1);
+      order.add(priority);
+    } catch (InterruptedException ie) {
+      throw new RuntimeException(ie);
+    }
+  }
+
+  private void awaitQueueDepth(MeterRegistry registry, ApiPriority priority, int depth)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (queueDepth(registry, priority) != depth && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(depth, queueDepth(registry, priority));
+  }
+
+  private int queueDepth(MeterRegistry registry, ApiPriority priority) {
+    return (int) registry.get("compute.api.limiter.queue.depth")
+        .tag("category", "mutate")
+        .tag("priority", priority.name().toLowerCase())
+        .gauge()
+        .value();
+  }
+}
@@ -0,0 +1,42 @@
+package com.zylitics.wzgp.resource.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+
+class CandidatePageSizerImplTest {
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final int MIN_PAGE_SIZE =
+      API_CORE_PROPS.getGridDefault().getMaxInstanceInSearch();
+
+  private static final int MAX_PAGE_SIZE = 50;
+
+  @Test
+  @DisplayName("verify page grows with contention and shrinks back once claims stop colliding")
+  void adaptToContentionTest() {
+    CandidatePageSizer pageSizer = new CandidatePageSizerImpl(API_CORE_PROPS, MAX_PAGE_SIZE);
+    assertEquals(MIN_PAGE_SIZE, pageSizer.pageSize("zone-a"));
+
+    pageSizer.record("zone-a", 3, true);
+    assertEquals(MIN_PAGE_SIZE + 3, pageSizer.pageSize("zone-a"));
+
+    pageSizer.record("zone-a", MIN_PAGE_SIZE + 3, false);
+    assertEquals((MIN_PAGE_SIZE + 3) * 2, pageSizer.pageSize("zone-a"));
+
+    pageSizer.record("zone-a", MIN_PAGE_SIZE, false);
+    assertEquals(MAX_PAGE_SIZE, pageSizer.pageSize("zone-a"));
+    // other zones aren't affected.
+    assertEquals(MIN_PAGE_SIZE, pageSizer.pageSize("zone-b"));
+
+    for (int i = 0; i < MAX_PAGE_SIZE; i++) {
+      pageSizer.record("zone-a", 0, true);
+    }
+    assertEquals(MIN_PAGE_SIZE, pageSizer.pageSize("zone-a"));
+  }
+}
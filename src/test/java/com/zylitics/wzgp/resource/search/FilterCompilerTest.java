@@ -0,0 +1,99 @@
+package com.zylitics.wzgp.resource.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.RequestGridCreate.ResourceSearchParams;
+import com.zylitics.wzgp.model.InstanceStatus;
+
+class FilterCompilerTest {
+
+  private static final String REQUEST_CONDITIONS = "(labels.os = \"win7\") AND "
+      + "(labels.browser1 = \"chrome\") OR (labels.browser2 = \"chrome\") OR "
+      + "(labels.browser3 = \"chrome\") OR (labels.browser4 = \"chrome\") OR "
+      + "(labels.browser5 = \"chrome\") OR (labels.browser6 = \"chrome\") AND "
+      + "(labels.shots = \"false\")";
+
+  private static final String DEFAULT_CONDITIONS = "(labels.platform = \"windows\") AND "
+      + "(labels.is-production-instance = \"true\") AND ";
+
+  private final FilterCompiler compiler = new FilterCompiler(
+      ImmutableMap.of("labels.platform", "windows", "labels.is-production-instance", "true")
+      , ImmutableMap.of("labels.image-id", "xyz"));
+
+  @Test
+  @DisplayName("verify request params override defaults in place and others follow in key order")
+  void instanceFilterTest() {
+    assertEquals(DEFAULT_CONDITIONS + "(status = \"RUNNING\") AND " + REQUEST_CONDITIONS
+        , compiler.instanceFilter(newSearchParams(null), InstanceStatus.RUNNING));
+
+    assertEquals("(labels.platform = \"windows\") AND (labels.is-production-instance = \"false\") "
+        + "AND (status = \"TERMINATED\") AND (labels.zl-grid = \"true\") AND " + REQUEST_CONDITIONS
+        , compiler.instanceFilter(newSearchParams(ImmutableMap.of("labels.zl-grid", "true"
+            , "labels.is-production-instance", "false")), InstanceStatus.TERMINATED));
+  }
+
+  @Test
+  @DisplayName("verify image and family filters")
+  void imageAndFamilyFilterTest() {
+    assertEquals("(labels.image-id = \"xyz\") AND " + REQUEST_CONDITIONS
+        , compiler.imageFilter(newSearchParams(null)));
+
+    assertEquals(DEFAULT_CONDITIONS + "(status = \"TERMINATED\") AND "
+        + "(labels.source-image-family = \"win7-base\")"
+        , compiler.familyFilter("win7-base", InstanceStatus.TERMINATED));
+  }
+
+  @Test
+  @DisplayName("verify quotes and backslashes in values are escaped")
+  void escapeTest() {
+    String filter = compiler.instanceFilter(newSearchParams(ImmutableMap.of("description"
+        , "say \"hi\" c:\\grid")), InstanceStatus.RUNNING);
+    assertEquals(DEFAULT_CONDITIONS + "(status = \"RUNNING\") AND "
+        + "(description = \"say \\\"hi\\\" c:\\\\grid\") AND " + REQUEST_CONDITIONS, filter);
+  }
+
+  @Test
+  @DisplayName("verify equal searches share the rendered filter")
+  void cacheTest() {
+    String filter = compiler.instanceFilter(newSearchParams(ImmutableMap.of("labels.a", "1"))
+        , InstanceStatus.RUNNING);
+
+    assertSame(filter, compiler.instanceFilter(newSearchParams(ImmutableMap.of("labels.a", "1"))
+        , InstanceStatus.RUNNING));
+    assertNotSame(filter, compiler.instanceFilter(newSearchParams(ImmutableMap.of("labels.a", "1"))
+        , InstanceStatus.TERMINATED));
+  }
+
+  @Test
+  @DisplayName("verify a cached filter isn't affected by changes to the params it was built from")
+  void mutableParamsTest() {
+    Map<String, String> customParams = new LinkedHashMap<>();
+    customParams.put("labels.a", "1");
+    String filter = compiler.instanceFilter(newSearchParams(customParams), InstanceStatus.RUNNING);
+
+    customParams.put("labels.a", "2");
+    assertNotSame(filter, compiler.instanceFilter(newSearchParams(customParams)
+        , InstanceStatus.RUNNING));
+    assertSame(filter, compiler.instanceFilter(newSearchParams(ImmutableMap.of("labels.a", "1"))
+        , InstanceStatus.RUNNING));
+  }
+
+  private ResourceSearchParam newSearchParams(Map<String, String> customParams) {
+    ResourceSearchParams searchParams = new RequestGridCreate().getResourceSearchParams();
+    searchParams.setOS("win7");
+    searchParams.setBrowser("chrome");
+    searchParams.setShots(false);
+    searchParams.setCustomInstanceSearchParams(customParams);
+    return searchParams;
+  }
+}
@@ -0,0 +1,66 @@
+package com.zylitics.wzgp.resource.search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
+import com.zylitics.wzgp.resource.search.FilterCompiler.FilterKey;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
+
+/**
+ * Filters built for every image and instance search of a request. Run with the jmh profile, see
+ * pom.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceSearchFilterBenchmark {
+  
+  private FilterCompiler compiler;
+  
+  private ResourceSearchParam searchParam;
+  
+  private FilterKey instanceKey;
+  
+  @Setup
+  public void setup() {
+    GridDefault gridDefault = new DummyAPICoreProperties().getGridDefault();
+    compiler = new FilterCompiler(gridDefault.getInstanceSearchParams()
+        , gridDefault.getImageSearchParams());
+    searchParam = new DummyRequestGridCreate().get().getResourceSearchParams();
+    instanceKey = new FilterKey(FilterKey.Kind.INSTANCE, searchParam.getOS()
+        , searchParam.getBrowser(), searchParam.isShots(), InstanceStatus.RUNNING.toString()
+        , searchParam.getCustomInstanceSearchParams());
+  }
+  
+  @Benchmark
+  public String instanceFilter() {
+    return compiler.instanceFilter(searchParam, InstanceStatus.RUNNING);
+  }
+  
+  @Benchmark
+  public String imageFilter() {
+    return compiler.imageFilter(searchParam);
+  }
+  
+  // what a search pays the first time its params are seen.
+  @Benchmark
+  public String instanceFilterUncached() {
+    return compiler.render(instanceKey);
+  }
+}
@@ -1,12 +1,21 @@
 package com.zylitics.wzgp.resource.search;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
 
 import com.zylitics.wzgp.model.InstanceStatus;
 import org.junit.jupiter.api.DisplayName;
@@ -18,10 +27,14 @@ import org.mockito.quality.Strictness;
 
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.image.ImageCache;
+import com.zylitics.wzgp.resource.image.ImageCacheImpl;
+import com.zylitics.wzgp.resource.inventory.InstanceInventory;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
 import com.zylitics.wzgp.test.util.ResourceTestUtil;
 
@@ -52,7 +65,8 @@ class ResourceSearchImplTest {
     
     when(computeSrv.listImages(filter, 1L, null))
         .thenReturn(ImmutableList.of(new Image().setName(imageName)));
-    Image image = new ResourceSearchImpl(apiCoreProps, computeSrv)
+    Image image = new ResourceSearchImpl(apiCoreProps, computeSrv,
+        mock(InstanceInventory.class), new ImageCacheImpl(60000, Ticker.systemTicker()))
         .searchImage(searchParams, null).orElse(null);
     assertNotNull(image);
     assertEquals(imageName, image.getName());
@@ -103,7 +117,8 @@ class ResourceSearchImplTest {
     when(computeSrv.listInstances(filter, maxInstancesInSearch, zone, null))
         .thenReturn(ImmutableList.copyOf(instances));
     
-    ResourceSearch search = new ResourceSearchImpl(apiCoreProps, computeSrv);
+    ResourceSearch search = new ResourceSearchImpl(apiCoreProps, computeSrv,
+        mock(InstanceInventory.class), mock(ImageCache.class));
     
     // we'll verify that multiple calls to find stopped instance will get a different instance
     // and not the same. A different instance may not be returned everytime as we're using random
@@ -124,6 +139,58 @@ class ResourceSearchImplTest {
     assertTrue(success);
   }
   
+  @Test
+  @DisplayName("verify instance search is answered from inventory using equivalent matching")
+  @SuppressWarnings("unchecked")
+  void searchInstanceFromInventoryTest() throws Exception {
+    String zone = "zone-1";
+    ComputeService computeSrv = mock(ComputeService.class);
+    APICoreProperties apiCoreProps = mock(APICoreProperties.class);
+    InstanceInventory inventory = mock(InstanceInventory.class);
+    ResourceSearchParam searchParams = spy(SEARCH_PARAMS);
+    
+    APICoreProperties.GridDefault gridDefault = mock(APICoreProperties.GridDefault.class);
+    when(gridDefault.getInstanceSearchParams()).thenReturn(
+        ImmutableMap.of("labels.is-production-instance", "true"));
+    when(apiCoreProps.getGridDefault()).thenReturn(gridDefault);
+    when(searchParams.getCustomInstanceSearchParams()).thenReturn(null);
+    
+    String browser = SEARCH_PARAMS.getBrowser().toLowerCase();
+    Instance matching = new Instance().setName("instance-1").setStatus("RUNNING")
+        // instances are copied by inventory, give mutable labels like the ones parsed from GCE.
+        .setLabels(new HashMap<>(ImmutableMap.of("is-production-instance", "true",
+            "os", SEARCH_PARAMS.getOS().toLowerCase(),
+            "browser3", browser,
+            "shots", String.valueOf(SEARCH_PARAMS.isShots()))));
+    // all non matching due to one of status, default params, browser.
+    List<Instance> nonMatching = ImmutableList.of(
+        matching.clone().setName("instance-2").setStatus("TERMINATED"),
+        matching.clone().setName("instance-3").setLabels(ImmutableMap.of(
+            "is-production-instance", "false",
+            "os", SEARCH_PARAMS.getOS().toLowerCase(),
+            "browser1", browser,
+            "shots", String.valueOf(SEARCH_PARAMS.isShots()))),
+        matching.clone().setName("instance-4").setLabels(ImmutableMap.of(
+            "is-production-instance", "true",
+            "os", SEARCH_PARAMS.getOS().toLowerCase(),
+            "browser1", browser + "-x",
+            "shots", String.valueOf(SEARCH_PARAMS.isShots()))));
+    
+    when(inventory.find(eq(zone), any(Predicate.class))).then(invocation -> {
+      Predicate<Instance> matcher = invocation.getArgument(1);
+      assertTrue(matcher.test(matching));
+      nonMatching.forEach(i -> assertFalse(matcher.test(i), i.getName() + " shouldn't match"));
+      return Optional.of(ImmutableList.of(matching));
+    });
+    
+    Instance instance = new ResourceSearchImpl(apiCoreProps, computeSrv, inventory
+        , mock(ImageCache.class))
+        .searchInstance(searchParams, zone, InstanceStatus.RUNNING, null).orElse(null);
+    assertNotNull(instance);
+    assertEquals(matching.getName(), instance.getName());
+    verify(computeSrv, never()).listInstances(anyString(), anyLong(), anyString(), any());
+  }
+  
   private String getRequestFilters() {
     return String.format("(labels.os = \"%s\")", SEARCH_PARAMS.getOS()) +
         " AND " +
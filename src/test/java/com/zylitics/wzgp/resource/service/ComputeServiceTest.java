@@ -24,6 +24,7 @@ import com.google.api.services.compute.Compute.Disks;
 import com.google.api.services.compute.Compute.Images;
 import com.google.api.services.compute.Compute.Instances;
 import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.DiskList;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.ImageList;
 import com.google.api.services.compute.model.Instance;
@@ -33,12 +34,16 @@ import com.google.api.services.compute.model.InstancesSetMachineTypeRequest;
 import com.google.api.services.compute.model.InstancesSetServiceAccountRequest;
 import com.google.api.services.compute.model.Metadata;
 import com.google.api.services.compute.model.Operation;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.APICoreProperties.GridDefault;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.image.ImageCache;
+import com.zylitics.wzgp.resource.image.ImageCacheImpl;
+import com.zylitics.wzgp.resource.inventory.InstanceInventory;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
@@ -60,6 +65,8 @@ class ComputeServiceTest {
   
   private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
   
+  private static final InstanceInventory INVENTORY = mock(InstanceInventory.class);
+  
   @TestFactory
   Stream<DynamicTest> computeServiceTest() {
     String project = API_CORE_PROPS.getResourceProjectId();
@@ -77,7 +84,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.startInstance(INSTANCE_NAME, ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
           }),
@@ -93,7 +101,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.stopInstance(INSTANCE_NAME, ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
           }),
@@ -109,7 +118,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.deleteInstance(INSTANCE_NAME, ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
           }),
@@ -125,7 +135,8 @@ class ComputeServiceTest {
                   }
                   return new Instance().setName(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Instance instance = computeSrv.getInstance(INSTANCE_NAME, ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, instance.getName());
           }),
@@ -147,7 +158,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.setMachineType(INSTANCE_NAME
                 , gridDefault.getMachineType(), ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
@@ -170,7 +182,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.setServiceAccount(INSTANCE_NAME
                 , gridDefault.getServiceAccount(), ZONE, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
@@ -195,7 +208,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.setLabels(INSTANCE_NAME, gridDefault.getLabels()
                 , ZONE, currentLabelFingerprint, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
@@ -218,7 +232,8 @@ class ComputeServiceTest {
                   }
                   return getOperation(INSTANCE_NAME);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Operation operation = computeSrv.setMetadata(INSTANCE_NAME, gridDefault.getMetadata()
                 , ZONE, currentFingerprint, BUILD_PROP);
             assertEquals(INSTANCE_NAME, nameFromUrl(operation.getTargetLink()));
@@ -236,7 +251,8 @@ class ComputeServiceTest {
                   }
                   return new Image().setFamily(family);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Image image = computeSrv.getImageFromFamily(family, BUILD_PROP);
             assertEquals(family, image.getFamily());
           }),
@@ -255,7 +271,8 @@ class ComputeServiceTest {
                   }
                   return new ImageList().setItems(ImmutableList.of(new Image()));
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             List<Image> images = computeSrv.listImages(filter, maxResult, BUILD_PROP);
             assertEquals(maxResult, images.size());
           }),
@@ -275,12 +292,38 @@ class ComputeServiceTest {
                   }
                   return new InstanceList().setItems(ImmutableList.of(new Instance()));
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             List<Instance> instances = computeSrv.listInstances(filter, maxResult, ZONE
                 , BUILD_PROP);
             assertEquals(maxResult, instances.size());
           }),
           
+          dynamicTest("verify zone's instance list goes through all pages", () -> {
+            String filter = "labels.locked-by-build = \"suspended-pool\"";
+            ResourceExecutor executor = mock(ResourceExecutor.class);
+            when(executor.executeWithReattempt(any(Instances.List.class), eq(BUILD_PROP)))
+                .then(invocation -> {
+                  Instances.List list = invocation.getArgument(0);
+                  if (!(list.getProject().equals(project)
+                      && list.getZone().equals(ZONE)
+                      && list.getFilter().equals(filter))) {
+                    throw new RuntimeException("invalid parameter given to Instances.List.");
+                  }
+                  if (list.getPageToken() == null) {
+                    return new InstanceList().setItems(ImmutableList.of(new Instance()
+                        .setName("grid-1"))).setNextPageToken("page-2");
+                  }
+                  return new InstanceList().setItems(ImmutableList.of(new Instance()
+                      .setName("grid-2")));
+            });
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
+            List<Instance> instances = computeSrv.listAllInstances(filter, ZONE, BUILD_PROP);
+            assertEquals(2, instances.size());
+            assertEquals("grid-2", instances.get(1).getName());
+          }),
+          
           dynamicTest("verify disk get provides valid arguments to execute", () -> {
             String diskName = "disk-1";
             ResourceExecutor executor = mock(ResourceExecutor.class);
@@ -294,9 +337,34 @@ class ComputeServiceTest {
                   }
                   return new Disk().setName(diskName);
             });
-            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS);
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
             Disk disk = computeSrv.getDisk(diskName, ZONE, BUILD_PROP);
             assertEquals(diskName, disk.getName());
+          }),
+          
+          dynamicTest("verify disk list goes through all pages", () -> {
+            String filter = "labels.boot-disk-pool = \"win7\"";
+            ResourceExecutor executor = mock(ResourceExecutor.class);
+            when(executor.executeWithReattempt(any(Disks.List.class), eq(BUILD_PROP)))
+                .then(invocation -> {
+                  Disks.List list = invocation.getArgument(0);
+                  if (!(list.getProject().equals(project)
+                      && list.getZone().equals(ZONE)
+                      && list.getFilter().equals(filter))) {
+                    throw new RuntimeException("invalid parameter given to Disks.List.");
+                  }
+                  if (list.getPageToken() == null) {
+                    return new DiskList().setItems(ImmutableList.of(new Disk().setName("disk-1")))
+                        .setNextPageToken("page-2");
+                  }
+                  return new DiskList().setItems(ImmutableList.of(new Disk().setName("disk-2")));
+            });
+            ComputeService computeSrv = new ComputeService(COMPUTE, executor, API_CORE_PROPS, INVENTORY
+                , newImageCache());
+            List<Disk> disks = computeSrv.listDisks(filter, ZONE, BUILD_PROP);
+            assertEquals(2, disks.size());
+            assertEquals("disk-2", disks.get(1).getName());
           })
         );
   }
@@ -306,4 +374,8 @@ class ComputeServiceTest {
     return new Operation().setTargetLink(ResourceTestUtil.getOperationTargetLink(resourceName
         , ZONE));
   }
+  
+  private ImageCache newImageCache() {
+    return new ImageCacheImpl(60000, Ticker.systemTicker());
+  }
 }
@@ -0,0 +1,197 @@
+package com.zylitics.wzgp.resource.template;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class InstanceTemplateCacheImplTest {
+
+  private static final InstanceTemplateSpec SPEC = new InstanceTemplateSpec("win-2008-base"
+      , "n1-standard-1"
+      , "projects/shared-vpc/regions/us-central1/subnetworks/subnet-us-central1"
+      , false
+      , ImmutableSet.of("grid", "rdp")
+      , "grid@xyz.iam.gserviceaccount.com"
+      , false);
+
+  private static final String TEMPLATE_URL = "global/instanceTemplates/" + SPEC.name();
+
+  private static final Instant NOW = Instant.parse("2021-05-01T10:00:00Z");
+
+  @Test
+  @DisplayName("verify template is created on first miss and handed out once it's done")
+  void createdOnMissTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    Operation insert = new Operation().setName("operation-template-insert").setStatus("RUNNING");
+    when(computeSrv.insertInstanceTemplate(any(InstanceTemplate.class), isNull()))
+        .thenReturn(insert);
+    when(executor.blockUntilComplete(eq(insert), anyLong(), anyLong(), isNull()))
+        .thenReturn(getDone());
+
+    InstanceTemplateCacheImpl cache = newCache(computeSrv, executor
+        , Clock.fixed(NOW, ZoneOffset.UTC));
+
+    // creation runs inline, still the first insert is built in full.
+    assertFalse(cache.get(SPEC).isPresent());
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+
+    ArgumentCaptor<InstanceTemplate> template = ArgumentCaptor.forClass(InstanceTemplate.class);
+    verify(computeSrv).insertInstanceTemplate(template.capture(), isNull());
+    assertEquals(SPEC.name(), template.getValue().getName());
+    assertEquals("n1-standard-1", template.getValue().getProperties().getMachineType());
+    assertEquals("global/images/family/win-2008-base", template.getValue().getProperties()
+        .getDisks().get(0).getInitializeParams().getSourceImage());
+  }
+
+  @Test
+  @DisplayName("verify template that exists already is taken as ready")
+  void existingTemplateTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    when(computeSrv.insertInstanceTemplate(any(InstanceTemplate.class), isNull()))
+        .thenThrow(new GoogleJsonResponseException(
+            new HttpResponseException.Builder(409, "Conflict", new HttpHeaders()), null));
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    InstanceTemplateCacheImpl cache = newCache(computeSrv, executor
+        , Clock.fixed(NOW, ZoneOffset.UTC));
+
+    assertFalse(cache.get(SPEC).isPresent());
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+    verifyNoInteractions(executor);
+  }
+
+  @Test
+  @DisplayName("verify failed template isn't attempted again until cool down passes")
+  void failedTemplateCoolsDownTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(computeSrv.insertInstanceTemplate(any(InstanceTemplate.class), isNull()))
+        .thenThrow(new RuntimeException("quota exceeded"))
+        .thenReturn(getDone());
+    when(executor.blockUntilComplete(any(Operation.class), anyLong(), anyLong(), isNull()))
+        .then(invocation -> invocation.getArgument(0));
+
+    FlexibleOffsetClock clock =
+        new FlexibleOffsetClock(Clock.fixed(NOW, ZoneOffset.UTC), Duration.ZERO);
+    InstanceTemplateCacheImpl cache = newCache(computeSrv, executor, clock);
+
+    assertFalse(cache.get(SPEC).isPresent());
+    assertFalse(cache.get(SPEC).isPresent());
+    verify(computeSrv, times(1)).insertInstanceTemplate(any(InstanceTemplate.class), isNull());
+
+    clock.setOffset(Duration.ofMinutes(6));
+    assertFalse(cache.get(SPEC).isPresent());
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+    verify(computeSrv, times(2)).insertInstanceTemplate(any(InstanceTemplate.class), isNull());
+  }
+
+  @Test
+  @DisplayName("verify invalidated template is created again")
+  void invalidatedTemplateTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    when(computeSrv.insertInstanceTemplate(any(InstanceTemplate.class), isNull()))
+        .thenReturn(getDone());
+    when(executor.blockUntilComplete(any(Operation.class), anyLong(), anyLong(), isNull()))
+        .then(invocation -> invocation.getArgument(0));
+
+    InstanceTemplateCacheImpl cache = newCache(computeSrv, executor
+        , Clock.fixed(NOW, ZoneOffset.UTC));
+
+    assertFalse(cache.get(SPEC).isPresent());
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+
+    cache.invalidate(TEMPLATE_URL);
+    assertFalse(cache.get(SPEC).isPresent());
+    assertEquals(Optional.of(TEMPLATE_URL), cache.get(SPEC));
+    verify(computeSrv, times(2)).insertInstanceTemplate(any(InstanceTemplate.class), isNull());
+  }
+
+  @Test
+  @DisplayName("verify template name changes with what the template is rendered with")
+  void nameTest() {
+    InstanceTemplateSpec same = new InstanceTemplateSpec("win-2008-base"
+        , "n1-standard-1"
+        , "projects/shared-vpc/regions/us-central1/subnetworks/subnet-us-central1"
+        , false
+        , ImmutableSet.of("rdp", "grid")
+        , "grid@xyz.iam.gserviceaccount.com"
+        , false);
+    InstanceTemplateSpec preemptible = new InstanceTemplateSpec("win-2008-base"
+        , "n1-standard-1"
+        , "projects/shared-vpc/regions/us-central1/subnetworks/subnet-us-central1"
+        , false
+        , ImmutableSet.of("grid", "rdp")
+        , "grid@xyz.iam.gserviceaccount.com"
+        , true);
+
+    assertEquals(SPEC.name(), same.name());
+    assertNotEquals(SPEC.name(), preemptible.name());
+    assertEquals(SPEC.name(), SPEC.toInstanceTemplate().getName());
+  }
+
+  @Test
+  @DisplayName("verify nothing is created when template inserts are disabled")
+  void disabledTest() throws Exception {
+    ComputeService computeSrv = mock(ComputeService.class);
+    InstanceTemplateCacheImpl cache = new InstanceTemplateCacheImpl(computeSrv
+        , mock(ResourceExecutor.class), false, MoreExecutors.newDirectExecutorService()
+        , Clock.fixed(NOW, ZoneOffset.UTC));
+
+    assertFalse(cache.get(SPEC).isPresent());
+    assertFalse(cache.get(SPEC).isPresent());
+    verify(computeSrv, never()).insertInstanceTemplate(any(), any());
+  }
+
+  private InstanceTemplateCacheImpl newCache(ComputeService computeSrv, ResourceExecutor executor
+      , Clock clock) {
+    return new InstanceTemplateCacheImpl(computeSrv, executor, true
+        , MoreExecutors.newDirectExecutorService(), clock);
+  }
+
+  private Operation getDone() {
+    return new Operation()
+        .setName("operation-template-insert")
+        .setStatus("DONE")
+        .setTargetLink(TEMPLATE_URL);
+  }
+}
@@ -0,0 +1,56 @@
+package com.zylitics.wzgp.resource.util;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.services.compute.model.Metadata;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Run with the jmh profile, see pom.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceUtilBenchmark {
+  
+  private final String zoneUrl =
+      "https://www.googleapis.com/compute/v1/projects/zl-infra-main/zones/us-central1-f";
+  
+  private final String zone = "us-central1-f";
+  
+  private final Map<String, String> metadata = ImmutableMap.of(
+      "screen", "1680x1050",
+      "timezone", "UTC",
+      "browser", "chrome;76",
+      ResourceUtil.METADATA_CURRENT_TEST_SESSIONID, "session-1",
+      "build-id", "build-007");
+  
+  @Benchmark
+  public String nameFromUrl() {
+    return ResourceUtil.nameFromUrl(zoneUrl);
+  }
+  
+  @Benchmark
+  public String getSubnetURLFromZone() {
+    return ResourceUtil.getSubnetURLFromZone("zl-shared-vpc", zone);
+  }
+  
+  @Benchmark
+  public Metadata getGCPMetadata() {
+    return ResourceUtil.getGCPMetadata(metadata);
+  }
+}
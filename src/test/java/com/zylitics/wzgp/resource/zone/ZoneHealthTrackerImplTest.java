@@ -0,0 +1,98 @@
+package com.zylitics.wzgp.resource.zone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+
+class ZoneHealthTrackerImplTest {
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final long WINDOW_MILLIS = 30 * 60 * 1000;
+
+  private static final long COOLDOWN_MILLIS = 10 * 60 * 1000;
+
+  @Test
+  @DisplayName("verify zones are ranked by success rate and time to DONE")
+  void rankBySuccessAndLatencyTest() {
+    ZoneHealthTracker tracker = new ZoneHealthTrackerImpl(API_CORE_PROPS, WINDOW_MILLIS
+        , COOLDOWN_MILLIS, newClock());
+    // zone-a succeeds slowly, zone-b quickly, zone-c fails but not for capacity.
+    for (int i = 0; i < 4; i++) {
+      tracker.record(getOperation("zone-a", null), 120000);
+      tracker.record(getOperation("zone-b", null), 40000);
+      tracker.record(getOperation("zone-c", "UNKNOWN_CODE"), 40000);
+    }
+    assertEquals(ImmutableList.of("zone-b", "zone-a", "zone-c")
+        , tracker.rank(ImmutableSet.of("zone-c", "zone-a", "zone-b")));
+  }
+
+  @Test
+  @DisplayName("verify capacity errors cool a zone down until cooldown passes")
+  void capacityCooldownTest() {
+    FlexibleOffsetClock clock = newClock();
+    ZoneHealthTracker tracker = new ZoneHealthTrackerImpl(API_CORE_PROPS, WINDOW_MILLIS
+        , COOLDOWN_MILLIS, clock);
+    for (int i = 0; i < 10; i++) {
+      tracker.record(getOperation("zone-a", null), 20000);
+    }
+    tracker.record(getOperation("zone-a", "ZONE_RESOURCE_POOL_EXHAUSTED"), 300000);
+    // unknown zone-b is preferred over the much better but exhausted zone-a
+    assertEquals(ImmutableList.of("zone-b", "zone-a")
+        , tracker.rank(ImmutableSet.of("zone-a", "zone-b")));
+
+    clock.setOffset(Duration.ofMillis(COOLDOWN_MILLIS + 1));
+    assertEquals(ImmutableList.of("zone-a", "zone-b")
+        , tracker.rank(ImmutableSet.of("zone-a", "zone-b")));
+  }
+
+  @Test
+  @DisplayName("verify outcomes older than window are forgotten")
+  void slidingWindowTest() {
+    FlexibleOffsetClock clock = newClock();
+    ZoneHealthTracker tracker = new ZoneHealthTrackerImpl(API_CORE_PROPS, WINDOW_MILLIS
+        , COOLDOWN_MILLIS, clock);
+    for (int i = 0; i < 10; i++) {
+      tracker.record(getOperation("zone-a", "UNKNOWN_CODE"), 20000);
+    }
+    assertEquals(ImmutableList.of("zone-b", "zone-a")
+        , tracker.rank(ImmutableSet.of("zone-a", "zone-b")));
+
+    clock.setOffset(Duration.ofMillis(WINDOW_MILLIS + 1));
+    tracker.record(getOperation("zone-a", null), 20000);
+    assertEquals(ImmutableList.of("zone-a", "zone-b")
+        , tracker.rank(ImmutableSet.of("zone-a", "zone-b")));
+  }
+
+  private FlexibleOffsetClock newClock() {
+    return new FlexibleOffsetClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")), Duration.ZERO);
+  }
+
+  private Operation getOperation(String zone, String errorCode) {
+    Operation operation = new Operation()
+        .setStatus("DONE")
+        .setTargetLink("https://www.googleapis.com/compute/v1/instances/some-instance")
+        .setZone(ResourceTestUtil.getZoneLink(zone));
+    if (errorCode != null) {
+      operation.setHttpErrorStatusCode(500)
+          .setError(new Operation.Error().setErrors(Collections.singletonList(
+              new Operation.Error.Errors().setCode(errorCode))));
+    }
+    return operation;
+  }
+}
@@ -1,15 +1,37 @@
 package com.zylitics.wzgp.test.dummy;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.zylitics.wzgp.resource.APICoreProperties;
 
 public class DummyAPICoreProperties implements APICoreProperties {
 
-  private DummyGridDefaults gridDefaults = new DummyGridDefaults();
+  private DummyGridDefaults gridDefaults;
+  
+  public DummyAPICoreProperties() {
+    this(ImmutableList.of());
+  }
+  
+  /**
+   * @param suspendedPools suspended pools to configure, none are by default.
+   */
+  public DummyAPICoreProperties(List<? extends WarmPool> suspendedPools) {
+    this(suspendedPools, ImmutableList.of());
+  }
+  
+  /**
+   * @param suspendedPools suspended pools to configure, none are by default.
+   * @param bootDiskPools boot disk pools to configure, none are by default.
+   */
+  public DummyAPICoreProperties(List<? extends WarmPool> suspendedPools
+      , List<? extends WarmPool> bootDiskPools) {
+    gridDefaults = new DummyGridDefaults(suspendedPools, bootDiskPools);
+  }
   
   @Override
   public String getResourceProjectId() {
@@ -41,6 +63,11 @@ public class DummyAPICoreProperties implements APICoreProperties {
     return ImmutableSet.of("zone-a", "zone-b", "zone-c", "zone-d", "zone-e", "zone-f");
   }
   
+  @Override
+  public long getHedgedCreateDelayMillis() {
+    return 60000;
+  }
+  
   @Override
   public GridDefault getGridDefault() {
     return gridDefaults;
@@ -48,6 +75,16 @@ public class DummyAPICoreProperties implements APICoreProperties {
   
   private static class DummyGridDefaults implements GridDefault {
     
+    private final List<? extends WarmPool> suspendedPools;
+    
+    private final List<? extends WarmPool> bootDiskPools;
+    
+    private DummyGridDefaults(List<? extends WarmPool> suspendedPools
+        , List<? extends WarmPool> bootDiskPools) {
+      this.suspendedPools = suspendedPools;
+      this.bootDiskPools = bootDiskPools;
+    }
+    
     @Override
     public String getMachineType() {
       return "n1-standard";
@@ -96,5 +133,38 @@ public class DummyAPICoreProperties implements APICoreProperties {
     public int getMaxInstanceInSearch() {
       return 10;
     }
+  
+    @Override
+    public List<? extends WarmPool> getWarmPools() {
+      return ImmutableList.of(new DummyWarmPool());
+    }
+  
+    @Override
+    public List<? extends WarmPool> getSuspendedPools() {
+      return suspendedPools;
+    }
+  
+    @Override
+    public List<? extends WarmPool> getBootDiskPools() {
+      return bootDiskPools;
+    }
+  }
+  
+  private static class DummyWarmPool implements WarmPool {
+  
+    @Override
+    public String getImageFamily() {
+      return "win2019-chrome";
+    }
+  
+    @Override
+    public String getZone() {
+      return "us-central0-g";
+    }
+  
+    @Override
+    public int getTarget() {
+      return 3;
+    }
   }
 }
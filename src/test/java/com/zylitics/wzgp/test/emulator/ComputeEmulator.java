@@ -0,0 +1,1212 @@
+package com.zylitics.wzgp.test.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+import org.springframework.http.HttpStatus;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpMediaType;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.AccessConfig;
+import com.google.api.services.compute.model.AttachedDisk;
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.ImageList;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceAggregatedList;
+import com.google.api.services.compute.model.InstanceList;
+import com.google.api.services.compute.model.InstanceProperties;
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.api.services.compute.model.InstancesScopedList;
+import com.google.api.services.compute.model.InstancesSetLabelsRequest;
+import com.google.api.services.compute.model.InstancesSetMachineTypeRequest;
+import com.google.api.services.compute.model.InstancesSetServiceAccountRequest;
+import com.google.api.services.compute.model.Metadata;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Operation;
+import com.google.api.services.compute.model.ServiceAccount;
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+
+/**
+ * In-process, stateful stand-in for Compute API. It plugs in as the {@link HttpTransport} of
+ * {@link Compute.Builder} so that code under test talks to it just like it talks to GCE, making it
+ * possible to run create, get-running and delete flows offline, under load.
+ * <p>Models instances, images, instance templates, labels and metadata with fingerprints and zone
+ * and global operations that go PENDING -> RUNNING -> DONE over configurable latencies. Instances
+ * inserted from a template get the properties they don't give from it. Zones can be given a capacity, creates
+ * and starts beyond it fail with ZONE_RESOURCE_POOL_EXHAUSTED like GCE does, such errors and 429s
+ * can also be injected at random. Batch requests are supported. Project in urls is ignored.</p>
+ * <p>Label and metadata updates apply as soon as they're requested so that fingerprints guard
+ * concurrent updates the way they do on GCE, other effects apply when the operation is DONE.
+ * Operations make progress as time passes on the given clock and are looked at on every request,
+ * no background thread is used.</p>
+ * @author Praveen Tiwari
+ *
+ */
+public class ComputeEmulator {
+
+  public static final String ZONE_RESOURCE_POOL_EXHAUSTED = "ZONE_RESOURCE_POOL_EXHAUSTED";
+
+  private static final JsonFactory JSON = GsonFactory.getDefaultInstance();
+
+  private static final String LINK_PREFIX = "https://www.googleapis.com/compute/v1/projects/";
+
+  private static final String API_PATH = "compute/v1/";
+
+  private static final String BATCH_PATH = "batch/compute/v1";
+
+  private static final int DEFAULT_MAX_RESULTS = 500;
+
+  private final LatencyDistribution apiLatency;
+  private final OperationLatency defaultOperationLatency;
+  private final Map<String, OperationLatency> operationLatencies;
+  private final Map<String, Integer> zoneCapacity;
+  private final Random random;
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final Compute compute;
+
+  private volatile double rateLimitedFraction;
+  private volatile double exhaustedFraction;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+
+  // following are guarded by this.
+  private final Map<String, Map<String, Instance>> instances = new HashMap<>();
+  private final Map<String, Image> images = new LinkedHashMap<>();
+  private final Map<String, InstanceTemplate> instanceTemplates = new LinkedHashMap<>();
+  private final Map<String, EmulatedOperation> operations = new HashMap<>();
+  private long nextId = 1000;
+
+  private ComputeEmulator(Builder builder) {
+    apiLatency = builder.apiLatency;
+    defaultOperationLatency = builder.defaultOperationLatency;
+    operationLatencies = new HashMap<>(builder.operationLatencies);
+    zoneCapacity = new ConcurrentHashMap<>(builder.zoneCapacity);
+    rateLimitedFraction = builder.rateLimitedFraction;
+    exhaustedFraction = builder.exhaustedFraction;
+    random = builder.random;
+    clock = builder.clock;
+    sleeper = builder.sleeper;
+    compute = new Compute.Builder(new EmulatedTransport(), JSON, null)
+        .setApplicationName("zl-wzgp")
+        .build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public Compute get() {
+    return compute;
+  }
+
+  /**
+   * Adds an image, later images of a family take precedence in getFromFamily.
+   */
+  public synchronized Image addImage(Image image) {
+    Image added = copy(image);
+    added.setId(BigInteger.valueOf(nextId++));
+    added.setSelfLink(LINK_PREFIX + "project/global/images/" + image.getName());
+    added.setCreationTimestamp(now());
+    added.setStatus("READY");
+    images.put(added.getName(), added);
+    return copy(added);
+  }
+
+  /**
+   * Adds an instance as if it was created earlier, status is RUNNING if not given.
+   */
+  public synchronized Instance addInstance(String zone, Instance instance) {
+    Instance added = copy(instance);
+    if (added.getStatus() == null) {
+      added.setStatus("RUNNING");
+    }
+    initInstance(zone, added);
+    instancesIn(zone).put(added.getName(), added);
+    return copy(added);
+  }
+
+  public synchronized Optional<InstanceTemplate> getInstanceTemplate(String name) {
+    return Optional.ofNullable(instanceTemplates.get(name)).map(ComputeEmulator::copy);
+  }
+
+  /**
+   * Deletes a template right away, as if it was deleted out of band.
+   */
+  public synchronized void removeInstanceTemplate(String name) {
+    instanceTemplates.remove(name);
+  }
+
+  public synchronized Optional<Instance> getInstance(String zone, String name) {
+    advance();
+    return Optional.ofNullable(instancesIn(zone).get(name)).map(ComputeEmulator::copy);
+  }
+
+  public synchronized List<Instance> getInstances(String zone) {
+    advance();
+    return instancesIn(zone).values().stream().map(ComputeEmulator::copy).collect(Collectors.toList());
+  }
+
+  /**
+   * Sets the max number of instances that may be non TERMINATED in zone at a time.
+   */
+  public void setZoneCapacity(String zone, int maxInstances) {
+    zoneCapacity.put(zone, maxInstances);
+  }
+
+  /**
+   * Fraction of requests that fail with 429 rateLimitExceeded, between 0 and 1.
+   */
+  public void setRateLimitedFraction(double rateLimitedFraction) {
+    this.rateLimitedFraction = rateLimitedFraction;
+  }
+
+  /**
+   * Fraction of creates and starts that fail with ZONE_RESOURCE_POOL_EXHAUSTED regardless of
+   * capacity, between 0 and 1.
+   */
+  public void setExhaustedFraction(double exhaustedFraction) {
+    this.exhaustedFraction = exhaustedFraction;
+  }
+
+  /**
+   * @return number of requests received, requests in a batch are counted individually.
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public long getRateLimitedCount() {
+    return rateLimited.get();
+  }
+
+  private EmulatedResponse handle(String method
+      , String url
+      , @Nullable byte[] content
+      , @Nullable String contentType) throws IOException {
+    GenericUrl genericUrl = new GenericUrl(url);
+    String path = genericUrl.getRawPath();
+    if (path.endsWith(BATCH_PATH)) {
+      emulateLatency(apiLatency.sampleMillis(random));
+      return handleBatch(content, contentType);
+    }
+    emulateLatency(apiLatency.sampleMillis(random));
+    return handleSingle(method, genericUrl, content);
+  }
+
+  private EmulatedResponse handleSingle(String method, GenericUrl url, @Nullable byte[] content)
+      throws IOException {
+    requests.incrementAndGet();
+    try {
+      if (random.nextDouble() < rateLimitedFraction) {
+        rateLimited.incrementAndGet();
+        throw new ApiError(429, "rateLimitExceeded", "Rate Limit Exceeded");
+      }
+      String path = url.getRawPath();
+      int apiStart = path.indexOf(API_PATH);
+      if (apiStart < 0) {
+        throw notFound(path);
+      }
+      List<String> parts = new ArrayList<>();
+      Collections.addAll(parts, path.substring(apiStart + API_PATH.length()).split("/"));
+      GenericJson result;
+      synchronized (this) {
+        advance();
+        result = route(method, parts, url, content);
+      }
+      return EmulatedResponse.json(200, JSON.toString(result));
+    } catch (ApiError e) {
+      return EmulatedResponse.json(e.code, e.toJson());
+    }
+  }
+
+  private GenericJson route(String method
+      , List<String> parts
+      , GenericUrl url
+      , @Nullable byte[] content) throws IOException {
+    String path = String.join("/", parts);
+    if (parts.size() < 3 || !parts.get(0).equals("projects")) {
+      throw notFound(path);
+    }
+    List<String> rest = parts.subList(2, parts.size());
+    switch (rest.get(0)) {
+      case "zones":
+        if (rest.size() < 3) {
+          break;
+        }
+        String zone = rest.get(1);
+        List<String> resource = rest.subList(3, rest.size());
+        switch (rest.get(2)) {
+          case "instances":
+            return routeInstances(method, zone, resource, url, content);
+          case "operations":
+            if (method.equals("GET") && resource.size() == 1) {
+              return getOperation(zone, resource.get(0));
+            }
+            break;
+          case "disks":
+            if (method.equals("GET") && resource.size() == 1) {
+              return getDisk(zone, resource.get(0));
+            }
+            break;
+          default:
+            break;
+        }
+        break;
+      case "global":
+        if (rest.size() < 2) {
+          break;
+        }
+        return routeGlobal(method, rest.get(1), rest.subList(2, rest.size()), url, content);
+      case "aggregated":
+        if (method.equals("GET") && rest.size() == 2 && rest.get(1).equals("instances")) {
+          return aggregatedListInstances(url);
+        }
+        break;
+      default:
+        break;
+    }
+    throw notFound(path);
+  }
+
+  private GenericJson routeGlobal(String method
+      , String collection
+      , List<String> resource
+      , GenericUrl url
+      , @Nullable byte[] content) throws IOException {
+    String path = "global/" + collection + "/" + String.join("/", resource);
+    switch (collection) {
+      case "images":
+        if (!method.equals("GET")) {
+          break;
+        }
+        if (resource.isEmpty()) {
+          return listImages(url);
+        }
+        if (resource.size() == 2 && resource.get(0).equals("family")) {
+          return getImageFromFamily(resource.get(1));
+        }
+        if (resource.size() == 1) {
+          return Optional.ofNullable(images.get(resource.get(0))).map(ComputeEmulator::copy)
+              .orElseThrow(() -> notFound(path));
+        }
+        break;
+      case "instanceTemplates":
+        if (resource.isEmpty() && method.equals("POST")) {
+          return insertInstanceTemplate(parse(content, InstanceTemplate.class));
+        }
+        if (resource.size() == 1 && method.equals("GET")) {
+          return Optional.ofNullable(instanceTemplates.get(resource.get(0)))
+              .map(ComputeEmulator::copy)
+              .orElseThrow(() -> notFound(path));
+        }
+        break;
+      case "operations":
+        if (resource.size() == 1 && method.equals("GET")) {
+          return getOperation(null, resource.get(0));
+        }
+        break;
+      default:
+        break;
+    }
+    throw notFound(path);
+  }
+
+  private GenericJson routeInstances(String method
+      , String zone
+      , List<String> resource
+      , GenericUrl url
+      , @Nullable byte[] content) throws IOException {
+    if (resource.isEmpty()) {
+      if (method.equals("GET")) {
+        return listInstances(zone, url);
+      }
+      if (method.equals("POST")) {
+        return insertInstance(zone, parse(content, Instance.class)
+            , (String) url.getFirst("sourceInstanceTemplate"));
+      }
+    } else if (resource.size() == 1) {
+      if (method.equals("GET")) {
+        return copy(findInstance(zone, resource.get(0)));
+      }
+      if (method.equals("DELETE")) {
+        return deleteInstance(zone, resource.get(0));
+      }
+    } else if (resource.size() == 2 && method.equals("POST")) {
+      String name = resource.get(0);
+      switch (resource.get(1)) {
+        case "start":
+          return startInstance(zone, name);
+        case "stop":
+          return stopInstance(zone, name);
+        case "setLabels":
+          return setLabels(zone, name, parse(content, InstancesSetLabelsRequest.class));
+        case "setMetadata":
+          return setMetadata(zone, name, parse(content, Metadata.class));
+        case "setMachineType":
+          return setMachineType(zone, name
+              , parse(content, InstancesSetMachineTypeRequest.class));
+        case "setServiceAccount":
+          return setServiceAccount(zone, name
+              , parse(content, InstancesSetServiceAccountRequest.class));
+        default:
+          break;
+      }
+    }
+    throw notFound("zones/" + zone + "/instances/" + String.join("/", resource));
+  }
+
+  private InstanceList listInstances(String zone, GenericUrl url) {
+    Predicate<GenericJson> filter = Filter.compile((String) url.getFirst("filter"));
+    List<Instance> matched = instancesIn(zone).values().stream()
+        .filter(filter)
+        .map(ComputeEmulator::copy)
+        .collect(Collectors.toList());
+    InstanceList list = new InstanceList();
+    List<Instance> page = page(matched, url, list::setNextPageToken);
+    // GCE omits items when there are none.
+    return list.setItems(page.isEmpty() ? null : page);
+  }
+
+  private InstanceAggregatedList aggregatedListInstances(GenericUrl url) {
+    Predicate<GenericJson> filter = Filter.compile((String) url.getFirst("filter"));
+    Map<String, InstancesScopedList> items = new LinkedHashMap<>();
+    instances.forEach((zone, byName) -> {
+      List<Instance> matched = byName.values().stream()
+          .filter(filter)
+          .map(ComputeEmulator::copy)
+          .collect(Collectors.toList());
+      if (!matched.isEmpty()) {
+        items.put("zones/" + zone, new InstancesScopedList().setInstances(matched));
+      }
+    });
+    return new InstanceAggregatedList().setItems(items);
+  }
+
+  private ImageList listImages(GenericUrl url) {
+    Predicate<GenericJson> filter = Filter.compile((String) url.getFirst("filter"));
+    List<Image> matched = images.values().stream()
+        .filter(filter)
+        .map(ComputeEmulator::copy)
+        .collect(Collectors.toList());
+    ImageList list = new ImageList();
+    List<Image> page = page(matched, url, list::setNextPageToken);
+    return list.setItems(page.isEmpty() ? null : page);
+  }
+
+  private Image getImageFromFamily(String family) {
+    Image latest = null;
+    for (Image image : images.values()) {
+      if (family.equals(image.getFamily())) {
+        latest = image;
+      }
+    }
+    if (latest == null) {
+      throw notFound("global/images/family/" + family);
+    }
+    return copy(latest);
+  }
+
+  private Disk getDisk(String zone, String name) {
+    for (Instance instance : instancesIn(zone).values()) {
+      if (instance.getDisks() == null) {
+        continue;
+      }
+      for (AttachedDisk attached : instance.getDisks()) {
+        if (attached.getInitializeParams() != null
+            && name.equals(attached.getInitializeParams().getDiskName())) {
+          return new Disk()
+              .setName(name)
+              .setZone(zoneLink(zone))
+              .setSizeGb(attached.getInitializeParams().getDiskSizeGb())
+              .setSourceImage(attached.getInitializeParams().getSourceImage())
+              .setStatus("READY")
+              .setUsers(Collections.singletonList(instance.getSelfLink()));
+        }
+      }
+    }
+    throw notFound("zones/" + zone + "/disks/" + name);
+  }
+
+  private Operation insertInstance(String zone
+      , Instance requested
+      , @Nullable String sourceInstanceTemplate) {
+    if (instancesIn(zone).containsKey(requested.getName())) {
+      throw new ApiError(409, "alreadyExists", String.format("The resource '%s' already exists"
+          , "zones/" + zone + "/instances/" + requested.getName()));
+    }
+    Instance instance = copy(requested);
+    if (sourceInstanceTemplate != null) {
+      String[] bits = sourceInstanceTemplate.split("/");
+      InstanceTemplate template = instanceTemplates.get(bits[bits.length - 1]);
+      if (template == null) {
+        throw notFound(sourceInstanceTemplate);
+      }
+      applyTemplate(zone, template.getProperties(), instance);
+    }
+    requireSourceImage(instance.getDisks());
+    instance.setStatus("PROVISIONING");
+    initInstance(zone, instance);
+    if (!hasCapacity(zone)) {
+      // GCE creates nothing, the operation fails.
+      return newOperation(zone, "insert", instance, ZONE_RESOURCE_POOL_EXHAUSTED, success -> {});
+    }
+    instancesIn(zone).put(instance.getName(), instance);
+    return newOperation(zone, "insert", instance, null, success -> instance.setStatus("RUNNING"));
+  }
+
+  /**
+   * Sets what the instance doesn't give from template, labels and metadata items given are merged
+   * over template's.
+   */
+  private void applyTemplate(String zone, InstanceProperties properties, Instance instance) {
+    if (instance.getMachineType() == null && properties.getMachineType() != null) {
+      instance.setMachineType(String.format("zones/%s/machineTypes/%s", zone
+          , properties.getMachineType()));
+    }
+    if (instance.getNetworkInterfaces() == null && properties.getNetworkInterfaces() != null) {
+      instance.setNetworkInterfaces(properties.getNetworkInterfaces().stream()
+          .map(ComputeEmulator::copy)
+          .collect(Collectors.toList()));
+    }
+    if (instance.getDisks() == null && properties.getDisks() != null) {
+      instance.setDisks(properties.getDisks().stream()
+          .map(ComputeEmulator::copy)
+          .collect(Collectors.toList()));
+    }
+    if (instance.getServiceAccounts() == null && properties.getServiceAccounts() != null) {
+      instance.setServiceAccounts(properties.getServiceAccounts().stream()
+          .map(ComputeEmulator::copy)
+          .collect(Collectors.toList()));
+    }
+    if (instance.getScheduling() == null && properties.getScheduling() != null) {
+      instance.setScheduling(copy(properties.getScheduling()));
+    }
+    if (instance.getTags() == null && properties.getTags() != null) {
+      instance.setTags(copy(properties.getTags()));
+    }
+    if (properties.getLabels() != null) {
+      Map<String, String> labels = new HashMap<>(properties.getLabels());
+      if (instance.getLabels() != null) {
+        labels.putAll(instance.getLabels());
+      }
+      instance.setLabels(labels);
+    }
+    if (properties.getMetadata() != null && properties.getMetadata().getItems() != null) {
+      Map<String, Metadata.Items> items = new LinkedHashMap<>();
+      properties.getMetadata().getItems().forEach(item -> items.put(item.getKey(), copy(item)));
+      if (instance.getMetadata() != null && instance.getMetadata().getItems() != null) {
+        instance.getMetadata().getItems().forEach(item -> items.put(item.getKey(), item));
+      }
+      instance.setMetadata(Optional.ofNullable(instance.getMetadata()).orElseGet(Metadata::new)
+          .setItems(new ArrayList<>(items.values())));
+    }
+  }
+
+  private Operation insertInstanceTemplate(InstanceTemplate requested) {
+    if (instanceTemplates.containsKey(requested.getName())) {
+      throw new ApiError(409, "alreadyExists", String.format("The resource '%s' already exists"
+          , "global/instanceTemplates/" + requested.getName()));
+    }
+    if (requested.getProperties() == null) {
+      throw new ApiError(400, "required", "Required field 'resource.properties' not specified");
+    }
+    requireSourceImage(requested.getProperties().getDisks());
+    InstanceTemplate template = copy(requested);
+    template.setKind("compute#instanceTemplate");
+    template.setId(BigInteger.valueOf(nextId++));
+    template.setSelfLink(LINK_PREFIX + "project/global/instanceTemplates/" + template.getName());
+    template.setCreationTimestamp(now());
+    instanceTemplates.put(template.getName(), template);
+    return newOperation(null, "insert", template.getSelfLink(), template.getId(), null
+        , success -> {});
+  }
+
+  private Operation startInstance(String zone, String name) {
+    Instance instance = findInstance(zone, name);
+    if (!instance.getStatus().equals("TERMINATED")) {
+      return newOperation(zone, "start", instance, null, success -> {});
+    }
+    String error = hasCapacity(zone) ? null : ZONE_RESOURCE_POOL_EXHAUSTED;
+    instance.setStatus("STAGING");
+    return newOperation(zone, "start", instance, error
+        , success -> instance.setStatus(success ? "RUNNING" : "TERMINATED"));
+  }
+
+  private Operation stopInstance(String zone, String name) {
+    Instance instance = findInstance(zone, name);
+    if (instance.getStatus().equals("TERMINATED")) {
+      return newOperation(zone, "stop", instance, null, success -> {});
+    }
+    instance.setStatus("STOPPING");
+    return newOperation(zone, "stop", instance, null, success -> instance.setStatus("TERMINATED"));
+  }
+
+  private Operation deleteInstance(String zone, String name) {
+    Instance instance = findInstance(zone, name);
+    instance.setStatus("STOPPING");
+    return newOperation(zone, "delete", instance, null
+        , success -> instancesIn(zone).remove(name, instance));
+  }
+
+  private Operation setLabels(String zone, String name, InstancesSetLabelsRequest request) {
+    Instance instance = findInstance(zone, name);
+    requireFingerprint(instance.getLabelFingerprint(), request.getLabelFingerprint()
+        , "Labels fingerprint either invalid or resource labels have changed");
+    instance.setLabels(request.getLabels() != null ? new HashMap<>(request.getLabels()) : null);
+    instance.setLabelFingerprint(newFingerprint());
+    return newOperation(zone, "setLabels", instance, null, success -> {});
+  }
+
+  private Operation setMetadata(String zone, String name, Metadata request) {
+    Instance instance = findInstance(zone, name);
+    String current = instance.getMetadata() != null ? instance.getMetadata().getFingerprint()
+        : null;
+    requireFingerprint(current, request.getFingerprint()
+        , "Supplied fingerprint does not match current metadata fingerprint.");
+    instance.setMetadata(copy(request).setFingerprint(newFingerprint()));
+    return newOperation(zone, "setMetadata", instance, null, success -> {});
+  }
+
+  private Operation setMachineType(String zone
+      , String name
+      , InstancesSetMachineTypeRequest request) {
+    Instance instance = findInstance(zone, name);
+    if (!instance.getStatus().equals("TERMINATED")) {
+      throw new ApiError(400, "resourceNotReady", String.format(
+          "The resource '%s' is not ready", instance.getSelfLink()));
+    }
+    return newOperation(zone, "setMachineType", instance, null
+        , success -> instance.setMachineType(request.getMachineType()));
+  }
+
+  private Operation setServiceAccount(String zone
+      , String name
+      , InstancesSetServiceAccountRequest request) {
+    Instance instance = findInstance(zone, name);
+    return newOperation(zone, "setServiceAccount", instance, null
+        , success -> instance.setServiceAccounts(Collections.singletonList(new ServiceAccount()
+            .setEmail(request.getEmail())
+            .setScopes(request.getScopes()))));
+  }
+
+  /**
+   * @param zone null for a global operation
+   */
+  private Operation getOperation(@Nullable String zone, String name) {
+    EmulatedOperation operation = operations.get(operationKey(zone, name));
+    if (operation == null) {
+      throw notFound(scopePath(zone) + "/operations/" + name);
+    }
+    return operation.snapshot(clock.millis());
+  }
+
+  private Operation newOperation(String zone
+      , String type
+      , Instance target
+      , @Nullable String errorCode
+      , Consumer<Boolean> effect) {
+    return newOperation(zone, type, target.getSelfLink(), target.getId(), errorCode, effect);
+  }
+
+  /**
+   * @param zone null for a global operation, those never fail on capacity.
+   */
+  private Operation newOperation(@Nullable String zone
+      , String type
+      , String targetLink
+      , BigInteger targetId
+      , @Nullable String errorCode
+      , Consumer<Boolean> effect) {
+    long now = clock.millis();
+    OperationLatency latency = operationLatencies.getOrDefault(type, defaultOperationLatency);
+    long runningAt = now + latency.pending.sampleMillis(random);
+    long doneAt = runningAt + latency.running.sampleMillis(random);
+    if (errorCode == null && zone != null && isCreation(type)
+        && random.nextDouble() < exhaustedFraction) {
+      errorCode = ZONE_RESOURCE_POOL_EXHAUSTED;
+    }
+    String name = "operation-" + now + "-" + UUID.randomUUID();
+    String scopeLink = LINK_PREFIX + "project/" + scopePath(zone);
+    Operation operation = new Operation()
+        .setKind("compute#operation")
+        .setId(BigInteger.valueOf(nextId++))
+        .setName(name)
+        .setZone(zone != null ? zoneLink(zone) : null)
+        .setOperationType(type)
+        .setTargetLink(targetLink)
+        .setTargetId(targetId)
+        .setStatus("PENDING")
+        .setProgress(0)
+        .setInsertTime(now())
+        .setSelfLink(scopeLink + "/operations/" + name);
+    EmulatedOperation emulated = new EmulatedOperation(operation, runningAt, doneAt, errorCode
+        , effect);
+    operations.put(operationKey(zone, name), emulated);
+    // an operation with no latency is DONE when returned, like a fast one on GCE.
+    advance();
+    return emulated.snapshot(clock.millis());
+  }
+
+  private String operationKey(@Nullable String zone, String name) {
+    return scopePath(zone) + "/" + name;
+  }
+
+  private String scopePath(@Nullable String zone) {
+    return zone != null ? "zones/" + zone : "global";
+  }
+
+  private boolean isCreation(String operationType) {
+    return operationType.equals("insert") || operationType.equals("start");
+  }
+
+  /**
+   * Completes operations that are due, in the order they became due.
+   */
+  private void advance() {
+    long now = clock.millis();
+    operations.values().stream()
+        .filter(o -> !o.done && o.doneAt <= now)
+        .sorted(Comparator.comparingLong(o -> o.doneAt))
+        .forEach(o -> o.complete(now()));
+  }
+
+  private boolean hasCapacity(String zone) {
+    Integer capacity = zoneCapacity.get(zone);
+    if (capacity == null) {
+      return true;
+    }
+    long used = instancesIn(zone).values().stream()
+        .filter(i -> !i.getStatus().equals("TERMINATED"))
+        .count();
+    return used < capacity;
+  }
+
+  private void requireSourceImage(@Nullable List<AttachedDisk> disks) {
+    if (disks == null) {
+      return;
+    }
+    for (AttachedDisk disk : disks) {
+      if (disk.getInitializeParams() == null
+          || disk.getInitializeParams().getSourceImage() == null) {
+        continue;
+      }
+      String sourceImage = disk.getInitializeParams().getSourceImage();
+      String[] bits = sourceImage.split("/");
+      String last = bits[bits.length - 1];
+      boolean fromFamily = bits.length > 1 && bits[bits.length - 2].equals("family");
+      boolean found = images.values().stream()
+          .anyMatch(i -> last.equals(fromFamily ? i.getFamily() : i.getName()));
+      if (!found) {
+        throw notFound(sourceImage);
+      }
+    }
+  }
+
+  private void requireFingerprint(@Nullable String current
+      , @Nullable String supplied
+      , String message) {
+    if (current != null && !current.equals(supplied)) {
+      throw new ApiError(412, "conditionNotMet", message);
+    }
+  }
+
+  private Instance findInstance(String zone, String name) {
+    Instance instance = instancesIn(zone).get(name);
+    if (instance == null) {
+      throw notFound("zones/" + zone + "/instances/" + name);
+    }
+    return instance;
+  }
+
+  private Map<String, Instance> instancesIn(String zone) {
+    return instances.computeIfAbsent(zone, k -> new LinkedHashMap<>());
+  }
+
+  private void initInstance(String zone, Instance instance) {
+    long id = nextId++;
+    instance.setKind("compute#instance");
+    instance.setId(BigInteger.valueOf(id));
+    instance.setZone(zoneLink(zone));
+    instance.setSelfLink(zoneLink(zone) + "/instances/" + instance.getName());
+    instance.setCreationTimestamp(now());
+    instance.setLabelFingerprint(newFingerprint());
+    if (instance.getLabels() == null) {
+      instance.setLabels(new HashMap<>());
+    }
+    instance.setMetadata(Optional.ofNullable(instance.getMetadata()).orElseGet(Metadata::new)
+        .setFingerprint(newFingerprint()));
+    if (instance.getNetworkInterfaces() == null) {
+      instance.setNetworkInterfaces(Collections.singletonList(new NetworkInterface()));
+    }
+    NetworkInterface nif = instance.getNetworkInterfaces().get(0);
+    nif.setNetworkIP(String.format("10.128.%d.%d", (id >> 8) & 0xff, id & 0xff));
+    if (nif.getAccessConfigs() != null) {
+      for (AccessConfig accessConfig : nif.getAccessConfigs()) {
+        accessConfig.setNatIP(String.format("34.68.%d.%d", (id >> 8) & 0xff, id & 0xff));
+      }
+    }
+  }
+
+  private <T> List<T> page(List<T> all, GenericUrl url, Consumer<String> nextPageToken) {
+    Object maxResultsParam = url.getFirst("maxResults");
+    int maxResults = maxResultsParam != null ? Integer.parseInt(maxResultsParam.toString())
+        : DEFAULT_MAX_RESULTS;
+    Object pageToken = url.getFirst("pageToken");
+    int from = pageToken != null ? Integer.parseInt(pageToken.toString()) : 0;
+    int to = Math.min(all.size(), from + maxResults);
+    if (to < all.size()) {
+      nextPageToken.accept(String.valueOf(to));
+    }
+    return from < to ? all.subList(from, to) : Collections.emptyList();
+  }
+
+  private String zoneLink(String zone) {
+    return LINK_PREFIX + "project/zones/" + zone;
+  }
+
+  private String now() {
+    return new DateTime(clock.millis()).toStringRfc3339();
+  }
+
+  private String newFingerprint() {
+    return BaseEncoding.base64().encode(Longs.toByteArray(nextId++));
+  }
+
+  private void emulateLatency(long millis) throws IOException {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      sleeper.sleep(millis);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while emulating latency", ie);
+    }
+  }
+
+  /**
+   * Serves a multipart/mixed batch request, each part is a complete http request that is handled
+   * as if it was sent alone, responses go back in the same order.
+   */
+  private EmulatedResponse handleBatch(@Nullable byte[] content, @Nullable String contentType)
+      throws IOException {
+    if (content == null || contentType == null) {
+      return EmulatedResponse.json(400
+          , new ApiError(400, "invalid", "Batch request has no content").toJson());
+    }
+    String boundary = new HttpMediaType(contentType).getParameter("boundary");
+    String responseBoundary = "batch_" + UUID.randomUUID();
+    StringBuilder response = new StringBuilder();
+    for (String part : new String(content, StandardCharsets.UTF_8)
+        .split(Pattern.quote("--" + boundary))) {
+      String trimmed = part.replaceFirst("^\r\n", "");
+      if (trimmed.trim().isEmpty() || trimmed.startsWith("--")) {
+        continue;
+      }
+      // part headers, request line with headers, request body.
+      String[] sections = trimmed.split("\r\n\r\n", 3);
+      String contentId = "";
+      for (String header : sections[0].split("\r\n")) {
+        if (header.toLowerCase().startsWith("content-id:")) {
+          contentId = header.substring("content-id:".length()).trim().replaceAll("[<>]", "");
+        }
+      }
+      String[] requestLine = sections[1].split("\r\n")[0].split(" ");
+      String body = sections.length > 2 ? sections[2].replaceFirst("\r\n$", "") : "";
+      EmulatedResponse partResponse = handleSingle(requestLine[0], new GenericUrl(requestLine[1])
+          , body.isEmpty() ? null : body.getBytes(StandardCharsets.UTF_8));
+      response.append("--").append(responseBoundary).append("\r\n")
+          .append("Content-Type: application/http\r\n")
+          .append("Content-ID: <response-").append(contentId).append(">\r\n\r\n")
+          .append("HTTP/1.1 ").append(partResponse.statusCode).append(" ")
+          .append(partResponse.getReasonPhrase()).append("\r\n")
+          .append("Content-Type: ").append(partResponse.contentType).append("\r\n")
+          .append("Content-Length: ").append(partResponse.content.length).append("\r\n\r\n")
+          .append(new String(partResponse.content, StandardCharsets.UTF_8)).append("\r\n");
+    }
+    response.append("--").append(responseBoundary).append("--\r\n");
+    return new EmulatedResponse(200, "multipart/mixed; boundary=" + responseBoundary
+        , response.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Deep copies model through json, clone() can't copy immutable collections callers may set.
+   */
+  private static <T extends GenericJson> T copy(T json) {
+    try {
+      @SuppressWarnings("unchecked")
+      T copied = (T) JSON.fromString(JSON.toString(json), json.getClass());
+      return copied;
+    } catch (IOException io) {
+      throw new RuntimeException(io);
+    }
+  }
+
+  private static <T> T parse(@Nullable byte[] content, Class<T> cls) throws IOException {
+    if (content == null) {
+      throw new ApiError(400, "required", "Required request body is missing");
+    }
+    return JSON.createJsonParser(new ByteArrayInputStream(content), StandardCharsets.UTF_8)
+        .parse(cls);
+  }
+
+  private static ApiError notFound(String resource) {
+    return new ApiError(404, "notFound"
+        , String.format("The resource '%s' was not found", resource));
+  }
+
+  public static class Builder {
+
+    private LatencyDistribution apiLatency = LatencyDistribution.none();
+    private OperationLatency defaultOperationLatency =
+        new OperationLatency(LatencyDistribution.none(), LatencyDistribution.none());
+    private final Map<String, OperationLatency> operationLatencies = new HashMap<>();
+    private final Map<String, Integer> zoneCapacity = new HashMap<>();
+    private double rateLimitedFraction;
+    private double exhaustedFraction;
+    private Random random = new Random();
+    private Clock clock = Clock.systemUTC();
+    private Sleeper sleeper = Sleeper.DEFAULT;
+
+    private Builder() {}
+
+    /**
+     * Latency of every request, a batch takes it once.
+     */
+    public Builder setApiLatency(LatencyDistribution apiLatency) {
+      this.apiLatency = apiLatency;
+      return this;
+    }
+
+    /**
+     * Time operations stay PENDING and then RUNNING, unless set for their type.
+     */
+    public Builder setOperationLatency(LatencyDistribution pending, LatencyDistribution running) {
+      defaultOperationLatency = new OperationLatency(pending, running);
+      return this;
+    }
+
+    /**
+     * @param operationType such as insert, start, stop, delete, setLabels
+     */
+    public Builder setOperationLatency(String operationType
+        , LatencyDistribution pending
+        , LatencyDistribution running) {
+      operationLatencies.put(operationType, new OperationLatency(pending, running));
+      return this;
+    }
+
+    public Builder setZoneCapacity(String zone, int maxInstances) {
+      zoneCapacity.put(zone, maxInstances);
+      return this;
+    }
+
+    public Builder setRateLimitedFraction(double rateLimitedFraction) {
+      this.rateLimitedFraction = rateLimitedFraction;
+      return this;
+    }
+
+    public Builder setExhaustedFraction(double exhaustedFraction) {
+      this.exhaustedFraction = exhaustedFraction;
+      return this;
+    }
+
+    public Builder setRandom(Random random) {
+      this.random = random;
+      return this;
+    }
+
+    public Builder setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public Builder setSleeper(Sleeper sleeper) {
+      this.sleeper = sleeper;
+      return this;
+    }
+
+    public ComputeEmulator build() {
+      return new ComputeEmulator(this);
+    }
+  }
+
+  private static final class OperationLatency {
+
+    private final LatencyDistribution pending;
+    private final LatencyDistribution running;
+
+    private OperationLatency(LatencyDistribution pending, LatencyDistribution running) {
+      this.pending = pending;
+      this.running = running;
+    }
+  }
+
+  private static final class EmulatedOperation {
+
+    private final Operation operation;
+    private final long runningAt;
+    private final long doneAt;
+    @Nullable
+    private final String errorCode;
+    private final Consumer<Boolean> effect;
+    private boolean done;
+
+    private EmulatedOperation(Operation operation
+        , long runningAt
+        , long doneAt
+        , @Nullable String errorCode
+        , Consumer<Boolean> effect) {
+      this.operation = operation;
+      this.runningAt = runningAt;
+      this.doneAt = doneAt;
+      this.errorCode = errorCode;
+      this.effect = effect;
+    }
+
+    private void complete(String endTime) {
+      done = true;
+      effect.accept(errorCode == null);
+      operation.setStatus("DONE").setProgress(100).setEndTime(endTime);
+      if (errorCode != null) {
+        operation.setHttpErrorStatusCode(503)
+            .setHttpErrorMessage("SERVICE UNAVAILABLE")
+            .setError(new Operation.Error().setErrors(Collections.singletonList(
+                new Operation.Error.Errors()
+                    .setCode(errorCode)
+                    .setMessage("The zone does not have enough resources available to fulfill"
+                        + " the request."))));
+      }
+    }
+
+    private Operation snapshot(long now) {
+      Operation snapshot = copy(operation);
+      if (!done) {
+        snapshot.setStatus(now >= runningAt ? "RUNNING" : "PENDING");
+        if (now >= runningAt && snapshot.getStartTime() == null) {
+          snapshot.setStartTime(new DateTime(runningAt).toStringRfc3339());
+        }
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * Evaluates the subset of list filter syntax used by this service, i.e comparisons such as
+   * (labels.os = "win10") joined by AND and OR, where OR binds tighter than AND.
+   */
+  private static final class Filter {
+
+    private static final Pattern COMPARISON = Pattern.compile(
+        "^\\(?\\s*([A-Za-z0-9_.\\-]+)\\s*(!=|=)\\s*"
+            + "(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^\\s)]+))\\s*\\)?$");
+
+    private static Predicate<GenericJson> compile(@Nullable String filter) {
+      Predicate<GenericJson> all = json -> true;
+      if (Strings.isNullOrEmpty(filter) || filter.trim().isEmpty()) {
+        return all;
+      }
+      for (String conjunct : filter.trim().split("\\s+AND\\s+")) {
+        Predicate<GenericJson> any = json -> false;
+        for (String term : conjunct.trim().split("\\s+OR\\s+")) {
+          any = any.or(comparison(term.trim()));
+        }
+        all = all.and(any);
+      }
+      return all;
+    }
+
+    private static Predicate<GenericJson> comparison(String term) {
+      Matcher matcher = COMPARISON.matcher(term);
+      if (!matcher.matches()) {
+        throw new ApiError(400, "invalid", "Invalid value for field 'filter': '" + term + "'");
+      }
+      String field = matcher.group(1);
+      boolean equals = matcher.group(2).equals("=");
+      String value = matcher.group(3) != null
+          ? matcher.group(3).replaceAll("\\\\(.)", "$1")
+          : matcher.group(4);
+      return json -> value.equals(fieldValue(json, field)) == equals;
+    }
+
+    @Nullable
+    private static String fieldValue(GenericJson json, String field) {
+      Object value;
+      if (field.startsWith("labels.")) {
+        Object labels = json.get("labels");
+        value = labels instanceof Map
+            ? ((Map<?, ?>) labels).get(field.substring("labels.".length()))
+            : null;
+      } else {
+        value = json.get(field);
+      }
+      return value != null ? String.valueOf(value) : null;
+    }
+  }
+
+  private static final class ApiError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final String reason;
+
+    private ApiError(int code, String reason, String message) {
+      super(message);
+      this.code = code;
+      this.reason = reason;
+    }
+
+    private String toJson() {
+      Map<String, Object> error = new LinkedHashMap<>();
+      error.put("code", code);
+      error.put("message", getMessage());
+      Map<String, Object> detail = new LinkedHashMap<>();
+      detail.put("domain", "global");
+      detail.put("reason", reason);
+      detail.put("message", getMessage());
+      error.put("errors", Collections.singletonList(detail));
+      try {
+        return JSON.toString(Collections.singletonMap("error", error));
+      } catch (IOException io) {
+        throw new RuntimeException(io);
+      }
+    }
+  }
+
+  private final class EmulatedTransport extends HttpTransport {
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+      return new LowLevelHttpRequest() {
+
+        @Override
+        public void addHeader(String name, String value) {}
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          byte[] content = null;
+          if (getStreamingContent() != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            getStreamingContent().writeTo(out);
+            content = out.toByteArray();
+            if ("gzip".equalsIgnoreCase(getContentEncoding())) {
+              content = ByteStreams.toByteArray(
+                  new GZIPInputStream(new ByteArrayInputStream(content)));
+            }
+          }
+          return handle(method, url, content, getContentType());
+        }
+      };
+    }
+  }
+
+  private static final class EmulatedResponse extends LowLevelHttpResponse {
+
+    private final int statusCode;
+    private final String contentType;
+    private final byte[] content;
+
+    private EmulatedResponse(int statusCode, String contentType, byte[] content) {
+      this.statusCode = statusCode;
+      this.contentType = contentType;
+      this.content = content;
+    }
+
+    private static EmulatedResponse json(int statusCode, String json) {
+      return new EmulatedResponse(statusCode, "application/json; charset=UTF-8"
+          , json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public InputStream getContent() {
+      return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public long getContentLength() {
+      return content.length;
+    }
+
+    @Override
+    public String getContentType() {
+      return contentType;
+    }
+
+    @Override
+    public String getStatusLine() {
+      return "HTTP/1.1 " + statusCode + " " + getReasonPhrase();
+    }
+
+    @Override
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    @Override
+    public String getReasonPhrase() {
+      HttpStatus status = HttpStatus.resolve(statusCode);
+      return status != null ? status.getReasonPhrase() : "";
+    }
+
+    @Override
+    public int getHeaderCount() {
+      return 0;
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+      return null;
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+      return null;
+    }
+  }
+}
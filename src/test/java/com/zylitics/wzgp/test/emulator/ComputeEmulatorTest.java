@@ -0,0 +1,234 @@
+package com.zylitics.wzgp.test.emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.AttachedDisk;
+import com.google.api.services.compute.model.AttachedDiskInitializeParams;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceList;
+import com.google.api.services.compute.model.InstanceProperties;
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.api.services.compute.model.InstancesSetLabelsRequest;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableMap;
+import com.zylitics.wzgp.test.util.FlexibleOffsetClock;
+
+public class ComputeEmulatorTest {
+
+  private static final String PROJECT = "zl-infra-main";
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final String FAMILY = "win2008-base";
+
+  @Test
+  @DisplayName("operations go PENDING, RUNNING, DONE as time passes and apply effect when DONE")
+  void operationLifecycle() throws Exception {
+    FlexibleOffsetClock clock = new FlexibleOffsetClock(
+        Clock.fixed(Instant.now(), ZoneId.systemDefault()), Duration.ZERO);
+    ComputeEmulator emulator = ComputeEmulator.newBuilder()
+        .setClock(clock)
+        .setOperationLatency(LatencyDistribution.fixed(1000), LatencyDistribution.fixed(5000))
+        .build();
+    emulator.addImage(new Image().setName("image-1").setFamily(FAMILY));
+    Compute compute = emulator.get();
+
+    Operation insert = compute.instances().insert(PROJECT, ZONE, newInstance("grid-1")).execute();
+    assertEquals("PENDING", insert.getStatus());
+    assertEquals("PROVISIONING", getInstance(compute, "grid-1").getStatus());
+
+    clock.setOffset(Duration.ofSeconds(2));
+    assertEquals("RUNNING", getOperation(compute, insert).getStatus());
+
+    clock.setOffset(Duration.ofSeconds(6));
+    Operation done = getOperation(compute, insert);
+    assertEquals("DONE", done.getStatus());
+    assertNull(done.getError());
+    assertEquals("RUNNING", getInstance(compute, "grid-1").getStatus());
+  }
+
+  @Test
+  @DisplayName("labels can't be set using a stale fingerprint")
+  void staleLabelFingerprint() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder().build();
+    Instance instance = emulator.addInstance(ZONE, new Instance().setName("grid-1"));
+    Compute compute = emulator.get();
+
+    compute.instances().setLabels(PROJECT, ZONE, "grid-1", new InstancesSetLabelsRequest()
+        .setLabels(ImmutableMap.of("locked-by-build", "1"))
+        .setLabelFingerprint(instance.getLabelFingerprint())).execute();
+
+    GoogleJsonResponseException stale = assertThrows(GoogleJsonResponseException.class, () ->
+        compute.instances().setLabels(PROJECT, ZONE, "grid-1", new InstancesSetLabelsRequest()
+            .setLabels(ImmutableMap.of("locked-by-build", "2"))
+            .setLabelFingerprint(instance.getLabelFingerprint())).execute());
+    assertEquals(412, stale.getStatusCode());
+    assertEquals("1", getInstance(compute, "grid-1").getLabels().get("locked-by-build"));
+  }
+
+  @Test
+  @DisplayName("creates beyond zone capacity fail with zone exhausted")
+  void zoneCapacity() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder().setZoneCapacity(ZONE, 1).build();
+    emulator.addImage(new Image().setName("image-1").setFamily(FAMILY));
+    Compute compute = emulator.get();
+
+    Operation first = compute.instances().insert(PROJECT, ZONE, newInstance("grid-1")).execute();
+    assertNull(first.getError());
+
+    Operation second = compute.instances().insert(PROJECT, ZONE, newInstance("grid-2"))
+        .execute();
+    assertEquals("DONE", second.getStatus());
+    assertEquals(ComputeEmulator.ZONE_RESOURCE_POOL_EXHAUSTED
+        , second.getError().getErrors().get(0).getCode());
+    assertFalse(emulator.getInstance(ZONE, "grid-2").isPresent());
+  }
+
+  @Test
+  @DisplayName("list filters evaluate OR within AND")
+  void listFilter() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder().build();
+    emulator.addInstance(ZONE, new Instance().setName("grid-1")
+        .setLabels(ImmutableMap.of("os", "win7", "browser1", "chrome")));
+    emulator.addInstance(ZONE, new Instance().setName("grid-2")
+        .setLabels(ImmutableMap.of("os", "win7", "browser2", "firefox")));
+    emulator.addInstance(ZONE, new Instance().setName("grid-3").setStatus("TERMINATED")
+        .setLabels(ImmutableMap.of("os", "win7", "browser1", "firefox")));
+
+    InstanceList list = emulator.get().instances().list(PROJECT, ZONE)
+        .setFilter("(status = \"RUNNING\") AND (labels.os = \"win7\") AND "
+            + "(labels.browser1 = \"firefox\") OR (labels.browser2 = \"firefox\")")
+        .execute();
+
+    assertEquals(1, list.getItems().size());
+    assertEquals("grid-2", list.getItems().get(0).getName());
+  }
+
+  @Test
+  @DisplayName("operations can be fetched in a batch")
+  void batchGetOperations() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder().build();
+    emulator.addInstance(ZONE, new Instance().setName("grid-1"));
+    emulator.addInstance(ZONE, new Instance().setName("grid-2"));
+    Compute compute = emulator.get();
+    List<Operation> stops = new ArrayList<>();
+    stops.add(compute.instances().stop(PROJECT, ZONE, "grid-1").execute());
+    stops.add(compute.instances().stop(PROJECT, ZONE, "grid-2").execute());
+
+    List<Operation> fetched = Collections.synchronizedList(new ArrayList<>());
+    BatchRequest batch = compute.batch();
+    for (Operation stop : stops) {
+      compute.zoneOperations().get(PROJECT, ZONE, stop.getName()).queue(batch
+          , new JsonBatchCallback<Operation>() {
+
+            @Override
+            public void onSuccess(Operation operation, HttpHeaders responseHeaders) {
+              fetched.add(operation);
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+              throw new AssertionError(e.getMessage());
+            }
+          });
+    }
+    batch.execute();
+
+    assertEquals(2, fetched.size());
+    assertTrue(fetched.stream().allMatch(o -> o.getStatus().equals("DONE")));
+    assertEquals("TERMINATED", emulator.getInstance(ZONE, "grid-1").get().getStatus());
+  }
+
+  @Test
+  @DisplayName("injected rate limit errors fail with 429")
+  void rateLimited() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder().setRateLimitedFraction(1).build();
+    emulator.addInstance(ZONE, new Instance().setName("grid-1"));
+
+    GoogleJsonResponseException limited = assertThrows(GoogleJsonResponseException.class, () ->
+        emulator.get().instances().get(PROJECT, ZONE, "grid-1").execute());
+    assertEquals(429, limited.getStatusCode());
+    assertEquals("rateLimitExceeded", limited.getDetails().getErrors().get(0).getReason());
+    assertEquals(1, emulator.getRateLimitedCount());
+  }
+
+  @Test
+  @DisplayName("instances inserted from a template get what they don't give from it")
+  void insertFromTemplate() throws Exception {
+    ComputeEmulator emulator = ComputeEmulator.newBuilder()
+        .setOperationLatency(LatencyDistribution.fixed(0), LatencyDistribution.fixed(0))
+        .build();
+    emulator.addImage(new Image().setName("image-1").setFamily(FAMILY));
+    Compute compute = emulator.get();
+
+    Operation insertTemplate = compute.instanceTemplates().insert(PROJECT, new InstanceTemplate()
+        .setName("template-1")
+        .setProperties(new InstanceProperties()
+            .setMachineType("e2-standard-2")
+            .setDisks(newInstance("disk").getDisks())
+            .setLabels(ImmutableMap.of("os", "win7")))).execute();
+    assertNull(insertTemplate.getZone());
+    assertEquals("DONE", compute.globalOperations().get(PROJECT, insertTemplate.getName())
+        .execute().getStatus());
+
+    compute.instances().insert(PROJECT, ZONE, new Instance()
+        .setName("grid-1")
+        .setLabels(ImmutableMap.of("locked-by-build", "1")))
+        .setSourceInstanceTemplate("global/instanceTemplates/template-1")
+        .execute();
+    Instance instance = getInstance(compute, "grid-1");
+    assertEquals("zones/" + ZONE + "/machineTypes/e2-standard-2", instance.getMachineType());
+    assertEquals(1, instance.getDisks().size());
+    assertEquals(ImmutableMap.of("os", "win7", "locked-by-build", "1"), instance.getLabels());
+
+    // template deleted out of band fails the insert.
+    emulator.removeInstanceTemplate("template-1");
+    GoogleJsonResponseException missing = assertThrows(GoogleJsonResponseException.class, () ->
+        compute.instances().insert(PROJECT, ZONE, new Instance().setName("grid-2"))
+            .setSourceInstanceTemplate("global/instanceTemplates/template-1")
+            .execute());
+    assertEquals(404, missing.getStatusCode());
+    assertTrue(missing.getMessage().contains("template-1"));
+  }
+
+  private Instance newInstance(String name) {
+    return new Instance().setName(name).setDisks(Collections.singletonList(new AttachedDisk()
+        .setBoot(true)
+        .setInitializeParams(new AttachedDiskInitializeParams()
+            .setDiskName(name)
+            .setSourceImage("global/images/family/" + FAMILY))));
+  }
+
+  private Instance getInstance(Compute compute, String name) throws Exception {
+    Instance instance = compute.instances().get(PROJECT, ZONE, name).execute();
+    assertNotNull(instance);
+    return instance;
+  }
+
+  private Operation getOperation(Compute compute, Operation operation) throws Exception {
+    return compute.zoneOperations().get(PROJECT, ZONE, operation.getName()).execute();
+  }
+}
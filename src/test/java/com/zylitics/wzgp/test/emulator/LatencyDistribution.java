@@ -0,0 +1,40 @@
+package com.zylitics.wzgp.test.emulator;
+
+import java.util.Random;
+
+import org.springframework.util.Assert;
+
+/**
+ * Distribution of latencies, in millis, that {@link ComputeEmulator} samples from for api calls
+ * and operation phases.
+ * @author Praveen Tiwari
+ *
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+  long sampleMillis(Random random);
+
+  static LatencyDistribution none() {
+    return random -> 0;
+  }
+
+  static LatencyDistribution fixed(long millis) {
+    Assert.isTrue(millis >= 0, "millis can't be negative");
+    return random -> millis;
+  }
+
+  static LatencyDistribution uniform(long minMillis, long maxMillis) {
+    Assert.isTrue(minMillis >= 0 && maxMillis >= minMillis, "invalid range");
+    return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+  }
+
+  /**
+   * Right skewed, like most real latencies, a few samples take many times the median.
+   * @param sigma spread, 0.5 gives a p99 about 3x the median.
+   */
+  static LatencyDistribution logNormal(long medianMillis, double sigma) {
+    Assert.isTrue(medianMillis >= 0 && sigma >= 0, "invalid parameters");
+    return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+  }
+}
@@ -0,0 +1,153 @@
+package com.zylitics.wzgp.web;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Image;
+import com.google.api.services.compute.model.Instance;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.http.AbstractResponse;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.dummy.FakeCompute;
+import com.zylitics.wzgp.web.exceptions.GridGetRunningHandlerFailureException;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class GridBatchHandlerImplTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final Compute COMPUTE = new FakeCompute().get();
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final ResourceExecutor EXECUTOR = mock(ResourceExecutor.class);
+
+  private static final ComputeService COMPUTE_SRV = mock(ComputeService.class);
+
+  private static final FingerprintBasedUpdater FINGERPRINT_BASED_UPDATER =
+      mock(FingerprintBasedUpdater.class);
+
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+
+  @Test
+  @DisplayName("verify grids are taken from running instances, the rest generated from one image")
+  void batchTest() throws Exception {
+    Instance first = new Instance().setName("grid-1");
+    Instance second = new Instance().setName("grid-2");
+    RequestGridCreate request = new RequestGridCreate();
+    request.getBuildProperties().setBuildId("build-1");
+    ResourceSearch search = mock(ResourceSearch.class);
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), eq(3L), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(first, second));
+    when(search.searchImage(any(ResourceSearchParam.class), any(BuildProperty.class)))
+        .thenReturn(Optional.of(new Image().setFamily("win10-chrome")));
+
+    // the first running instance is claimed, the second was taken by someone else.
+    GridGetRunningHandler claimed = mock(GridGetRunningHandler.class);
+    when(claimed.handle(ASYNC_EXECUTOR)).thenReturn(
+        CompletableFuture.completedFuture(gridResponse("grid-1")));
+    GridGetRunningHandler lost = mock(GridGetRunningHandler.class);
+    CompletableFuture<ResponseEntity<ResponseGridCreate>> lostResponse =
+        new CompletableFuture<>();
+    lostResponse.completeExceptionally(new GridGetRunningHandlerFailureException());
+    when(lost.handle(ASYNC_EXECUTOR)).thenReturn(lostResponse);
+    GridGetRunningHandler.Factory getRunningFactory = mock(GridGetRunningHandler.Factory.class);
+    when(getRunningFactory.create(API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, search
+        , FINGERPRINT_BASED_UPDATER, ZONE, request)).thenReturn(claimed, lost);
+
+    GridGenerateHandler generated = mock(GridGenerateHandler.class);
+    when(generated.handle(ASYNC_EXECUTOR))
+        .thenReturn(CompletableFuture.completedFuture(gridResponse("grid-3")))
+        .thenReturn(CompletableFuture.completedFuture(gridResponse("grid-4")));
+    GridGenerateHandler.Factory generateFactory = mock(GridGenerateHandler.Factory.class);
+    when(generateFactory.create(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, search
+        , FINGERPRINT_BASED_UPDATER, ZONE, request)).thenReturn(generated);
+
+    List<AbstractResponse> responses = new ArrayList<>();
+    new GridBatchHandlerImpl.Factory(getRunningFactory, generateFactory)
+        .create(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, search, FINGERPRINT_BASED_UPDATER
+            , ZONE, request, 3)
+        .handle(ASYNC_EXECUTOR, responses::add).get();
+
+    assertEquals(3, responses.size());
+    responses.forEach(r -> assertEquals(ResponseStatus.SUCCESS.name(), r.getStatus()));
+    // grids start off on different running instances.
+    verify(claimed).setCandidates(ImmutableList.of(first, second));
+    verify(lost).setCandidates(ImmutableList.of(second, first));
+    verify(search, times(1)).searchImage(any(ResourceSearchParam.class)
+        , any(BuildProperty.class));
+    verify(generated, times(2)).setSourceImageFamily("win10-chrome");
+  }
+
+  @Test
+  @DisplayName("verify every grid gets an error response when no image is found")
+  void batchNoImageTest() throws Exception {
+    RequestGridCreate request = new RequestGridCreate();
+    request.getBuildProperties().setBuildId("build-1");
+    ResourceSearch search = mock(ResourceSearch.class);
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class)))
+        .thenReturn(Collections.emptyList());
+    when(search.searchImage(any(ResourceSearchParam.class), any(BuildProperty.class)))
+        .thenReturn(Optional.empty());
+
+    List<AbstractResponse> responses = new ArrayList<>();
+    new GridBatchHandlerImpl.Factory(mock(GridGetRunningHandler.Factory.class)
+        , mock(GridGenerateHandler.Factory.class))
+        .create(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, search, FINGERPRINT_BASED_UPDATER
+            , ZONE, request, 2)
+        .handle(ASYNC_EXECUTOR, responses::add).get();
+
+    assertEquals(2, responses.size());
+    responses.forEach(r -> {
+      assertEquals(ResponseStatus.FAILURE.name(), r.getStatus());
+      assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.value(), r.getHttpStatusCode());
+    });
+    verify(search, times(1)).searchImage(any(ResourceSearchParam.class)
+        , any(BuildProperty.class));
+  }
+
+  private ResponseEntity<ResponseGridCreate> gridResponse(String gridName) {
+    ResponseGridCreate response = new ResponseGridCreate();
+    response.setGridName(gridName);
+    response.setStatus(ResponseStatus.SUCCESS.name());
+    response.setHttpStatusCode(HttpStatus.OK.value());
+    return ResponseEntity.ok(response);
+  }
+}
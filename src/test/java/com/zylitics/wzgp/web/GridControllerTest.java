@@ -1,27 +1,45 @@
 package com.zylitics.wzgp.web;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.never;
 
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import com.google.api.services.compute.Compute;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.http.ResponseGridLease;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.compute.ComputeService;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.ClaimCoordinator;
+import com.zylitics.wzgp.resource.lease.Lease;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.lease.LeaseRegistryImpl;
 import com.zylitics.wzgp.resource.search.ResourceSearch;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.dummy.FakeCompute;
-import com.zylitics.wzgp.web.exceptions.GridStartHandlerFailureException;
+import com.zylitics.wzgp.web.exceptions.GridGetRunningHandlerFailureException;
 
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.STRICT_STUBS)
@@ -43,6 +61,10 @@ class GridControllerTest {
   
   private static final FingerprintBasedUpdater FINGERPRINT_BASED_UPDATER =
       mock(FingerprintBasedUpdater.class);
+  
+  private static final LeaseRegistry LEASES = mock(LeaseRegistry.class);
+  
+  private static final Executor PROVISIONING_EXECUTOR = MoreExecutors.directExecutor();
 
   @Test
   @DisplayName("verify grid creates with source image family given")
@@ -56,11 +78,11 @@ class GridControllerTest {
     
     GridController controller = getGridController(generateHandlerFactory);
     
-    controller.create(request, ZONE, false, false, sourceImageFamily);
+    controller.create(request, ZONE, false, false, sourceImageFamily, false);
     
     verify(generateHandler).setSourceImageFamily(sourceImageFamily);
     
-    verify(generateHandler).handle();  // its ok to return nothing from controller's create, we've
+    verify(generateHandler).handle(PROVISIONING_EXECUTOR);  // its ok to return nothing from controller's create, we've
     //already tested GridGenerateHandlerImpl separately to make sure the response is correct.
   }
   
@@ -75,64 +97,71 @@ class GridControllerTest {
     
     GridController controller = getGridController(generateHandlerFactory);
     
-    controller.create(request, ZONE, true, false, null);
+    controller.create(request, ZONE, true, false, null, false);
     
     verify(generateHandler, never()).setSourceImageFamily(anyString());
     
-    verify(generateHandler).handle();  // its ok to return nothing from controller's create, we've
+    verify(generateHandler).handle(PROVISIONING_EXECUTOR);  // its ok to return nothing from controller's create, we've
     //already tested GridGenerateHandlerImpl separately to make sure the response is correct.
   }
   
   @Test
-  @DisplayName("verify stopped grid searched and started when no-rush or source-image not given")
-  void gridSearchedAndStarted() throws Exception {
-    GridStartHandler startHandler = mock(GridStartHandler.class);
+  @DisplayName("verify running grid is searched when a running VM is required")
+  void gridSearchedWhenRunningVMRequired() throws Exception {
+    GridGetRunningHandler getRunningHandler = mock(GridGetRunningHandler.class);
+    when(getRunningHandler.handle(PROVISIONING_EXECUTOR))
+        .thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
     RequestGridCreate request = mock(RequestGridCreate.class);
     
-    GridStartHandler.Factory startHandlerFactory =
-        getGridStartHandlerFactory(startHandler, request);
+    GridGetRunningHandler.Factory getRunningHandlerFactory =
+        getGridGetRunningHandlerFactory(getRunningHandler, request);
     
-    GridController controller = getGridController(startHandlerFactory);
+    GridController controller = getGridController(getRunningHandlerFactory);
     
-    controller.create(request, ZONE, false, false, null);
+    assertTrue(controller.create(request, ZONE, false, true, null, false).isDone());
     
-    verify(startHandler).handle();
+    verify(getRunningHandler).handle(PROVISIONING_EXECUTOR);
   }
   
   @Test
-  @DisplayName("verify stopped grid start 'known' failure lead to fresh grid generate")
-  void gridStartedKnowFailureTriggerGridGenerate() throws Exception {
-    gridStartedFailureTriggerGridGenerate(GridStartHandlerFailureException.class);
+  @DisplayName("verify get running 'known' failure lead to fresh grid generate")
+  void gridGetRunningKnownFailureTriggerGridGenerate() throws Exception {
+    gridGetRunningFailureTriggerGridGenerate(new GridGetRunningHandlerFailureException());
   }
   
   @Test
-  @DisplayName("verify stopped grid start 'unknown' failure lead to fresh grid generate")
-  void gridStartedUnknownFailureTriggerGridGenerate() throws Exception {
-    gridStartedFailureTriggerGridGenerate(RuntimeException.class);
+  @DisplayName("verify get running 'unknown' failure lead to fresh grid generate")
+  void gridGetRunningUnknownFailureTriggerGridGenerate() throws Exception {
+    gridGetRunningFailureTriggerGridGenerate(new RuntimeException());
   }
   
-  void gridStartedFailureTriggerGridGenerate(Class<? extends Throwable> failureType)
-      throws Exception {
+  void gridGetRunningFailureTriggerGridGenerate(Throwable failure) throws Exception {
     GridGenerateHandler generateHandler = mock(GridGenerateHandler.class);
+    ResponseEntity<ResponseGridCreate> generated = ResponseEntity.status(HttpStatus.CREATED).build();
+    when(generateHandler.handle(PROVISIONING_EXECUTOR))
+        .thenReturn(CompletableFuture.completedFuture(generated));
     
-    GridStartHandler startHandler = mock(GridStartHandler.class);
-    when(startHandler.handle()).thenThrow(failureType);
+    GridGetRunningHandler getRunningHandler = mock(GridGetRunningHandler.class);
+    CompletableFuture<ResponseEntity<ResponseGridCreate>> failed = new CompletableFuture<>();
+    failed.completeExceptionally(failure);
+    when(getRunningHandler.handle(PROVISIONING_EXECUTOR)).thenReturn(failed);
     
     RequestGridCreate request = mock(RequestGridCreate.class);
     
     GridGenerateHandler.Factory generateHandlerFactory =
         getGridGenerateHandlerFactory(generateHandler, request);
     
-    GridStartHandler.Factory startHandlerFactory =
-        getGridStartHandlerFactory(startHandler, request);
+    GridGetRunningHandler.Factory getRunningHandlerFactory =
+        getGridGetRunningHandlerFactory(getRunningHandler, request);
     
-    GridController controller = getGridController(generateHandlerFactory, startHandlerFactory);
+    GridController controller = getGridController(generateHandlerFactory
+        , getRunningHandlerFactory);
     
-    controller.create(request, ZONE, false, false, null);
+    assertSame(generated, controller.create(request, ZONE, false, true, null, false).get());
     
-    verify(startHandler).handle();
+    verify(getRunningHandler).handle(PROVISIONING_EXECUTOR);
     
-    verify(generateHandler).handle();
+    verify(generateHandler).handle(PROVISIONING_EXECUTOR);
   }
   
   @Test
@@ -146,44 +175,76 @@ class GridControllerTest {
     
     GridController controller = getGridController(deleteHandlerFactory);
     
-    controller.delete(ZONE, GRID_NAME, false, false, sessionId);
+    controller.delete(ZONE, GRID_NAME, false, false, false, false, sessionId);
     
     verify(deleteHandler).setSessionId(sessionId);
     
     verify(deleteHandler).setNoRush(false);
     
-    verify(deleteHandler).handle();  // its ok to return nothing from controller's create, we've
+    verify(deleteHandler).setAsync(false);
+    verify(deleteHandler).setRecycle(false);
+    
+    verify(deleteHandler).handle(PROVISIONING_EXECUTOR);  // its ok to return nothing from controller's create, we've
     //already tested GridDeleteHandlerImpl separately to make sure the response is correct.
   }
   
+  @Test
+  @DisplayName("verify lease renewal responds per the lease found on grid")
+  void gridLeaseRenew() throws Exception {
+    LeaseRegistry leases = new LeaseRegistryImpl(COMPUTE_SRV, 1000, 60000, Clock.systemUTC());
+    ClaimCoordinator claimCoordinator = mock(ClaimCoordinator.class);
+    GridController controller = new GridController(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV
+        , SEARCH, FINGERPRINT_BASED_UPDATER, mock(GridGenerateHandler.Factory.class)
+        , mock(GridGetRunningHandler.Factory.class), mock(GridResumeHandler.Factory.class)
+        , mock(GridStartHandler.Factory.class)
+        , mock(GridDeleteHandler.Factory.class), leases, claimCoordinator
+        , PROVISIONING_EXECUTOR);
+    
+    assertEquals(HttpStatus.NOT_FOUND, controller.renewLease(ZONE, GRID_NAME, null).get()
+        .getStatusCode());
+    
+    Lease held = leases.hold(GRID_NAME, ZONE, "build-1");
+    ResponseEntity<ResponseGridLease> renewed =
+        controller.renewLease(ZONE, GRID_NAME, "build-1").get();
+    assertEquals(HttpStatus.OK, renewed.getStatusCode());
+    assertNotNull(renewed.getBody());
+    assertEquals("build-1", renewed.getBody().getBuildId());
+    verify(claimCoordinator).renewed(argThat(l -> l != held && l.getBuildId().equals("build-1")));
+    
+    assertEquals(HttpStatus.CONFLICT, controller.renewLease(ZONE, GRID_NAME, "build-2").get()
+        .getStatusCode());
+  }
+  
   private GridController getGridController(GridGenerateHandler.Factory gridGenerateHandlerFactory
-      , GridStartHandler.Factory gridStartHandlerFactory) {
+      , GridGetRunningHandler.Factory gridGetRunningHandlerFactory) {
     return new GridController(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, SEARCH
         , FINGERPRINT_BASED_UPDATER, gridGenerateHandlerFactory
-        , mock(GridGetRunningHandler.Factory.class)
-        , gridStartHandlerFactory
-        , mock(GridDeleteHandler.Factory.class));
+        , gridGetRunningHandlerFactory
+        , mock(GridResumeHandler.Factory.class)
+        , mock(GridStartHandler.Factory.class)
+        , mock(GridDeleteHandler.Factory.class)
+        , LEASES
+        , mock(ClaimCoordinator.class)
+        , PROVISIONING_EXECUTOR);
   }
   
   private GridController getGridController(GridGenerateHandler.Factory gridGenerateHandlerFactory) {
-    return new GridController(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, SEARCH
-        , FINGERPRINT_BASED_UPDATER, gridGenerateHandlerFactory
-        , mock(GridGetRunningHandler.Factory.class)
-        , mock(GridStartHandler.Factory.class), mock(GridDeleteHandler.Factory.class));
+    return getGridController(gridGenerateHandlerFactory, mock(GridGetRunningHandler.Factory.class));
   }
   
-  private GridController getGridController(GridStartHandler.Factory gridStartHandlerFactory) {
-    return new GridController(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, SEARCH
-        , FINGERPRINT_BASED_UPDATER, mock(GridGenerateHandler.Factory.class)
-        , mock(GridGetRunningHandler.Factory.class)
-        , gridStartHandlerFactory, mock(GridDeleteHandler.Factory.class));
+  private GridController getGridController(
+      GridGetRunningHandler.Factory gridGetRunningHandlerFactory) {
+    return getGridController(mock(GridGenerateHandler.Factory.class)
+        , gridGetRunningHandlerFactory);
   }
   
   private GridController getGridController(GridDeleteHandler.Factory gridDeleteHandlerFactory) {
     return new GridController(COMPUTE, API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, SEARCH
         , FINGERPRINT_BASED_UPDATER, mock(GridGenerateHandler.Factory.class)
         , mock(GridGetRunningHandler.Factory.class)
-        , mock(GridStartHandler.Factory.class), gridDeleteHandlerFactory);
+        , mock(GridResumeHandler.Factory.class)
+        , mock(GridStartHandler.Factory.class), gridDeleteHandlerFactory
+        , LEASES, mock(ClaimCoordinator.class), PROVISIONING_EXECUTOR);
   }
   
   private GridGenerateHandler.Factory getGridGenerateHandlerFactory(GridGenerateHandler handler
@@ -194,9 +255,9 @@ class GridControllerTest {
     return factory;
   }
   
-  private GridStartHandler.Factory getGridStartHandlerFactory(GridStartHandler handler
-      , RequestGridCreate request) {
-    GridStartHandler.Factory factory = mock(GridStartHandler.Factory.class);
+  private GridGetRunningHandler.Factory getGridGetRunningHandlerFactory(
+      GridGetRunningHandler handler, RequestGridCreate request) {
+    GridGetRunningHandler.Factory factory = mock(GridGetRunningHandler.Factory.class);
     when(factory.create(API_CORE_PROPS, EXECUTOR, COMPUTE_SRV, SEARCH, FINGERPRINT_BASED_UPDATER
         , ZONE, request)).thenReturn(handler);
     return factory;
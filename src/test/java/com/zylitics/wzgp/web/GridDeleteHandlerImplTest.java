@@ -10,6 +10,8 @@ import static org.mockito.Mockito.never;
 import org.mockito.quality.Strictness;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -24,11 +26,15 @@ import org.springframework.http.ResponseEntity;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.Operation;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.zylitics.wzgp.http.ResponseGridDelete;
 import com.zylitics.wzgp.http.ResponseStatus;
 import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.util.ResourceTestUtil;
@@ -43,6 +49,8 @@ class GridDeleteHandlerImplTest {
   
   private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
   
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+  
   @Test
   @DisplayName("verify handler deletes grid when noRush option is given test")
   void handlerDeletesOnRush() throws Exception {
@@ -76,12 +84,12 @@ class GridDeleteHandlerImplTest {
     
     handler.setSessionId(sessionId);
     
-    ResponseEntity<ResponseGridDelete> response = handler.handle();
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
     
     validateResonse(response);
     
-    verify(executor).blockUntilComplete(eq(operationSessionId), anyLong(), anyLong(), isNull());
-    verify(executor).blockUntilComplete(eq(operationIsDeleting), anyLong(), anyLong(), isNull());
+    verify(executor).completeAsync(eq(operationSessionId), anyLong(), anyLong(), isNull());
+    verify(executor).completeAsync(eq(operationIsDeleting), anyLong(), anyLong(), isNull());
   }
   
   @Test
@@ -108,11 +116,11 @@ class GridDeleteHandlerImplTest {
     
     handler.setSessionId(sessionId);
     
-    ResponseEntity<ResponseGridDelete> response = handler.handle();
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
     
     validateResonse(response);
     
-    verify(executor).blockUntilComplete(eq(operationSessionId), anyLong(), anyLong(), isNull());
+    verify(executor).completeAsync(eq(operationSessionId), anyLong(), anyLong(), isNull());
     
     verify(fingerprintBasedUpdater, never()).updateLabels(instance
         , ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"), null);
@@ -144,20 +152,177 @@ class GridDeleteHandlerImplTest {
     GridDeleteHandler handler = getHandler(executor, computeSrv, fingerprintBasedUpdater);
     handler.setSessionId(sessionId);
     
-    ResponseEntity<ResponseGridDelete> response = handler.handle();
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
     
     validateResonse(response);
     
-    verify(executor).blockUntilComplete(eq(operationSessionId), anyLong(), anyLong(), isNull());
+    verify(executor).completeAsync(eq(operationSessionId), anyLong(), anyLong(), isNull());
     
     verify(fingerprintBasedUpdater, never()).updateLabels(instance
         , ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"), null);
   }
   
+  @Test
+  @DisplayName("verify async delete is accepted once delete is submitted and handed to queue")
+  void handlerDeletesAsync() throws Exception {
+    Instance instance = new Instance()
+        .setName(GRID_NAME)
+        .setStatus("RUNNING")
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    LeaseRegistry leases = mock(LeaseRegistry.class);
+    DeletionQueue deletionQueue = mock(DeletionQueue.class);
+    
+    when(computeSrv.getInstance(GRID_NAME, ZONE, null)).thenReturn(instance);
+    
+    // grid is marked and unlocked in one update so that the queue could pick it up if needed.
+    Operation operationMarked = new Operation().setStatus("DONE").setName("op-marked");
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"
+            , ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"), null))
+        .thenReturn(operationMarked);
+    when(executor.completeAsync(eq(operationMarked), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(new CompletedOperation(operationMarked)));
+    Operation deleteOperation = new Operation().setStatus("RUNNING").setName("op-grid-delete");
+    when(computeSrv.deleteInstance(GRID_NAME, ZONE, null)).thenReturn(deleteOperation);
+    
+    GridDeleteHandler handler = new GridDeleteHandlerImpl.Factory(leases, deletionQueue).create(
+        API_CORE_PROPS, executor, computeSrv, fingerprintBasedUpdater, ZONE, GRID_NAME);
+    handler.setNoRush(true);
+    handler.setAsync(true);
+    
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
+    
+    assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+    verify(deletionQueue).submit(GRID_NAME, ZONE, deleteOperation);
+    verify(leases).end(GRID_NAME, ZONE);
+    // the delete itself isn't awaited.
+    verify(executor, never()).completeAsync(eq(deleteOperation), anyLong(), anyLong(), isNull());
+  }
+  
+  @Test
+  @DisplayName("verify recycled grid is reset with default metadata and then unlocked")
+  void handlerRecyclesGrid() throws Exception {
+    Instance instance = new Instance()
+        .setName(GRID_NAME)
+        .setStatus("RUNNING")
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    LeaseRegistry leases = mock(LeaseRegistry.class);
+    
+    when(computeSrv.getInstance(GRID_NAME, ZONE, null)).thenReturn(instance);
+    stubMetadataReset(executor, fingerprintBasedUpdater, instance);
+    Operation resetOperation = new Operation().setStatus("RUNNING").setName("op-grid-reset");
+    when(computeSrv.resetInstance(GRID_NAME, ZONE, null)).thenReturn(resetOperation);
+    when(executor.completeAsync(eq(resetOperation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, true))));
+    stubUnlock(executor, fingerprintBasedUpdater, instance, true);
+    
+    GridDeleteHandler handler = new GridDeleteHandlerImpl.Factory(leases
+        , mock(DeletionQueue.class)).create(API_CORE_PROPS, executor, computeSrv
+        , fingerprintBasedUpdater, ZONE, GRID_NAME);
+    handler.setRequireRunningVM(true);
+    handler.setRecycle(true);
+    
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
+    
+    validateResonse(response);
+    verify(fingerprintBasedUpdater).updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"), null);
+    verify(leases).end(GRID_NAME, ZONE);
+    verify(computeSrv, never()).deleteInstance(GRID_NAME, ZONE, null);
+  }
+  
+  @Test
+  @DisplayName("verify grid that couldn't be reset is deleted rather than unlocked")
+  void handlerDeletesGridNotRecycled() throws Exception {
+    Instance instance = new Instance()
+        .setName(GRID_NAME)
+        .setStatus("RUNNING")
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    
+    when(computeSrv.getInstance(GRID_NAME, ZONE, null)).thenReturn(instance);
+    stubMetadataReset(executor, fingerprintBasedUpdater, instance);
+    Operation resetOperation = new Operation().setStatus("RUNNING").setName("op-grid-reset");
+    when(computeSrv.resetInstance(GRID_NAME, ZONE, null)).thenReturn(resetOperation);
+    when(executor.completeAsync(eq(resetOperation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, false))));
+    Operation operationIsDeleting = new Operation().setStatus("DONE").setName("op-is-deleting");
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"), null))
+        .thenReturn(operationIsDeleting);
+    when(executor.completeAsync(eq(operationIsDeleting), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, true))));
+    stubGridDelete(executor, computeSrv, true);
+    
+    GridDeleteHandler handler = getHandler(executor, computeSrv, fingerprintBasedUpdater);
+    handler.setRequireRunningVM(true);
+    handler.setRecycle(true);
+    
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
+    
+    validateResonse(response);
+    verify(computeSrv).deleteInstance(GRID_NAME, ZONE, null);
+    verify(fingerprintBasedUpdater, never()).updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"), null);
+  }
+  
+  @Test
+  @DisplayName("verify recycled grid that couldn't be unlocked is deleted")
+  void handlerDeletesGridNotUnlocked() throws Exception {
+    Instance instance = new Instance()
+        .setName(GRID_NAME)
+        .setStatus("RUNNING")
+        .setLabels(ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "build-1"));
+    
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    
+    when(computeSrv.getInstance(GRID_NAME, ZONE, null)).thenReturn(instance);
+    stubMetadataReset(executor, fingerprintBasedUpdater, instance);
+    Operation resetOperation = new Operation().setStatus("RUNNING").setName("op-grid-reset");
+    when(computeSrv.resetInstance(GRID_NAME, ZONE, null)).thenReturn(resetOperation);
+    when(executor.completeAsync(eq(resetOperation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, true))));
+    stubUnlock(executor, fingerprintBasedUpdater, instance, false);
+    Operation operationIsDeleting = new Operation().setStatus("DONE").setName("op-is-deleting");
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_IS_DELETING, "true"), null))
+        .thenReturn(operationIsDeleting);
+    when(executor.completeAsync(eq(operationIsDeleting), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, true))));
+    stubGridDelete(executor, computeSrv, true);
+    
+    GridDeleteHandler handler = getHandler(executor, computeSrv, fingerprintBasedUpdater);
+    handler.setRequireRunningVM(true);
+    handler.setRecycle(true);
+    
+    ResponseEntity<ResponseGridDelete> response = handler.handle(ASYNC_EXECUTOR).get();
+    
+    validateResonse(response);
+    verify(computeSrv).deleteInstance(GRID_NAME, ZONE, null);
+  }
+  
   private GridDeleteHandler getHandler(ResourceExecutor executor, ComputeService computeSrv
       , FingerprintBasedUpdater fingerprintBasedUpdater) {
-    return new GridDeleteHandlerImpl.Factory().create(
-        API_CORE_PROPS, executor, computeSrv, fingerprintBasedUpdater, ZONE, GRID_NAME);
+    return new GridDeleteHandlerImpl.Factory(mock(LeaseRegistry.class), mock(DeletionQueue.class))
+        .create(API_CORE_PROPS, executor, computeSrv, fingerprintBasedUpdater, ZONE, GRID_NAME);
   }
   
   private Operation stubSessionIdLabelling(FingerprintBasedUpdater fingerprintBasedUpdater
@@ -170,14 +335,37 @@ class GridDeleteHandlerImplTest {
     return operation;
   }
   
+  private void stubUnlock(ResourceExecutor executor
+      , FingerprintBasedUpdater fingerprintBasedUpdater, Instance instance, boolean success)
+      throws Exception {
+    Operation operation = new Operation().setStatus("RUNNING").setName("op-unlock");
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(instance
+        , ImmutableMap.of(ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"), null))
+        .thenReturn(operation);
+    when(executor.completeAsync(eq(operation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, success))));
+  }
+  
+  private void stubMetadataReset(ResourceExecutor executor
+      , FingerprintBasedUpdater fingerprintBasedUpdater, Instance instance) throws Exception {
+    Operation operation = new Operation().setStatus("DONE").setName("op-metadata-reset");
+    when(fingerprintBasedUpdater.replaceMetadataGivenFreshlyFetchedInstance(instance
+        , API_CORE_PROPS.getGridDefault().getMetadata(), null)).thenReturn(operation);
+    when(executor.completeAsync(eq(operation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, true))));
+  }
+  
   @SuppressWarnings("SameParameterValue")
   private void stubGridStop(ResourceExecutor executor, ComputeService computeSrv
       , boolean shouldSucceed) throws Exception {
     Operation stopOperation = new Operation().setStatus("RUNNING").setName("op-grid-stop");
     when(computeSrv.stopInstance(GRID_NAME, ZONE, null))
         .thenReturn(stopOperation);
-    when(executor.blockUntilComplete(eq(stopOperation), anyLong(), anyLong(), isNull()))
-        .thenReturn(getOperation(GRID_NAME, ZONE, shouldSucceed));
+    when(executor.completeAsync(eq(stopOperation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, shouldSucceed))));
   }
   
   @SuppressWarnings("SameParameterValue")
@@ -186,8 +374,9 @@ class GridDeleteHandlerImplTest {
     Operation deleteOperation = new Operation().setStatus("RUNNING").setName("op-grid-delete");
     when(computeSrv.deleteInstance(GRID_NAME, ZONE, null))
         .thenReturn(deleteOperation);
-    when(executor.blockUntilComplete(eq(deleteOperation), anyLong(), anyLong(), isNull()))
-        .thenReturn(getOperation(GRID_NAME, ZONE, shouldSucceed));
+    when(executor.completeAsync(eq(deleteOperation), anyLong(), anyLong(), isNull()))
+        .thenReturn(CompletableFuture.completedFuture(
+            new CompletedOperation(getOperation(GRID_NAME, ZONE, shouldSucceed))));
   }
   
   @SuppressWarnings("SameParameterValue")
@@ -9,6 +9,9 @@ import java.math.BigInteger;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 import com.google.api.services.compute.model.*;
@@ -25,15 +28,20 @@ import com.google.api.services.compute.Compute;
 import com.google.api.services.compute.Compute.Instances;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
 import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.resource.APICoreProperties;
 import com.zylitics.wzgp.resource.BuildProperty;
 import com.zylitics.wzgp.resource.CompletedOperation;
 import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.disk.BootDiskPool;
 import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
 import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.template.InstanceTemplateCache;
 import com.zylitics.wzgp.resource.util.ResourceUtil;
 import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
 import com.zylitics.wzgp.test.dummy.DummyRequestGridCreate;
@@ -41,6 +49,8 @@ import com.zylitics.wzgp.test.dummy.FakeCompute;
 import com.zylitics.wzgp.test.util.ResourceTestUtil;
 import com.zylitics.wzgp.web.exceptions.GridNotCreatedException;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.STRICT_STUBS)
 class GridGenerateHandlerImplTest {
@@ -60,11 +70,16 @@ class GridGenerateHandlerImplTest {
   private static final Compute COMPUTE = new FakeCompute().get();
   
   private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
   
   private static final RequestGridCreate REQ_CREATE = new DummyRequestGridCreate().get();
   
   private static final BuildProperty BUILD_PROP = REQ_CREATE.getBuildProperties();
   
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+  
   @Test
   @DisplayName("verify handler creates grid when source image family is provided")
   void handlerWithSourceImageTest() throws Exception {
@@ -96,7 +111,7 @@ class GridGenerateHandlerImplTest {
     
     handler.setSourceImageFamily(sourceImageFamily);
     
-    ResponseEntity<ResponseGridCreate> response = handler.handle();
+    ResponseEntity<ResponseGridCreate> response = handler.handle(ASYNC_EXECUTOR).get();
     
     assertEquals("DONE", lockGridOperation.getStatus());
     
@@ -132,7 +147,7 @@ class GridGenerateHandlerImplTest {
 
     GridGenerateHandler handler = getHandler(executor, computeSrv, search, fingerprintBasedUpdater);
     
-    ResponseEntity<ResponseGridCreate> response = handler.handle();
+    ResponseEntity<ResponseGridCreate> response = handler.handle(ASYNC_EXECUTOR).get();
     
     assertEquals("DONE", lockGridOperation.getStatus());
     
@@ -162,12 +177,15 @@ class GridGenerateHandlerImplTest {
     
     GridGenerateHandler handler = getHandler(executor, computeSrv, search, fingerprintBasedUpdater);
     
-    assertThrows(GridNotCreatedException.class, handler::handle);
+    ExecutionException ee = assertThrows(ExecutionException.class
+        , () -> handler.handle(ASYNC_EXECUTOR).get());
+    assertTrue(ee.getCause() instanceof GridNotCreatedException);
   }
   
   private GridGenerateHandler getHandler(ResourceExecutor executor, ComputeService computeSrv
       , ResourceSearch search, FingerprintBasedUpdater fingerprintUpdater) {
-    return new GridGenerateHandlerImpl.Factory().create(
+    return new GridGenerateHandlerImpl.Factory(METRICS, mock(LeaseRegistry.class)
+        , mock(BootDiskPool.class), mock(InstanceTemplateCache.class)).create(
         COMPUTE, API_CORE_PROPS, executor, computeSrv, search, fingerprintUpdater, ZONE, REQ_CREATE);
   }
   
@@ -191,15 +209,16 @@ class GridGenerateHandlerImplTest {
   private void stubGridGenerate(ResourceExecutor executor, String sourceImageFamily
       , boolean shouldSucceed)
       throws Exception {
-    when(executor.executeWithZonalReattempt(any(Instances.Insert.class), any(Function.class)
-        , any(BuildProperty.class))).then(invocation -> {
+    when(executor.executeWithZonalReattemptAsync(any(Instances.Insert.class), any(Function.class)
+        , eq(ASYNC_EXECUTOR), any(BuildProperty.class))).then(invocation -> {
           Instances.Insert insertInstanceProvided = invocation.getArgument(0);
           Instance instance = (Instance) insertInstanceProvided.getJsonContent();
           if (!ResourceUtil.nameFromUrl(instance.getDisks().get(0).getInitializeParams()
               .getSourceImage()).equals(sourceImageFamily)) {
             throw new RuntimeException("GridGenerator didn't get the valid source-image-family");
           }
-          return new CompletedOperation(getOperation(GENERATED_INSTANCE_NAME, ZONE, shouldSucceed));
+          return CompletableFuture.completedFuture(
+              new CompletedOperation(getOperation(GENERATED_INSTANCE_NAME, ZONE, shouldSucceed)));
         });
   }
   
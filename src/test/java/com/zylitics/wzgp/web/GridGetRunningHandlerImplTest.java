@@ -0,0 +1,296 @@
+package com.zylitics.wzgp.web;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Operation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.RequestGridCreate.ResourceSearchParams;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.lease.LeaseRegistryImpl;
+import com.zylitics.wzgp.resource.lease.LocalClaimCoordinator;
+import com.zylitics.wzgp.resource.search.CandidatePageSizer;
+import com.zylitics.wzgp.resource.search.CandidatePageSizerImpl;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+import com.zylitics.wzgp.web.GridGetRunningHandlerImpl.ClaimMode;
+import com.zylitics.wzgp.web.exceptions.GridGetRunningHandlerFailureException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class GridGetRunningHandlerImplTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final int MIN_PAGE_SIZE =
+      API_CORE_PROPS.getGridDefault().getMaxInstanceInSearch();
+
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
+
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+
+  private static final Random RANDOM = new Random();
+
+  private static final long TTL_MILLIS = 60 * 1000;
+
+  private final LeaseRegistry leases = new LeaseRegistryImpl(mock(ComputeService.class)
+      , TTL_MILLIS, TTL_MILLIS, Clock.systemUTC());
+
+  @Test
+  @DisplayName("verify a claimed candidate is skipped for the next one without searching again")
+  void claimNextCandidateTest() throws Exception {
+    Instance taken = getRunningInstance();
+    Instance free = getRunningInstance();
+    RequestGridCreate first = getRequest();
+    RequestGridCreate second = getRequest();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    CandidatePageSizer pageSizer = new CandidatePageSizerImpl(API_CORE_PROPS, 50);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(taken, free));
+    // the first request holds its claim until its updates complete.
+    CompletableFuture<CompletedOperation> firstUpdate = new CompletableFuture<>();
+    stubUpdates(executor, fingerprintBasedUpdater, first.getBuildProperties(), firstUpdate);
+    stubUpdates(executor, fingerprintBasedUpdater, second.getBuildProperties()
+        , CompletableFuture.completedFuture(null));
+
+    CompletableFuture<ResponseEntity<ResponseGridCreate>> firstResponse =
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, first)
+            .handle(ASYNC_EXECUTOR);
+    ResponseEntity<ResponseGridCreate> secondResponse =
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, second)
+            .handle(ASYNC_EXECUTOR).get();
+
+    assertEquals(HttpStatus.OK, secondResponse.getStatusCode());
+    assertNotNull(secondResponse.getBody());
+    assertEquals(free.getId(), secondResponse.getBody().getGridId());
+    verify(search, times(2)).searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), eq((long) MIN_PAGE_SIZE), any(BuildProperty.class));
+    // the collision grows the page.
+    assertEquals(MIN_PAGE_SIZE + 1, pageSizer.pageSize(ZONE));
+
+    firstUpdate.complete(null);
+    assertEquals(taken.getId(), firstResponse.get().getBody().getGridId());
+  }
+
+  @Test
+  @DisplayName("verify a candidate changed since found is skipped for the next one")
+  void changedCandidateSkippedTest() throws Exception {
+    Instance changed = getRunningInstance();
+    Instance free = getRunningInstance();
+    RequestGridCreate request = getRequest();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    CandidatePageSizer pageSizer = new CandidatePageSizerImpl(API_CORE_PROPS, 50);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(changed, free));
+    stubUpdates(executor, fingerprintBasedUpdater, request.getBuildProperties()
+        , CompletableFuture.completedFuture(null));
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(eq(changed), anyMap()
+        , eq(request.getBuildProperties()))).thenThrow(new GoogleJsonResponseException(
+            new HttpResponseException.Builder(412, null, new HttpHeaders()), null));
+
+    ResponseEntity<ResponseGridCreate> response =
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, request)
+            .handle(ASYNC_EXECUTOR).get();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNotNull(response.getBody());
+    assertEquals(free.getId(), response.getBody().getGridId());
+    verify(search, times(1)).searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class));
+    // the changed instance isn't held by this request.
+    assertTrue(leases.claim(changed.getName(), ZONE, "build-other"));
+  }
+
+  @Test
+  @DisplayName("verify given candidates are claimed without a search")
+  void givenCandidatesTest() throws Exception {
+    Instance instance = getRunningInstance();
+    RequestGridCreate request = getRequest();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    stubUpdates(executor, fingerprintBasedUpdater, request.getBuildProperties()
+        , CompletableFuture.completedFuture(null));
+    leases.claim(instance.getName(), ZONE, "build-other");
+
+    GridGetRunningHandler taken = getHandler(executor, search, fingerprintBasedUpdater
+        , new CandidatePageSizerImpl(API_CORE_PROPS, 50), request);
+    taken.setCandidates(ImmutableList.of(instance));
+    ExecutionException ee = assertThrows(ExecutionException.class, () ->
+        taken.handle(ASYNC_EXECUTOR).get());
+    assertTrue(ee.getCause() instanceof GridGetRunningHandlerFailureException);
+
+    leases.release(instance.getName(), ZONE, "build-other");
+    GridGetRunningHandler handler = getHandler(executor, search, fingerprintBasedUpdater
+        , new CandidatePageSizerImpl(API_CORE_PROPS, 50), request);
+    handler.setCandidates(ImmutableList.of(instance));
+    assertEquals(instance.getId(), handler.handle(ASYNC_EXECUTOR).get().getBody().getGridId());
+    verifyNoInteractions(search);
+  }
+
+  @Test
+  @DisplayName("verify search is made again only when all candidates are claimed")
+  void allCandidatesClaimedTest() throws Exception {
+    Instance taken = getRunningInstance();
+    RequestGridCreate first = getRequest();
+    RequestGridCreate second = getRequest();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    CandidatePageSizer pageSizer = new CandidatePageSizerImpl(API_CORE_PROPS, 50);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(taken));
+    CompletableFuture<CompletedOperation> firstUpdate = new CompletableFuture<>();
+    stubUpdates(executor, fingerprintBasedUpdater, first.getBuildProperties(), firstUpdate);
+
+    CompletableFuture<ResponseEntity<ResponseGridCreate>> firstResponse =
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, first)
+            .handle(ASYNC_EXECUTOR);
+    ExecutionException ee = assertThrows(ExecutionException.class, () ->
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, second)
+            .handle(ASYNC_EXECUTOR).get());
+
+    assertTrue(ee.getCause() instanceof GridGetRunningHandlerFailureException);
+    verify(search, times(1 + GridGetRunningHandlerImpl.SEARCH_MAX_REATTEMPTS)).searchInstances(
+        any(ResourceSearchParam.class), eq(ZONE), eq(InstanceStatus.RUNNING), anyLong()
+        , any(BuildProperty.class));
+    assertEquals(50, pageSizer.pageSize(ZONE));
+
+    firstUpdate.complete(null);
+    assertEquals(taken.getId(), firstResponse.get().getBody().getGridId());
+  }
+
+  @Test
+  @DisplayName("verify claim lapses when updates fail so that the instance can be claimed again")
+  void failedUpdateLapsesClaimTest() throws Exception {
+    Instance instance = getRunningInstance();
+    RequestGridCreate first = getRequest();
+    RequestGridCreate second = getRequest();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+    CandidatePageSizer pageSizer = new CandidatePageSizerImpl(API_CORE_PROPS, 50);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.RUNNING), anyLong(), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(instance));
+    CompletableFuture<CompletedOperation> failedUpdate = new CompletableFuture<>();
+    failedUpdate.completeExceptionally(new RuntimeException("operation timed out"));
+    stubUpdates(executor, fingerprintBasedUpdater, first.getBuildProperties(), failedUpdate);
+    stubUpdates(executor, fingerprintBasedUpdater, second.getBuildProperties()
+        , CompletableFuture.completedFuture(null));
+
+    assertThrows(ExecutionException.class, () ->
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, first)
+            .handle(ASYNC_EXECUTOR).get());
+    ResponseEntity<ResponseGridCreate> response =
+        getHandler(executor, search, fingerprintBasedUpdater, pageSizer, second)
+            .handle(ASYNC_EXECUTOR).get();
+
+    assertNotNull(response.getBody());
+    assertEquals(instance.getId(), response.getBody().getGridId());
+    // the build that got it holds a lease now.
+    assertEquals(second.getBuildProperties().getBuildId()
+        , leases.renew(instance.getName(), ZONE, null).get().getBuildId());
+  }
+
+  private GridGetRunningHandler getHandler(ResourceExecutor executor, ResourceSearch search
+      , FingerprintBasedUpdater fingerprintBasedUpdater, CandidatePageSizer pageSizer
+      , RequestGridCreate request) {
+    return new GridGetRunningHandlerImpl.Factory(METRICS, pageSizer, ClaimMode.CANDIDATES
+        , leases, new LocalClaimCoordinator(leases, fingerprintBasedUpdater))
+        .create(API_CORE_PROPS, executor, mock(ComputeService.class), search
+            , fingerprintBasedUpdater, ZONE, request);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void stubUpdates(ResourceExecutor executor
+      , FingerprintBasedUpdater fingerprintBasedUpdater, BuildProperty buildProp
+      , CompletableFuture<CompletedOperation> update) throws Exception {
+    Operation operation = new Operation().setName("operation-" + UUID.randomUUID());
+    when(fingerprintBasedUpdater.updateLabelsGivenFreshlyFetchedInstance(any(Instance.class)
+        , any(Map.class), eq(buildProp))).thenReturn(operation);
+    when(executor.completeAsync(eq(operation), anyLong(), anyLong(), eq(buildProp)))
+        .thenReturn(update);
+  }
+
+  private RequestGridCreate getRequest() {
+    RequestGridCreate request = new RequestGridCreate();
+    request.getBuildProperties().setBuildId("build-" + UUID.randomUUID());
+    ResourceSearchParams searchParams = request.getResourceSearchParams();
+    searchParams.setOS("win7");
+    searchParams.setBrowser("chrome");
+    searchParams.setShots(false);
+    return request;
+  }
+
+  private Instance getRunningInstance() {
+    BigInteger id = new BigInteger(62, RANDOM);
+    return new Instance()
+        .setId(id)
+        .setName("grid-" + id)
+        .setNetworkInterfaces(ImmutableList.of(new NetworkInterface().setNetworkIP("192.168.1.1")))
+        .setZone(ResourceTestUtil.getZoneLink(ZONE))
+        .setStatus("RUNNING");
+  }
+}
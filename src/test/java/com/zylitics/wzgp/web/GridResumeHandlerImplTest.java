@@ -0,0 +1,265 @@
+package com.zylitics.wzgp.web;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Metadata;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Operation;
+import com.google.api.services.compute.model.Operation.Error;
+import com.google.api.services.compute.model.Operation.Error.Errors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zylitics.wzgp.http.RequestGridCreate;
+import com.zylitics.wzgp.http.RequestGridCreate.ResourceSearchParams;
+import com.zylitics.wzgp.http.ResponseGridCreate;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
+import com.zylitics.wzgp.model.InstanceStatus;
+import com.zylitics.wzgp.resource.APICoreProperties;
+import com.zylitics.wzgp.resource.BuildProperty;
+import com.zylitics.wzgp.resource.CompletedOperation;
+import com.zylitics.wzgp.resource.compute.ComputeService;
+import com.zylitics.wzgp.resource.deletion.DeletionQueue;
+import com.zylitics.wzgp.resource.executor.ResourceExecutor;
+import com.zylitics.wzgp.resource.lease.LeaseRegistry;
+import com.zylitics.wzgp.resource.lease.LeaseRegistryImpl;
+import com.zylitics.wzgp.resource.lease.LocalClaimCoordinator;
+import com.zylitics.wzgp.resource.search.ResourceSearch;
+import com.zylitics.wzgp.resource.search.ResourceSearchParam;
+import com.zylitics.wzgp.resource.util.ResourceUtil;
+import com.zylitics.wzgp.test.dummy.DummyAPICoreProperties;
+import com.zylitics.wzgp.test.util.ResourceTestUtil;
+import com.zylitics.wzgp.web.exceptions.GridNotStartedException;
+import com.zylitics.wzgp.web.exceptions.GridResumeHandlerFailureException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness=Strictness.STRICT_STUBS)
+class GridResumeHandlerImplTest {
+
+  private static final String ZONE = "us-central0-g";
+
+  private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
+
+  private static final Executor ASYNC_EXECUTOR = MoreExecutors.directExecutor();
+
+  private static final Random RANDOM = new Random();
+
+  private static final long TTL_MILLIS = 60 * 1000;
+
+  private final LeaseRegistry leases = new LeaseRegistryImpl(mock(ComputeService.class)
+      , TTL_MILLIS, TTL_MILLIS, Clock.systemUTC());
+
+  private final DeletionQueue deletionQueue = mock(DeletionQueue.class);
+
+  @Test
+  @DisplayName("verify a claimed suspended instance is resumed and held by the build")
+  void resumeClaimedInstanceTest() throws Exception {
+    Instance suspended = getSuspendedInstance("n1-standard-2");
+    RequestGridCreate request = getRequest();
+    BuildProperty buildProp = request.getBuildProperties();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = new FingerprintBasedUpdater(computeSrv);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.SUSPENDED), anyLong(), eq(buildProp)))
+        .thenReturn(ImmutableList.of(suspended));
+    Operation lock = trackLabels(computeSrv, labelsOf(suspended));
+    when(executor.completeAsync(eq(lock), anyLong(), anyLong(), eq(buildProp)))
+        .thenReturn(CompletableFuture.completedFuture(getCompleted(suspended)));
+    Operation resume = new Operation().setName("operation-" + UUID.randomUUID());
+    when(computeSrv.resumeInstance(suspended.getName(), ZONE, buildProp)).thenReturn(resume);
+    when(executor.completeAsync(eq(resume), anyLong(), anyLong(), eq(buildProp)))
+        .thenReturn(CompletableFuture.completedFuture(getCompleted(suspended)));
+    Instance resumed = getSuspendedInstance("n1-standard-2")
+        .setId(suspended.getId())
+        .setName(suspended.getName())
+        .setStatus("RUNNING");
+    when(computeSrv.getInstance(suspended.getName(), ZONE, buildProp)).thenReturn(resumed);
+
+    ResponseEntity<ResponseGridCreate> response = getHandler(executor, computeSrv, search
+        , fingerprintBasedUpdater, request).handle(ASYNC_EXECUTOR).get();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNotNull(response.getBody());
+    assertEquals(suspended.getId(), response.getBody().getGridId());
+    assertEquals(buildProp.getBuildId()
+        , leases.renew(suspended.getName(), ZONE, null).get().getBuildId());
+  }
+
+  @Test
+  @DisplayName("verify a grid that got build's metadata is deleted when it fails to resume")
+  void resumeFailureDeletesGridTest() throws Exception {
+    Instance suspended = getSuspendedInstance("n1-standard-2");
+    RequestGridCreate request = getRequest();
+    request.getGridProperties().setMetadata(ImmutableMap.of("screen", "1280x1024"));
+    BuildProperty buildProp = request.getBuildProperties();
+
+    ResourceExecutor executor = mock(ResourceExecutor.class);
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = new FingerprintBasedUpdater(computeSrv);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.SUSPENDED), anyLong(), eq(buildProp)))
+        .thenReturn(ImmutableList.of(suspended));
+    Instance atGcp = labelsOf(suspended);
+    trackLabels(computeSrv, atGcp);
+    when(computeSrv.getInstance(suspended.getName(), ZONE, buildProp))
+        .thenAnswer(invocation -> labelsOf(atGcp));
+    Operation metadata = new Operation().setName("operation-" + UUID.randomUUID());
+    when(computeSrv.setMetadata(suspended.getName(), request.getGridProperties().getMetadata()
+        , ZONE, suspended.getMetadata().getFingerprint(), buildProp)).thenReturn(metadata);
+    when(executor.completeAsync(any(Operation.class), anyLong(), anyLong(), eq(buildProp)))
+        .thenReturn(CompletableFuture.completedFuture(getCompleted(suspended)));
+    Operation resume = new Operation().setName("operation-" + UUID.randomUUID());
+    when(computeSrv.resumeInstance(suspended.getName(), ZONE, buildProp)).thenReturn(resume);
+    when(executor.completeAsync(eq(resume), anyLong(), anyLong(), eq(buildProp)))
+        .thenReturn(CompletableFuture.completedFuture(new CompletedOperation(new Operation()
+            .setStatus("DONE")
+            .setError(new Error().setErrors(ImmutableList.of(new Errors().setCode("FAILED"))))
+            .setTargetLink(ResourceTestUtil.getOperationTargetLink(suspended.getName(), ZONE)))));
+    Operation delete = new Operation().setName("operation-" + UUID.randomUUID());
+    when(computeSrv.deleteInstance(suspended.getName(), ZONE, buildProp)).thenReturn(delete);
+
+    ExecutionException ee = assertThrows(ExecutionException.class, () ->
+        getHandler(executor, computeSrv, search, fingerprintBasedUpdater, request)
+            .handle(ASYNC_EXECUTOR).get());
+
+    assertTrue(ee.getCause() instanceof GridNotStartedException);
+    // marked over the labels the claim left it with.
+    assertEquals("true", atGcp.getLabels().get(ResourceUtil.LABEL_IS_DELETING));
+    assertEquals("none", atGcp.getLabels().get(ResourceUtil.LABEL_LOCKED_BY_BUILD));
+    assertEquals("win7", atGcp.getLabels().get("os"));
+    verify(deletionQueue).submit(suspended.getName(), ZONE, delete);
+    assertFalse(leases.renew(suspended.getName(), ZONE, null).isPresent());
+  }
+
+  @Test
+  @DisplayName("verify handler fails without claiming when no suspended instance can serve")
+  void noResumableInstanceTest() throws Exception {
+    RequestGridCreate request = getRequest();
+    request.getGridProperties().setMachineType("n1-standard-4");
+
+    ComputeService computeSrv = mock(ComputeService.class);
+    ResourceSearch search = mock(ResourceSearch.class);
+    FingerprintBasedUpdater fingerprintBasedUpdater = mock(FingerprintBasedUpdater.class);
+
+    when(search.searchInstances(any(ResourceSearchParam.class), eq(ZONE)
+        , eq(InstanceStatus.SUSPENDED), anyLong(), any(BuildProperty.class)))
+        .thenReturn(ImmutableList.of(getSuspendedInstance("n1-standard-2")));
+
+    ExecutionException ee = assertThrows(ExecutionException.class, () ->
+        getHandler(mock(ResourceExecutor.class), computeSrv, search, fingerprintBasedUpdater
+            , request).handle(ASYNC_EXECUTOR).get());
+
+    assertTrue(ee.getCause() instanceof GridResumeHandlerFailureException);
+    verifyNoInteractions(fingerprintBasedUpdater);
+    verify(computeSrv, never()).resumeInstance(any(), any(), any());
+  }
+
+  private GridResumeHandler getHandler(ResourceExecutor executor, ComputeService computeSrv
+      , ResourceSearch search, FingerprintBasedUpdater fingerprintBasedUpdater
+      , RequestGridCreate request) {
+    return new GridResumeHandlerImpl.Factory(METRICS, leases
+        , new LocalClaimCoordinator(leases, fingerprintBasedUpdater), deletionQueue)
+        .create(API_CORE_PROPS, executor, computeSrv, search, fingerprintBasedUpdater, ZONE
+            , request);
+  }
+
+  /**
+   * Makes label updates behave the way GCP does, an update with a stale fingerprint fails with 412
+   * and a successful one replaces labels of the given instance and changes its fingerprint.
+   * @return operation every successful update gives
+   */
+  private Operation trackLabels(ComputeService computeSrv, Instance atGcp) throws Exception {
+    Operation operation = new Operation().setName("operation-" + UUID.randomUUID());
+    when(computeSrv.setLabels(eq(atGcp.getName()), anyMap(), eq(ZONE), any()
+        , any(BuildProperty.class))).thenAnswer(invocation -> {
+          if (!atGcp.getLabelFingerprint().equals(invocation.getArgument(3))) {
+            throw new GoogleJsonResponseException(new HttpResponseException.Builder(412
+                , "Precondition Failed", new HttpHeaders()), null);
+          }
+          atGcp.setLabels(new HashMap<>(invocation.<Map<String, String>>getArgument(1)));
+          atGcp.setLabelFingerprint(UUID.randomUUID().toString());
+          return operation;
+        });
+    return operation;
+  }
+
+  // copy of what label updates deal with, kept apart from the instance search gives.
+  private Instance labelsOf(Instance instance) {
+    return new Instance()
+        .setName(instance.getName())
+        .setZone(instance.getZone())
+        .setLabels(new HashMap<>(instance.getLabels()))
+        .setLabelFingerprint(instance.getLabelFingerprint())
+        .setMetadata(instance.getMetadata());
+  }
+
+  private CompletedOperation getCompleted(Instance instance) {
+    return new CompletedOperation(new Operation()
+        .setStatus("DONE")
+        .setTargetLink(ResourceTestUtil.getOperationTargetLink(instance.getName(), ZONE)));
+  }
+
+  private RequestGridCreate getRequest() {
+    RequestGridCreate request = new RequestGridCreate();
+    request.getBuildProperties().setBuildId("build-" + UUID.randomUUID());
+    ResourceSearchParams searchParams = request.getResourceSearchParams();
+    searchParams.setOS("win7");
+    searchParams.setBrowser("chrome");
+    searchParams.setShots(false);
+    return request;
+  }
+
+  private Instance getSuspendedInstance(String machineType) {
+    BigInteger id = new BigInteger(62, RANDOM);
+    return new Instance()
+        .setId(id)
+        .setName("grid-" + id)
+        .setMachineType("zones/" + ZONE + "/machineTypes/" + machineType)
+        .setNetworkInterfaces(ImmutableList.of(new NetworkInterface().setNetworkIP("192.168.1.1")))
+        .setZone(ResourceTestUtil.getZoneLink(ZONE))
+        .setLabels(ImmutableMap.of("os", "win7", ResourceUtil.LABEL_LOCKED_BY_BUILD, "none"))
+        .setLabelFingerprint(UUID.randomUUID().toString())
+        .setMetadata(new Metadata().setFingerprint(UUID.randomUUID().toString()))
+        .setStatus("SUSPENDED");
+  }
+}
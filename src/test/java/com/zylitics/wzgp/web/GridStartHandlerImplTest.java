@@ -44,6 +44,7 @@ import com.google.common.collect.ImmutableMap;
 import com.zylitics.wzgp.http.RequestGridCreate;
 import com.zylitics.wzgp.http.ResponseGridCreate;
 import com.zylitics.wzgp.http.ResponseStatus;
+import com.zylitics.wzgp.metrics.ProvisioningMetrics;
 import com.zylitics.wzgp.http.RequestGridCreate.GridProperties;
 import com.zylitics.wzgp.http.RequestGridCreate.ResourceSearchParams;
 import com.zylitics.wzgp.resource.APICoreProperties;
@@ -60,6 +61,8 @@ import com.zylitics.wzgp.web.exceptions.GridBeingDeletedFromOutsideException;
 import com.zylitics.wzgp.web.exceptions.GridNotStartedException;
 import com.zylitics.wzgp.web.exceptions.GridStartHandlerFailureException;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness=Strictness.LENIENT)
 class GridStartHandlerImplTest {
@@ -71,6 +74,9 @@ class GridStartHandlerImplTest {
   private static final String ZONE = "us-central0-g";
   
   private static final APICoreProperties API_CORE_PROPS = new DummyAPICoreProperties();
+
+  private static final ProvisioningMetrics METRICS =
+      new ProvisioningMetrics(new SimpleMeterRegistry());
   
   @Test
   @DisplayName("verify requests give up when can't acquire an instance post max reattempts")
@@ -451,7 +457,7 @@ class GridStartHandlerImplTest {
   private GridStartHandler getHandler(ResourceExecutor executor, ComputeService computeSrv
       , ResourceSearch search, FingerprintBasedUpdater fingerprintBasedUpdater
       , RequestGridCreate requestCreate) {
-    return new GridStartHandlerImpl.Factory().create(API_CORE_PROPS, executor, computeSrv, search
+    return new GridStartHandlerImpl.Factory(METRICS).create(API_CORE_PROPS, executor, computeSrv, search
         , fingerprintBasedUpdater, ZONE, requestCreate);
   }
   